@@ -23,18 +23,16 @@ import android.content.res.Resources;
 import android.database.Cursor;
 import android.net.Uri;
 import android.os.Bundle;
-import android.os.Handler;
-import android.os.Looper;
+import android.os.SystemClock;
 import android.os.Trace;
-import android.provider.BlockedNumberContract;
 import android.provider.CallLog;
 import android.provider.ContactsContract.CommonDataKinds.Phone;
 import android.telecom.PhoneAccountHandle;
 import android.telephony.PhoneNumberUtils;
 import android.text.TextUtils;
-import android.util.ArrayMap;
 import android.util.ArraySet;
 import android.util.SparseArray;
+import android.util.SparseIntArray;
 import android.view.ActionMode;
 import android.view.LayoutInflater;
 import android.view.Menu;
@@ -58,8 +56,10 @@ import com.android.dialer.app.calllog.CallLogFragment.CallLogFragmentListener;
 import com.android.dialer.app.calllog.CallLogGroupBuilder.GroupCreator;
 import com.android.dialer.app.calllog.calllogcache.CallLogCache;
 import com.android.dialer.app.contactinfo.ContactInfoCache;
+import com.android.dialer.app.contactinfo.ContactInfoRequest;
 import com.android.dialer.app.voicemail.VoicemailPlaybackPresenter;
 import com.android.dialer.app.voicemail.VoicemailPlaybackPresenter.OnVoicemailDeletedListener;
+import com.android.dialer.blocking.BlockedNumberSnapshot;
 import com.android.dialer.blocking.FilteredNumberAsyncQueryHandler;
 import com.android.dialer.calldetails.CallDetailsEntries;
 import com.android.dialer.calldetails.CallDetailsEntries.CallDetailsEntry;
@@ -68,6 +68,9 @@ import com.android.dialer.calllogutils.PhoneCallDetails;
 import com.android.dialer.common.Assert;
 import com.android.dialer.common.FragmentUtils.FragmentUtilListener;
 import com.android.dialer.common.LogUtil;
+import com.android.dialer.common.concurrent.DialerExecutorComponent;
+import com.android.dialer.common.concurrent.ThreadUtil;
+import com.android.dialer.contactphoto.ContactPhotoManager;
 import com.android.dialer.contacts.ContactsComponent;
 import com.android.dialer.logging.ContactSource;
 import com.android.dialer.logging.ContactSource.Type;
@@ -80,10 +83,10 @@ import com.android.dialer.telecom.TelecomUtil;
 import com.android.dialer.util.PermissionsUtil;
 
 import java.util.ArrayList;
-import java.util.Map;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Set;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.function.IntPredicate;
 
 /** Adapter class to fill in data for the Call Log. */
 public class CallLogAdapter extends GroupingListAdapter
@@ -96,6 +99,10 @@ public class CallLogAdapter extends GroupingListAdapter
   public static final int ALERT_POSITION = 0;
   private static final int VIEW_TYPE_ALERT = 1;
   private static final int VIEW_TYPE_CALLLOG = 2;
+  /** Pages of calls further than this many calls from the visible ones are closed. */
+  private static final int PAGE_CLOSE_DISTANCE = 300;
+  /** Closed pages of calls closer than this many calls to the visible ones are fetched again. */
+  private static final int PAGE_FETCH_DISTANCE = 100;
 
   private static final String KEY_EXPANDED_POSITION = "expanded_position";
   private static final String KEY_EXPANDED_ROW_ID = "expanded_row_id";
@@ -103,6 +110,9 @@ public class CallLogAdapter extends GroupingListAdapter
 
   public static final String LOAD_DATA_TASK_IDENTIFIER = "load_data";
 
+  /** Payload of a change that only affects the relative call date of a row. */
+  private static final Object PAYLOAD_CALL_DATE = new Object();
+
   protected final Activity activity;
   protected final VoicemailPlaybackPresenter voicemailPlaybackPresenter;
   /** Cache for repeated requests to Telecom/Telephony. */
@@ -133,6 +143,7 @@ public class CallLogAdapter extends GroupingListAdapter
   public boolean selectAllMode = false;
   public boolean deselectAllMode = false;
   private final SparseArray<String> selectedItems = new SparseArray<>();
+  private final Set<CallLogListItemViewHolder> attachedViewHolders = new ArraySet<>();
 
   private final ActionMode.Callback actionModeCallback =
       new ActionMode.Callback() {
@@ -377,26 +388,16 @@ public class CallLogAdapter extends GroupingListAdapter
   private final CallLogListItemViewHolder.OnClickListener blockReportSpamListener;
 
   /**
-   * Map, keyed by call ID, used to track the callback action for a call. Calls associated with the
-   * same callback action will be put into the same primary call group in {@link
-   * com.android.dialer.app.calllog.CallLogGroupBuilder}. This information is used to set the
-   * callback icon and trigger the corresponding action.
+   * Columnar copy of the cursor being grouped or shown. Along with the columns used for grouping, it
+   * holds the callback action and the day group of every call, computed by {@link
+   * CallLogGroupBuilder} and indexed by cursor position. Day groups are used to display a day group
+   * header above the call log entry at the start of a day group, which requires the day group of
+   * the previous entry without reversing the cursor to the start of it.
    */
-  private final Map<Long, Integer> callbackActions = new ArrayMap<>();
+  private CallLogSnapshot snapshot = CallLogSnapshot.EMPTY;
 
-  /**
-   * Map, keyed by call ID, used to track the day group for a call. As call log entries are put into
-   * the primary call groups in {@link com.android.dialer.app.calllog.CallLogGroupBuilder}, they are
-   * also assigned a secondary "day group". This map tracks the day group assigned to all calls in
-   * the call log. This information is used to trigger the display of a day group header above the
-   * call log entry at the start of a day group. Note: Multiple calls are grouped into a single
-   * primary "call group" in the call log, and the cursor used to bind rows includes all of these
-   * calls. When determining if a day group change has occurred it is necessary to look at the last
-   * entry in the call log to determine its day group. This map provides a means of determining the
-   * previous day group without having to reverse the cursor to the start of the previous day call
-   * log entry.
-   */
-  private final Map<Long, Integer> dayGroups = new ArrayMap<>();
+  /** Incremented on every cursor change, to drop cursors grouped in the background meanwhile. */
+  private int cursorGeneration;
 
   private boolean loading = true;
 
@@ -533,7 +534,7 @@ public class CallLogAdapter extends GroupingListAdapter
   /** Requery on background thread when {@link Cursor} changes. */
   @Override
   protected void onContentChanged() {
-    callFetcher.fetchCalls();
+    callFetcher.fetchChangedCalls();
   }
 
   public void setLoading(boolean loading) {
@@ -558,6 +559,7 @@ public class CallLogAdapter extends GroupingListAdapter
 
   public void onPause() {
     pauseCache();
+    CallLogBindExecutor.get().logMetrics();
     for (Uri uri : hiddenItemUris) {
       CallLogAsyncTaskUtil.deleteVoicemail(activity, uri, null);
     }
@@ -577,7 +579,251 @@ public class CallLogAdapter extends GroupingListAdapter
 
   @Override
   protected void addGroups(Cursor cursor) {
-    callLogGroupBuilder.addGroups(cursor);
+    snapshot = CallLogSnapshot.create(cursor);
+    callLogGroupBuilder.addGroups(snapshot);
+  }
+
+  @Override
+  protected int addLeadingGroups(
+      Cursor cursor, int minPosition, IntPredicate isExistingGroupStart) {
+    // The snapshot was already extended to match the cursor, see spliceNewCalls().
+    return callLogGroupBuilder.addLeadingGroups(snapshot, minPosition, isExistingGroupStart);
+  }
+
+  @Override
+  protected void addTrailingGroups(Cursor cursor, int startPosition) {
+    // The snapshot was already extended to match the cursor, see appendOlderCalls().
+    callLogGroupBuilder.addTrailingGroups(snapshot, startPosition);
+  }
+
+  @Override
+  public void changeCursor(Cursor cursor) {
+    cursorGeneration++;
+    if (cursor == null) {
+      snapshot = CallLogSnapshot.EMPTY;
+    }
+    super.changeCursor(cursor == null ? null : new PagedCallLogCursor(cursor));
+  }
+
+  /**
+   * Same as {@link #changeCursor(Cursor)}, but reads and groups the cursor on a background thread,
+   * so large call logs don't stall the main thread. The current cursor stays in place until the
+   * new one is ready, at which point {@code onChanged} is run on the main thread.
+   *
+   * <p>If the cursor is changed again in the meantime, {@code cursor} is closed and {@code
+   * onChanged} is not run.
+   */
+  @MainThread
+  public void changeCursorInBackground(@Nullable Cursor cursor, Runnable onChanged) {
+    if (cursor == null) {
+      changeCursor(null);
+      onChanged.run();
+      return;
+    }
+    int generation = ++cursorGeneration;
+    DialerExecutorComponent.get(activity)
+        .backgroundExecutor()
+        .execute(
+            () -> {
+              long startMillis = SystemClock.elapsedRealtime();
+              CallLogSnapshot newSnapshot = CallLogSnapshot.create(cursor);
+              SparseIntArray groupMetadata = new SparseIntArray();
+              new CallLogGroupBuilder(groupMetadata::append).addGroups(newSnapshot);
+              LogUtil.i(
+                  "CallLogAdapter.changeCursorInBackground",
+                  "grouped %d calls in %d ms",
+                  newSnapshot.count,
+                  SystemClock.elapsedRealtime() - startMillis);
+              ThreadUtil.postOnUiThread(
+                  () -> {
+                    if (generation != cursorGeneration) {
+                      cursor.close();
+                      return;
+                    }
+                    snapshot = newSnapshot;
+                    changeCursor(new PagedCallLogCursor(cursor), groupMetadata);
+                    onChanged.run();
+                  });
+            });
+  }
+
+  @Override
+  protected int getFirstGroupPosition() {
+    return callLogAlertManager.isEmpty() ? 0 : 1;
+  }
+
+  /**
+   * Adds calls made or received since the current cursor was loaded to the top of the list,
+   * regrouping only the leading entries.
+   *
+   * <p>This is only possible if every row in {@code newCalls} is a call that isn't in the list yet
+   * and is no older than the most recent call in the list. Otherwise nothing is changed and false
+   * is returned, in which case the caller should fetch the whole call log again.
+   *
+   * @param newCalls the new calls, in the same order and with the same projection as the current
+   *     cursor. Ownership is taken only if true is returned.
+   */
+  @MainThread
+  public boolean spliceNewCalls(Cursor newCalls) {
+    PagedCallLogCursor current = (PagedCallLogCursor) getCursor();
+    // The first page may be closed, so the most recent call is read from the snapshot.
+    if (current == null || snapshot.count == 0 || !newCalls.moveToFirst()) {
+      return false;
+    }
+    long mostRecentDate = snapshot.dates[0];
+    do {
+      // A known id means an existing call was updated.
+      if (snapshot.containsId(newCalls.getLong(CallLogQuery.ID))
+          || newCalls.getLong(CallLogQuery.DATE) < mostRecentDate) {
+        return false;
+      }
+    } while (newCalls.moveToNext());
+
+    LogUtil.i("CallLogAdapter.spliceNewCalls", "adding %d calls", newCalls.getCount());
+    snapshot = CallLogSnapshot.concat(CallLogSnapshot.create(newCalls), snapshot);
+    current.prepend(newCalls);
+    spliceCursor(current, newCalls.getCount());
+    return true;
+  }
+
+  /**
+   * Adds the next page of calls to the end of the list, grouping only the trailing entries.
+   *
+   * @param olderCalls calls older than every call in the list, in the same order and with the same
+   *     projection as the current cursor. Ownership is taken only if true is returned.
+   */
+  @MainThread
+  public boolean appendOlderCalls(Cursor olderCalls) {
+    PagedCallLogCursor current = (PagedCallLogCursor) getCursor();
+    if (current == null || olderCalls.getCount() == 0) {
+      return false;
+    }
+    LogUtil.i("CallLogAdapter.appendOlderCalls", "adding %d calls", olderCalls.getCount());
+    snapshot = CallLogSnapshot.concat(snapshot, CallLogSnapshot.create(olderCalls));
+    current.append(olderCalls);
+    appendCursor(current);
+    return true;
+  }
+
+  /**
+   * Closes the pages of calls far from the list items between {@code firstPosition} and {@code
+   * lastPosition}, inclusive, and fetches again the closed pages close to them, so that only the
+   * calls around the visible part of the list are held in memory however far it is scrolled.
+   */
+  @MainThread
+  public void updatePageWindow(int firstPosition, int lastPosition) {
+    PagedCallLogCursor cursor = (PagedCallLogCursor) getCursor();
+    lastPosition = Math.min(lastPosition, getItemCount() - 1);
+    int first = getCursorPosition(Math.max(firstPosition, getFirstGroupPosition()));
+    int last = getCursorPosition(lastPosition);
+    if (cursor == null || first < 0 || last < 0) {
+      return;
+    }
+    last += getGroupSize(lastPosition) - 1;
+    for (PagedCallLogCursor.Page page : cursor.getPages()) {
+      int start = page.getStart();
+      // Negative if the page overlaps the visible calls.
+      int distance = Math.max(start - last, first - (start + page.getCount() - 1));
+      if (page.isOpen()) {
+        if (distance > PAGE_CLOSE_DISTANCE) {
+          cursor.closePage(page);
+        }
+      } else if (distance <= PAGE_FETCH_DISTANCE && !page.isFetching()) {
+        page.setFetching(true);
+        // Pages are fetched again from the call before them, which is always in the snapshot.
+        callFetcher.fetchCallsPage(
+            page,
+            start == 0 ? 0 : snapshot.dates[start - 1],
+            start == 0 ? 0 : snapshot.ids[start - 1],
+            page.getCount());
+      }
+    }
+  }
+
+  /**
+   * Opens again a page of calls closed by {@link #updatePageWindow} with {@code calls}, fetched for
+   * it by {@link CallFetcher#fetchCallsPage}. If they aren't the calls the page held, the call log
+   * changed since, and it is fetched again as a whole instead.
+   *
+   * @return whether ownership of {@code calls} was taken
+   */
+  @MainThread
+  public boolean onCallsPageFetched(Object page, Cursor calls) {
+    PagedCallLogCursor cursor = (PagedCallLogCursor) getCursor();
+    PagedCallLogCursor.Page closedPage = (PagedCallLogCursor.Page) page;
+    if (cursor == null || !cursor.containsPage(closedPage) || closedPage.isOpen()) {
+      // The cursor was changed in the meantime.
+      return false;
+    }
+    int start = closedPage.getStart();
+    boolean matches = calls.getCount() == closedPage.getCount();
+    calls.moveToPosition(-1);
+    for (int i = start; matches && calls.moveToNext(); i++) {
+      matches = calls.getLong(CallLogQuery.ID) == snapshot.ids[i];
+    }
+    if (!matches) {
+      LogUtil.i("CallLogAdapter.onCallsPageFetched", "calls changed, fetching all calls");
+      closedPage.setFetching(false);
+      callFetcher.fetchCalls();
+      return false;
+    }
+    cursor.reopenPage(closedPage, calls);
+
+    int firstGroup = getGroupIndex(start);
+    // The group after the page reads its last call for the day group header.
+    int endGroup = Math.min(getGroupIndex(start + closedPage.getCount() - 1) + 2, getGroupCount());
+    notifyItemRangeChanged(getFirstGroupPosition() + firstGroup, endGroup - firstGroup);
+    return true;
+  }
+
+  /**
+   * Prefetches the contact info of the list items between {@code firstPosition} and {@code
+   * lastPosition}, inclusive, in a single batch, and preloads their cached contact photos. See
+   * {@link ContactInfoCache#prefetch}.
+   */
+  @MainThread
+  public void prefetchContactInfo(int firstPosition, int lastPosition) {
+    List<ContactInfoRequest> requests = new ArrayList<>();
+    int start = Math.max(firstPosition, 0);
+    int end = Math.min(lastPosition, getItemCount() - 1);
+    long[] photoIds = new long[Math.max(end - start + 1, 0)];
+    int photoCount = 0;
+    for (int position = start; position <= end; position++) {
+      Cursor c = (Cursor) getItem(position);
+      if (c == null) {
+        continue;
+      }
+      long photoId = c.getLong(CallLogQuery.CACHED_PHOTO_ID);
+      if (photoId != 0) {
+        photoIds[photoCount++] = photoId;
+      }
+      String number = c.getString(CallLogQuery.NUMBER);
+      if (!PhoneNumberHelper.canPlaceCallsTo(number, c.getInt(CallLogQuery.NUMBER_PRESENTATION))) {
+        continue;
+      }
+      requests.add(
+          new ContactInfoRequest(
+              number + c.getString(CallLogQuery.POST_DIAL_DIGITS),
+              c.getString(CallLogQuery.COUNTRY_ISO),
+              ContactInfoHelper.getContactInfo(c),
+              // Same as loadData(): only do remote lookup in first 5 rows.
+              position < 5
+                  ? ContactInfoRequest.TYPE_LOCAL_AND_REMOTE
+                  : ContactInfoRequest.TYPE_LOCAL));
+    }
+    if (!requests.isEmpty()) {
+      contactInfoCache.prefetch(activity, requests);
+    }
+    if (photoCount > 0) {
+      ContactPhotoManager.getInstance(activity)
+          .preloadThumbnails(Arrays.copyOf(photoIds, photoCount));
+    }
+  }
+
+  /** Returns the number of calls loaded in the list, across all groups. */
+  public int getLoadedCallCount() {
+    Cursor cursor = getCursor();
+    return cursor == null ? 0 : cursor.getCount();
   }
 
   @Override
@@ -639,6 +885,41 @@ public class CallLogAdapter extends GroupingListAdapter
     Trace.endSection();
   }
 
+  @Override
+  public void onBindViewHolder(
+      @NonNull ViewHolder viewHolder, int position, @NonNull List<Object> payloads) {
+    if (!payloads.isEmpty() && viewHolder.getItemViewType() == VIEW_TYPE_CALLLOG) {
+      CallLogListItemViewHolder views = (CallLogListItemViewHolder) viewHolder;
+      boolean callDateOnly = true;
+      for (Object payload : payloads) {
+        callDateOnly &= payload == PAYLOAD_CALL_DATE;
+      }
+      if (callDateOnly && views.isLoaded && views.details != null) {
+        callLogListItemHelper.updateCallDate(views, views.details);
+        views.callDateExpiryMillis = callLogListItemHelper.getCallDateExpiryMillis(views.details);
+        return;
+      }
+    }
+    super.onBindViewHolder(viewHolder, position, payloads);
+  }
+
+  /**
+   * Updates the call date of the attached rows whose relative time text has changed since they were
+   * rendered. Only the date views are rebound; contact info and call details are not reloaded.
+   */
+  @MainThread
+  public void refreshCallDates() {
+    long now = System.currentTimeMillis();
+    for (CallLogListItemViewHolder views : attachedViewHolders) {
+      int position = views.getAdapterPosition();
+      if (position != RecyclerView.NO_POSITION
+          && views.details != null
+          && views.callDateExpiryMillis <= now) {
+        notifyItemChanged(position, PAYLOAD_CALL_DATE);
+      }
+    }
+  }
+
   @Override
   public void onViewRecycled(ViewHolder viewHolder) {
     if (viewHolder.getItemViewType() == VIEW_TYPE_CALLLOG) {
@@ -655,6 +936,7 @@ public class CallLogAdapter extends GroupingListAdapter
   public void onViewAttachedToWindow(ViewHolder viewHolder) {
     if (viewHolder.getItemViewType() == VIEW_TYPE_CALLLOG) {
       ((CallLogListItemViewHolder) viewHolder).isAttachedToWindow = true;
+      attachedViewHolders.add((CallLogListItemViewHolder) viewHolder);
     }
   }
 
@@ -662,6 +944,7 @@ public class CallLogAdapter extends GroupingListAdapter
   public void onViewDetachedFromWindow(ViewHolder viewHolder) {
     if (viewHolder.getItemViewType() == VIEW_TYPE_CALLLOG) {
       ((CallLogListItemViewHolder) viewHolder).isAttachedToWindow = false;
+      attachedViewHolders.remove(viewHolder);
     }
   }
 
@@ -672,14 +955,19 @@ public class CallLogAdapter extends GroupingListAdapter
    * @param position The position of the list item.
    */
   private void bindCallLogListViewHolder(final ViewHolder viewHolder, final int position) {
+    CallLogListItemViewHolder views = (CallLogListItemViewHolder) viewHolder;
     Cursor c = (Cursor) getItem(position);
     if (c == null) {
+      // The page of the calls was closed and is being fetched again, see onCallsPageFetched.
+      bindPlaceholder(views);
       return;
     }
-    CallLogListItemViewHolder views = (CallLogListItemViewHolder) viewHolder;
     updateCheckMarkedStatusOfEntry(views);
+    views.primaryActionView.setEnabled(true);
+    views.primaryActionButtonView.setEnabled(true);
 
     views.isLoaded = false;
+    views.details = null;
     int groupSize = getGroupSize(position);
     CallDetailsEntries callDetailsEntries = createCallDetailsEntries(c, groupSize);
     PhoneCallDetails details = createPhoneCallDetails(c, groupSize, views);
@@ -694,7 +982,28 @@ public class CallLogAdapter extends GroupingListAdapter
     if (currentlyExpandedRowId == views.rowId) {
       views.inflateActionViewStub();
     }
-    loadAndRender(views, views.rowId, details, callDetailsEntries);
+    loadAndRender(views, views.rowId, c.getPosition(), details, callDetailsEntries);
+  }
+
+  /**
+   * Clears a recycled view holder whose calls aren't loaded, so that it can't show or act on the
+   * call it was bound to before. The entry keeps its space to avoid moving the rows around it.
+   */
+  private void bindPlaceholder(CallLogListItemViewHolder views) {
+    if (views.asyncTask != null) {
+      views.asyncTask.cancel();
+    }
+    views.isLoaded = false;
+    views.details = null;
+    views.rowId = NO_EXPANDED_LIST_ITEM;
+    views.callIds = null;
+    views.number = null;
+    views.voicemailUri = null;
+    views.nameOrNumber = null;
+    views.primaryActionView.setEnabled(false);
+    views.primaryActionButtonView.setEnabled(false);
+    views.callLogEntryView.setVisibility(View.INVISIBLE);
+    views.dayGroupHeader.setVisibility(View.GONE);
   }
 
   private void updateCheckMarkedStatusOfEntry(CallLogListItemViewHolder views) {
@@ -715,6 +1024,7 @@ public class CallLogAdapter extends GroupingListAdapter
   private void loadAndRender(
       final CallLogListItemViewHolder viewHolder,
       final long rowId,
+      final int cursorPosition,
       final PhoneCallDetails details,
       final CallDetailsEntries callDetailsEntries) {
     LogUtil.d("CallLogAdapter.loadAndRender", "position: %d", viewHolder.getAdapterPosition());
@@ -724,7 +1034,13 @@ public class CallLogAdapter extends GroupingListAdapter
     viewHolder.isBlocked = false;
 
     viewHolder.setDetailedPhoneDetails(callDetailsEntries);
-    final LoadDataTask loadDataTask = new LoadDataTask(viewHolder, details, rowId);
+    final LoadDataTask loadDataTask =
+        new LoadDataTask(
+            viewHolder,
+            details,
+            rowId,
+            snapshot.getCallbackAction(cursorPosition),
+            snapshot.getDayGroup(cursorPosition));
 
     viewHolder.asyncTask = loadDataTask;
     loadDataTask.execute();
@@ -735,56 +1051,59 @@ public class CallLogAdapter extends GroupingListAdapter
      void cancel();
   }
 
-  private class LoadDataTask implements LoadDataTaskInterface {
+  private class LoadDataTask implements LoadDataTaskInterface, CallLogBindExecutor.Task<Boolean> {
 
-    private boolean mIsCancelled = false;
+    private volatile boolean mIsCancelled = false;
     private final CallLogListItemViewHolder mViewHolder;
     private final PhoneCallDetails mDetails;
     private final long mRowId;
+    @CallbackAction private final int mCallbackAction;
+    private final int mDayGroup;
 
-    private final ExecutorService mExecutor;
-    private final Handler mHandler;
+    private CallLogBindExecutor.Handle mHandle;
 
     public LoadDataTask(CallLogListItemViewHolder viewHolder, PhoneCallDetails details,
-                        long rowId) {
-      mExecutor = Executors.newSingleThreadExecutor();
-      mHandler = new Handler(Looper.getMainLooper());
+                        long rowId, @CallbackAction int callbackAction, int dayGroup) {
       mViewHolder = viewHolder;
       mDetails = details;
       mRowId = rowId;
+      mCallbackAction = callbackAction;
+      mDayGroup = dayGroup;
     }
 
     public void execute() {
-      mExecutor.execute(() -> {
-        final boolean success;
-        mViewHolder.isBlocked = BlockedNumberContract.canCurrentUserBlockNumbers(activity) &&
-                BlockedNumberContract.isBlocked(activity, mViewHolder.number);
-        mDetails.isBlocked = mViewHolder.isBlocked;
-        if (mIsCancelled) {
-          success = false;
+      mHandle = CallLogBindExecutor.get().submit(this);
+    }
+
+    @Override
+    public Boolean doInBackground() {
+      mViewHolder.isBlocked =
+          BlockedNumberSnapshot.get(activity)
+              .isBlocked(mViewHolder.number, mViewHolder.countryIso);
+      mDetails.isBlocked = mViewHolder.isBlocked;
+      return !mIsCancelled && loadData(mViewHolder, mRowId, mDetails);
+    }
+
+    @Override
+    public void onPostExecute(Boolean success) {
+      mViewHolder.isLoaded = true;
+      if (success) {
+        mViewHolder.callbackAction = mCallbackAction;
+        if (mDayGroup != mDetails.previousGroup) {
+          mViewHolder.dayGroupHeaderVisibility = View.VISIBLE;
+          mViewHolder.dayGroupHeaderText = getGroupDescription(mDayGroup);
         } else {
-          success = !mIsCancelled && loadData(mViewHolder, mRowId, mDetails);
+          mViewHolder.dayGroupHeaderVisibility = View.GONE;
         }
-
-        mHandler.post(() -> {
-          mViewHolder.isLoaded = true;
-          if (success) {
-            mViewHolder.callbackAction = getCallbackAction(mViewHolder.rowId);
-            int currentDayGroup = getDayGroup(mViewHolder.rowId);
-            if (currentDayGroup != mDetails.previousGroup) {
-              mViewHolder.dayGroupHeaderVisibility = View.VISIBLE;
-              mViewHolder.dayGroupHeaderText = getGroupDescription(currentDayGroup);
-            } else {
-              mViewHolder.dayGroupHeaderVisibility = View.GONE;
-            }
-            render(mViewHolder, mDetails, mRowId);
-          }
-        });
-      });
+        render(mViewHolder, mDetails, mRowId);
+      }
     }
 
     public void cancel() {
       mIsCancelled = true;
+      if (mHandle != null) {
+        mHandle.cancel();
+      }
     }
   }
 
@@ -992,6 +1311,8 @@ public class CallLogAdapter extends GroupingListAdapter
       views.quickContactView.setVisibility(View.VISIBLE);
     }
     callLogListItemHelper.setPhoneCallDetails(views, details);
+    views.details = details;
+    views.callDateExpiryMillis = callLogListItemHelper.getCallDateExpiryMillis(details);
     if (currentlyExpandedRowId == views.rowId) {
       // In case ViewHolders were added/removed, update the expanded position if the rowIds
       // match so that we can restore the correct expanded state on rebind.
@@ -1030,9 +1351,10 @@ public class CallLogAdapter extends GroupingListAdapter
 
   @Override
   public long getItemId(int position) {
-    Cursor cursor = (Cursor) getItem(position);
-    if (cursor != null) {
-      return cursor.getLong(CallLogQuery.ID);
+    // Read from the snapshot, as the page holding the call may be closed.
+    int cursorPosition = getCursorPosition(position);
+    if (cursorPosition >= 0 && cursorPosition < snapshot.count) {
+      return snapshot.ids[cursorPosition];
     } else {
       return 0;
     }
@@ -1043,6 +1365,24 @@ public class CallLogAdapter extends GroupingListAdapter
     return super.getGroupSize(position - (callLogAlertManager.isEmpty() ? 0 : 1));
   }
 
+  @Override
+  protected int getCursorPosition(int position) {
+    return super.getCursorPosition(position - (callLogAlertManager.isEmpty() ? 0 : 1));
+  }
+
+  /** Returns the number of list items showing calls, that is without the alert. */
+  private int getGroupCount() {
+    return super.getItemCount();
+  }
+
+  @Override
+  protected boolean isRangeLoaded(int cursorPosition, int count) {
+    // Binding also reads the previous call, for the day group header.
+    PagedCallLogCursor cursor = (PagedCallLogCursor) getCursor();
+    return cursor == null
+        || cursor.isLoaded(Math.max(cursorPosition - 1, 0), cursorPosition + count - 1);
+  }
+
   protected boolean isCallLogActivity() {
     return activityType == ACTIVITY_TYPE_CALL_LOG;
   }
@@ -1106,7 +1446,7 @@ public class CallLogAdapter extends GroupingListAdapter
       cursor.moveToPosition(startingPosition);
       return CallLogGroupBuilder.DAY_GROUP_NONE;
     }
-    int result = getDayGroup(cursor.getLong(CallLogQuery.ID));
+    int result = snapshot.getDayGroup(cursor.getPosition());
     cursor.moveToPosition(startingPosition);
     return result;
   }
@@ -1115,38 +1455,6 @@ public class CallLogAdapter extends GroupingListAdapter
     while (cursor.moveToPrevious() && hiddenRowIds.contains(cursor.getLong(CallLogQuery.ID))) {}
   }
 
-  /**
-   * Given a call ID, look up its callback action. Callback action data are populated in {@link
-   * com.android.dialer.app.calllog.CallLogGroupBuilder}.
-   *
-   * @param callId The call ID to retrieve the callback action.
-   * @return The callback action for the call.
-   */
-  @MainThread
-  private int getCallbackAction(long callId) {
-    Integer result = callbackActions.get(callId);
-    if (result != null) {
-      return result;
-    }
-    return CallbackAction.NONE;
-  }
-
-  /**
-   * Given a call ID, look up the day group the call belongs to. Day group data are populated in
-   * {@link com.android.dialer.app.calllog.CallLogGroupBuilder}.
-   *
-   * @param callId The call ID to retrieve the day group.
-   * @return The day group for the call.
-   */
-  @MainThread
-  private int getDayGroup(long callId) {
-    Integer result = dayGroups.get(callId);
-    if (result != null) {
-      return result;
-    }
-    return CallLogGroupBuilder.DAY_GROUP_NONE;
-  }
-
   /**
    * Returns the call types for the given number of items in the cursor.
    *
@@ -1183,37 +1491,6 @@ public class CallLogAdapter extends GroupingListAdapter
     return features;
   }
 
-  /**
-   * Stores the callback action associated with a call in the call log.
-   *
-   * @param rowId The row ID of the current call.
-   * @param callbackAction The current call's callback action.
-   */
-  @Override
-  @MainThread
-  public void setCallbackAction(long rowId, @CallbackAction int callbackAction) {
-    callbackActions.put(rowId, callbackAction);
-  }
-
-  /**
-   * Stores the day group associated with a call in the call log.
-   *
-   * @param rowId The row ID of the current call.
-   * @param dayGroup The day group the call belongs in.
-   */
-  @Override
-  @MainThread
-  public void setDayGroup(long rowId, int dayGroup) {
-    dayGroups.put(rowId, dayGroup);
-  }
-
-  /** Clears the day group associations on re-bind of the call log. */
-  @Override
-  @MainThread
-  public void clearDayGroups() {
-    dayGroups.clear();
-  }
-
   /**
    * Retrieves the call Ids represented by the current call log row.
    *
@@ -1278,6 +1555,21 @@ public class CallLogAdapter extends GroupingListAdapter
   public interface CallFetcher {
 
     void fetchCalls();
+
+    /**
+     * Fetches only the calls changed since the last fetch, falling back to {@link #fetchCalls()}
+     * if they can't be applied incrementally.
+     */
+    default void fetchChangedCalls() {
+      fetchCalls();
+    }
+
+    /**
+     * Fetches the {@code count} calls following the call with the given date and id, or the most
+     * recent calls if {@code olderThanDate} is 0, and passes them to {@link #onCallsPageFetched}
+     * along with {@code page}.
+     */
+    void fetchCallsPage(Object page, long olderThanDate, long olderThanId, int count);
   }
 
   /** Interface used to allow single tap multi select for contact photos. */
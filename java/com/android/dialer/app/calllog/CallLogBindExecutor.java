@@ -0,0 +1,164 @@
+/*
+ * SPDX-FileCopyrightText: The LineageOS Project
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.android.dialer.app.calllog;
+
+import androidx.annotation.MainThread;
+import androidx.annotation.WorkerThread;
+
+import com.android.dialer.common.Assert;
+import com.android.dialer.common.LogUtil;
+import com.android.dialer.common.concurrent.ThreadUtil;
+
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Process wide executor loading the data shown by call log rows.
+ *
+ * <p>A small, fixed number of threads serves every call log list. Pending tasks are run most
+ * recently submitted first: while flinging, the rows bound last are the ones on screen, and the
+ * rows bound earlier have usually been scrolled off and recycled already. A task that is cancelled
+ * before it started is removed from the queue, so no provider I/O is done for it, and a task
+ * cancelled while running never delivers its result.
+ */
+final class CallLogBindExecutor {
+
+  private static final int THREAD_COUNT = 2;
+  private static final long KEEP_ALIVE_SECONDS = 10;
+
+  private static CallLogBindExecutor instance;
+
+  private final ThreadPoolExecutor executor;
+  private final AtomicLong sequence = new AtomicLong();
+  private final AtomicLong completedCount = new AtomicLong();
+  private final AtomicLong cancelledCount = new AtomicLong();
+
+  static synchronized CallLogBindExecutor get() {
+    if (instance == null) {
+      instance = new CallLogBindExecutor();
+    }
+    return instance;
+  }
+
+  private CallLogBindExecutor() {
+    executor =
+        new ThreadPoolExecutor(
+            THREAD_COUNT,
+            THREAD_COUNT,
+            KEEP_ALIVE_SECONDS,
+            TimeUnit.SECONDS,
+            new PriorityBlockingQueue<>(),
+            runnable -> {
+              LogUtil.i("CallLogBindExecutor.newThread", "creating bind thread");
+              Thread thread = new Thread(runnable, "CallLogBindExecutor");
+              // Java thread priority 4 corresponds to Process.THREAD_PRIORITY_BACKGROUND (10)
+              thread.setPriority(4);
+              return thread;
+            });
+    executor.allowCoreThreadTimeOut(true);
+  }
+
+  /** Work done for a single row, in the background and then on the main thread. */
+  interface Task<T> {
+
+    @WorkerThread
+    T doInBackground();
+
+    @MainThread
+    void onPostExecute(T result);
+  }
+
+  /** Handle to a submitted task. */
+  interface Handle {
+
+    /**
+     * Cancels the task. If it hasn't started yet it is dropped, otherwise its result is discarded.
+     */
+    @MainThread
+    void cancel();
+  }
+
+  @MainThread
+  <T> Handle submit(Task<T> task) {
+    Assert.isMainThread();
+    BindRunnable<T> runnable = new BindRunnable<>(task, sequence.incrementAndGet());
+    executor.execute(runnable);
+    return runnable;
+  }
+
+  /** Returns the number of tasks waiting for a thread. */
+  int getQueueDepth() {
+    return executor.getQueue().size();
+  }
+
+  /** Returns the number of threads currently running a task. */
+  int getActiveCount() {
+    return executor.getActiveCount();
+  }
+
+  /** Returns the number of threads in the pool, idle or not. */
+  int getPoolSize() {
+    return executor.getPoolSize();
+  }
+
+  /** Logs the executor's current state and the number of tasks completed and cancelled so far. */
+  void logMetrics() {
+    LogUtil.i(
+        "CallLogBindExecutor.logMetrics",
+        "threads: %d, active: %d, queued: %d, completed: %d, cancelled: %d",
+        getPoolSize(),
+        getActiveCount(),
+        getQueueDepth(),
+        completedCount.get(),
+        cancelledCount.get());
+  }
+
+  private final class BindRunnable<T> implements Runnable, Handle, Comparable<BindRunnable<?>> {
+
+    private final Task<T> task;
+    private final long sequence;
+    private volatile boolean cancelled;
+
+    BindRunnable(Task<T> task, long sequence) {
+      this.task = task;
+      this.sequence = sequence;
+    }
+
+    @Override
+    public void run() {
+      if (cancelled) {
+        return;
+      }
+      T result = task.doInBackground();
+      ThreadUtil.postOnUiThread(
+          () -> {
+            if (cancelled) {
+              return;
+            }
+            completedCount.incrementAndGet();
+            task.onPostExecute(result);
+          });
+    }
+
+    @Override
+    public void cancel() {
+      if (cancelled) {
+        return;
+      }
+      cancelled = true;
+      cancelledCount.incrementAndGet();
+      executor.remove(this);
+    }
+
+    @Override
+    public int compareTo(BindRunnable<?> other) {
+      // Most recently submitted first.
+      return Long.compare(other.sequence, sequence);
+    }
+  }
+}
@@ -72,6 +72,7 @@ import com.android.dialer.database.CallLogQueryHandler;
 import com.android.dialer.database.CallLogQueryHandler.Listener;
 import com.android.dialer.location.GeoUtil;
 import com.android.dialer.oem.CequintCallerIdManager;
+import com.android.dialer.phonenumbercache.CallLogQuery;
 import com.android.dialer.phonenumbercache.ContactInfoHelper;
 import com.android.dialer.theme.base.Theme;
 import com.android.dialer.theme.base.ThemeComponent;
@@ -108,6 +109,10 @@ public class CallLogFragment extends Fragment
   private static final int EVENT_UPDATE_DISPLAY = 1;
 
   private static final long MILLIS_IN_MINUTE = 60 * 1000;
+  // Number of list items left below the last visible one when the next page of calls is fetched.
+  private static final int OLDER_CALLS_PREFETCH_ITEMS = 20;
+  // Number of list items below the last visible one whose contact info is looked up in advance.
+  private static final int CONTACT_INFO_PREFETCH_ITEMS = 30;
   private final Handler handler = new Handler(Looper.getMainLooper());
   // See issue 6363009
   private final ContentObserver callLogObserver = new CustomContentObserver();
@@ -133,6 +138,19 @@ public class CallLogFragment extends Fragment
       };
   private boolean refreshDataRequired;
   private boolean hasReadCallLogPermission;
+  // Time at which the calls shown were queried, or 0 while a full fetch is pending. Changed calls
+  // are fetched relative to it.
+  private long callsFetchedMillis;
+  private long pendingFetchMillis;
+  // Maximum number of calls requested by the pending full fetch.
+  private int pendingFetchLimit;
+  // Date and id of the oldest call shown, from which the next page of calls is fetched.
+  private long oldestCallDate;
+  private long oldestCallId;
+  private boolean hasOlderCalls;
+  private boolean olderCallsPending;
+  // Last list position whose contact info was prefetched.
+  private int contactInfoPrefetchedPosition = -1;
   // Exactly same variable is in Fragment as a package private.
   private boolean menuVisible = true;
   // Default to all calls.
@@ -244,9 +262,24 @@ public class CallLogFragment extends Fragment
       // Return false; we did not take ownership of the cursor
       return false;
     }
+    // Reading and grouping the calls happens in the background; the current list stays in place
+    // until that is done.
+    long fetchMillis = pendingFetchMillis;
+    int fetchLimit = pendingFetchLimit;
+    adapter.changeCursorInBackground(cursor, () -> onCallsChanged(cursor, fetchMillis, fetchLimit));
+    return true;
+  }
+
+  private void onCallsChanged(@Nullable Cursor cursor, long fetchMillis, int fetchLimit) {
+    if (getActivity() == null || getActivity().isFinishing()) {
+      return;
+    }
     adapter.invalidatePositions();
     adapter.setLoading(false);
-    adapter.changeCursor(cursor);
+    updateOldestCall(cursor, fetchLimit);
+    callsFetchedMillis = cursor == null ? 0 : fetchMillis;
+    contactInfoPrefetchedPosition = -1;
+    maybePrefetchContactInfo();
     // This will update the state of the "Clear call log" menu item.
     getActivity().invalidateOptionsMenu();
 
@@ -284,9 +317,107 @@ public class CallLogFragment extends Fragment
 
       scrollToTop = false;
     }
+    // The first page may not fill the screen.
+    recyclerView.post(this::maybeFetchOlderCalls);
+  }
+
+  /** Called by the CallLogQueryHandler when the next page of calls has been fetched. */
+  @Override
+  public boolean onOlderCallsFetched(Cursor cursor) {
+    if (getActivity() == null || getActivity().isFinishing() || !olderCallsPending) {
+      return false;
+    }
+    olderCallsPending = false;
+    if (cursor == null) {
+      return false;
+    }
+    updateOldestCall(cursor, callLogQueryHandler.getPageSize());
+    if (!adapter.appendOlderCalls(cursor)) {
+      return false;
+    }
+    recyclerView.post(this::maybeFetchOlderCalls);
     return true;
   }
 
+  /** Called by the CallLogQueryHandler when a page of calls closed by the adapter is fetched. */
+  @Override
+  public boolean onCallsPageFetched(Object cookie, Cursor cursor) {
+    if (getActivity() == null || getActivity().isFinishing() || adapter == null) {
+      return false;
+    }
+    return adapter.onCallsPageFetched(cookie, cursor);
+  }
+
+  /**
+   * Records the last call of {@code cursor} as the oldest call shown, and whether more calls may
+   * follow it, which is the case if the fetch returned as many calls as requested.
+   */
+  private void updateOldestCall(@Nullable Cursor cursor, int requestedCount) {
+    hasOlderCalls =
+        callLogQueryHandler.isPagingEnabled()
+            && cursor != null
+            && cursor.getCount() >= requestedCount
+            && cursor.moveToLast();
+    if (hasOlderCalls) {
+      oldestCallDate = cursor.getLong(CallLogQuery.DATE);
+      oldestCallId = cursor.getLong(CallLogQuery.ID);
+    }
+  }
+
+  /**
+   * Looks up the contact info of the visible list items and of the ones below them in a single
+   * batch, once the list has scrolled far enough past the previous batch.
+   */
+  private void maybePrefetchContactInfo() {
+    if (adapter == null) {
+      return;
+    }
+    int firstVisible = layoutManager.findFirstVisibleItemPosition();
+    int lastVisible = layoutManager.findLastVisibleItemPosition();
+    if (firstVisible == RecyclerView.NO_POSITION) {
+      firstVisible = 0;
+      lastVisible = 0;
+    }
+    int end = lastVisible + CONTACT_INFO_PREFETCH_ITEMS;
+    if (firstVisible <= contactInfoPrefetchedPosition
+        && end - contactInfoPrefetchedPosition < CONTACT_INFO_PREFETCH_ITEMS / 2) {
+      return;
+    }
+    adapter.prefetchContactInfo(Math.max(firstVisible, contactInfoPrefetchedPosition + 1), end);
+    contactInfoPrefetchedPosition = end;
+  }
+
+  /** Keeps open only the pages of calls around the visible list items. */
+  private void updatePageWindow() {
+    // Selecting all voicemails reads every item of the list, so its pages are all kept open.
+    if (adapter == null || callTypeFilter == Calls.VOICEMAIL_TYPE) {
+      return;
+    }
+    int firstVisible = layoutManager.findFirstVisibleItemPosition();
+    if (firstVisible != RecyclerView.NO_POSITION) {
+      adapter.updatePageWindow(firstVisible, layoutManager.findLastVisibleItemPosition());
+    }
+  }
+
+  /** Fetches the next page of calls if the list is scrolled close enough to its end. */
+  private void maybeFetchOlderCalls() {
+    if (!hasOlderCalls
+        || olderCallsPending
+        || callsFetchedMillis == 0
+        || adapter == null
+        || getActivity() == null
+        || getActivity().isFinishing()) {
+      return;
+    }
+    int lastVisible = layoutManager.findLastVisibleItemPosition();
+    if (lastVisible == RecyclerView.NO_POSITION
+        || lastVisible < adapter.getItemCount() - OLDER_CALLS_PREFETCH_ITEMS) {
+      return;
+    }
+    olderCallsPending = true;
+    callLogQueryHandler.fetchOlderCalls(callTypeFilter, dateLimit, oldestCallDate, oldestCallId);
+  }
+
   @Override
   public void onVoicemailStatusFetched(Cursor statusCursor) {}
 
@@ -407,6 +538,7 @@ public class CallLogFragment extends Fragment
                 .getRetainedCache(),
             new ContactInfoHelper(getActivity(), currentCountryIso),
             onContactInfoChangedListener);
+    contactInfoCache.restore(getActivity());
     adapter = new CallLogAdapter(
             getActivity(),
             recyclerView,
@@ -425,6 +557,17 @@ public class CallLogFragment extends Fragment
     if (adapter.getOnScrollListener() != null) {
       recyclerView.addOnScrollListener(adapter.getOnScrollListener());
     }
+    recyclerView.addOnScrollListener(
+        new RecyclerView.OnScrollListener() {
+          @Override
+          public void onScrolled(@NonNull RecyclerView recyclerView, int dx, int dy) {
+            if (dy > 0) {
+              maybePrefetchContactInfo();
+              maybeFetchOlderCalls();
+            }
+            updatePageWindow();
+          }
+        });
     fetchCalls();
   }
 
@@ -527,6 +670,7 @@ public class CallLogFragment extends Fragment
     super.onStop();
     adapter.onStop();
     contactInfoCache.stop();
+    contactInfoCache.persist(requireContext());
   }
 
   @Override
@@ -555,9 +699,61 @@ public class CallLogFragment extends Fragment
     }
   }
 
+  /** Called by the CallLogQueryHandler when the calls changed since the last fetch are fetched. */
+  @Override
+  public boolean onChangedCallsFetched(Cursor cursor) {
+    if (getActivity() == null || getActivity().isFinishing() || callsFetchedMillis == 0) {
+      // A full fetch was started in the meantime.
+      return false;
+    }
+    // No changed rows means calls were deleted, which can't be applied incrementally. A full page
+    // of changes may have been truncated.
+    if (cursor.getCount() == 0
+        || cursor.getCount() >= callLogQueryHandler.getPageSize()
+        || !adapter.spliceNewCalls(cursor)) {
+      fetchCalls();
+      return false;
+    }
+    callsFetchedMillis = pendingFetchMillis;
+    adapter.invalidatePositions();
+    // New calls shifted every position down.
+    contactInfoPrefetchedPosition = -1;
+    maybePrefetchContactInfo();
+    // This will update the state of the "Clear call log" menu item.
+    getActivity().invalidateOptionsMenu();
+    return true;
+  }
+
   @Override
   public void fetchCalls() {
-    callLogQueryHandler.fetchCalls(callTypeFilter, dateLimit);
+    callsFetchedMillis = 0;
+    pendingFetchMillis = System.currentTimeMillis();
+    olderCallsPending = false;
+    // Keep the pages already loaded, so refreshing doesn't cut the list short under the user.
+    pendingFetchLimit =
+        callLogQueryHandler.fetchCalls(
+            callTypeFilter, dateLimit, adapter == null ? 0 : adapter.getLoadedCallCount());
+    updateTabUnreadCounts();
+  }
+
+  @Override
+  public void fetchCallsPage(Object page, long olderThanDate, long olderThanId, int count) {
+    callLogQueryHandler.fetchCallsPage(
+        callTypeFilter, dateLimit, olderThanDate, olderThanId, count, page);
+  }
+
+  @Override
+  public void fetchChangedCalls() {
+    if (callsFetchedMillis == 0) {
+      fetchCalls();
+      return;
+    }
+    pendingFetchMillis = System.currentTimeMillis();
+    callLogQueryHandler.fetchChangedCalls(callTypeFilter, dateLimit, callsFetchedMillis);
+    updateTabUnreadCounts();
+  }
+
+  private void updateTabUnreadCounts() {
     if (!isCallLogActivity
         && getActivity() != null
         && !getActivity().isFinishing()
@@ -622,9 +818,9 @@ public class CallLogFragment extends Fragment
   private void refreshData() {
     // Prevent unnecessary refresh.
     if (refreshDataRequired) {
-      // Mark all entries in the contact info cache as out of date, so they will be looked up
-      // again once being shown.
-      contactInfoCache.invalidate();
+      // Mark the entries of the contacts that changed since the last refresh as out of date, so
+      // they will be looked up again once being shown.
+      contactInfoCache.invalidateChangedContacts(getContext());
       adapter.setLoading(true);
 
       fetchCalls();
@@ -632,8 +828,8 @@ public class CallLogFragment extends Fragment
       callLogQueryHandler.fetchMissedCallsUnreadCount();
       refreshDataRequired = false;
     } else {
-      // Refresh the display of the existing data to update the timestamp text descriptions.
-      adapter.notifyDataSetChanged();
+      // Refresh the timestamp text descriptions of the rows whose relative time has changed.
+      adapter.refreshCallDates();
     }
   }
 
@@ -18,19 +18,16 @@ package com.android.dialer.app.calllog;
 
 import android.database.Cursor;
 import android.provider.CallLog.Calls;
-import android.telephony.PhoneNumberUtils;
 import android.text.TextUtils;
 
-import androidx.annotation.Nullable;
-
 import com.android.contacts.common.util.DateUtils;
 import com.android.dialer.calllogutils.CallbackActionHelper;
-import com.android.dialer.calllogutils.CallbackActionHelper.CallbackAction;
 import com.android.dialer.compat.telephony.TelephonyManagerCompat;
-import com.android.dialer.phonenumbercache.CallLogQuery;
-import com.android.dialer.phonenumberutil.PhoneNumberHelper;
+import com.android.dialer.phonenumberutil.PhoneNumberComparisonKeys;
 
 import java.time.ZoneId;
+import java.util.Objects;
+import java.util.function.IntPredicate;
 
 /**
  * Groups together calls in the call log. The primary grouping attempts to group together calls to
@@ -66,142 +63,128 @@ public class CallLogGroupBuilder {
 
   /**
    * Finds all groups of adjacent entries in the call log which should be grouped together and calls
-   * {@link GroupCreator#addGroup(int, int)} on {@link #groupCreator} for each of them.
+   * {@link GroupCreator#addGroup(int, int)} on {@link #groupCreator} for each of them. The day
+   * group and callback action of every call are stored in the snapshot.
    *
    * <p>For entries that are not grouped with others, we do not need to create a group of size one.
    *
-   * <p>It assumes that the cursor will not change during its execution.
+   * <p>Only the snapshot is read, so this can run on any thread as long as {@link #groupCreator}
+   * can be called there.
    *
    * @see GroupingListAdapter#addGroups(Cursor)
    */
-  public void addGroups(Cursor cursor) {
-    final int count = cursor.getCount();
-    if (count == 0) {
+  public void addGroups(CallLogSnapshot snapshot) {
+    if (snapshot.count == 0) {
       return;
     }
+    addGroups(snapshot, 0, snapshot.count, position -> false);
+  }
 
-    // Clear any previous day grouping information.
-    groupCreator.clearDayGroups();
-
-    // Get current system time, used for calculating which day group calls belong to.
-    long currentTime = System.currentTimeMillis();
-    cursor.moveToFirst();
-
-    // Determine the day group for the first call in the cursor.
-    final long firstDate = cursor.getLong(CallLogQuery.DATE);
-    final long firstRowId = cursor.getLong(CallLogQuery.ID);
-    int groupDayGroup = getDayGroup(firstDate, currentTime);
-    groupCreator.setDayGroup(firstRowId, groupDayGroup);
-
-    // Determine the callback action for the first call in the cursor.
-    String groupNumber = cursor.getString(CallLogQuery.NUMBER);
-    String groupAccountComponentName = cursor.getString(CallLogQuery.ACCOUNT_COMPONENT_NAME);
-    int groupFeatures = cursor.getInt(CallLogQuery.FEATURES);
-    int groupCallbackAction = CallbackActionHelper.getCallbackAction(groupNumber, groupFeatures);
-    groupCreator.setCallbackAction(firstRowId, groupCallbackAction);
+  /**
+   * Regroups the leading entries of a snapshot whose other entries were already grouped, e.g. after
+   * new calls were added in front of a previously grouped cursor.
+   *
+   * <p>Grouping stops at the first group starting at or after {@code minPosition} for which {@code
+   * isExistingGroupStart} returns true: since grouping only looks forward from the start of a
+   * group, every group from that position on is the same as before. Groups, callback actions and
+   * day groups are only reported for the entries before that position.
+   *
+   * @return the position at which grouping stopped, or the snapshot's count if it didn't
+   */
+  public int addLeadingGroups(
+      CallLogSnapshot snapshot, int minPosition, IntPredicate isExistingGroupStart) {
+    if (snapshot.count == 0) {
+      return 0;
+    }
+    return addGroups(snapshot, 0, minPosition, isExistingGroupStart);
+  }
 
-    // Instantiate other group values to those of the first call in the cursor.
-    String groupAccountId = cursor.getString(CallLogQuery.ACCOUNT_ID);
-    String groupPostDialDigits = cursor.getString(CallLogQuery.POST_DIAL_DIGITS);
-    String groupViaNumbers = cursor.getString(CallLogQuery.VIA_NUMBER);
-    int groupCallType = cursor.getInt(CallLogQuery.CALL_TYPE);
-    int groupSize = 1;
+  /**
+   * Groups the trailing entries of a snapshot whose leading entries were already grouped, e.g.
+   * after older calls were appended to a previously grouped cursor.
+   *
+   * <p>{@code startPosition} must be the start of the last group previously found, since that group
+   * may be extended by the appended entries. Groups, callback actions and day groups are reported
+   * for the entries from that position on.
+   */
+  public void addTrailingGroups(CallLogSnapshot snapshot, int startPosition) {
+    if (startPosition >= snapshot.count) {
+      return;
+    }
+    addGroups(snapshot, startPosition, snapshot.count, position -> false);
+  }
 
-    String number;
-    String numberPostDialDigits;
-    String numberViaNumbers;
-    int callType;
-    int callFeatures;
-    String accountComponentName;
-    String accountId;
-    int callbackAction;
+  private int addGroups(
+      CallLogSnapshot snapshot,
+      int startPosition,
+      int minPosition,
+      IntPredicate isExistingGroupStart) {
+    final int count = snapshot.count;
 
-    while (cursor.moveToNext()) {
-      // Obtain the values for the current call to group.
-      number = cursor.getString(CallLogQuery.NUMBER);
-      numberPostDialDigits = cursor.getString(CallLogQuery.POST_DIAL_DIGITS);
-      numberViaNumbers = cursor.getString(CallLogQuery.VIA_NUMBER);
-      callType = cursor.getInt(CallLogQuery.CALL_TYPE);
-      callFeatures = cursor.getInt(CallLogQuery.FEATURES);
-      accountComponentName = cursor.getString(CallLogQuery.ACCOUNT_COMPONENT_NAME);
-      accountId = cursor.getString(CallLogQuery.ACCOUNT_ID);
-      callbackAction = CallbackActionHelper.getCallbackAction(number, callFeatures);
+    // Get current system time, used for calculating which day group calls belong to.
+    long currentTime = System.currentTimeMillis();
 
-      final boolean isSameNumber = equalNumbers(groupNumber, number);
-      final boolean isSamePostDialDigits = groupPostDialDigits.equals(numberPostDialDigits);
-      final boolean isSameViaNumbers = groupViaNumbers.equals(numberViaNumbers);
-      final boolean isSameAccount =
-          isSameAccount(groupAccountComponentName, accountComponentName, groupAccountId, accountId);
-      final boolean isSameCallbackAction = (groupCallbackAction == callbackAction);
+    // Determine the day group and callback action for the first call to group, and instantiate
+    // the other group values to those of that call.
+    int groupStart = startPosition;
+    int groupDayGroup = getDayGroup(snapshot.dates[groupStart], currentTime);
+    int groupCallbackAction =
+        CallbackActionHelper.getCallbackAction(
+            snapshot.numbers[groupStart], snapshot.features[groupStart]);
+    snapshot.dayGroups[groupStart] = groupDayGroup;
+    snapshot.callbackActions[groupStart] = groupCallbackAction;
+
+    for (int position = startPosition + 1; position < count; position++) {
+      int callbackAction =
+          CallbackActionHelper.getCallbackAction(
+              snapshot.numbers[position], snapshot.features[position]);
 
       // Group calls with the following criteria:
       // (1) Calls with the same number, account, and callback action should be in the same group;
       // (2) Never group voice mails; and
       // (3) Only group blocked calls with other blocked calls.
       // (4) Only group calls that were assisted dialed with other calls that were assisted dialed.
-      if (isSameNumber
-          && isSameAccount
-          && isSamePostDialDigits
-          && isSameViaNumbers
-          && isSameCallbackAction
-          && areBothNotVoicemail(callType, groupCallType)
-          && (areBothNotBlocked(callType, groupCallType) || areBothBlocked(callType, groupCallType))
-          && meetsAssistedDialingGroupingCriteria(groupFeatures, callFeatures)) {
-        // Increment the size of the group to include the current call, but do not create
-        // the group until finding a call that does not match.
-        groupSize++;
-      } else {
-        // The call group has changed. Determine the day group for the new call group.
-        final long date = cursor.getLong(CallLogQuery.DATE);
-        groupDayGroup = getDayGroup(date, currentTime);
-
+      // Numbers are compared by their precomputed comparison keys, see CallLogSnapshot.
+      boolean isSameGroup =
+          isSameAccount(
+              snapshot.accountComponentNames[groupStart],
+              snapshot.accountComponentNames[position],
+              snapshot.accountIds[groupStart],
+              snapshot.accountIds[position])
+          && Objects.equals(snapshot.postDialDigits[groupStart], snapshot.postDialDigits[position])
+          && Objects.equals(snapshot.viaNumbers[groupStart], snapshot.viaNumbers[position])
+          && groupCallbackAction == callbackAction
+          && areBothNotVoicemail(snapshot.callTypes[position], snapshot.callTypes[groupStart])
+          && (areBothNotBlocked(snapshot.callTypes[position], snapshot.callTypes[groupStart])
+              || areBothBlocked(snapshot.callTypes[position], snapshot.callTypes[groupStart]))
+          && meetsAssistedDialingGroupingCriteria(
+              snapshot.features[groupStart], snapshot.features[position])
+          && PhoneNumberComparisonKeys.equal(
+              snapshot.numberKeys[groupStart], snapshot.numberKeys[position]);
+      // The group is only created once a call that does not match is found.
+      if (!isSameGroup) {
         // Create a group for the previous group of calls, which does not include the
         // current call.
-        groupCreator.addGroup(cursor.getPosition() - groupSize, groupSize);
+        groupCreator.addGroup(groupStart, position - groupStart);
 
-        // Start a new group; it will include at least the current call.
-        groupSize = 1;
+        if (position >= minPosition && isExistingGroupStart.test(position)) {
+          return position;
+        }
 
-        // Update the group values to those of the current call.
-        groupNumber = number;
-        groupPostDialDigits = numberPostDialDigits;
-        groupViaNumbers = numberViaNumbers;
-        groupCallType = callType;
-        groupAccountComponentName = accountComponentName;
-        groupAccountId = accountId;
+        // Start a new group; it will include at least the current call.
+        groupStart = position;
+        groupDayGroup = getDayGroup(snapshot.dates[position], currentTime);
         groupCallbackAction = callbackAction;
-        groupFeatures = callFeatures;
       }
 
       // Save the callback action and the day group associated with the current call.
-      final long currentCallId = cursor.getLong(CallLogQuery.ID);
-      groupCreator.setCallbackAction(currentCallId, groupCallbackAction);
-      groupCreator.setDayGroup(currentCallId, groupDayGroup);
+      snapshot.callbackActions[position] = groupCallbackAction;
+      snapshot.dayGroups[position] = groupDayGroup;
     }
 
     // Create a group for the last set of calls.
-    groupCreator.addGroup(count - groupSize, groupSize);
-  }
-
-  /**
-   * Returns true when the two input numbers can be considered identical enough for caller ID
-   * purposes and put in a call log group.
-   */
-  private boolean equalNumbers(@Nullable String number1, @Nullable String number2) {
-    if (PhoneNumberHelper.isUriNumber(number1) || PhoneNumberHelper.isUriNumber(number2)) {
-      return PhoneNumberHelper.compareSipAddresses(number1, number2);
-    }
-
-    // PhoneNumberUtils.compare(String, String) ignores special characters such as '#'. For example,
-    // it thinks "123" and "#123" are identical enough for caller ID purposes.
-    // When either input number contains special characters, we put the two in the same group iff
-    // their raw numbers are exactly the same.
-    if (PhoneNumberHelper.numberHasSpecialChars(number1)
-        || PhoneNumberHelper.numberHasSpecialChars(number2)) {
-      return PhoneNumberHelper.sameRawNumbers(number1, number2);
-    }
-
-    return PhoneNumberUtils.compare(number1, number2);
+    groupCreator.addGroup(groupStart, count - groupStart);
+    return count;
   }
 
   private boolean isSameAccount(String name1, String name2, String id1, String id2) {
@@ -256,28 +239,5 @@ public class CallLogGroupBuilder {
      * @param size The size of the group.
      */
     void addGroup(int cursorPosition, int size);
-
-    /**
-     * Defines the interface for tracking each call's callback action. Calls in a call group are
-     * associated with the same callback action as the first call in the group. The value of a
-     * callback action should be one of the categories in {@link CallbackAction}.
-     *
-     * @param rowId The row ID of the current call.
-     * @param callbackAction The current call's callback action.
-     */
-    void setCallbackAction(long rowId, @CallbackAction int callbackAction);
-
-    /**
-     * Defines the interface for tracking the day group each call belongs to. Calls in a call group
-     * are assigned the same day group as the first call in the group. The day group assigns calls
-     * to the buckets: Today, Yesterday, Last week, and Other
-     *
-     * @param rowId The row ID of the current call.
-     * @param dayGroup The day group the call belongs to.
-     */
-    void setDayGroup(long rowId, int dayGroup);
-
-    /** Defines the interface for clearing the day groupings information on rebind/regroup. */
-    void clearDayGroups();
   }
 }
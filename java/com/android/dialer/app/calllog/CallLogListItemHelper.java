@@ -97,6 +97,21 @@ import com.android.dialer.common.LogUtil;
     views.updatePhoto();
   }
 
+  /**
+   * Updates the call date text and the primary action description of views previously filled by
+   * {@link #setPhoneCallDetails}, leaving everything else as is.
+   */
+  public void updateCallDate(CallLogListItemViewHolder views, PhoneCallDetails details) {
+    phoneCallDetailsHelper.updateCallDate(views.phoneCallDetailsViews, details);
+    details.callDescription = getCallDescription(details);
+    views.primaryActionView.setContentDescription(details.callDescription);
+  }
+
+  /** See {@link PhoneCallDetailsHelper#getCallDateExpiryMillis(PhoneCallDetails)}. */
+  public long getCallDateExpiryMillis(PhoneCallDetails details) {
+    return phoneCallDetailsHelper.getCallDateExpiryMillis(details);
+  }
+
   /**
    * Sets the accessibility descriptions for the action buttons in the action button ViewStub.
    *
@@ -68,6 +68,7 @@ import com.android.dialer.app.voicemail.VoicemailPlaybackPresenter;
 import com.android.dialer.calldetails.CallDetailsEntries;
 import com.android.dialer.calldetails.OldCallDetailsActivity;
 import com.android.dialer.calllogutils.CallbackActionHelper.CallbackAction;
+import com.android.dialer.calllogutils.PhoneCallDetails;
 import com.android.dialer.clipboard.ClipboardUtils;
 import com.android.dialer.common.LogUtil;
 import com.android.dialer.common.concurrent.AsyncTaskExecutors;
@@ -222,6 +223,10 @@ public final class CallLogListItemViewHolder extends RecyclerView.ViewHolder
   public int dayGroupHeaderVisibility;
   public CharSequence dayGroupHeaderText;
   public boolean isAttachedToWindow;
+  /** The details last rendered into this view, or null if it hasn't been rendered yet. */
+  @Nullable public PhoneCallDetails details;
+  /** The time at which the call date text of {@link #details} needs to be refreshed. */
+  public long callDateExpiryMillis;
 
   public CallLogAdapter.LoadDataTaskInterface asyncTask;
   private CallDetailsEntries callDetailsEntries;
@@ -0,0 +1,151 @@
+/*
+ * SPDX-FileCopyrightText: The LineageOS Project
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.android.dialer.app.calllog;
+
+import android.database.Cursor;
+
+import com.android.dialer.calllogutils.CallbackActionHelper.CallbackAction;
+import com.android.dialer.phonenumbercache.CallLogQuery;
+import com.android.dialer.phonenumberutil.PhoneNumberComparisonKeys;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Columnar copy of the call log columns used for grouping, indexed by cursor position.
+ *
+ * <p>The snapshot is read from the cursor once per cursor swap, so grouping runs over plain arrays
+ * and can happen off the main thread. Repeated strings, like numbers and account ids, are shared
+ * between rows, and every number is reduced to its {@link PhoneNumberComparisonKeys comparison
+ * key} up front, so grouping compares keys instead of parsing numbers. The day group and callback
+ * action of each call, computed by {@link CallLogGroupBuilder}, are stored alongside in arrays
+ * indexed by position.
+ */
+final class CallLogSnapshot {
+
+  static final CallLogSnapshot EMPTY = new CallLogSnapshot(0);
+
+  final int count;
+  final long[] ids;
+  final long[] dates;
+  final String[] numbers;
+  final String[] numberKeys;
+  final String[] postDialDigits;
+  final String[] viaNumbers;
+  final String[] accountComponentNames;
+  final String[] accountIds;
+  final int[] callTypes;
+  final int[] features;
+
+  final int[] dayGroups;
+  @CallbackAction final int[] callbackActions;
+
+  // Sorted copy of ids, created on first use by containsId().
+  private long[] sortedIds;
+
+  private CallLogSnapshot(int count) {
+    this.count = count;
+    ids = new long[count];
+    dates = new long[count];
+    numbers = new String[count];
+    numberKeys = new String[count];
+    postDialDigits = new String[count];
+    viaNumbers = new String[count];
+    accountComponentNames = new String[count];
+    accountIds = new String[count];
+    callTypes = new int[count];
+    features = new int[count];
+    dayGroups = new int[count];
+    callbackActions = new int[count];
+    Arrays.fill(dayGroups, CallLogGroupBuilder.DAY_GROUP_NONE);
+  }
+
+  /**
+   * Reads every row of {@code cursor}, which must use the {@link CallLogQuery} projection. The
+   * cursor's position is restored afterwards.
+   */
+  static CallLogSnapshot create(Cursor cursor) {
+    CallLogSnapshot snapshot = new CallLogSnapshot(cursor.getCount());
+    Map<String, String> strings = new HashMap<>();
+    int position = cursor.getPosition();
+    cursor.moveToPosition(-1);
+    for (int i = 0; cursor.moveToNext(); i++) {
+      snapshot.ids[i] = cursor.getLong(CallLogQuery.ID);
+      snapshot.dates[i] = cursor.getLong(CallLogQuery.DATE);
+      snapshot.numbers[i] = intern(strings, cursor.getString(CallLogQuery.NUMBER));
+      snapshot.numberKeys[i] =
+          PhoneNumberComparisonKeys.get(
+              snapshot.numbers[i], cursor.getString(CallLogQuery.COUNTRY_ISO));
+      snapshot.postDialDigits[i] =
+          intern(strings, cursor.getString(CallLogQuery.POST_DIAL_DIGITS));
+      snapshot.viaNumbers[i] = intern(strings, cursor.getString(CallLogQuery.VIA_NUMBER));
+      snapshot.accountComponentNames[i] =
+          intern(strings, cursor.getString(CallLogQuery.ACCOUNT_COMPONENT_NAME));
+      snapshot.accountIds[i] = intern(strings, cursor.getString(CallLogQuery.ACCOUNT_ID));
+      snapshot.callTypes[i] = cursor.getInt(CallLogQuery.CALL_TYPE);
+      snapshot.features[i] = cursor.getInt(CallLogQuery.FEATURES);
+    }
+    cursor.moveToPosition(position);
+    return snapshot;
+  }
+
+  /**
+   * Returns a snapshot of the rows of {@code first} followed by those of {@code second}, along with
+   * their day groups and callback actions.
+   */
+  static CallLogSnapshot concat(CallLogSnapshot first, CallLogSnapshot second) {
+    CallLogSnapshot snapshot = new CallLogSnapshot(first.count + second.count);
+    first.copyTo(snapshot, 0);
+    second.copyTo(snapshot, first.count);
+    return snapshot;
+  }
+
+  private void copyTo(CallLogSnapshot target, int offset) {
+    System.arraycopy(ids, 0, target.ids, offset, count);
+    System.arraycopy(dates, 0, target.dates, offset, count);
+    System.arraycopy(numbers, 0, target.numbers, offset, count);
+    System.arraycopy(numberKeys, 0, target.numberKeys, offset, count);
+    System.arraycopy(postDialDigits, 0, target.postDialDigits, offset, count);
+    System.arraycopy(viaNumbers, 0, target.viaNumbers, offset, count);
+    System.arraycopy(accountComponentNames, 0, target.accountComponentNames, offset, count);
+    System.arraycopy(accountIds, 0, target.accountIds, offset, count);
+    System.arraycopy(callTypes, 0, target.callTypes, offset, count);
+    System.arraycopy(features, 0, target.features, offset, count);
+    System.arraycopy(dayGroups, 0, target.dayGroups, offset, count);
+    System.arraycopy(callbackActions, 0, target.callbackActions, offset, count);
+  }
+
+  /** Returns whether a call with the given id is in the snapshot. */
+  boolean containsId(long id) {
+    if (sortedIds == null) {
+      sortedIds = ids.clone();
+      Arrays.sort(sortedIds);
+    }
+    return Arrays.binarySearch(sortedIds, id) >= 0;
+  }
+
+  /** Returns the day group of the call at {@code position}, or DAY_GROUP_NONE if out of range. */
+  int getDayGroup(int position) {
+    return position < 0 || position >= count
+        ? CallLogGroupBuilder.DAY_GROUP_NONE
+        : dayGroups[position];
+  }
+
+  /** Returns the callback action of the call at {@code position}, or NONE if out of range. */
+  @CallbackAction
+  int getCallbackAction(int position) {
+    return position < 0 || position >= count ? CallbackAction.NONE : callbackActions[position];
+  }
+
+  private static String intern(Map<String, String> strings, String value) {
+    if (value == null) {
+      return null;
+    }
+    String interned = strings.putIfAbsent(value, value);
+    return interned == null ? value : interned;
+  }
+}
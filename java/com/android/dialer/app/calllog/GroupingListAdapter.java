@@ -24,8 +24,11 @@ import android.os.Handler;
 import android.os.Looper;
 import android.util.SparseIntArray;
 
+import androidx.annotation.Nullable;
 import androidx.recyclerview.widget.RecyclerView;
 
+import java.util.function.IntPredicate;
+
 /**
  * Maintains a list that groups items into groups of consecutive elements which are disjoint, that
  * is, an item can only belong to one group. This is leveraged for grouping calls in the call log
@@ -72,9 +75,41 @@ abstract class GroupingListAdapter extends RecyclerView.Adapter {
    */
   protected abstract void addGroups(Cursor cursor);
 
+  /**
+   * Regroups the leading items of a cursor whose other items were grouped before, calling {@link
+   * #addGroup} for each new group. See {@link CallLogGroupBuilder#addLeadingGroups}.
+   *
+   * @return the cursor position of the first group that didn't need to be regrouped
+   */
+  protected abstract int addLeadingGroups(
+      Cursor cursor, int minPosition, IntPredicate isExistingGroupStart);
+
+  /**
+   * Groups the trailing items of a cursor whose leading items were grouped before, calling {@link
+   * #addGroup} for each group from {@code startPosition} on. See {@link
+   * CallLogGroupBuilder#addTrailingGroups}.
+   */
+  protected abstract void addTrailingGroups(Cursor cursor, int startPosition);
+
+  /** Returns the adapter position of the first group, e.g. to account for headers. */
+  protected int getFirstGroupPosition() {
+    return 0;
+  }
+
   protected abstract void onContentChanged();
 
   public void changeCursor(Cursor cursor) {
+    changeCursor(cursor, null);
+  }
+
+  /**
+   * Same as {@link #changeCursor(Cursor)}, but uses groups computed ahead of time, e.g. off the
+   * main thread, instead of calling {@link #addGroups}.
+   *
+   * @param groupMetadata maps the cursor position of the first item of each group to the size of
+   *     the group, or null to group the cursor now
+   */
+  protected void changeCursor(Cursor cursor, @Nullable SparseIntArray groupMetadata) {
     if (cursor == this.cursor) {
       return;
     }
@@ -90,10 +125,14 @@ abstract class GroupingListAdapter extends RecyclerView.Adapter {
     this.cursor = cursor;
 
     if (cursor != null) {
-      addGroups(this.cursor);
+      if (groupMetadata != null) {
+        this.groupMetadata = groupMetadata;
+      } else {
+        addGroups(this.cursor);
+      }
 
       // Calculate the item count by subtracting group child counts from the cursor count.
-      itemCount = groupMetadata.size();
+      itemCount = this.groupMetadata.size();
 
       cursor.registerContentObserver(changeObserver);
       cursor.registerDataSetObserver(dataSetObserver);
@@ -101,6 +140,128 @@ abstract class GroupingListAdapter extends RecyclerView.Adapter {
     }
   }
 
+  /**
+   * Replaces the cursor with {@code cursor}, which holds {@code insertedCount} new items followed
+   * by every item of the current cursor, in order.
+   *
+   * <p>Only the leading groups affected by the new items are recomputed; the remaining groups are
+   * shifted, and only the changed range of the list is notified. The current cursor is not closed,
+   * as it is expected to be {@code cursor}, or to be wrapped by it.
+   */
+  public void spliceCursor(Cursor cursor, int insertedCount) {
+    if (this.cursor != null) {
+      this.cursor.unregisterContentObserver(changeObserver);
+      this.cursor.unregisterDataSetObserver(dataSetObserver);
+    }
+    this.cursor = cursor;
+
+    SparseIntArray oldGroupMetadata = groupMetadata;
+    groupMetadata = new SparseIntArray();
+    int stopPosition =
+        addLeadingGroups(
+            cursor,
+            insertedCount,
+            position -> oldGroupMetadata.indexOfKey(position - insertedCount) >= 0);
+    int regroupedCount = groupMetadata.size();
+
+    // Groups from the stop position on are the same as before, only shifted.
+    int firstUnchangedGroup =
+        stopPosition == cursor.getCount()
+            ? oldGroupMetadata.size()
+            : oldGroupMetadata.indexOfKey(stopPosition - insertedCount);
+    for (int i = firstUnchangedGroup; i < oldGroupMetadata.size(); i++) {
+      groupMetadata.append(oldGroupMetadata.keyAt(i) + insertedCount, oldGroupMetadata.valueAt(i));
+    }
+    itemCount = groupMetadata.size();
+
+    cursor.registerContentObserver(changeObserver);
+    cursor.registerDataSetObserver(dataSetObserver);
+
+    int firstPosition = getFirstGroupPosition();
+    int changedCount = Math.min(firstUnchangedGroup, regroupedCount);
+    notifyItemRangeChanged(firstPosition, changedCount);
+    if (regroupedCount > firstUnchangedGroup) {
+      notifyItemRangeInserted(firstPosition + changedCount, regroupedCount - firstUnchangedGroup);
+    } else if (regroupedCount < firstUnchangedGroup) {
+      notifyItemRangeRemoved(firstPosition + changedCount, firstUnchangedGroup - regroupedCount);
+    }
+    if (regroupedCount < itemCount) {
+      // The first unchanged group may need to show or hide its day group header.
+      notifyItemChanged(firstPosition + regroupedCount);
+    }
+  }
+
+  /**
+   * Replaces the cursor with {@code cursor}, which holds every item of the current cursor, in
+   * order, followed by new items.
+   *
+   * <p>Only the last existing group, which the new items may extend, and the groups after it are
+   * computed, and only that range of the list is notified. The current cursor is not closed, as it
+   * is expected to be {@code cursor}, or to be wrapped by it.
+   */
+  public void appendCursor(Cursor cursor) {
+    if (this.cursor != null) {
+      this.cursor.unregisterContentObserver(changeObserver);
+      this.cursor.unregisterDataSetObserver(dataSetObserver);
+    }
+    this.cursor = cursor;
+
+    int lastGroup = groupMetadata.size() - 1;
+    int startPosition = 0;
+    if (lastGroup >= 0) {
+      startPosition = groupMetadata.keyAt(lastGroup);
+      groupMetadata.removeAt(lastGroup);
+    }
+    addTrailingGroups(cursor, startPosition);
+    int oldItemCount = itemCount;
+    itemCount = groupMetadata.size();
+
+    cursor.registerContentObserver(changeObserver);
+    cursor.registerDataSetObserver(dataSetObserver);
+
+    int firstPosition = getFirstGroupPosition();
+    if (lastGroup >= 0) {
+      notifyItemChanged(firstPosition + lastGroup);
+    }
+    if (itemCount > oldItemCount) {
+      notifyItemRangeInserted(firstPosition + oldItemCount, itemCount - oldItemCount);
+    }
+  }
+
+  /** Returns the cursor backing the list, or null if there is none. */
+  protected Cursor getCursor() {
+    return cursor;
+  }
+
+  /**
+   * Returns whether the {@code count} items of the cursor from {@code cursorPosition} on can be
+   * read. {@link #getItem} returns null for groups whose items can't.
+   */
+  protected boolean isRangeLoaded(int cursorPosition, int count) {
+    return true;
+  }
+
+  /**
+   * Returns the index of the group holding the item at {@code cursorPosition}, which is its list
+   * position relative to {@link #getFirstGroupPosition()}, or -1 if there is none.
+   */
+  protected int getGroupIndex(int cursorPosition) {
+    int index = groupMetadata.indexOfKey(cursorPosition);
+    // Otherwise the group is the one starting before the insertion point.
+    return index >= 0 ? index : -index - 2;
+  }
+
+  /**
+   * Given the position of a list item, returns the cursor position of the first item in the group
+   * of items corresponding to that position, or -1 if there is none.
+   */
+  protected int getCursorPosition(int listPosition) {
+    if (listPosition < 0 || listPosition >= groupMetadata.size()) {
+      return -1;
+    }
+    return groupMetadata.keyAt(listPosition);
+  }
+
   /**
    * Records information about grouping in the list. Should be called by the overridden {@link
    * #addGroups} method.
@@ -142,7 +303,8 @@ abstract class GroupingListAdapter extends RecyclerView.Adapter {
     }
 
     int cursorPosition = groupMetadata.keyAt(listPosition);
-    if (cursor.moveToPosition(cursorPosition)) {
+    if (isRangeLoaded(cursorPosition, groupMetadata.valueAt(listPosition))
+        && cursor.moveToPosition(cursorPosition)) {
       return cursor;
     } else {
       return null;
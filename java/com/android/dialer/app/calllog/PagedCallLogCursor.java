@@ -0,0 +1,307 @@
+/*
+ * SPDX-FileCopyrightText: The LineageOS Project
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.android.dialer.app.calllog;
+
+import android.database.AbstractCursor;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.database.DataSetObserver;
+
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Call log cursor made of consecutive pages of calls, each backed by the cursor it was fetched
+ * with, of which only the pages near the visible part of the list need to be open.
+ *
+ * <p>Positions are stable: a closed page keeps its place and its number of calls, and can be
+ * fetched again when the list scrolls back to it, see {@link #reopenPage}. Moving to a call of a
+ * closed page fails.
+ */
+final class PagedCallLogCursor extends AbstractCursor {
+
+  /** A range of calls, and the cursor holding them while the page is open. */
+  static final class Page {
+    private int start;
+    private final int count;
+    @Nullable private Cursor cursor;
+    private boolean fetching;
+
+    private Page(int start, Cursor cursor) {
+      this.start = start;
+      this.count = cursor.getCount();
+      this.cursor = cursor;
+    }
+
+    /** Returns the position of the first call of the page. */
+    int getStart() {
+      return start;
+    }
+
+    int getCount() {
+      return count;
+    }
+
+    boolean isOpen() {
+      return cursor != null;
+    }
+
+    /** Returns whether the page is closed and being fetched again. */
+    boolean isFetching() {
+      return fetching;
+    }
+
+    void setFetching(boolean fetching) {
+      this.fetching = fetching;
+    }
+  }
+
+  private final String[] columnNames;
+  /** Ordered by position. */
+  private final List<Page> pages = new ArrayList<>();
+
+  private final List<ContentObserver> contentObservers = new ArrayList<>();
+  private final List<DataSetObserver> dataSetObservers = new ArrayList<>();
+
+  private int count;
+  /** Cursor of the page holding the current position. */
+  @Nullable private Cursor current;
+
+  PagedCallLogCursor(Cursor firstPage) {
+    columnNames = firstPage.getColumnNames();
+    pages.add(new Page(0, firstPage));
+    count = firstPage.getCount();
+  }
+
+  /** Adds {@code page} before the first call, shifting the position of every call. */
+  void prepend(Cursor page) {
+    int shift = page.getCount();
+    for (Page existing : pages) {
+      existing.start += shift;
+    }
+    pages.add(0, new Page(0, page));
+    count += shift;
+    registerObservers(page);
+    reset();
+  }
+
+  /** Adds {@code page} after the last call. */
+  void append(Cursor page) {
+    pages.add(new Page(count, page));
+    count += page.getCount();
+    registerObservers(page);
+    reset();
+  }
+
+  List<Page> getPages() {
+    return pages;
+  }
+
+  boolean containsPage(Page page) {
+    return pages.contains(page);
+  }
+
+  /** Closes the cursor of {@code page}, keeping its place. */
+  void closePage(Page page) {
+    if (page.cursor == null) {
+      return;
+    }
+    unregisterObservers(page.cursor);
+    page.cursor.close();
+    page.cursor = null;
+    reset();
+  }
+
+  /**
+   * Opens {@code page} again with {@code cursor}, which must hold the same calls as when the page
+   * was added. Ownership of {@code cursor} is taken.
+   */
+  void reopenPage(Page page, Cursor cursor) {
+    page.fetching = false;
+    page.cursor = cursor;
+    registerObservers(cursor);
+  }
+
+  /** Returns whether the calls from {@code from} to {@code to}, inclusive, can be read. */
+  boolean isLoaded(int from, int to) {
+    for (Page page : pages) {
+      if (page.start + page.count > from && page.start <= to && page.cursor == null) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** Moves off the current row, since the page holding it may have changed. */
+  private void reset() {
+    current = null;
+    moveToPosition(-1);
+  }
+
+  @Nullable
+  private Page findPage(int position) {
+    int low = 0;
+    int high = pages.size() - 1;
+    while (low <= high) {
+      int middle = (low + high) >>> 1;
+      Page page = pages.get(middle);
+      if (position < page.start) {
+        high = middle - 1;
+      } else if (position >= page.start + page.count) {
+        low = middle + 1;
+      } else {
+        return page;
+      }
+    }
+    return null;
+  }
+
+  @Override
+  public boolean onMove(int oldPosition, int newPosition) {
+    Page page = findPage(newPosition);
+    if (page == null || page.cursor == null) {
+      current = null;
+      return false;
+    }
+    current = page.cursor;
+    return current.moveToPosition(newPosition - page.start);
+  }
+
+  @Override
+  public int getCount() {
+    return count;
+  }
+
+  @Override
+  public String[] getColumnNames() {
+    return columnNames;
+  }
+
+  @Override
+  public String getString(int column) {
+    return getCurrent().getString(column);
+  }
+
+  @Override
+  public short getShort(int column) {
+    return getCurrent().getShort(column);
+  }
+
+  @Override
+  public int getInt(int column) {
+    return getCurrent().getInt(column);
+  }
+
+  @Override
+  public long getLong(int column) {
+    return getCurrent().getLong(column);
+  }
+
+  @Override
+  public float getFloat(int column) {
+    return getCurrent().getFloat(column);
+  }
+
+  @Override
+  public double getDouble(int column) {
+    return getCurrent().getDouble(column);
+  }
+
+  @Override
+  public byte[] getBlob(int column) {
+    return getCurrent().getBlob(column);
+  }
+
+  @Override
+  public int getType(int column) {
+    return getCurrent().getType(column);
+  }
+
+  @Override
+  public boolean isNull(int column) {
+    return getCurrent().isNull(column);
+  }
+
+  private Cursor getCurrent() {
+    checkPosition();
+    if (current == null) {
+      throw new IllegalStateException("page of position " + getPosition() + " is closed");
+    }
+    return current;
+  }
+
+  @Override
+  public void close() {
+    super.close();
+    for (Page page : pages) {
+      if (page.cursor != null) {
+        page.cursor.close();
+        page.cursor = null;
+      }
+    }
+    current = null;
+  }
+
+  @Override
+  public void registerContentObserver(ContentObserver observer) {
+    contentObservers.add(observer);
+    for (Page page : pages) {
+      if (page.cursor != null) {
+        page.cursor.registerContentObserver(observer);
+      }
+    }
+  }
+
+  @Override
+  public void unregisterContentObserver(ContentObserver observer) {
+    contentObservers.remove(observer);
+    for (Page page : pages) {
+      if (page.cursor != null) {
+        page.cursor.unregisterContentObserver(observer);
+      }
+    }
+  }
+
+  @Override
+  public void registerDataSetObserver(DataSetObserver observer) {
+    dataSetObservers.add(observer);
+    for (Page page : pages) {
+      if (page.cursor != null) {
+        page.cursor.registerDataSetObserver(observer);
+      }
+    }
+  }
+
+  @Override
+  public void unregisterDataSetObserver(DataSetObserver observer) {
+    dataSetObservers.remove(observer);
+    for (Page page : pages) {
+      if (page.cursor != null) {
+        page.cursor.unregisterDataSetObserver(observer);
+      }
+    }
+  }
+
+  private void registerObservers(Cursor cursor) {
+    for (ContentObserver observer : contentObservers) {
+      cursor.registerContentObserver(observer);
+    }
+    for (DataSetObserver observer : dataSetObservers) {
+      cursor.registerDataSetObserver(observer);
+    }
+  }
+
+  private void unregisterObservers(Cursor cursor) {
+    for (ContentObserver observer : contentObservers) {
+      cursor.unregisterContentObserver(observer);
+    }
+    for (DataSetObserver observer : dataSetObservers) {
+      cursor.unregisterDataSetObserver(observer);
+    }
+  }
+}
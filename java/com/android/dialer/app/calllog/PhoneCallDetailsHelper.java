@@ -172,6 +172,16 @@ public class PhoneCallDetailsHelper {
             : ThemeComponent.get(context).theme().getTextColorPrimary());
   }
 
+  /**
+   * Updates only the call location and date text of views previously filled by {@link
+   * #setPhoneCallDetails}, e.g. when the relative time of the call has changed.
+   */
+  public void updateCallDate(PhoneCallDetailsViews views, PhoneCallDetails details) {
+    details.callLocationAndDate = getCallLocationAndDate(details);
+    int count = details.callTypes.length;
+    setDetailText(views, count > MAX_CALL_TYPE_ICONS ? count : null, details);
+  }
+
   private void setNameView(PhoneCallDetailsViews views, PhoneCallDetails details) {
     if (!TextUtils.isEmpty(details.getPreferredName())) {
       views.nameView.setText(details.getPreferredName());
@@ -279,6 +289,48 @@ public class PhoneCallDetailsHelper {
         DateUtils.FORMAT_ABBREV_RELATIVE);
   }
 
+  /**
+   * Returns the time at which {@link #getCallDate(PhoneCallDetails)} will next return a different
+   * text for the call, or {@link Long#MAX_VALUE} if it never will.
+   */
+  public long getCallDateExpiryMillis(PhoneCallDetails details) {
+    long now = getCurrentTimeMillis();
+    if (details.callTypes[0] == Calls.VOICEMAIL_TYPE) {
+      // "Today" and the year of granular dates can only change at midnight.
+      return getStartOfNextDayMillis(now);
+    }
+
+    long elapsed = now - details.date;
+    if (elapsed < 0) {
+      // The call is in the future, e.g. after a clock change; check again in a minute.
+      return now + DateUtils.MINUTE_IN_MILLIS;
+    }
+    if (elapsed < DateUtils.HOUR_IN_MILLIS) {
+      // "N min. ago"
+      return details.date
+          + (elapsed / DateUtils.MINUTE_IN_MILLIS + 1) * DateUtils.MINUTE_IN_MILLIS;
+    }
+    if (elapsed < DateUtils.DAY_IN_MILLIS) {
+      // "N hr. ago"
+      return details.date + (elapsed / DateUtils.HOUR_IN_MILLIS + 1) * DateUtils.HOUR_IN_MILLIS;
+    }
+    if (elapsed < DateUtils.WEEK_IN_MILLIS) {
+      // "Yesterday" or "N days ago" until the call is a week old and an absolute date is shown.
+      return Math.min(getStartOfNextDayMillis(now), details.date + DateUtils.WEEK_IN_MILLIS);
+    }
+    return Long.MAX_VALUE;
+  }
+
+  private synchronized long getStartOfNextDayMillis(long now) {
+    calendar.setTimeInMillis(now);
+    calendar.set(Calendar.HOUR_OF_DAY, 0);
+    calendar.set(Calendar.MINUTE, 0);
+    calendar.set(Calendar.SECOND, 0);
+    calendar.set(Calendar.MILLISECOND, 0);
+    calendar.add(Calendar.DAY_OF_YEAR, 1);
+    return calendar.getTimeInMillis();
+  }
+
   /**
    * Get the granular version of the call date/time of the call. The result is always in the form
    * 'DATE at TIME'. The date value changes based on when the call was created.
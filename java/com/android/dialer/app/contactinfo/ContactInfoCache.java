@@ -17,30 +17,58 @@
 
 package com.android.dialer.app.contactinfo;
 
+import android.content.ContentUris;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
 import android.os.Handler;
 import android.os.Looper;
 import android.os.Message;
 import android.os.SystemClock;
+import android.provider.ContactsContract;
+import android.provider.ContactsContract.CommonDataKinds.Phone;
+import android.provider.ContactsContract.Contacts;
+import android.provider.ContactsContract.DeletedContacts;
+import android.provider.ContactsContract.Directory;
+import android.telephony.PhoneNumberUtils;
 import android.text.TextUtils;
+import android.util.ArrayMap;
+import android.util.ArraySet;
 
+import androidx.annotation.MainThread;
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
 
+import com.android.contacts.common.ContactsUtils;
+import com.android.dialer.common.Assert;
 import com.android.dialer.common.LogUtil;
+import com.android.dialer.common.concurrent.DialerExecutorComponent;
+import com.android.dialer.common.database.Selection;
 import com.android.dialer.logging.ContactSource.Type;
 import com.android.dialer.oem.CequintCallerIdManager;
 import com.android.dialer.phonenumbercache.ContactInfo;
 import com.android.dialer.phonenumbercache.ContactInfoHelper;
 import com.android.dialer.util.ExpirableCache;
+import com.android.dialer.util.PermissionsUtil;
+import com.android.dialer.util.UriUtils;
 
 import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.PriorityBlockingQueue;
 
 /**
  * This is a cache of contact details for the phone numbers in the call log. The key is the phone
  * number with the country in which the call was placed or received. The content of the cache is
- * expired (but not purged) whenever the application comes to the foreground.
+ * expired (but not purged) whenever the application comes to the foreground, either entirely or,
+ * through {@link #invalidateChangedContacts(Context)}, only for the numbers affected by contacts
+ * that changed since the previous refresh.
  *
  * <p>This cache queues request for information and queries for information on a background thread,
  * so {@code start()} and {@code stop()} must be called to initiate or halt that thread's exeuction
@@ -55,6 +83,15 @@ public class ContactInfoCache {
   private static final int START_THREAD = 2;
   private static final int START_PROCESSING_REQUESTS_DELAY_MS = 1000;
 
+  /**
+   * Above this many changed contacts (e.g. the first sync of an account), expiring the whole cache
+   * is cheaper than matching every cached number against the changed contacts.
+   */
+  private static final int MAX_CHANGED_CONTACTS = 200;
+
+  /** Regular expression splitting a lookup key into the lookup keys of its raw contacts. */
+  private static final String LOOKUP_KEY_SEPARATOR = "\\.";
+
   private final ExpirableCache<NumberWithCountryIso, ContactInfo> cache;
   private final ContactInfoHelper contactInfoHelper;
   private final OnContactInfoChangedListener onContactInfoChangedListener;
@@ -64,6 +101,14 @@ public class ContactInfoCache {
   private QueryThread contactInfoQueryThread;
   private volatile boolean requestProcessingDisabled = false;
 
+  /** Whether this instance has invalidated the cache yet. Only accessed on the main thread. */
+  private boolean hasInvalidated;
+
+  /** Serializes the background sweeps. Never taken on the main thread. */
+  private final Object invalidationLock = new Object();
+  /** CP2 last updated timestamp up to which changes have been applied to the cache. */
+  private long contactsWatermarkMillis;
+
   private static class InnerHandler extends Handler {
 
     private final WeakReference<ContactInfoCache> contactInfoCacheWeakReference;
@@ -167,30 +212,52 @@ public class ContactInfoCache {
     ContactInfo info;
     if (request.isLocalRequest()) {
       info = contactInfoHelper.lookupNumber(request.number, request.countryIso);
-      if (info != null && !info.contactExists) {
-        // TODO(wangqi): Maybe skip look up if it's already available in cached number lookup
-        // service.
-        long start = SystemClock.elapsedRealtime();
-        contactInfoHelper.updateFromCequintCallerId(cequintCallerIdManager, info, request.number);
-        long time = SystemClock.elapsedRealtime() - start;
-        LogUtil.d(
-            "ContactInfoCache.queryContactInfo", "Cequint Caller Id look up takes %d ms", time);
-      }
-      if (request.type == ContactInfoRequest.TYPE_LOCAL_AND_REMOTE) {
-        if (!contactInfoHelper.hasName(info)) {
-          enqueueRequest(
-              request.number,
-              request.countryIso,
-              request.callLogInfo,
-              true,
-              ContactInfoRequest.TYPE_REMOTE);
-          return false;
-        }
+      if (!completeLocalLookup(request, info)) {
+        return false;
       }
     } else {
       info = contactInfoHelper.lookupNumberInRemoteDirectory(request.number, request.countryIso);
     }
+    return storeContactInfo(request, info);
+  }
 
+  /**
+   * Adds the caller id to the contact info found locally for a request, and queues a remote lookup
+   * if the request allows for it and no name was found.
+   *
+   * @return false if a remote lookup was queued, in which case {@code info} shouldn't be stored
+   */
+  private boolean completeLocalLookup(ContactInfoRequest request, ContactInfo info) {
+    if (info != null && !info.contactExists) {
+      // TODO(wangqi): Maybe skip look up if it's already available in cached number lookup
+      // service.
+      long start = SystemClock.elapsedRealtime();
+      contactInfoHelper.updateFromCequintCallerId(cequintCallerIdManager, info, request.number);
+      long time = SystemClock.elapsedRealtime() - start;
+      LogUtil.d(
+          "ContactInfoCache.completeLocalLookup", "Cequint Caller Id look up takes %d ms", time);
+    }
+    if (request.type == ContactInfoRequest.TYPE_LOCAL_AND_REMOTE) {
+      if (!contactInfoHelper.hasName(info)) {
+        enqueueRequest(
+            request.number,
+            request.countryIso,
+            request.callLogInfo,
+            true,
+            ContactInfoRequest.TYPE_REMOTE);
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Stores the contact info looked up for a request in the cache, and in the call log.
+   *
+   * <p>It returns true if it updated the content of the cache and we should therefore tell the view
+   * to update its content.
+   */
+  private boolean storeContactInfo(ContactInfoRequest request, ContactInfo info) {
     if (info == null) {
       // The lookup failed, just return without requesting to update the view.
       return false;
@@ -227,6 +294,119 @@ public class ContactInfoCache {
     return updated;
   }
 
+  /**
+   * Looks up the contact info of several call log entries, typically those on screen and the ones
+   * about to be scrolled into view, with a single batched query per country instead of a query per
+   * entry.
+   *
+   * <p>Requests for numbers that are already cached are ignored. Numbers the batched query can't
+   * resolve are looked up one by one, see {@link ContactInfoHelper#lookupNumbers}, and every result
+   * is then handled as if it came from an individual lookup.
+   */
+  @MainThread
+  public void prefetch(Context context, List<ContactInfoRequest> requests) {
+    if (requestProcessingDisabled) {
+      return;
+    }
+    Map<String, List<ContactInfoRequest>> requestsByCountry = new ArrayMap<>();
+    for (ContactInfoRequest request : requests) {
+      NumberWithCountryIso numberCountryIso =
+          new NumberWithCountryIso(request.number, request.countryIso);
+      ExpirableCache.CachedValue<ContactInfo> cachedInfo = cache.getCachedValue(numberCountryIso);
+      if (cachedInfo != null && !cachedInfo.isExpired()) {
+        continue;
+      }
+      // Keeps getValue() from queueing an individual lookup while the batch is in flight, while
+      // still showing an expired value until it is replaced.
+      cache.put(numberCountryIso, cachedInfo == null ? ContactInfo.EMPTY : cachedInfo.getValue());
+      requestsByCountry.computeIfAbsent(request.countryIso, key -> new ArrayList<>()).add(request);
+    }
+    if (requestsByCountry.isEmpty()) {
+      return;
+    }
+    DialerExecutorComponent.get(context)
+        .backgroundExecutor()
+        .execute(() -> queryContactInfos(requestsByCountry));
+  }
+
+  @WorkerThread
+  private void queryContactInfos(Map<String, List<ContactInfoRequest>> requestsByCountry) {
+    Assert.isWorkerThread();
+    boolean updated = false;
+    int foundCount = 0;
+    int requestCount = 0;
+    for (Map.Entry<String, List<ContactInfoRequest>> entry : requestsByCountry.entrySet()) {
+      List<String> numbers = new ArrayList<>(entry.getValue().size());
+      for (ContactInfoRequest request : entry.getValue()) {
+        numbers.add(request.number);
+      }
+      Map<String, ContactInfo> infos = contactInfoHelper.lookupNumbers(numbers, entry.getKey());
+      for (ContactInfoRequest request : entry.getValue()) {
+        requestCount++;
+        ContactInfo info = infos.get(request.number);
+        if (info != null && info.contactExists) {
+          foundCount++;
+        }
+        if (!completeLocalLookup(request, info)) {
+          continue;
+        }
+        // Rows bound in the meantime show the call log's copy of the contact info.
+        updated |=
+            storeContactInfo(request, info)
+                || (info != null && !callLogInfoMatches(request.callLogInfo, info));
+      }
+    }
+    LogUtil.d(
+        "ContactInfoCache.queryContactInfos",
+        "requests: %d, contacts found: %d",
+        requestCount,
+        foundCount);
+    if (updated) {
+      handler.sendEmptyMessage(REDRAW);
+    }
+  }
+
+  /**
+   * Fills an empty cache with the entries saved by {@link #persist(Context)}, e.g. on a cold start.
+   * Restored entries are expired, so they are shown right away and looked up again in the
+   * background when their rows are shown.
+   */
+  public void restore(Context context) {
+    if (cache.size() > 0) {
+      return;
+    }
+    Context appContext = context.getApplicationContext();
+    DialerExecutorComponent.get(appContext)
+        .backgroundExecutor()
+        .execute(
+            () -> {
+              int restoredCount = 0;
+              for (Map.Entry<NumberWithCountryIso, ContactInfo> entry :
+                  ContactInfoDiskCache.read(appContext).entrySet()) {
+                // Don't override lookups that completed in the meantime.
+                if (cache.putExpiredIfAbsent(entry.getKey(), entry.getValue(), ContactInfo.EMPTY)) {
+                  restoredCount++;
+                }
+              }
+              LogUtil.i("ContactInfoCache.restore", "restored entries: %d", restoredCount);
+              if (restoredCount > 0) {
+                handler.sendEmptyMessage(REDRAW);
+              }
+            });
+  }
+
+  /** Saves the entries of the cache so they can be restored after the process is restarted. */
+  public void persist(Context context) {
+    Map<NumberWithCountryIso, ContactInfo> entries = cache.snapshot();
+    if (entries.isEmpty()) {
+      return;
+    }
+    Context appContext = context.getApplicationContext();
+    DialerExecutorComponent.get(appContext)
+        .backgroundExecutor()
+        .execute(() -> ContactInfoDiskCache.write(appContext, entries));
+  }
+
   /**
    * After a delay, start the thread to begin processing requests. We perform lookups on a
    * background thread, but this must be called to indicate the thread should be running.
@@ -273,6 +453,247 @@ public class ContactInfoCache {
     stopRequestProcessing();
   }
 
+  /**
+   * Expires only the entries affected by contacts changed or deleted in CP2 since the previous
+   * call, leaving every other entry valid. Entries are affected if they were resolved to one of
+   * those contacts, or if their number matches a number of a changed contact.
+   *
+   * <p>The first call on an instance expires the whole cache, since the cache may be retained from
+   * before the instance existed and changes made in the meantime are unknown. Later calls look the
+   * changes up in the background and redraw if any entry was expired.
+   */
+  @MainThread
+  public void invalidateChangedContacts(Context context) {
+    Context appContext = context.getApplicationContext();
+    if (!hasInvalidated || !PermissionsUtil.hasContactsReadPermissions(context)) {
+      hasInvalidated = true;
+      long nowMillis = System.currentTimeMillis();
+      cache.expireAll();
+      DialerExecutorComponent.get(appContext)
+          .backgroundExecutor()
+          .execute(() -> resetContactsWatermark(nowMillis));
+      return;
+    }
+    DialerExecutorComponent.get(appContext)
+        .backgroundExecutor()
+        .execute(() -> expireChangedContacts(appContext));
+  }
+
+  @WorkerThread
+  private void resetContactsWatermark(long watermarkMillis) {
+    synchronized (invalidationLock) {
+      contactsWatermarkMillis = watermarkMillis;
+    }
+  }
+
+  @WorkerThread
+  private void expireChangedContacts(Context context) {
+    Assert.isWorkerThread();
+    synchronized (invalidationLock) {
+      // Read the clock first so changes that land during the queries are seen next time.
+      long startMillis = System.currentTimeMillis();
+      String watermark = Long.toString(contactsWatermarkMillis);
+
+      Set<Long> changedContactIds = new ArraySet<>();
+      Set<Long> deletedContactIds = new ArraySet<>();
+      boolean success =
+          queryContactIds(
+                  context,
+                  Contacts.CONTENT_URI,
+                  Contacts._ID,
+                  Contacts.CONTACT_LAST_UPDATED_TIMESTAMP,
+                  watermark,
+                  changedContactIds)
+              && queryContactIds(
+                  context,
+                  DeletedContacts.CONTENT_URI,
+                  DeletedContacts.CONTACT_ID,
+                  DeletedContacts.CONTACT_DELETED_TIMESTAMP,
+                  watermark,
+                  deletedContactIds);
+      contactsWatermarkMillis = startMillis;
+      if (!success || changedContactIds.size() + deletedContactIds.size() > MAX_CHANGED_CONTACTS) {
+        LogUtil.i(
+            "ContactInfoCache.expireChangedContacts",
+            "expiring all, success: %b, changed: %d, deleted: %d",
+            success,
+            changedContactIds.size(),
+            deletedContactIds.size());
+        cache.expireAll();
+        handler.sendEmptyMessage(REDRAW);
+        return;
+      }
+      if (changedContactIds.isEmpty() && deletedContactIds.isEmpty()) {
+        return;
+      }
+
+      List<String> changedNumbers = queryNumbers(context, changedContactIds);
+      Set<String> changedLookupKeys = queryLookupKeys(context, changedContactIds);
+      int expiredCount =
+          cache.expireIf(
+              (numberCountryIso, info) -> {
+                if (matchesAny(numberCountryIso.number, changedNumbers)) {
+                  return true;
+                }
+                if (!isLocalContact(info)) {
+                  return false;
+                }
+                long contactId = getContactId(info.lookupUri);
+                return changedContactIds.contains(contactId)
+                    || deletedContactIds.contains(contactId)
+                    || sharesLookupKey(info.lookupKey, changedLookupKeys);
+              });
+      LogUtil.i(
+          "ContactInfoCache.expireChangedContacts",
+          "changed: %d, deleted: %d, expired entries: %d",
+          changedContactIds.size(),
+          deletedContactIds.size(),
+          expiredCount);
+      if (expiredCount > 0) {
+        handler.sendEmptyMessage(REDRAW);
+      }
+    }
+  }
+
+  /** Adds the contact ids from {@code uri} whose {@code timestampColumn} is after the watermark. */
+  private static boolean queryContactIds(
+      Context context,
+      Uri uri,
+      String idColumn,
+      String timestampColumn,
+      String watermark,
+      Set<Long> contactIds) {
+    try (Cursor cursor =
+        context
+            .getContentResolver()
+            .query(
+                uri,
+                new String[] {idColumn},
+                timestampColumn + " > ?",
+                new String[] {watermark},
+                null)) {
+      if (cursor == null) {
+        return false;
+      }
+      while (cursor.moveToNext()) {
+        contactIds.add(cursor.getLong(0));
+      }
+      return true;
+    }
+  }
+
+  private static List<String> queryNumbers(Context context, Set<Long> contactIds) {
+    List<String> numbers = new ArrayList<>();
+    if (contactIds.isEmpty()) {
+      return numbers;
+    }
+    List<String> ids = new ArrayList<>(contactIds.size());
+    for (long contactId : contactIds) {
+      ids.add(Long.toString(contactId));
+    }
+    Selection selection = Selection.column(Phone.CONTACT_ID).in(ids);
+    try (Cursor cursor =
+        context
+            .getContentResolver()
+            .query(
+                Phone.CONTENT_URI,
+                new String[] {Phone.NUMBER},
+                selection.getSelection(),
+                selection.getSelectionArgs(),
+                null)) {
+      if (cursor != null) {
+        while (cursor.moveToNext()) {
+          if (!TextUtils.isEmpty(cursor.getString(0))) {
+            numbers.add(cursor.getString(0));
+          }
+        }
+      }
+    }
+    return numbers;
+  }
+
+  /** Returns true if {@code info} was resolved to a contact of the personal profile in CP2. */
+  private static boolean isLocalContact(ContactInfo info) {
+    if (info == null
+        || info.lookupUri == null
+        || info.userType == ContactsUtils.USER_TYPE_WORK
+        || UriUtils.isEncodedContactUri(info.lookupUri)) {
+      return false;
+    }
+    String directory = info.lookupUri.getQueryParameter(ContactsContract.DIRECTORY_PARAM_KEY);
+    return directory == null || directory.equals(String.valueOf(Directory.DEFAULT));
+  }
+
+  /**
+   * Returns the segments of the lookup keys of {@code contactIds}. A contact merged from others
+   * keeps their lookup keys as segments of its own.
+   */
+  private static Set<String> queryLookupKeys(Context context, Set<Long> contactIds) {
+    Set<String> lookupKeys = new ArraySet<>();
+    if (contactIds.isEmpty()) {
+      return lookupKeys;
+    }
+    List<String> ids = new ArrayList<>(contactIds.size());
+    for (long contactId : contactIds) {
+      ids.add(Long.toString(contactId));
+    }
+    Selection selection = Selection.column(Contacts._ID).in(ids);
+    try (Cursor cursor =
+        context
+            .getContentResolver()
+            .query(
+                Contacts.CONTENT_URI,
+                new String[] {Contacts.LOOKUP_KEY},
+                selection.getSelection(),
+                selection.getSelectionArgs(),
+                null)) {
+      if (cursor != null) {
+        while (cursor.moveToNext()) {
+          if (!TextUtils.isEmpty(cursor.getString(0))) {
+            lookupKeys.addAll(Arrays.asList(cursor.getString(0).split(LOOKUP_KEY_SEPARATOR)));
+          }
+        }
+      }
+    }
+    return lookupKeys;
+  }
+
+  private static boolean sharesLookupKey(@Nullable String lookupKey, Set<String> lookupKeys) {
+    if (TextUtils.isEmpty(lookupKey) || lookupKeys.isEmpty()) {
+      return false;
+    }
+    for (String segment : lookupKey.split(LOOKUP_KEY_SEPARATOR)) {
+      if (lookupKeys.contains(segment)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Returns the contact id {@code lookupUri} was built with, see {@link Contacts#getLookupUri(long,
+   * String)}, or -1 if it has none.
+   */
+  private static long getContactId(Uri lookupUri) {
+    try {
+      return ContentUris.parseId(lookupUri);
+    } catch (NumberFormatException | UnsupportedOperationException e) {
+      return -1;
+    }
+  }
+
+  private static boolean matchesAny(String number, List<String> numbers) {
+    if (TextUtils.isEmpty(number)) {
+      return false;
+    }
+    for (String other : numbers) {
+      if (PhoneNumberUtils.compare(number, other)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
   /**
    * Stops the background thread that processes updates and cancels any pending requests to start
    * it.
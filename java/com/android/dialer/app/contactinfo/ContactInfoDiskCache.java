@@ -0,0 +1,172 @@
+/*
+ * SPDX-FileCopyrightText: The LineageOS Project
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.android.dialer.app.contactinfo;
+
+import android.content.Context;
+import android.util.ArrayMap;
+import android.util.AtomicFile;
+
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import com.android.dialer.common.Assert;
+import com.android.dialer.common.LogUtil;
+import com.android.dialer.logging.ContactSource;
+import com.android.dialer.phonenumbercache.ContactInfo;
+import com.android.dialer.util.UriUtils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * On-disk copy of the entries of {@link ContactInfoCache}, so a cold start can show names and
+ * photos before the numbers have been looked up again.
+ *
+ * <p>Entries are written when the call log stops and read back into an empty cache. They are
+ * restored as expired, since contacts may have changed while the process wasn't running, and are
+ * revalidated as their rows are shown.
+ */
+final class ContactInfoDiskCache {
+
+  private static final String FILE_NAME = "contact_info_cache";
+
+  /** Bump whenever the file format changes. */
+  private static final int VERSION = 2;
+
+  private ContactInfoDiskCache() {}
+
+  /** Returns the entries written by {@link #write}, or an empty map if there are none. */
+  @WorkerThread
+  static synchronized Map<NumberWithCountryIso, ContactInfo> read(Context context) {
+    Assert.isWorkerThread();
+    Map<NumberWithCountryIso, ContactInfo> entries = new ArrayMap<>();
+    AtomicFile file = getFile(context);
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(file.openRead()))) {
+      if (in.readInt() != VERSION) {
+        return entries;
+      }
+      int count = in.readInt();
+      for (int i = 0; i < count; i++) {
+        NumberWithCountryIso key =
+            new NumberWithCountryIso(readNullableString(in), readNullableString(in));
+        entries.put(key, readContactInfo(in));
+      }
+    } catch (FileNotFoundException e) {
+      // No entries were written yet.
+    } catch (IOException e) {
+      LogUtil.e("ContactInfoDiskCache.read", "unable to read entries", e);
+      file.delete();
+      entries.clear();
+    }
+    return entries;
+  }
+
+  /** Replaces the entries on disk with {@code entries}, leaving out empty placeholders. */
+  @WorkerThread
+  static synchronized void write(
+      Context context, Map<NumberWithCountryIso, ContactInfo> entries) {
+    Assert.isWorkerThread();
+    AtomicFile file = getFile(context);
+    FileOutputStream stream = null;
+    try {
+      stream = file.startWrite();
+      DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+      out.writeInt(VERSION);
+      int count = 0;
+      for (ContactInfo info : entries.values()) {
+        if (!ContactInfo.EMPTY.equals(info)) {
+          count++;
+        }
+      }
+      out.writeInt(count);
+      for (Map.Entry<NumberWithCountryIso, ContactInfo> entry : entries.entrySet()) {
+        if (ContactInfo.EMPTY.equals(entry.getValue())) {
+          continue;
+        }
+        writeNullableString(out, entry.getKey().number);
+        writeNullableString(out, entry.getKey().countryIso);
+        writeContactInfo(out, entry.getValue());
+      }
+      out.flush();
+      file.finishWrite(stream);
+    } catch (IOException e) {
+      LogUtil.e("ContactInfoDiskCache.write", "unable to write entries", e);
+      if (stream != null) {
+        file.failWrite(stream);
+      }
+    }
+  }
+
+  private static ContactInfo readContactInfo(DataInputStream in) throws IOException {
+    ContactInfo info = new ContactInfo();
+    info.lookupUri = UriUtils.parseUriOrNull(readNullableString(in));
+    info.lookupKey = readNullableString(in);
+    info.name = readNullableString(in);
+    info.nameAlternative = readNullableString(in);
+    info.type = in.readInt();
+    info.label = readNullableString(in);
+    info.number = readNullableString(in);
+    info.formattedNumber = readNullableString(in);
+    info.geoDescription = readNullableString(in);
+    info.normalizedNumber = readNullableString(in);
+    info.photoId = in.readLong();
+    info.photoUri = UriUtils.parseUriOrNull(readNullableString(in));
+    info.isBadData = in.readBoolean();
+    info.objectId = readNullableString(in);
+    info.userType = in.readLong();
+    ContactSource.Type sourceType = ContactSource.Type.forNumber(in.readInt());
+    info.sourceType = sourceType == null ? ContactSource.Type.UNKNOWN_SOURCE_TYPE : sourceType;
+    info.contactExists = in.readBoolean();
+    info.carrierPresence = in.readInt();
+    return info;
+  }
+
+  private static void writeContactInfo(DataOutputStream out, ContactInfo info)
+      throws IOException {
+    writeNullableString(out, info.lookupUri == null ? null : info.lookupUri.toString());
+    writeNullableString(out, info.lookupKey);
+    writeNullableString(out, info.name);
+    writeNullableString(out, info.nameAlternative);
+    out.writeInt(info.type);
+    writeNullableString(out, info.label);
+    writeNullableString(out, info.number);
+    writeNullableString(out, info.formattedNumber);
+    writeNullableString(out, info.geoDescription);
+    writeNullableString(out, info.normalizedNumber);
+    out.writeLong(info.photoId);
+    writeNullableString(out, info.photoUri == null ? null : info.photoUri.toString());
+    out.writeBoolean(info.isBadData);
+    writeNullableString(out, info.objectId);
+    out.writeLong(info.userType);
+    out.writeInt(info.sourceType.getNumber());
+    out.writeBoolean(info.contactExists);
+    out.writeInt(info.carrierPresence);
+  }
+
+  private static AtomicFile getFile(Context context) {
+    return new AtomicFile(new File(context.getCacheDir(), FILE_NAME));
+  }
+
+  @Nullable
+  private static String readNullableString(DataInputStream in) throws IOException {
+    return in.readBoolean() ? in.readUTF() : null;
+  }
+
+  private static void writeNullableString(DataOutputStream out, @Nullable String value)
+      throws IOException {
+    out.writeBoolean(value != null);
+    if (value != null) {
+      out.writeUTF(value);
+    }
+  }
+}
@@ -0,0 +1,255 @@
+/*
+ * SPDX-FileCopyrightText: The LineageOS Project
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.android.dialer.blocking;
+
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.provider.BlockedNumberContract;
+import android.provider.BlockedNumberContract.BlockedNumbers;
+import android.telephony.PhoneNumberUtils;
+import android.text.TextUtils;
+
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import com.android.dialer.common.Assert;
+import com.android.dialer.common.LogUtil;
+import com.google.common.collect.ImmutableSet;
+
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.UnaryOperator;
+
+/**
+ * Memory resident copy of the system blocked number list.
+ *
+ * <p>The list is read from {@link BlockedNumbers#CONTENT_URI} the first time it is needed, and
+ * read again after a {@link ContentObserver} on the blocked number provider reports a change.
+ * Every lookup in between is answered from hash sets of the original and E.164 forms of the
+ * blocked numbers, instead of two binder calls per number. Blocking and unblocking through {@link
+ * Blocking} or {@link FilteredNumberAsyncQueryHandler} updates the snapshot right away.
+ *
+ * <p>The sets are immutable and swapped as a whole, and the list is read without holding a lock
+ * they need, so those updates, which happen on the main thread, never wait for the provider.
+ *
+ * <p>If the list can't be read, e.g. because the app isn't the default dialer, lookups fall back
+ * to {@link BlockedNumberContract#isBlocked(Context, String)}.
+ */
+public final class BlockedNumberSnapshot {
+
+  private static BlockedNumberSnapshot instance;
+
+  private final Context appContext;
+  private final ContentObserver blockedNumbersObserver =
+      new ContentObserver(null) {
+        @Override
+        public void onChange(boolean selfChange) {
+          stale = true;
+        }
+      };
+
+  private final AtomicReference<State> state = new AtomicReference<>(State.UNAVAILABLE);
+  // Held while reading the list, so concurrent lookups don't read it more than once.
+  private final Object refreshLock = new Object();
+
+  private boolean observerRegistered;
+  private volatile boolean stale = true;
+
+  public static synchronized BlockedNumberSnapshot get(Context context) {
+    if (instance == null) {
+      instance = new BlockedNumberSnapshot(context.getApplicationContext());
+    }
+    return instance;
+  }
+
+  private BlockedNumberSnapshot(Context appContext) {
+    this.appContext = appContext;
+  }
+
+  /**
+   * Returns true if {@code number} is blocked.
+   *
+   * @param countryIso used to format {@code number} to E.164 if it doesn't have a country code
+   */
+  @WorkerThread
+  public boolean isBlocked(@Nullable String number, @Nullable String countryIso) {
+    Assert.isWorkerThread();
+    if (TextUtils.isEmpty(number)) {
+      return false;
+    }
+    if (stale) {
+      synchronized (refreshLock) {
+        if (stale) {
+          refresh();
+        }
+      }
+    }
+    State current = state.get();
+    if (!current.canBlockNumbers) {
+      return false;
+    }
+    if (current.available) {
+      if (current.numbers.contains(PhoneNumberUtils.normalizeNumber(number))) {
+        return true;
+      }
+      String e164Number = PhoneNumberUtils.formatNumberToE164(number, countryIso);
+      return e164Number != null
+          && (current.e164Numbers.contains(e164Number) || current.numbers.contains(e164Number));
+    }
+    return BlockedNumberContract.isBlocked(appContext, number);
+  }
+
+  /** Records that {@code number} was blocked, ahead of the provider's change notification. */
+  void onBlocked(@Nullable String number, @Nullable String e164Number) {
+    String normalizedNumber = normalize(number);
+    String e164 = TextUtils.isEmpty(e164Number) ? null : e164Number;
+    update(
+        current ->
+            current.with(
+                plus(current.numbers, normalizedNumber), plus(current.e164Numbers, e164)));
+  }
+
+  /** Records that {@code number} was unblocked, ahead of the provider's change notification. */
+  void onUnblocked(@Nullable String number, @Nullable String e164Number) {
+    String normalizedNumber = normalize(number);
+    String e164 = TextUtils.isEmpty(e164Number) ? null : e164Number;
+    update(
+        current ->
+            current.with(
+                minus(minus(current.numbers, normalizedNumber), e164),
+                minus(current.e164Numbers, e164)));
+  }
+
+  @Nullable
+  private static String normalize(@Nullable String number) {
+    return TextUtils.isEmpty(number) ? null : PhoneNumberUtils.normalizeNumber(number);
+  }
+
+  private void update(UnaryOperator<State> change) {
+    State current;
+    do {
+      current = state.get();
+    } while (!state.compareAndSet(current, change.apply(current)));
+  }
+
+  private static ImmutableSet<String> plus(ImmutableSet<String> set, @Nullable String value) {
+    if (value == null || set.contains(value)) {
+      return set;
+    }
+    return ImmutableSet.<String>builderWithExpectedSize(set.size() + 1)
+        .addAll(set)
+        .add(value)
+        .build();
+  }
+
+  private static ImmutableSet<String> minus(ImmutableSet<String> set, @Nullable String value) {
+    if (value == null || !set.contains(value)) {
+      return set;
+    }
+    ImmutableSet.Builder<String> builder = ImmutableSet.builderWithExpectedSize(set.size() - 1);
+    for (String element : set) {
+      if (!element.equals(value)) {
+        builder.add(element);
+      }
+    }
+    return builder.build();
+  }
+
+  private void refresh() {
+    if (!observerRegistered) {
+      appContext
+          .getContentResolver()
+          .registerContentObserver(
+              BlockedNumberContract.AUTHORITY_URI, true, blockedNumbersObserver);
+      observerRegistered = true;
+    }
+    // Clear the flag before querying so changes that land during the load trigger another pass.
+    stale = false;
+    State base = state.get();
+    State loaded = load();
+    if (!state.compareAndSet(base, loaded)) {
+      // A number was blocked or unblocked meanwhile, and may be missing from the list read. Keep
+      // that update, and read the list again on the next lookup.
+      stale = true;
+    } else if (loaded == State.UNAVAILABLE) {
+      stale = true;
+    }
+  }
+
+  private State load() {
+    if (!BlockedNumberContract.canCurrentUserBlockNumbers(appContext)) {
+      return State.NOT_ALLOWED;
+    }
+    ImmutableSet.Builder<String> numbers = ImmutableSet.builder();
+    ImmutableSet.Builder<String> e164Numbers = ImmutableSet.builder();
+    try (Cursor cursor =
+        appContext
+            .getContentResolver()
+            .query(
+                BlockedNumbers.CONTENT_URI,
+                new String[] {
+                  BlockedNumbers.COLUMN_ORIGINAL_NUMBER, BlockedNumbers.COLUMN_E164_NUMBER
+                },
+                null,
+                null,
+                null)) {
+      if (cursor == null) {
+        return State.UNAVAILABLE;
+      }
+      while (cursor.moveToNext()) {
+        String number = cursor.getString(0);
+        String e164Number = cursor.getString(1);
+        if (!TextUtils.isEmpty(number)) {
+          numbers.add(PhoneNumberUtils.normalizeNumber(number));
+        }
+        if (!TextUtils.isEmpty(e164Number)) {
+          e164Numbers.add(e164Number);
+        }
+      }
+    } catch (SecurityException e) {
+      LogUtil.e("BlockedNumberSnapshot.load", "unable to read blocked numbers", e);
+      return State.UNREADABLE;
+    }
+    State loaded = new State(true, true, numbers.build(), e164Numbers.build());
+    LogUtil.i("BlockedNumberSnapshot.load", "blocked numbers: %d", loaded.numbers.size());
+    return loaded;
+  }
+
+  /** Immutable result of reading the blocked number list. */
+  private static final class State {
+    /** The list wasn't read yet, or the provider returned no cursor. */
+    static final State UNAVAILABLE = new State(true, false, ImmutableSet.of(), ImmutableSet.of());
+    /** The current user can't block numbers. */
+    static final State NOT_ALLOWED = new State(false, false, ImmutableSet.of(), ImmutableSet.of());
+    /** The list can't be read, e.g. because the app isn't the default dialer. */
+    static final State UNREADABLE = new State(true, false, ImmutableSet.of(), ImmutableSet.of());
+
+    final boolean canBlockNumbers;
+    final boolean available;
+    // Normalized original numbers and E.164 numbers of every blocked number.
+    final ImmutableSet<String> numbers;
+    final ImmutableSet<String> e164Numbers;
+
+    State(
+        boolean canBlockNumbers,
+        boolean available,
+        ImmutableSet<String> numbers,
+        ImmutableSet<String> e164Numbers) {
+      this.canBlockNumbers = canBlockNumbers;
+      this.available = available;
+      this.numbers = numbers;
+      this.e164Numbers = e164Numbers;
+    }
+
+    /** Returns a copy with the given sets, unless the list isn't available, in which case no-op. */
+    State with(ImmutableSet<String> numbers, ImmutableSet<String> e164Numbers) {
+      if (!available || (numbers == this.numbers && e164Numbers == this.e164Numbers)) {
+        return this;
+      }
+      return new State(canBlockNumbers, available, numbers, e164Numbers);
+    }
+  }
+}
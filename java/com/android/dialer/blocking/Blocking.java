@@ -78,6 +78,7 @@ public final class Blocking {
         .submit(
             () -> {
               ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+              List<String> e164Numbers = new ArrayList<>();
               for (String number : numbers) {
                 ContentValues values = new ContentValues();
                 values.put(BlockedNumbers.COLUMN_ORIGINAL_NUMBER, number);
@@ -85,12 +86,18 @@ public final class Blocking {
                 if (e164Number != null) {
                   values.put(BlockedNumbers.COLUMN_E164_NUMBER, e164Number);
                 }
+                e164Numbers.add(e164Number);
                 operations.add(
                     ContentProviderOperation.newInsert(BlockedNumbers.CONTENT_URI)
                         .withValues(values)
                         .build());
               }
               applyBatchOps(context.getContentResolver(), operations);
+              BlockedNumberSnapshot snapshot = BlockedNumberSnapshot.get(context);
+              int i = 0;
+              for (String number : numbers) {
+                snapshot.onBlocked(number, e164Numbers.get(i++));
+              }
               return null;
             });
   }
@@ -110,6 +117,7 @@ public final class Blocking {
         .submit(
             () -> {
               ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+              List<String> e164Numbers = new ArrayList<>();
               for (String number : numbers) {
                 Selection selection =
                     Selection.column(BlockedNumbers.COLUMN_ORIGINAL_NUMBER).is("=", number);
@@ -123,12 +131,18 @@ public final class Blocking {
                                   .is("=", e164Number))
                           .build();
                 }
+                e164Numbers.add(e164Number);
                 operations.add(
                     ContentProviderOperation.newDelete(BlockedNumbers.CONTENT_URI)
                         .withSelection(selection.getSelection(), selection.getSelectionArgs())
                         .build());
               }
               applyBatchOps(context.getContentResolver(), operations);
+              BlockedNumberSnapshot snapshot = BlockedNumberSnapshot.get(context);
+              int i = 0;
+              for (String number : numbers) {
+                snapshot.onUnblocked(number, e164Numbers.get(i++));
+              }
               return null;
             });
   }
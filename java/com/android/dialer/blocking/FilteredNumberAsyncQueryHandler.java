@@ -98,6 +98,12 @@ public class FilteredNumberAsyncQueryHandler extends AsyncQueryHandler {
         new Listener() {
           @Override
           public void onInsertComplete(int token, Object cookie, Uri uri) {
+            if (uri != null) {
+              BlockedNumberSnapshot.get(context)
+                  .onBlocked(
+                      values.getAsString(BlockedNumbers.COLUMN_ORIGINAL_NUMBER),
+                      values.getAsString(BlockedNumbers.COLUMN_E164_NUMBER));
+            }
             if (listener != null) {
               listener.onBlockComplete(uri);
             }
@@ -140,18 +140,19 @@ class CallStatsAdapter extends RecyclerView.Adapter {
     }
   }
 
-  public void updateData(Map<ContactInfo, CallStatsDetails> calls, long from, long to) {
+  public void updateData(Map<ContactInfo, CallStatsDetails> calls, CallStatsDetails total,
+      long from, long to) {
     mInfoLookup.clear();
     mFilterFrom = from;
     mFilterTo = to;
 
     mAllItems.clear();
     mTotalItem.reset();
+    mTotalItem.mergeWith(total);
 
     for (Map.Entry<ContactInfo, CallStatsDetails> entry : calls.entrySet()) {
       final CallStatsDetails call = entry.getValue();
       mAllItems.add(call);
-      mTotalItem.mergeWith(call);
       mInfoLookup.put(call, entry.getKey());
     }
   }
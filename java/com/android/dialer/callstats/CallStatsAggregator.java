@@ -0,0 +1,232 @@
+/*
+ * SPDX-FileCopyrightText: The LineageOS Project
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.android.dialer.callstats;
+
+import android.database.Cursor;
+import android.telecom.PhoneAccountHandle;
+
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import com.android.dialer.common.LogUtil;
+import com.android.dialer.phonenumbercache.ContactInfo;
+import com.android.dialer.phonenumberutil.PhoneNumberComparisonKeys;
+import com.android.dialer.telecom.TelecomUtil;
+import com.android.dialer.util.UriUtils;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Aggregates the calls returned by {@link CallStatsQuery} per number.
+ *
+ * <p>Calls are grouped in a single pass by the {@link PhoneNumberComparisonKeys comparison key} of
+ * their number, so the query doesn't need to be sorted by number and numbers aren't compared
+ * pairwise. The contact info and details of a number are taken from its first call in cursor
+ * order. Large results are split into partitions which are grouped in parallel and then merged in
+ * order.
+ */
+final class CallStatsAggregator {
+
+  private static final int MIN_PARTITION_SIZE = 2000;
+  private static final int MAX_PARTITIONS = 4;
+
+  /** Calls per number, along with the totals over all of them. */
+  static final class Result {
+    final Map<ContactInfo, CallStatsDetails> calls;
+    final CallStatsDetails total;
+
+    Result(Map<ContactInfo, CallStatsDetails> calls, CallStatsDetails total) {
+      this.calls = calls;
+      this.total = total;
+    }
+  }
+
+  private final int count;
+  private final String[] numbers;
+  private final String[] countryIsos;
+  private final int[] callTypes;
+  private final long[] durations;
+
+  private CallStatsAggregator(int count) {
+    this.count = count;
+    numbers = new String[count];
+    countryIsos = new String[count];
+    callTypes = new int[count];
+    durations = new long[count];
+  }
+
+  /**
+   * Aggregates every row of {@code cursor}.
+   *
+   * @param executor runs partitions besides the first one, or null to aggregate on this thread only
+   */
+  @WorkerThread
+  static Result aggregate(@Nullable Cursor cursor, @Nullable ExecutorService executor) {
+    if (cursor == null) {
+      return new Result(new HashMap<>(), newCounts());
+    }
+
+    CallStatsAggregator aggregator = new CallStatsAggregator(cursor.getCount());
+    cursor.moveToPosition(-1);
+    for (int i = 0; cursor.moveToNext(); i++) {
+      aggregator.numbers[i] = cursor.getString(CallStatsQuery.NUMBER);
+      aggregator.countryIsos[i] = cursor.getString(CallStatsQuery.COUNTRY_ISO);
+      aggregator.callTypes[i] = cursor.getInt(CallStatsQuery.CALL_TYPE);
+      aggregator.durations[i] = cursor.getLong(CallStatsQuery.DURATION);
+    }
+
+    int partitionCount =
+        executor == null ? 1 : Math.min(MAX_PARTITIONS, aggregator.count / MIN_PARTITION_SIZE);
+    Partition merged = aggregator.aggregatePartitions(Math.max(partitionCount, 1), executor);
+    return aggregator.createResult(cursor, merged);
+  }
+
+  private Partition aggregatePartitions(int partitionCount, @Nullable ExecutorService executor) {
+    int partitionSize = (count + partitionCount - 1) / partitionCount;
+    List<Future<Partition>> futures = new ArrayList<>();
+    for (int i = 1; i < partitionCount; i++) {
+      int start = i * partitionSize;
+      int end = Math.min(count, start + partitionSize);
+      futures.add(executor.submit(() -> aggregate(start, end)));
+    }
+
+    Partition merged = aggregate(0, Math.min(count, partitionSize));
+    for (int i = 1; i < partitionCount; i++) {
+      int start = i * partitionSize;
+      int end = Math.min(count, start + partitionSize);
+      Partition partition;
+      try {
+        partition = futures.get(i - 1).get();
+      } catch (ExecutionException e) {
+        LogUtil.e("CallStatsAggregator.aggregatePartitions", "partition failed", e);
+        partition = aggregate(start, end);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        partition = aggregate(start, end);
+      }
+      merged.mergeWith(partition);
+    }
+    return merged;
+  }
+
+  private Partition aggregate(int start, int end) {
+    Partition partition = new Partition();
+    for (int position = start; position < end; position++) {
+      String key = PhoneNumberComparisonKeys.get(numbers[position], countryIsos[position]);
+      Group group = key == null ? null : partition.groups.get(key);
+      if (group == null) {
+        group = new Group(position);
+        if (key == null) {
+          // Empty numbers never match, every such call is a separate entry.
+          partition.unkeyedGroups.add(group);
+        } else {
+          partition.groups.put(key, group);
+        }
+      }
+      group.counts.addTimeOrMissed(callTypes[position], durations[position]);
+    }
+    return partition;
+  }
+
+  private Result createResult(Cursor cursor, Partition merged) {
+    Map<ContactInfo, CallStatsDetails> calls = new HashMap<>();
+    CallStatsDetails total = newCounts();
+    List<Group> groups = new ArrayList<>(merged.groups.values());
+    groups.addAll(merged.unkeyedGroups);
+    for (Group group : groups) {
+      cursor.moveToPosition(group.firstPosition);
+      addDetails(cursor, group.counts, calls, total);
+    }
+    return new Result(calls, total);
+  }
+
+  /**
+   * Adds the details of the number of the call at the cursor's position, along with {@code counts},
+   * to {@code calls} and {@code total}. The cursor must use the {@link CallStatsQuery} projection.
+   */
+  static void addDetails(
+      Cursor cursor,
+      CallStatsDetails counts,
+      Map<ContactInfo, CallStatsDetails> calls,
+      CallStatsDetails total) {
+    ContactInfo info = getContactInfoFromCallStats(cursor);
+    PhoneAccountHandle accountHandle =
+        TelecomUtil.composePhoneAccountHandle(
+            cursor.getString(CallStatsQuery.ACCOUNT_COMPONENT_NAME),
+            cursor.getString(CallStatsQuery.ACCOUNT_ID));
+    CallStatsDetails details =
+        new CallStatsDetails(
+            cursor.getString(CallStatsQuery.NUMBER),
+            cursor.getInt(CallStatsQuery.NUMBER_PRESENTATION),
+            cursor.getString(CallStatsQuery.POST_DIAL_DIGITS),
+            accountHandle,
+            info,
+            cursor.getString(CallStatsQuery.COUNTRY_ISO),
+            cursor.getString(CallStatsQuery.GEOCODED_LOCATION),
+            cursor.getLong(CallStatsQuery.DATE));
+    details.mergeWith(counts);
+    total.mergeWith(counts);
+    calls.put(info, details);
+  }
+
+  private static ContactInfo getContactInfoFromCallStats(Cursor c) {
+    ContactInfo info = new ContactInfo();
+    info.lookupUri = UriUtils.parseUriOrNull(c.getString(CallStatsQuery.CACHED_LOOKUP_URI));
+    info.name = c.getString(CallStatsQuery.CACHED_NAME);
+    info.type = c.getInt(CallStatsQuery.CACHED_NUMBER_TYPE);
+    info.label = c.getString(CallStatsQuery.CACHED_NUMBER_LABEL);
+
+    final String matchedNumber = c.getString(CallStatsQuery.CACHED_MATCHED_NUMBER);
+    info.number = matchedNumber == null ? c.getString(CallStatsQuery.NUMBER) : matchedNumber;
+    info.normalizedNumber = c.getString(CallStatsQuery.CACHED_NORMALIZED_NUMBER);
+    info.formattedNumber = c.getString(CallStatsQuery.CACHED_FORMATTED_NUMBER);
+
+    info.photoId = c.getLong(CallStatsQuery.CACHED_PHOTO_ID);
+    info.photoUri = null; // We do not cache the photo URI.
+
+    return info;
+  }
+
+  /** Returns details without a number, used to hold counts and durations. */
+  static CallStatsDetails newCounts() {
+    return new CallStatsDetails(null, 0, null, null, null, null, null, 0);
+  }
+
+  /** Groups of a contiguous range of rows, in the order their numbers first appear. */
+  private static final class Partition {
+    final Map<String, Group> groups = new LinkedHashMap<>();
+    final List<Group> unkeyedGroups = new ArrayList<>();
+
+    /** Adds the groups of {@code other}, which must cover the rows following this partition. */
+    void mergeWith(Partition other) {
+      for (Map.Entry<String, Group> entry : other.groups.entrySet()) {
+        Group group = groups.get(entry.getKey());
+        if (group == null) {
+          groups.put(entry.getKey(), entry.getValue());
+        } else {
+          group.counts.mergeWith(entry.getValue().counts);
+        }
+      }
+      unkeyedGroups.addAll(other.unkeyedGroups);
+    }
+  }
+
+  private static final class Group {
+    final int firstPosition;
+    final CallStatsDetails counts = newCounts();
+
+    Group(int firstPosition) {
+      this.firstPosition = firstPosition;
+    }
+  }
+}
@@ -101,7 +101,7 @@ public class CallStatsFragment extends Fragment implements
     super.onCreate(state);
 
     final ContentResolver cr = requireActivity().getContentResolver();
-    mCallStatsQueryHandler = new CallStatsQueryHandler(cr, this);
+    mCallStatsQueryHandler = new CallStatsQueryHandler(requireActivity(), this);
     cr.registerContentObserver(CallLog.CONTENT_URI, true, mObserver);
     cr.registerContentObserver(ContactsContract.Contacts.CONTENT_URI, true, mObserver);
 
@@ -216,13 +216,13 @@ public class CallStatsFragment extends Fragment implements
    * fetched or updated.
    */
   @Override
-  public void onCallsFetched(Map<ContactInfo, CallStatsDetails> calls) {
+  public void onCallsFetched(Map<ContactInfo, CallStatsDetails> calls, CallStatsDetails total) {
     if (getActivity() == null || getActivity().isFinishing()) {
       return;
     }
 
     mDataLoaded = true;
-    mAdapter.updateData(calls, mFilterFrom, mFilterTo);
+    mAdapter.updateData(calls, total, mFilterFrom, mFilterTo);
     mAdapter.updateDisplayedData(mCallTypeFilter, mSortByDuration);
     updateHeader();
     updateEmptyVisibilityAndMessage();
@@ -19,7 +19,7 @@
 package com.android.dialer.callstats;
 
 import android.content.AsyncQueryHandler;
-import android.content.ContentResolver;
+import android.content.Context;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabaseCorruptException;
 import android.database.sqlite.SQLiteDiskIOException;
@@ -30,20 +30,16 @@ import android.os.Looper;
 import android.os.Message;
 import android.provider.CallLog.Calls;
 import android.telecom.PhoneAccountHandle;
-import android.telephony.PhoneNumberUtils;
 import android.util.Log;
 
+import com.android.dialer.common.concurrent.DialerExecutorComponent;
 import com.android.dialer.phonenumbercache.ContactInfo;
-import com.android.dialer.phonenumberutil.PhoneNumberHelper;
-import com.android.dialer.telecom.TelecomUtil;
-import com.android.dialer.util.UriUtils;
 import com.google.common.collect.Lists;
 
 import java.lang.ref.WeakReference;
-import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
 
 /**
  * Class to handle call-log queries, optionally with a date-range filter
@@ -52,12 +48,15 @@ public class CallStatsQueryHandler extends AsyncQueryHandler {
   private static final String[] EMPTY_STRING_ARRAY = new String[0];
 
   private static final int EVENT_PROCESS_DATA = 10;
+  private static final int EVENT_QUERY_ROLLUP = 11;
 
   private static final int QUERY_CALLS_TOKEN = 100;
 
   private static final String TAG = "CallStatsQueryHandler";
 
   private final WeakReference<Listener> mListener;
+  private final ExecutorService mExecutor;
+  private final CallStatsRollup mRollup;
   private Handler mWorkerThreadHandler;
 
   /**
@@ -71,6 +70,25 @@ public class CallStatsQueryHandler extends AsyncQueryHandler {
 
     @Override
     public void handleMessage(Message msg) {
+      if (msg.arg1 == EVENT_QUERY_ROLLUP) {
+        RangeQuery query = (RangeQuery) msg.obj;
+        CallStatsAggregator.Result result;
+        try {
+          mRollup.sync();
+          result = mRollup.query(query.from, query.to,
+              query.account == null ? null : query.account.getId());
+        } catch (SQLiteException | SecurityException e) {
+          Log.w(TAG, "Unable to use the call stats rollup, scanning the call log instead", e);
+          startCallLogQuery(query.from, query.to, query.account);
+          return;
+        }
+        Message reply = CallStatsQueryHandler.this.obtainMessage(msg.what);
+        reply.obj = result;
+        reply.arg1 = EVENT_PROCESS_DATA;
+        reply.sendToTarget();
+        return;
+      }
+
       if (msg.arg1 == EVENT_PROCESS_DATA) {
         Cursor cursor = (Cursor) msg.obj;
         Message reply = CallStatsQueryHandler.this.obtainMessage(msg.what);
@@ -96,14 +114,28 @@ public class CallStatsQueryHandler extends AsyncQueryHandler {
     return mWorkerThreadHandler;
   }
 
-  public CallStatsQueryHandler(ContentResolver contentResolver, Listener listener) {
-    super(contentResolver);
+  public CallStatsQueryHandler(Context context, Listener listener) {
+    super(context.getContentResolver());
     mListener = new WeakReference<>(listener);
+    mExecutor = DialerExecutorComponent.get(context).lowPriorityThreadPool();
+    mRollup = CallStatsRollup.get(context);
   }
 
+  /**
+   * Fetches the stats of the calls between {@code from} and {@code to}, which are -1 for no bound.
+   * They are read from the {@link CallStatsRollup}, which is brought up to date first.
+   */
   public void fetchCalls(long from, long to, PhoneAccountHandle account) {
     cancelOperation(QUERY_CALLS_TOKEN);
 
+    Message msg = mWorkerThreadHandler.obtainMessage(QUERY_CALLS_TOKEN);
+    msg.arg1 = EVENT_QUERY_ROLLUP;
+    msg.obj = new RangeQuery(from, to, account);
+    mWorkerThreadHandler.sendMessage(msg);
+  }
+
+  /** Scans the call log for the calls between {@code from} and {@code to}. */
+  private void startCallLogQuery(long from, long to, PhoneAccountHandle account) {
     StringBuilder selection = new StringBuilder();
     List<String> selectionArgs = Lists.newArrayList();
 
@@ -128,7 +160,7 @@ public class CallStatsQueryHandler extends AsyncQueryHandler {
 
     startQuery(QUERY_CALLS_TOKEN, null, Calls.CONTENT_URI_WITH_VOICEMAIL,
         CallStatsQuery._PROJECTION, selection.toString(),
-        selectionArgs.toArray(EMPTY_STRING_ARRAY), Calls.NUMBER + " ASC");
+        selectionArgs.toArray(EMPTY_STRING_ARRAY), Calls.DATE + " DESC");
   }
 
   @Override
@@ -145,120 +177,39 @@ public class CallStatsQueryHandler extends AsyncQueryHandler {
   @Override
   public void handleMessage(Message msg) {
     if (msg.arg1 == EVENT_PROCESS_DATA) {
-      final Map<ContactInfo, CallStatsDetails> calls =
-          (Map<ContactInfo, CallStatsDetails>) msg.obj;
+      final CallStatsAggregator.Result result = (CallStatsAggregator.Result) msg.obj;
       final Listener listener = mListener.get();
       if (listener != null) {
-        listener.onCallsFetched(calls);
+        listener.onCallsFetched(result.calls, result.total);
       }
     } else {
       super.handleMessage(msg);
     }
   }
 
-  private Map<ContactInfo, CallStatsDetails> processData(Cursor cursor) {
-    final Map<ContactInfo, CallStatsDetails> result = new HashMap<>();
-    final ArrayList<ContactInfo> infos = new ArrayList<>();
-    final ArrayList<CallStatsDetails> calls = new ArrayList<>();
-    CallStatsDetails pending = null;
-
-    cursor.moveToFirst();
-
-    while (!cursor.isAfterLast()) {
-      final String number = cursor.getString(CallStatsQuery.NUMBER);
-      final long duration = cursor.getLong(CallStatsQuery.DURATION);
-      final int callType = cursor.getInt(CallStatsQuery.CALL_TYPE);
-
-      if (pending == null || !phoneNumbersEqual(pending.number.toString(), number)) {
-        final long date = cursor.getLong(CallStatsQuery.DATE);
-        final int numberPresentation = cursor.getInt(CallStatsQuery.NUMBER_PRESENTATION);
-        final String countryIso = cursor.getString(CallStatsQuery.COUNTRY_ISO);
-        final String geocode = cursor.getString(CallStatsQuery.GEOCODED_LOCATION);
-        final String postDialDigits = cursor.getString(CallStatsQuery.POST_DIAL_DIGITS);
-        final ContactInfo info = getContactInfoFromCallStats(cursor);
-        final PhoneAccountHandle accountHandle = TelecomUtil.composePhoneAccountHandle(
-            cursor.getString(CallStatsQuery.ACCOUNT_COMPONENT_NAME),
-            cursor.getString(CallStatsQuery.ACCOUNT_ID));
-
-        pending = new CallStatsDetails(number, numberPresentation, postDialDigits,
-            accountHandle, info, countryIso, geocode, date);
-        infos.add(info);
-        calls.add(pending);
+  private CallStatsAggregator.Result processData(Cursor cursor) {
+    try {
+      return CallStatsAggregator.aggregate(cursor, mExecutor);
+    } finally {
+      if (cursor != null) {
+        cursor.close();
       }
-
-      pending.addTimeOrMissed(callType, duration);
-      cursor.moveToNext();
-    }
-
-    cursor.close();
-    mergeItemsByNumber(calls, infos);
-
-    for (int i = 0; i < calls.size(); i++) {
-      result.put(infos.get(i), calls.get(i));
     }
-
-    return result;
   }
 
-  private void mergeItemsByNumber(List<CallStatsDetails> calls, List<ContactInfo> infos) {
-    // temporarily store items marked for removal
-    final ArrayList<CallStatsDetails> callsToRemove = new ArrayList<>();
-    final ArrayList<ContactInfo> infosToRemove = new ArrayList<>();
-
-    for (int i = 0; i < calls.size(); i++) {
-      final CallStatsDetails outerItem = calls.get(i);
-      final String currentFormattedNumber = outerItem.number.toString();
-
-      for (int j = calls.size() - 1; j > i; j--) {
-        final CallStatsDetails innerItem = calls.get(j);
-        final String innerNumber = innerItem.number.toString();
+  private static final class RangeQuery {
+    final long from;
+    final long to;
+    final PhoneAccountHandle account;
 
-        if (phoneNumbersEqual(currentFormattedNumber, innerNumber)) {
-          outerItem.mergeWith(innerItem);
-          //make sure we're not counting twice in case we're dealing with
-          //multiple different formats
-          innerItem.reset();
-          callsToRemove.add(innerItem);
-          infosToRemove.add(infos.get(j));
-        }
-      }
-    }
-
-    for (CallStatsDetails call : callsToRemove) {
-      calls.remove(call);
-    }
-    for (ContactInfo info : infosToRemove) {
-      infos.remove(info);
-    }
-  }
-
-  private ContactInfo getContactInfoFromCallStats(Cursor c) {
-    ContactInfo info = new ContactInfo();
-    info.lookupUri = UriUtils.parseUriOrNull(c.getString(CallStatsQuery.CACHED_LOOKUP_URI));
-    info.name = c.getString(CallStatsQuery.CACHED_NAME);
-    info.type = c.getInt(CallStatsQuery.CACHED_NUMBER_TYPE);
-    info.label = c.getString(CallStatsQuery.CACHED_NUMBER_LABEL);
-
-    final String matchedNumber = c.getString(CallStatsQuery.CACHED_MATCHED_NUMBER);
-    info.number = matchedNumber == null ? c.getString(CallStatsQuery.NUMBER) : matchedNumber;
-    info.normalizedNumber = c.getString(CallStatsQuery.CACHED_NORMALIZED_NUMBER);
-    info.formattedNumber = c.getString(CallStatsQuery.CACHED_FORMATTED_NUMBER);
-
-    info.photoId = c.getLong(CallStatsQuery.CACHED_PHOTO_ID);
-    info.photoUri = null; // We do not cache the photo URI.
-
-    return info;
-  }
-
-  private static boolean phoneNumbersEqual(String number1, String number2) {
-    if (PhoneNumberHelper.isUriNumber(number1) || PhoneNumberHelper.isUriNumber(number2)) {
-      return PhoneNumberHelper.compareSipAddresses(number1, number2);
-    } else {
-      return PhoneNumberUtils.compare(number1, number2);
+    RangeQuery(long from, long to, PhoneAccountHandle account) {
+      this.from = from;
+      this.to = to;
+      this.account = account;
     }
   }
 
   public interface Listener {
-    void onCallsFetched(Map<ContactInfo, CallStatsDetails> calls);
+    void onCallsFetched(Map<ContactInfo, CallStatsDetails> calls, CallStatsDetails total);
   }
 }
@@ -0,0 +1,545 @@
+/*
+ * SPDX-FileCopyrightText: The LineageOS Project
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.android.dialer.callstats;
+
+import static com.android.dialer.callstats.CallStatsRollupDatabaseHelper.ACCOUNT_ID;
+import static com.android.dialer.callstats.CallStatsRollupDatabaseHelper.BLOCKED_COUNT;
+import static com.android.dialer.callstats.CallStatsRollupDatabaseHelper.CALL_TYPE;
+import static com.android.dialer.callstats.CallStatsRollupDatabaseHelper.DAY;
+import static com.android.dialer.callstats.CallStatsRollupDatabaseHelper.DURATION;
+import static com.android.dialer.callstats.CallStatsRollupDatabaseHelper.INCOMING_COUNT;
+import static com.android.dialer.callstats.CallStatsRollupDatabaseHelper.IN_DURATION;
+import static com.android.dialer.callstats.CallStatsRollupDatabaseHelper.LAST_MODIFIED;
+import static com.android.dialer.callstats.CallStatsRollupDatabaseHelper.MISSED_COUNT;
+import static com.android.dialer.callstats.CallStatsRollupDatabaseHelper.NUMBER_KEY;
+import static com.android.dialer.callstats.CallStatsRollupDatabaseHelper.OUTGOING_COUNT;
+import static com.android.dialer.callstats.CallStatsRollupDatabaseHelper.OUT_DURATION;
+import static com.android.dialer.callstats.CallStatsRollupDatabaseHelper.TABLE_CALLS;
+import static com.android.dialer.callstats.CallStatsRollupDatabaseHelper.TABLE_DAILY;
+import static com.android.dialer.callstats.CallStatsRollupDatabaseHelper.TABLE_NUMBERS;
+import static com.android.dialer.callstats.CallStatsRollupDatabaseHelper.TABLE_SYNC_STATE;
+import static com.android.dialer.callstats.CallStatsRollupDatabaseHelper.ZONE_ID;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.os.SystemClock;
+import android.provider.BaseColumns;
+import android.provider.CallLog.Calls;
+import android.text.format.DateUtils;
+
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import com.android.dialer.common.Assert;
+import com.android.dialer.common.LogUtil;
+import com.android.dialer.phonenumbercache.ContactInfo;
+import com.android.dialer.phonenumberutil.PhoneNumberComparisonKeys;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Local rollup of the call log for the call stats screen.
+ *
+ * <p>Counts and durations are kept per local day, number and phone account, so the stats for any
+ * date range are a sum over day buckets instead of a scan of every call in it. The rollup is
+ * brought up to date incrementally before each query: calls modified since the last sync are
+ * applied as the difference to what they contributed before, and calls removed from the call log
+ * are subtracted again. It is rebuilt from scratch when the time zone, and thus the day
+ * boundaries, change.
+ */
+final class CallStatsRollup {
+
+  /** Calls with an empty number never match another call, so each gets its own key. */
+  private static final String EMPTY_NUMBER_KEY_PREFIX = "\u0000";
+
+  private static final String[] SYNC_PROJECTION =
+      Arrays.copyOf(CallStatsQuery._PROJECTION, CallStatsQuery._PROJECTION.length + 1);
+
+  private static final int SYNC_LAST_MODIFIED = CallStatsQuery._PROJECTION.length;
+
+  static {
+    SYNC_PROJECTION[SYNC_LAST_MODIFIED] = Calls.LAST_MODIFIED;
+  }
+
+  private static CallStatsRollup instance;
+
+  private final Context appContext;
+  private final CallStatsRollupDatabaseHelper databaseHelper;
+
+  static synchronized CallStatsRollup get(Context context) {
+    if (instance == null) {
+      instance = new CallStatsRollup(context.getApplicationContext());
+    }
+    return instance;
+  }
+
+  private CallStatsRollup(Context appContext) {
+    this.appContext = appContext;
+    databaseHelper = new CallStatsRollupDatabaseHelper(appContext);
+  }
+
+  /** Applies the call log changes made since the last sync. */
+  @WorkerThread
+  synchronized void sync() {
+    Assert.isWorkerThread();
+    long startTime = SystemClock.elapsedRealtime();
+    SQLiteDatabase db = databaseHelper.getWritableDatabase();
+    ZoneId zone = ZoneId.systemDefault();
+
+    String syncedZoneId = null;
+    long lastModified = -1;
+    try (Cursor cursor =
+        db.query(
+            TABLE_SYNC_STATE, new String[] {ZONE_ID, LAST_MODIFIED}, null, null, null, null, null)) {
+      if (cursor.moveToFirst()) {
+        syncedZoneId = cursor.getString(0);
+        lastModified = cursor.getLong(1);
+      }
+    }
+    boolean rebuild = !zone.getId().equals(syncedZoneId);
+
+    db.beginTransaction();
+    try {
+      if (rebuild) {
+        db.delete(TABLE_CALLS, null, null);
+        db.delete(TABLE_DAILY, null, null);
+        db.delete(TABLE_NUMBERS, null, null);
+        lastModified = -1;
+      }
+      Map<String, Bucket> buckets = new HashMap<>();
+      lastModified = applyChangedCalls(db, zone, lastModified, rebuild, buckets);
+      int removedCount = rebuild ? 0 : removeDeletedCalls(db, buckets);
+      writeBuckets(db, buckets);
+
+      ContentValues syncState = new ContentValues();
+      syncState.put(ZONE_ID, zone.getId());
+      syncState.put(LAST_MODIFIED, lastModified);
+      db.delete(TABLE_SYNC_STATE, null, null);
+      db.insert(TABLE_SYNC_STATE, null, syncState);
+      db.setTransactionSuccessful();
+
+      LogUtil.i(
+          "CallStatsRollup.sync",
+          "rebuild: %b, buckets: %d, removed: %d, took: %dms",
+          rebuild,
+          buckets.size(),
+          removedCount,
+          SystemClock.elapsedRealtime() - startTime);
+    } finally {
+      db.endTransaction();
+    }
+  }
+
+  /**
+   * Applies the calls modified at or after {@code lastModified}, or all calls if it is -1, and
+   * returns the most recent modification time seen.
+   */
+  private long applyChangedCalls(
+      SQLiteDatabase db,
+      ZoneId zone,
+      long lastModified,
+      boolean rebuild,
+      Map<String, Bucket> buckets) {
+    SQLiteStatement insertCall =
+        db.compileStatement(
+            "insert or replace into "
+                + TABLE_CALLS
+                + " ("
+                + BaseColumns._ID
+                + ", "
+                + DAY
+                + ", "
+                + NUMBER_KEY
+                + ", "
+                + ACCOUNT_ID
+                + ", "
+                + CALL_TYPE
+                + ", "
+                + DURATION
+                + ") values (?, ?, ?, ?, ?, ?)");
+    SQLiteStatement insertNumber = compileInsertNumber(db);
+
+    // Oldest first, so the most recent call of each number is written last. Calls modified in the
+    // same millisecond as the watermark are read again, which is harmless since applying a call
+    // first subtracts what it previously added.
+    try (Cursor cursor =
+        appContext
+            .getContentResolver()
+            .query(
+                Calls.CONTENT_URI_WITH_VOICEMAIL,
+                SYNC_PROJECTION,
+                lastModified < 0 ? null : Calls.LAST_MODIFIED + " >= ?",
+                lastModified < 0 ? null : new String[] {String.valueOf(lastModified)},
+                Calls.DATE + " ASC")) {
+      if (cursor == null) {
+        return lastModified;
+      }
+      while (cursor.moveToNext()) {
+        long id = cursor.getLong(CallStatsQuery.ID);
+        long date = cursor.getLong(CallStatsQuery.DATE);
+        String numberKey =
+            PhoneNumberComparisonKeys.get(
+                cursor.getString(CallStatsQuery.NUMBER),
+                cursor.getString(CallStatsQuery.COUNTRY_ISO));
+        if (numberKey == null) {
+          numberKey = EMPTY_NUMBER_KEY_PREFIX + id;
+        }
+        String accountId = cursor.getString(CallStatsQuery.ACCOUNT_ID);
+        long day = toEpochDay(date, zone);
+        int callType = cursor.getInt(CallStatsQuery.CALL_TYPE);
+        long duration = cursor.getLong(CallStatsQuery.DURATION);
+
+        if (!rebuild) {
+          subtractCall(db, id, buckets);
+        }
+        getBucket(buckets, day, numberKey, accountId).add(callType, duration, 1);
+
+        insertCall.clearBindings();
+        insertCall.bindLong(1, id);
+        insertCall.bindLong(2, day);
+        insertCall.bindString(3, numberKey);
+        insertCall.bindString(4, accountId == null ? "" : accountId);
+        insertCall.bindLong(5, callType);
+        insertCall.bindLong(6, duration);
+        insertCall.executeInsert();
+
+        insertNumber.clearBindings();
+        insertNumber.bindString(1, numberKey);
+        for (int i = 0; i < CallStatsQuery._PROJECTION.length; i++) {
+          bindColumn(insertNumber, i + 2, cursor, i);
+        }
+        insertNumber.bindString(CallStatsQuery._PROJECTION.length + 2, numberKey);
+        insertNumber.bindLong(CallStatsQuery._PROJECTION.length + 3, date);
+        insertNumber.executeInsert();
+
+        lastModified = Math.max(lastModified, cursor.getLong(SYNC_LAST_MODIFIED));
+      }
+    } finally {
+      insertCall.close();
+      insertNumber.close();
+    }
+    return lastModified;
+  }
+
+  /** Subtracts what the call with {@code id} contributed so far, if anything. */
+  private static void subtractCall(SQLiteDatabase db, long id, Map<String, Bucket> buckets) {
+    try (Cursor cursor =
+        db.query(
+            TABLE_CALLS,
+            new String[] {DAY, NUMBER_KEY, ACCOUNT_ID, CALL_TYPE, DURATION},
+            BaseColumns._ID + " = ?",
+            new String[] {String.valueOf(id)},
+            null,
+            null,
+            null)) {
+      if (cursor.moveToFirst()) {
+        getBucket(buckets, cursor.getLong(0), cursor.getString(1), cursor.getString(2))
+            .add(cursor.getInt(3), cursor.getLong(4), -1);
+      }
+    }
+  }
+
+  /** Subtracts and forgets the calls that are no longer in the call log. */
+  private int removeDeletedCalls(SQLiteDatabase db, Map<String, Bucket> buckets) {
+    long[] ids;
+    try (Cursor cursor =
+        appContext
+            .getContentResolver()
+            .query(
+                Calls.CONTENT_URI_WITH_VOICEMAIL,
+                new String[] {Calls._ID},
+                null,
+                null,
+                null)) {
+      if (cursor == null) {
+        return 0;
+      }
+      // Every call in the call log has been applied by now, so equal counts mean nothing was
+      // removed.
+      if (cursor.getCount() == DatabaseUtils.queryNumEntries(db, TABLE_CALLS)) {
+        return 0;
+      }
+      ids = new long[cursor.getCount()];
+      for (int i = 0; cursor.moveToNext(); i++) {
+        ids[i] = cursor.getLong(0);
+      }
+    }
+    Arrays.sort(ids);
+
+    List<Long> removedIds = new ArrayList<>();
+    try (Cursor cursor =
+        db.query(
+            TABLE_CALLS,
+            new String[] {BaseColumns._ID, DAY, NUMBER_KEY, ACCOUNT_ID, CALL_TYPE, DURATION},
+            null,
+            null,
+            null,
+            null,
+            null)) {
+      while (cursor.moveToNext()) {
+        long id = cursor.getLong(0);
+        if (Arrays.binarySearch(ids, id) < 0) {
+          getBucket(buckets, cursor.getLong(1), cursor.getString(2), cursor.getString(3))
+              .add(cursor.getInt(4), cursor.getLong(5), -1);
+          removedIds.add(id);
+        }
+      }
+    }
+    for (long id : removedIds) {
+      db.delete(TABLE_CALLS, BaseColumns._ID + " = ?", new String[] {String.valueOf(id)});
+    }
+    return removedIds.size();
+  }
+
+  private static void writeBuckets(SQLiteDatabase db, Map<String, Bucket> buckets) {
+    SQLiteStatement insertDay =
+        db.compileStatement(
+            "insert or ignore into "
+                + TABLE_DAILY
+                + " ("
+                + DAY
+                + ", "
+                + NUMBER_KEY
+                + ", "
+                + ACCOUNT_ID
+                + ") values (?, ?, ?)");
+    SQLiteStatement updateDay =
+        db.compileStatement(
+            "update "
+                + TABLE_DAILY
+                + " set "
+                + (INCOMING_COUNT + " = " + INCOMING_COUNT + " + ?, ")
+                + (OUTGOING_COUNT + " = " + OUTGOING_COUNT + " + ?, ")
+                + (MISSED_COUNT + " = " + MISSED_COUNT + " + ?, ")
+                + (BLOCKED_COUNT + " = " + BLOCKED_COUNT + " + ?, ")
+                + (IN_DURATION + " = " + IN_DURATION + " + ?, ")
+                + (OUT_DURATION + " = " + OUT_DURATION + " + ? ")
+                + ("where " + DAY + " = ? and " + NUMBER_KEY + " = ? and " + ACCOUNT_ID + " = ?"));
+    try {
+      for (Bucket bucket : buckets.values()) {
+        if (bucket.isEmpty()) {
+          continue;
+        }
+        insertDay.bindLong(1, bucket.day);
+        insertDay.bindString(2, bucket.numberKey);
+        insertDay.bindString(3, bucket.accountId);
+        insertDay.executeInsert();
+
+        updateDay.bindLong(1, bucket.counts.incomingCount);
+        updateDay.bindLong(2, bucket.counts.outgoingCount);
+        updateDay.bindLong(3, bucket.counts.missedCount);
+        updateDay.bindLong(4, bucket.counts.blockedCount);
+        updateDay.bindLong(5, bucket.counts.inDuration);
+        updateDay.bindLong(6, bucket.counts.outDuration);
+        updateDay.bindLong(7, bucket.day);
+        updateDay.bindString(8, bucket.numberKey);
+        updateDay.bindString(9, bucket.accountId);
+        updateDay.executeUpdateDelete();
+      }
+    } finally {
+      insertDay.close();
+      updateDay.close();
+    }
+    int removedDays =
+        db.delete(
+            TABLE_DAILY,
+            INCOMING_COUNT
+                + " = 0 and "
+                + OUTGOING_COUNT
+                + " = 0 and "
+                + MISSED_COUNT
+                + " = 0 and "
+                + BLOCKED_COUNT
+                + " = 0",
+            null);
+    if (removedDays > 0) {
+      // Forget the numbers, and the cached names along with them, no call is left for.
+      db.delete(
+          TABLE_NUMBERS,
+          NUMBER_KEY + " not in (select " + NUMBER_KEY + " from " + TABLE_DAILY + ")",
+          null);
+    }
+  }
+
+  /**
+   * Returns the stats per number for calls between {@code from} and {@code to}, which are the start
+   * and end of local days as picked in {@link DoubleDatePickerDialog}, or -1 for no bound.
+   *
+   * @param accountId only count calls made with this phone account, or null for all of them
+   */
+  @WorkerThread
+  CallStatsAggregator.Result query(long from, long to, @Nullable String accountId) {
+    Assert.isWorkerThread();
+    long startTime = SystemClock.elapsedRealtime();
+    ZoneId zone = ZoneId.systemDefault();
+    long fromDay = from == -1 ? Long.MIN_VALUE : toEpochDay(from, zone);
+    // to is 24 hours after the start of the picked day, less 1 ms, which is the next day when the
+    // picked day is 23 hours long, so the picked day is derived from its start.
+    long toDay = to == -1 ? Long.MAX_VALUE : toEpochDay(to - (DateUtils.DAY_IN_MILLIS - 1), zone);
+
+    StringBuilder sql = new StringBuilder("select ");
+    for (String column : CallStatsQuery._PROJECTION) {
+      sql.append("n.").append(column).append(", ");
+    }
+    sql.append("sum(d." + INCOMING_COUNT + "), ")
+        .append("sum(d." + OUTGOING_COUNT + "), ")
+        .append("sum(d." + MISSED_COUNT + "), ")
+        .append("sum(d." + BLOCKED_COUNT + "), ")
+        .append("sum(d." + IN_DURATION + "), ")
+        .append("sum(d." + OUT_DURATION + ")")
+        .append(" from " + TABLE_DAILY + " d join " + TABLE_NUMBERS + " n")
+        .append(" on d." + NUMBER_KEY + " = n." + NUMBER_KEY)
+        .append(" where d." + DAY + " >= ? and d." + DAY + " <= ?");
+    List<String> args = new ArrayList<>();
+    args.add(String.valueOf(fromDay));
+    args.add(String.valueOf(toDay));
+    if (accountId != null) {
+      sql.append(" and d." + ACCOUNT_ID + " = ?");
+      args.add(accountId);
+    }
+    sql.append(" group by d." + NUMBER_KEY);
+
+    Map<ContactInfo, CallStatsDetails> calls = new HashMap<>();
+    CallStatsDetails total = CallStatsAggregator.newCounts();
+    int sums = CallStatsQuery._PROJECTION.length;
+    try (Cursor cursor =
+        databaseHelper.getReadableDatabase().rawQuery(sql.toString(), args.toArray(new String[0]))) {
+      while (cursor.moveToNext()) {
+        CallStatsDetails counts = CallStatsAggregator.newCounts();
+        counts.incomingCount = cursor.getInt(sums);
+        counts.outgoingCount = cursor.getInt(sums + 1);
+        counts.missedCount = cursor.getInt(sums + 2);
+        counts.blockedCount = cursor.getInt(sums + 3);
+        counts.inDuration = cursor.getLong(sums + 4);
+        counts.outDuration = cursor.getLong(sums + 5);
+        CallStatsAggregator.addDetails(cursor, counts, calls, total);
+      }
+    }
+    LogUtil.i(
+        "CallStatsRollup.query",
+        "numbers: %d, took: %dms",
+        calls.size(),
+        SystemClock.elapsedRealtime() - startTime);
+    return new CallStatsAggregator.Result(calls, total);
+  }
+
+  /**
+   * Inserts the number of a call, unless a more recent call of the same number is stored already.
+   */
+  private static SQLiteStatement compileInsertNumber(SQLiteDatabase db) {
+    StringBuilder sql =
+        new StringBuilder("insert or replace into ")
+            .append(TABLE_NUMBERS)
+            .append(" (")
+            .append(NUMBER_KEY);
+    for (String column : CallStatsQuery._PROJECTION) {
+      sql.append(", ").append(column);
+    }
+    sql.append(") select ?");
+    for (int i = 0; i < CallStatsQuery._PROJECTION.length; i++) {
+      sql.append(", ?");
+    }
+    sql.append(" where not exists (select 1 from ")
+        .append(TABLE_NUMBERS)
+        .append(" where ")
+        .append(NUMBER_KEY)
+        .append(" = ? and ")
+        .append(Calls.DATE)
+        .append(" > ?)");
+    return db.compileStatement(sql.toString());
+  }
+
+  private static void bindColumn(SQLiteStatement statement, int index, Cursor cursor, int column) {
+    switch (cursor.getType(column)) {
+      case Cursor.FIELD_TYPE_INTEGER:
+        statement.bindLong(index, cursor.getLong(column));
+        break;
+      case Cursor.FIELD_TYPE_FLOAT:
+        statement.bindDouble(index, cursor.getDouble(column));
+        break;
+      case Cursor.FIELD_TYPE_STRING:
+        statement.bindString(index, cursor.getString(column));
+        break;
+      case Cursor.FIELD_TYPE_BLOB:
+        statement.bindBlob(index, cursor.getBlob(column));
+        break;
+      default:
+        statement.bindNull(index);
+        break;
+    }
+  }
+
+  private static long toEpochDay(long millis, ZoneId zone) {
+    return Instant.ofEpochMilli(millis).atZone(zone).toLocalDate().toEpochDay();
+  }
+
+  private static Bucket getBucket(
+      Map<String, Bucket> buckets, long day, String numberKey, @Nullable String accountId) {
+    String account = accountId == null ? "" : accountId;
+    String key = day + "\u0000" + numberKey + "\u0000" + account;
+    Bucket bucket = buckets.get(key);
+    if (bucket == null) {
+      bucket = new Bucket(day, numberKey, account);
+      buckets.put(key, bucket);
+    }
+    return bucket;
+  }
+
+  /** Pending change to a row of the daily table. */
+  private static final class Bucket {
+    final long day;
+    final String numberKey;
+    final String accountId;
+    final CallStatsDetails counts = CallStatsAggregator.newCounts();
+
+    Bucket(long day, String numberKey, String accountId) {
+      this.day = day;
+      this.numberKey = numberKey;
+      this.accountId = accountId;
+    }
+
+    /** Adds ({@code sign} 1) or removes ({@code sign} -1) a call of {@code callType}. */
+    void add(int callType, long duration, int sign) {
+      switch (callType) {
+        case Calls.INCOMING_TYPE:
+          counts.incomingCount += sign;
+          counts.inDuration += sign * duration;
+          break;
+        case Calls.OUTGOING_TYPE:
+          counts.outgoingCount += sign;
+          counts.outDuration += sign * duration;
+          break;
+        case Calls.MISSED_TYPE:
+          counts.missedCount += sign;
+          break;
+        case Calls.BLOCKED_TYPE:
+          counts.blockedCount += sign;
+          break;
+        default:
+          break;
+      }
+    }
+
+    boolean isEmpty() {
+      return counts.incomingCount == 0
+          && counts.outgoingCount == 0
+          && counts.missedCount == 0
+          && counts.blockedCount == 0
+          && counts.inDuration == 0
+          && counts.outDuration == 0;
+    }
+  }
+}
@@ -0,0 +1,130 @@
+/*
+ * SPDX-FileCopyrightText: The LineageOS Project
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.android.dialer.callstats;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.os.SystemClock;
+import android.provider.BaseColumns;
+
+import com.android.dialer.common.LogUtil;
+
+/** Database helper for the call stats rollup, see {@link CallStatsRollup}. */
+final class CallStatsRollupDatabaseHelper extends SQLiteOpenHelper {
+
+  private static final String FILENAME = "call_stats_rollup.db";
+  private static final int VERSION = 1;
+
+  /** What each call in the call log contributed to {@link #TABLE_DAILY}, keyed by call id. */
+  static final String TABLE_CALLS = "calls";
+
+  /** Counts and durations per local day, number and phone account. */
+  static final String TABLE_DAILY = "daily";
+
+  /**
+   * The most recent call of each number, in the {@link CallStatsQuery} projection, used to show
+   * the number and its contact.
+   */
+  static final String TABLE_NUMBERS = "numbers";
+
+  /** A single row holding the time zone of the days and the call log sync position. */
+  static final String TABLE_SYNC_STATE = "sync_state";
+
+  static final String DAY = "day";
+  static final String NUMBER_KEY = "number_key";
+  static final String ACCOUNT_ID = "account_id";
+  static final String CALL_TYPE = "call_type";
+  static final String DURATION = "duration";
+
+  static final String INCOMING_COUNT = "incoming_count";
+  static final String OUTGOING_COUNT = "outgoing_count";
+  static final String MISSED_COUNT = "missed_count";
+  static final String BLOCKED_COUNT = "blocked_count";
+  static final String IN_DURATION = "in_duration";
+  static final String OUT_DURATION = "out_duration";
+
+  static final String ZONE_ID = "zone_id";
+  static final String LAST_MODIFIED = "last_modified";
+
+  private static final String CREATE_TABLE_CALLS_SQL =
+      "create table if not exists "
+          + TABLE_CALLS
+          + " ("
+          + (BaseColumns._ID + " integer primary key, ")
+          + (DAY + " integer not null, ")
+          + (NUMBER_KEY + " text not null, ")
+          + (ACCOUNT_ID + " text not null, ")
+          + (CALL_TYPE + " integer not null, ")
+          + (DURATION + " integer not null")
+          + ");";
+
+  private static final String CREATE_TABLE_DAILY_SQL =
+      "create table if not exists "
+          + TABLE_DAILY
+          + " ("
+          + (DAY + " integer not null, ")
+          + (NUMBER_KEY + " text not null, ")
+          + (ACCOUNT_ID + " text not null, ")
+          + (INCOMING_COUNT + " integer not null default 0, ")
+          + (OUTGOING_COUNT + " integer not null default 0, ")
+          + (MISSED_COUNT + " integer not null default 0, ")
+          + (BLOCKED_COUNT + " integer not null default 0, ")
+          + (IN_DURATION + " integer not null default 0, ")
+          + (OUT_DURATION + " integer not null default 0, ")
+          + ("primary key (" + DAY + ", " + NUMBER_KEY + ", " + ACCOUNT_ID + ")")
+          + ");";
+
+  private static final String CREATE_TABLE_SYNC_STATE_SQL =
+      "create table if not exists "
+          + TABLE_SYNC_STATE
+          + " ("
+          + (ZONE_ID + " text not null, ")
+          + (LAST_MODIFIED + " integer not null")
+          + ");";
+
+  CallStatsRollupDatabaseHelper(Context context) {
+    super(context, FILENAME, null, VERSION);
+  }
+
+  @Override
+  public void onCreate(SQLiteDatabase db) {
+    LogUtil.enterBlock("CallStatsRollupDatabaseHelper.onCreate");
+    long startTime = SystemClock.elapsedRealtime();
+    db.execSQL(CREATE_TABLE_CALLS_SQL);
+    db.execSQL(CREATE_TABLE_DAILY_SQL);
+    db.execSQL(createTableNumbersSql());
+    db.execSQL(CREATE_TABLE_SYNC_STATE_SQL);
+    LogUtil.i(
+        "CallStatsRollupDatabaseHelper.onCreate",
+        "took: %dms",
+        SystemClock.elapsedRealtime() - startTime);
+  }
+
+  @Override
+  public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+    // Everything can be rebuilt from the call log.
+    db.execSQL("drop table if exists " + TABLE_CALLS);
+    db.execSQL("drop table if exists " + TABLE_DAILY);
+    db.execSQL("drop table if exists " + TABLE_NUMBERS);
+    db.execSQL("drop table if exists " + TABLE_SYNC_STATE);
+    onCreate(db);
+  }
+
+  private static String createTableNumbersSql() {
+    StringBuilder sql =
+        new StringBuilder("create table if not exists ")
+            .append(TABLE_NUMBERS)
+            .append(" (")
+            .append(NUMBER_KEY)
+            .append(" text primary key not null");
+    // The columns keep the call log's names and types, so rows read like a CallStatsQuery cursor.
+    for (String column : CallStatsQuery._PROJECTION) {
+      sql.append(", ").append(column);
+    }
+    return sql.append(");").toString();
+  }
+}
@@ -0,0 +1,95 @@
+/*
+ * SPDX-FileCopyrightText: The LineageOS Project
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.android.dialer.contactphoto;
+
+import android.graphics.Bitmap;
+
+import androidx.annotation.Nullable;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+
+/**
+ * Size bounded pool of bitmaps that are no longer referenced, to be decoded into with {@link
+ * android.graphics.BitmapFactory.Options#inBitmap} instead of allocating a new bitmap.
+ *
+ * <p>Only bitmaps that are known to be unreachable from views and caches may be put into the pool.
+ * All methods are thread safe.
+ */
+final class BitmapPool {
+
+  /** A pooled bitmap is only reused for bitmaps using at least this fraction of its memory. */
+  private static final int MAX_WASTE_FACTOR = 2;
+
+  private final int maxBytes;
+
+  /** Least recently pooled first. */
+  private final ArrayDeque<Bitmap> bitmaps = new ArrayDeque<>();
+
+  private int totalBytes;
+
+  BitmapPool(int maxBytes) {
+    this.maxBytes = maxBytes;
+  }
+
+  /**
+   * Returns a bitmap which can be decoded into to get a {@code width} x {@code height} bitmap of
+   * {@code config}, or null if there is none. The bitmap is removed from the pool.
+   */
+  @Nullable
+  synchronized Bitmap get(int width, int height, Bitmap.Config config) {
+    int byteCount = width * height * getBytesPerPixel(config);
+    Iterator<Bitmap> iterator = bitmaps.descendingIterator();
+    while (iterator.hasNext()) {
+      Bitmap bitmap = iterator.next();
+      int allocationByteCount = bitmap.getAllocationByteCount();
+      if (bitmap.getConfig() == config
+          && allocationByteCount >= byteCount
+          && allocationByteCount <= byteCount * MAX_WASTE_FACTOR) {
+        iterator.remove();
+        totalBytes -= allocationByteCount;
+        return bitmap;
+      }
+    }
+    return null;
+  }
+
+  /** Adds {@code bitmap}, which must not be used anymore, evicting older bitmaps if needed. */
+  synchronized void put(Bitmap bitmap) {
+    if (bitmap.isRecycled() || !bitmap.isMutable()) {
+      return;
+    }
+    int allocationByteCount = bitmap.getAllocationByteCount();
+    if (allocationByteCount > maxBytes) {
+      return;
+    }
+    bitmaps.addLast(bitmap);
+    totalBytes += allocationByteCount;
+    while (totalBytes > maxBytes) {
+      totalBytes -= bitmaps.removeFirst().getAllocationByteCount();
+    }
+  }
+
+  synchronized void clear() {
+    bitmaps.clear();
+    totalBytes = 0;
+  }
+
+  private static int getBytesPerPixel(Bitmap.Config config) {
+    switch (config) {
+      case ALPHA_8:
+        return 1;
+      case RGB_565:
+      case ARGB_4444:
+        return 2;
+      case RGBA_F16:
+        return 8;
+      case ARGB_8888:
+      default:
+        return 4;
+    }
+  }
+}
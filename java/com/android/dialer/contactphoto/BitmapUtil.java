@@ -88,6 +88,34 @@ public class BitmapUtil {
     return BitmapFactory.decodeByteArray(bytes, 0, bytes.length, options);
   }
 
+  /**
+   * Decodes the bitmap with the given sample size, reusing a bitmap from {@code pool} if it has one
+   * of the right size. The result is mutable, so it can be put back into the pool once it is no
+   * longer used.
+   */
+  static Bitmap decodeBitmapFromBytes(byte[] bytes, int sampleSize, BitmapPool pool) {
+    final BitmapFactory.Options options = new BitmapFactory.Options();
+    options.inJustDecodeBounds = true;
+    BitmapFactory.decodeByteArray(bytes, 0, bytes.length, options);
+
+    options.inJustDecodeBounds = false;
+    options.inSampleSize = Math.max(sampleSize, 1);
+    options.inMutable = true;
+    if (options.outWidth > 0 && options.outHeight > 0) {
+      // Rounded up, so the pooled bitmap is large enough whichever way the decoder rounds.
+      final int width = (options.outWidth + options.inSampleSize - 1) / options.inSampleSize;
+      final int height = (options.outHeight + options.inSampleSize - 1) / options.inSampleSize;
+      options.inBitmap = pool.get(width, height, options.inPreferredConfig);
+    }
+    try {
+      return BitmapFactory.decodeByteArray(bytes, 0, bytes.length, options);
+    } catch (IllegalArgumentException e) {
+      // The pooled bitmap can't be reused for this image after all.
+      options.inBitmap = null;
+      return BitmapFactory.decodeByteArray(bytes, 0, bytes.length, options);
+    }
+  }
+
   /**
    * Given an input bitmap, scales it to the given width/height and makes it round.
    *
@@ -287,6 +287,12 @@ public abstract class ContactPhotoManager implements ComponentCallbacks2 {
   /** Initiates a background process that over time will fill up cache with preload photos. */
   public abstract void preloadPhotosInBackground();
 
+  /**
+   * Preloads the thumbnails with the given photo ids ahead of the photos picked by {@link
+   * #preloadPhotosInBackground()}, e.g. for the list items the user is scrolling towards.
+   */
+  public abstract void preloadThumbnails(long[] photoIds);
+
   // ComponentCallbacks2
   @Override
   public void onConfigurationChanged(Configuration newConfig) {}
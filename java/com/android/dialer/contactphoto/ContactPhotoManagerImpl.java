@@ -41,10 +41,8 @@ import android.os.HandlerThread;
 import android.os.Looper;
 import android.os.Message;
 import android.provider.ContactsContract;
-import android.provider.ContactsContract.Contacts;
 import android.provider.ContactsContract.Contacts.Photo;
 import android.provider.ContactsContract.Data;
-import android.provider.ContactsContract.Directory;
 import android.text.TextUtils;
 import android.util.LruCache;
 import android.view.View;
@@ -69,19 +67,35 @@ import java.lang.ref.Reference;
 import java.lang.ref.SoftReference;
 import java.net.HttpURLConnection;
 import java.net.URL;
-import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.Iterator;
-import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 class ContactPhotoManagerImpl extends ContactPhotoManager implements Callback {
 
   private static final String LOADER_THREAD_NAME = "ContactPhotoLoader";
 
+  private static final String URI_FETCH_THREAD_NAME = "ContactPhotoFetcher";
+
+  private static final String DECODE_THREAD_NAME = "ContactPhotoDecoder";
+
+  /** Maximum number of URI based photos, e.g. of directory contacts, fetched at the same time. */
+  private static final int MAX_URI_FETCHES = 3;
+
+  private static final int URI_CONNECT_TIMEOUT_MILLIS = 5000;
+
+  private static final int URI_READ_TIMEOUT_MILLIS = 10000;
+
+  private static final int BUFFER_SIZE = 1024 * 16;
+
   private static final int FADE_TRANSITION_DURATION = 200;
 
   /**
@@ -105,6 +119,15 @@ class ContactPhotoManagerImpl extends ContactPhotoManager implements Callback {
   private static final int HOLDER_CACHE_SIZE = 2000000;
   /** Cache size for {@link #bitmapCache} for devices with "large" RAM. */
   private static final int BITMAP_CACHE_SIZE = 36864 * 48; // 1728K
+  /** Size of {@link #bitmapPool}. */
+  private static final int BITMAP_POOL_SIZE = 512 * 1024;
+  /**
+   * Bitmaps decoded for photos that had to be cropped, which are unused once the cropped copy is
+   * made, to be decoded into again.
+   */
+  private static final BitmapPool bitmapPool = new BitmapPool(BITMAP_POOL_SIZE);
+  /** Size of {@link #photoDiskCache}. */
+  private static final long DISK_CACHE_SIZE = 4 * 1024 * 1024;
   /** Height/width of a thumbnail image */
   private static int thumbnailSize;
 
@@ -121,12 +144,19 @@ class ContactPhotoManagerImpl extends ContactPhotoManager implements Callback {
   private final LruCache<Object, BitmapHolder> bitmapHolderCache;
   /** Cache size threshold at which bitmaps will not be preloaded. */
   private final int bitmapHolderCacheRedZoneBytes;
+  /** Bytes of {@link #bitmapHolderCache} that may be filled by speculative preloading. */
+  private final int preloadBudgetBytes;
   /**
    * Level 2 LRU cache for bitmaps. This is a smaller cache that holds the most recently used
    * bitmaps to save time on decoding them from bytes (the bytes are stored in {@link
    * #bitmapHolderCache}.
    */
   private final LruCache<Object, Bitmap> bitmapCache;
+  /**
+   * Level 3 cache of the bytes in {@link #bitmapHolderCache} on disk, used to show photos right
+   * after a cold start without waiting for the contacts provider or the network.
+   */
+  private final PhotoDiskCache photoDiskCache;
   /**
    * A map from ImageView to the corresponding photo ID or uri, encapsulated in a request. The
    * request may swapped out before the photo loading request is started.
@@ -140,6 +170,20 @@ class ContactPhotoManagerImpl extends ContactPhotoManager implements Callback {
   private final AtomicInteger freshCacheOverwrite = new AtomicInteger();
   /** {@code true} if ALL entries in {@link #bitmapHolderCache} are NOT fresh. */
   private volatile boolean bitmapHolderCacheAllUnfresh = true;
+  /**
+   * URI based photo fetches which are queued or running, keyed by cache key. Fetches are removed
+   * when they finish or when no view requests their photo anymore.
+   */
+  private final ConcurrentHashMap<Object, UriFetch> uriFetches = new ConcurrentHashMap<>();
+  /** Runs {@link UriFetch}es, so that slow servers don't hold up thumbnails from the database. */
+  private final ExecutorService uriFetchExecutor =
+      newStageExecutor(URI_FETCH_THREAD_NAME, MAX_URI_FETCHES);
+  /** Decodes the photos fetched by {@link #uriFetchExecutor}. */
+  private final ExecutorService decodeExecutor = newStageExecutor(DECODE_THREAD_NAME, 1);
+
+  private final PhotoLoadStageStats thumbnailStageStats = new PhotoLoadStageStats("thumbnails");
+  private final PhotoLoadStageStats uriFetchStageStats = new PhotoLoadStageStats("uri fetch");
+  private final PhotoLoadStageStats decodeStageStats = new PhotoLoadStageStats("decode");
   /** Thread responsible for loading photos from the database. Created upon the first request. */
   private LoaderThread loaderThread;
   /** A gate to make sure we only send one instance of MESSAGE_PHOTOS_NEEDED at a time. */
@@ -190,6 +234,8 @@ class ContactPhotoManagerImpl extends ContactPhotoManager implements Callback {
           }
         };
     bitmapHolderCacheRedZoneBytes = (int) (holderCacheSize * 0.75);
+    preloadBudgetBytes = holderCacheSize / 2;
+    photoDiskCache = new PhotoDiskCache(context, DISK_CACHE_SIZE);
     LogUtil.i(
         "ContactPhotoManagerImpl.ContactPhotoManagerImpl", "cache adj: " + cacheSizeAdjustment);
     if (DEBUG) {
@@ -210,6 +256,25 @@ class ContactPhotoManagerImpl extends ContactPhotoManager implements Callback {
     return ((bytes + 1023) / 1024) + "K";
   }
 
+  private static ExecutorService newStageExecutor(String threadName, int threadCount) {
+    ThreadPoolExecutor executor =
+        new ThreadPoolExecutor(
+            threadCount,
+            threadCount,
+            30,
+            TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(),
+            runnable -> {
+              Thread thread = new Thread(runnable, threadName);
+              // Java thread priority 4 corresponds to Process.THREAD_PRIORITY_BACKGROUND (10)
+              thread.setPriority(4);
+              return thread;
+            });
+    // Don't keep idle threads around once the photos are loaded.
+    executor.allowCoreThreadTimeOut(true);
+    return executor;
+  }
+
   private static int safeDiv(int dividend, int divisor) {
     return (divisor == 0) ? 0 : (dividend / divisor);
   }
@@ -246,7 +311,7 @@ class ContactPhotoManagerImpl extends ContactPhotoManager implements Callback {
     }
 
     try {
-      Bitmap bitmap = BitmapUtil.decodeBitmapFromBytes(bytes, sampleSize);
+      Bitmap bitmap = BitmapUtil.decodeBitmapFromBytes(bytes, sampleSize, bitmapPool);
 
       // TODO: As a temporary workaround while framework support is being added to
       // clip non-square bitmaps into a perfect circle, manually crop the bitmap into
@@ -260,7 +325,12 @@ class ContactPhotoManagerImpl extends ContactPhotoManager implements Callback {
       // sample size.
       if (height != width && Math.min(height, width) <= thumbnailSize * 2) {
         final int dimension = Math.min(height, width);
-        bitmap = ThumbnailUtils.extractThumbnail(bitmap, dimension, dimension);
+        final Bitmap decoded = bitmap;
+        bitmap = ThumbnailUtils.extractThumbnail(decoded, dimension, dimension);
+        if (bitmap != decoded) {
+          // Nothing else references the uncropped bitmap.
+          bitmapPool.put(decoded);
+        }
       }
       // make bitmap mutable and draw size onto it
       if (DEBUG_SIZES) {
@@ -363,6 +433,10 @@ class ContactPhotoManagerImpl extends ContactPhotoManager implements Callback {
               + btk(safeDiv(bitmapBytes, numBitmaps)));
       // We don't get from L2 cache, so L2 stats is meaningless.
     }
+
+    LogUtil.d("ContactPhotoManagerImpl.dumpStats", thumbnailStageStats.toString());
+    LogUtil.d("ContactPhotoManagerImpl.dumpStats", uriFetchStageStats.toString());
+    LogUtil.d("ContactPhotoManagerImpl.dumpStats", decodeStageStats.toString());
   }
 
   @Override
@@ -382,6 +456,15 @@ class ContactPhotoManagerImpl extends ContactPhotoManager implements Callback {
     loaderThread.requestPreloading();
   }
 
+  @Override
+  public void preloadThumbnails(long[] photoIds) {
+    if (paused || photoIds.length == 0) {
+      return;
+    }
+    ensureLoaderThread();
+    loaderThread.requestPreloading(photoIds);
+  }
+
   @Override
   public void loadThumbnail(
       ImageView view,
@@ -394,6 +477,7 @@ class ContactPhotoManagerImpl extends ContactPhotoManager implements Callback {
       // No photo is needed
       defaultProvider.applyDefaultImage(view, -1, darkTheme, defaultImageRequest);
       pendingRequests.remove(view);
+      cancelUnrequestedUriFetches();
     } else {
       if (DEBUG) {
         LogUtil.d("ContactPhotoManagerImpl.loadThumbnail", "loadPhoto request: " + photoId);
@@ -416,11 +500,13 @@ class ContactPhotoManagerImpl extends ContactPhotoManager implements Callback {
       // No photo is needed
       defaultProvider.applyDefaultImage(view, requestedExtent, darkTheme, defaultImageRequest);
       pendingRequests.remove(view);
+      cancelUnrequestedUriFetches();
       return;
     }
     if (isDrawableUri(photoUri)) {
       view.setImageURI(photoUri);
       pendingRequests.remove(view);
+      cancelUnrequestedUriFetches();
       return;
     }
     if (DEBUG) {
@@ -458,21 +544,27 @@ class ContactPhotoManagerImpl extends ContactPhotoManager implements Callback {
 
   private void loadPhotoByIdOrUri(ImageView view, Request request) {
     boolean loaded = loadCachedPhoto(view, request, false);
+    Request previousRequest;
     if (loaded) {
-      pendingRequests.remove(view);
+      previousRequest = pendingRequests.remove(view);
     } else {
-      pendingRequests.put(view, request);
+      previousRequest = pendingRequests.put(view, request);
       if (!paused) {
         // Send a request to start loading photos
         requestLoading();
       }
     }
+    if (previousRequest != null && !previousRequest.equals(request)) {
+      // The view was recycled for another photo.
+      cancelUnrequestedUriFetches();
+    }
   }
 
   @Override
   public void removePhoto(ImageView view) {
     view.setImageDrawable(null);
     pendingRequests.remove(view);
+    cancelUnrequestedUriFetches();
   }
 
   /**
@@ -483,6 +575,7 @@ class ContactPhotoManagerImpl extends ContactPhotoManager implements Callback {
   public void cancelPendingRequests(View fragmentRootView) {
     if (fragmentRootView == null) {
       pendingRequests.clear();
+      cancelUnrequestedUriFetches();
       return;
     }
     final Iterator<Entry<ImageView, Request>> iterator = pendingRequests.entrySet().iterator();
@@ -494,6 +587,26 @@ class ContactPhotoManagerImpl extends ContactPhotoManager implements Callback {
         iterator.remove();
       }
     }
+    cancelUnrequestedUriFetches();
+  }
+
+  /**
+   * Cancels the URI based photo fetches which no view is waiting for anymore, e.g. because their
+   * views were recycled while scrolling. The photo will be fetched again if it is requested later.
+   */
+  private void cancelUnrequestedUriFetches() {
+    if (uriFetches.isEmpty()) {
+      return;
+    }
+    Set<Object> requestedKeys = new HashSet<>();
+    for (Request request : pendingRequests.values()) {
+      requestedKeys.add(request.getKey());
+    }
+    for (UriFetch fetch : uriFetches.values()) {
+      if (!requestedKeys.contains(fetch.request.getKey())) {
+        fetch.cancel();
+      }
+    }
   }
 
   @Override
@@ -592,8 +705,10 @@ class ContactPhotoManagerImpl extends ContactPhotoManager implements Callback {
       LogUtil.d("ContactPhotoManagerImpl.clear", "clear");
     }
     pendingRequests.clear();
+    cancelUnrequestedUriFetches();
     bitmapHolderCache.evictAll();
     bitmapCache.evictAll();
+    bitmapPool.clear();
   }
 
   @Override
@@ -695,6 +810,17 @@ class ContactPhotoManagerImpl extends ContactPhotoManager implements Callback {
 
   /** Stores the supplied bitmap in cache. */
   private void cacheBitmap(Object key, byte[] bytes, boolean preloading, int requestedExtent) {
+    cacheBitmap(key, bytes, preloading, requestedExtent, true);
+  }
+
+  /**
+   * Stores the supplied bitmap in cache.
+   *
+   * @param fresh false to show the bitmap but still reload it, e.g. when it was read from {@link
+   *     #photoDiskCache} and may be outdated
+   */
+  private void cacheBitmap(
+      Object key, byte[] bytes, boolean preloading, int requestedExtent, boolean fresh) {
     if (DEBUG) {
       BitmapHolder prev = bitmapHolderCache.get(key);
       if (prev != null && prev.bytes != null) {
@@ -713,6 +839,7 @@ class ContactPhotoManagerImpl extends ContactPhotoManager implements Callback {
     }
     BitmapHolder holder =
         new BitmapHolder(bytes, bytes == null ? -1 : BitmapUtil.getSmallerExtentFromBytes(bytes));
+    holder.fresh = fresh;
 
     // Unless this image is being preloaded, decode it right away while
     // we are still on the background thread.
@@ -930,12 +1057,165 @@ class ContactPhotoManagerImpl extends ContactPhotoManager implements Callback {
     }
   }
 
+  /** Queues a {@link UriFetch} for each of {@code requests} which isn't being fetched already. */
+  @WorkerThread
+  private void fetchUriBasedPhotos(Set<Request> requests) {
+    for (Request request : requests) {
+      // Fetches are only added on the loader thread, so this check can't race with another one.
+      if (uriFetches.containsKey(request.getKey())) {
+        continue;
+      }
+      UriFetch fetch = new UriFetch(request, uriFetchStageStats.enqueue());
+      uriFetches.put(request.getKey(), fetch);
+      uriFetchExecutor.execute(fetch);
+    }
+  }
+
+  /** Decodes and caches the photo fetched for {@code request}, then notifies the UI thread. */
+  private void decodeUriBasedPhoto(Request request, byte[] bytes) {
+    long enqueueTime = decodeStageStats.enqueue();
+    decodeExecutor.execute(
+        () -> {
+          long startTime = decodeStageStats.start(enqueueTime);
+          cacheBitmap(request.getKey(), bytes, false, request.getRequestedExtent());
+          decodeStageStats.finish(startTime);
+          mainThreadHandler.sendEmptyMessage(MESSAGE_PHOTOS_LOADED);
+        });
+  }
+
+  /**
+   * Fetches the bytes of a photo referenced with a Uri. Those can be remote thumbnails (from
+   * directory searches), display photos etc. Fetches run on {@link #uriFetchExecutor}, and can be
+   * cancelled from any thread when their photo is no longer needed.
+   */
+  private final class UriFetch implements Runnable {
+
+    final Request request;
+    private final long enqueueTime;
+
+    private volatile boolean cancelled;
+    private volatile HttpURLConnection connection;
+
+    UriFetch(Request request, long enqueueTime) {
+      this.request = request;
+      this.enqueueTime = enqueueTime;
+    }
+
+    /** Stops this fetch, or prevents it from starting. Nothing is cached for a cancelled fetch. */
+    void cancel() {
+      cancelled = true;
+      uriFetches.remove(request.getKey(), this);
+      HttpURLConnection connection = this.connection;
+      if (connection != null) {
+        // Unblocks a pending read.
+        connection.disconnect();
+      }
+    }
+
+    @Override
+    @WorkerThread
+    public void run() {
+      long startTime = uriFetchStageStats.start(enqueueTime);
+      try {
+        if (!cancelled) {
+          fetch();
+        }
+      } finally {
+        uriFetches.remove(request.getKey(), this);
+        uriFetchStageStats.finish(startTime);
+      }
+    }
+
+    private void fetch() {
+      // Keep the original URI and use this to key into the cache.  Failure to do so will
+      // result in an image being continually reloaded into cache if the original URI
+      // has a contact type encodedFragment (eg nearby places business photo URLs).
+      Uri originalUri = request.getUri();
+
+      // Strip off the "contact type" we added to the URI to ensure it was identifiable as
+      // a business photo -- there is no need to pass this on to the server.
+      Uri uri = ContactPhotoManager.removeContactType(originalUri);
+
+      // A stale memory entry was refreshed on purpose, so only skip the network on a cold load.
+      if (bitmapHolderCache.get(originalUri) == null) {
+        byte[] bytes = photoDiskCache.get(originalUri);
+        if (bytes != null) {
+          decodeUriBasedPhoto(request, bytes);
+          return;
+        }
+      }
+
+      try {
+        if (DEBUG) {
+          LogUtil.d("ContactPhotoManagerImpl.UriFetch.fetch", "loading " + uri);
+        }
+        final String scheme = uri.getScheme();
+        InputStream is = null;
+        if (scheme.equals("http") || scheme.equals("https")) {
+          TrafficStats.setThreadStatsTag(TrafficStatsTags.CONTACT_PHOTO_DOWNLOAD_TAG);
+          try {
+            connection = (HttpURLConnection) new URL(uri.toString()).openConnection();
+            connection.setConnectTimeout(URI_CONNECT_TIMEOUT_MILLIS);
+            connection.setReadTimeout(URI_READ_TIMEOUT_MILLIS);
+
+            // Include the user agent if it is specified.
+            if (!TextUtils.isEmpty(userAgent)) {
+              connection.setRequestProperty("User-Agent", userAgent);
+            }
+            try {
+              is = connection.getInputStream();
+            } catch (IOException e) {
+              connection.disconnect();
+              is = null;
+            }
+          } finally {
+            TrafficStats.clearThreadStatsTag();
+          }
+        } else {
+          is = context.getContentResolver().openInputStream(uri);
+        }
+        if (cancelled) {
+          if (is != null) {
+            is.close();
+          }
+          return;
+        }
+        if (is != null) {
+          ByteArrayOutputStream baos = new ByteArrayOutputStream();
+          byte[] buffer = new byte[BUFFER_SIZE];
+          try {
+            int size;
+            while (!cancelled && (size = is.read(buffer)) != -1) {
+              baos.write(buffer, 0, size);
+            }
+          } finally {
+            is.close();
+          }
+          if (!cancelled) {
+            byte[] bytes = baos.toByteArray();
+            decodeUriBasedPhoto(request, bytes);
+            photoDiskCache.put(originalUri, bytes);
+          }
+        } else {
+          LogUtil.v("ContactPhotoManagerImpl.UriFetch.fetch", "cannot load photo " + uri);
+          cacheBitmap(originalUri, null, false, request.getRequestedExtent());
+        }
+      } catch (final Exception | OutOfMemoryError ex) {
+        if (cancelled) {
+          return;
+        }
+        LogUtil.v("ContactPhotoManagerImpl.UriFetch.fetch", "cannot load photo " + uri, ex);
+        cacheBitmap(originalUri, null, false, request.getRequestedExtent());
+      }
+    }
+  }
+
   /** The thread that performs loading of photos from the database. */
   private class LoaderThread extends HandlerThread implements Callback {
 
-    private static final int BUFFER_SIZE = 1024 * 16;
     private static final int MESSAGE_PRELOAD_PHOTOS = 0;
     private static final int MESSAGE_LOAD_PHOTOS = 1;
+    private static final int MESSAGE_PRELOAD_HINTED_PHOTOS = 2;
 
     /** A pause between preload batches that yields to the UI thread. */
     private static final int PHOTO_PRELOAD_DELAY = 1000;
@@ -943,12 +1223,6 @@ class ContactPhotoManagerImpl extends ContactPhotoManager implements Callback {
     /** Number of photos to preload per batch. */
     private static final int PRELOAD_BATCH = 25;
 
-    /**
-     * Maximum number of photos to preload. If the cache size is 2Mb and the expected average size
-     * of a photo is 4kb, then this number should be 2Mb/4kb = 500.
-     */
-    private static final int MAX_PHOTOS_TO_PRELOAD = 100;
-
     private static final int PRELOAD_STATUS_NOT_STARTED = 0;
     private static final int PRELOAD_STATUS_IN_PROGRESS = 1;
     private static final int PRELOAD_STATUS_DONE = 2;
@@ -957,10 +1231,11 @@ class ContactPhotoManagerImpl extends ContactPhotoManager implements Callback {
     private final Set<Long> photoIds = new HashSet<>();
     private final Set<String> photoIdsAsStrings = new HashSet<>();
     private final Set<Request> photoUris = new HashSet<>();
-    private final List<Long> preloadPhotoIds = new ArrayList<>();
+    private final PhotoPreloadPlanner preloadPlanner = new PhotoPreloadPlanner(context);
     private Handler loaderThreadHandler;
-    private byte[] buffer;
     private int preloadStatus = PRELOAD_STATUS_NOT_STARTED;
+    /** Bytes added to the cache by planned preloading, see {@link #preloadBudgetBytes}. */
+    private int preloadedBytes;
 
     public LoaderThread(ContentResolver resolver) {
       super(LOADER_THREAD_NAME);
@@ -992,6 +1267,15 @@ class ContactPhotoManagerImpl extends ContactPhotoManager implements Callback {
       loaderThreadHandler.sendEmptyMessageDelayed(MESSAGE_PRELOAD_PHOTOS, PHOTO_PRELOAD_DELAY);
     }
 
+    /**
+     * Sends a message to this thread to preload the given thumbnails right away, ahead of the
+     * planned ones, e.g. for the list items the user is scrolling towards.
+     */
+    public void requestPreloading(long[] photoIds) {
+      ensureHandler();
+      loaderThreadHandler.obtainMessage(MESSAGE_PRELOAD_HINTED_PHOTOS, photoIds).sendToTarget();
+    }
+
     /**
      * Sends a message to this thread to load requested photos. Cancels a preloading request, if
      * any: we don't want preloading to impede loading of the photos we need to display now.
@@ -999,7 +1283,14 @@ class ContactPhotoManagerImpl extends ContactPhotoManager implements Callback {
     public void requestLoading() {
       ensureHandler();
       loaderThreadHandler.removeMessages(MESSAGE_PRELOAD_PHOTOS);
-      loaderThreadHandler.sendEmptyMessage(MESSAGE_LOAD_PHOTOS);
+      // Hints are sent again as the list scrolls, so dropping them here loses little.
+      loaderThreadHandler.removeMessages(MESSAGE_PRELOAD_HINTED_PHOTOS);
+      // A queued message will pick up all requests which are pending by the time it is handled.
+      if (!loaderThreadHandler.hasMessages(MESSAGE_LOAD_PHOTOS)) {
+        loaderThreadHandler
+            .obtainMessage(MESSAGE_LOAD_PHOTOS, thumbnailStageStats.enqueue())
+            .sendToTarget();
+      }
     }
 
     /**
@@ -1012,9 +1303,16 @@ class ContactPhotoManagerImpl extends ContactPhotoManager implements Callback {
         case MESSAGE_PRELOAD_PHOTOS:
           preloadPhotosInBackground();
           break;
-        case MESSAGE_LOAD_PHOTOS:
-          loadPhotosInBackground();
+        case MESSAGE_PRELOAD_HINTED_PHOTOS:
+          preloadHintedPhotos((long[]) msg.obj);
           break;
+        case MESSAGE_LOAD_PHOTOS:
+          {
+            long startTime = thumbnailStageStats.start((Long) msg.obj);
+            loadPhotosInBackground();
+            thumbnailStageStats.finish(startTime);
+            break;
+          }
       }
       return true;
     }
@@ -1035,8 +1333,8 @@ class ContactPhotoManagerImpl extends ContactPhotoManager implements Callback {
       }
 
       if (preloadStatus == PRELOAD_STATUS_NOT_STARTED) {
-        queryPhotosForPreload();
-        if (preloadPhotoIds.isEmpty()) {
+        preloadPlanner.plan();
+        if (preloadPlanner.isEmpty()) {
           preloadStatus = PRELOAD_STATUS_DONE;
         } else {
           preloadStatus = PRELOAD_STATUS_IN_PROGRESS;
@@ -1045,7 +1343,8 @@ class ContactPhotoManagerImpl extends ContactPhotoManager implements Callback {
         return;
       }
 
-      if (bitmapHolderCache.size() > bitmapHolderCacheRedZoneBytes) {
+      if (bitmapHolderCache.size() > bitmapHolderCacheRedZoneBytes
+          || preloadedBytes >= preloadBudgetBytes) {
         preloadStatus = PRELOAD_STATUS_DONE;
         return;
       }
@@ -1053,20 +1352,24 @@ class ContactPhotoManagerImpl extends ContactPhotoManager implements Callback {
       photoIds.clear();
       photoIdsAsStrings.clear();
 
-      int count = 0;
-      int preloadSize = preloadPhotoIds.size();
-      while (preloadSize > 0 && photoIds.size() < PRELOAD_BATCH) {
-        preloadSize--;
-        count++;
-        Long photoId = preloadPhotoIds.get(preloadSize);
-        photoIds.add(photoId);
-        photoIdsAsStrings.add(photoId.toString());
-        preloadPhotoIds.remove(preloadSize);
+      // Photos which have been loaded for views since they were planned are skipped here, rather
+      // than searched for and removed from the plan when they are loaded. The snapshot is checked
+      // so that the skipped photos aren't made more recent in the cache.
+      Map<Object, BitmapHolder> cached = bitmapHolderCache.snapshot();
+      Long photoId;
+      while (photoIds.size() < PRELOAD_BATCH && (photoId = preloadPlanner.poll()) != null) {
+        if (!cached.containsKey(photoId)) {
+          photoIds.add(photoId);
+          photoIdsAsStrings.add(photoId.toString());
+        }
       }
+      int count = photoIds.size();
 
+      int cachedBytes = bitmapHolderCache.size();
       loadThumbnails(true);
+      preloadedBytes += Math.max(0, bitmapHolderCache.size() - cachedBytes);
 
-      if (preloadSize == 0) {
+      if (preloadPlanner.isEmpty()) {
         preloadStatus = PRELOAD_STATUS_DONE;
       }
 
@@ -1077,38 +1380,28 @@ class ContactPhotoManagerImpl extends ContactPhotoManager implements Callback {
       requestPreloading();
     }
 
+    /** Preloads the hinted thumbnails which aren't cached yet, regardless of the preload budget. */
     @WorkerThread
-    private void queryPhotosForPreload() {
-      Cursor cursor = null;
-      try {
-        Uri uri =
-            Contacts.CONTENT_URI
-                .buildUpon()
-                .appendQueryParameter(
-                    ContactsContract.DIRECTORY_PARAM_KEY, String.valueOf(Directory.DEFAULT))
-                .appendQueryParameter(
-                    ContactsContract.LIMIT_PARAM_KEY, String.valueOf(MAX_PHOTOS_TO_PRELOAD))
-                .build();
-        cursor =
-            resolver.query(
-                uri,
-                new String[] {Contacts.PHOTO_ID},
-                Contacts.PHOTO_ID + " NOT NULL AND " + Contacts.PHOTO_ID + "!=0",
-                null,
-                Contacts.STARRED + " DESC, " + Contacts.LAST_TIME_CONTACTED + " DESC");
+    private void preloadHintedPhotos(long[] hintedPhotoIds) {
+      if (!PermissionsUtil.hasPermission(context, android.Manifest.permission.READ_CONTACTS)
+          || bitmapHolderCache.size() > bitmapHolderCacheRedZoneBytes) {
+        return;
+      }
 
-        if (cursor != null) {
-          while (cursor.moveToNext()) {
-            // Insert them in reverse order, because we will be taking
-            // them from the end of the list for loading.
-            preloadPhotoIds.add(0, cursor.getLong(0));
-          }
+      photoIds.clear();
+      photoIdsAsStrings.clear();
+      // Checked without touching the cache, so speculative hits don't change its recency order.
+      Map<Object, BitmapHolder> cached = bitmapHolderCache.snapshot();
+      for (long photoId : hintedPhotoIds) {
+        if (photoIds.size() == PRELOAD_BATCH) {
+          break;
         }
-      } finally {
-        if (cursor != null) {
-          cursor.close();
+        if (photoId != 0 && !cached.containsKey(photoId)) {
+          photoIds.add(photoId);
+          photoIdsAsStrings.add(String.valueOf(photoId));
         }
       }
+      loadThumbnails(true);
     }
 
     @WorkerThread
@@ -1117,11 +1410,35 @@ class ContactPhotoManagerImpl extends ContactPhotoManager implements Callback {
         return;
       }
       obtainPhotoIdsAndUrisToLoad(photoIds, photoIdsAsStrings, photoUris);
+      // Hand off URI based photos first, so they are fetched while the thumbnails are queried.
+      fetchUriBasedPhotos(photoUris);
       loadThumbnails(false);
-      loadUriBasedPhotos();
       requestPreloading();
     }
 
+    /**
+     * Shows the thumbnails which are being loaded for the first time from {@link #photoDiskCache}.
+     * They are cached as not fresh, so they are still replaced by the thumbnails from the contacts
+     * provider, which may have changed since they were stored.
+     */
+    @WorkerThread
+    private void showThumbnailsFromDiskCache() {
+      boolean found = false;
+      for (Long id : photoIds) {
+        if (bitmapHolderCache.get(id) != null) {
+          continue;
+        }
+        byte[] bytes = photoDiskCache.get(id);
+        if (bytes != null) {
+          cacheBitmap(id, bytes, false, -1, false);
+          found = true;
+        }
+      }
+      if (found) {
+        mainThreadHandler.sendEmptyMessage(MESSAGE_PHOTOS_LOADED);
+      }
+    }
+
     /** Loads thumbnail photos with ids */
     @WorkerThread
     private void loadThumbnails(boolean preloading) {
@@ -1129,15 +1446,8 @@ class ContactPhotoManagerImpl extends ContactPhotoManager implements Callback {
         return;
       }
 
-      // Remove loaded photos from the preload queue: we don't want
-      // the preloading process to load them again.
-      if (!preloading && preloadStatus == PRELOAD_STATUS_IN_PROGRESS) {
-        for (Long id : photoIds) {
-          preloadPhotoIds.remove(id);
-        }
-        if (preloadPhotoIds.isEmpty()) {
-          preloadStatus = PRELOAD_STATUS_DONE;
-        }
+      if (!preloading) {
+        showThumbnailsFromDiskCache();
       }
 
       stringBuilder.setLength(0);
@@ -1170,6 +1480,9 @@ class ContactPhotoManagerImpl extends ContactPhotoManager implements Callback {
             Long id = cursor.getLong(0);
             byte[] bytes = cursor.getBlob(1);
             cacheBitmap(id, bytes, preloading, -1);
+            if (bytes != null) {
+              photoDiskCache.put(id, bytes);
+            }
             photoIds.remove(id);
           }
         }
@@ -1206,75 +1519,5 @@ class ContactPhotoManagerImpl extends ContactPhotoManager implements Callback {
 
       mainThreadHandler.sendEmptyMessage(MESSAGE_PHOTOS_LOADED);
     }
-
-    /**
-     * Loads photos referenced with Uris. Those can be remote thumbnails (from directory searches),
-     * display photos etc
-     */
-    @WorkerThread
-    private void loadUriBasedPhotos() {
-      for (Request uriRequest : photoUris) {
-        // Keep the original URI and use this to key into the cache.  Failure to do so will
-        // result in an image being continually reloaded into cache if the original URI
-        // has a contact type encodedFragment (eg nearby places business photo URLs).
-        Uri originalUri = uriRequest.getUri();
-
-        // Strip off the "contact type" we added to the URI to ensure it was identifiable as
-        // a business photo -- there is no need to pass this on to the server.
-        Uri uri = ContactPhotoManager.removeContactType(originalUri);
-
-        if (buffer == null) {
-          buffer = new byte[BUFFER_SIZE];
-        }
-        try {
-          if (DEBUG) {
-            LogUtil.d("ContactPhotoManagerImpl.loadUriBasedPhotos", "loading " + uri);
-          }
-          final String scheme = uri.getScheme();
-          InputStream is = null;
-          if (scheme.equals("http") || scheme.equals("https")) {
-            TrafficStats.setThreadStatsTag(TrafficStatsTags.CONTACT_PHOTO_DOWNLOAD_TAG);
-            try {
-              final HttpURLConnection connection =
-                  (HttpURLConnection) new URL(uri.toString()).openConnection();
-
-              // Include the user agent if it is specified.
-              if (!TextUtils.isEmpty(userAgent)) {
-                connection.setRequestProperty("User-Agent", userAgent);
-              }
-              try {
-                is = connection.getInputStream();
-              } catch (IOException e) {
-                connection.disconnect();
-                is = null;
-              }
-            } finally {
-              TrafficStats.clearThreadStatsTag();
-            }
-          } else {
-            is = resolver.openInputStream(uri);
-          }
-          if (is != null) {
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            try {
-              int size;
-              while ((size = is.read(buffer)) != -1) {
-                baos.write(buffer, 0, size);
-              }
-            } finally {
-              is.close();
-            }
-            cacheBitmap(originalUri, baos.toByteArray(), false, uriRequest.getRequestedExtent());
-            mainThreadHandler.sendEmptyMessage(MESSAGE_PHOTOS_LOADED);
-          } else {
-            LogUtil.v("ContactPhotoManagerImpl.loadUriBasedPhotos", "cannot load photo " + uri);
-            cacheBitmap(originalUri, null, false, uriRequest.getRequestedExtent());
-          }
-        } catch (final Exception | OutOfMemoryError ex) {
-          LogUtil.v("ContactPhotoManagerImpl.loadUriBasedPhotos", "cannot load photo " + uri, ex);
-          cacheBitmap(originalUri, null, false, uriRequest.getRequestedExtent());
-        }
-      }
-    }
   }
 }
@@ -0,0 +1,332 @@
+/*
+ * SPDX-FileCopyrightText: The LineageOS Project
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.android.dialer.contactphoto;
+
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.provider.ContactsContract;
+import android.provider.ContactsContract.Contacts;
+import android.provider.ContactsContract.DeletedContacts;
+
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import com.android.dialer.common.LogUtil;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Size bounded LRU cache of photo bytes on disk, keyed like {@link ContactPhotoManagerImpl}'s
+ * memory caches by photo id or URI, so that photos survive process restarts.
+ *
+ * <p>Each photo is stored in its own file holding its key, the time it was written and a CRC32 of
+ * its bytes. Files which don't match their checksum are deleted when read. Recency is kept in the
+ * files' modification times, which are updated on every hit, so the least recently used photos are
+ * evicted first across restarts as well. All methods do disk I/O and are safe to call from any
+ * worker thread.
+ *
+ * <p>Photos keyed by id are immutable, a changed photo gets a new id. Photos keyed by URI aren't:
+ * they are only returned if no contact has been updated or deleted since they were written, and
+ * for at most {@link #URI_MAX_AGE_MILLIS}, which bounds how long a remote directory photo is shown
+ * without being fetched again.
+ */
+final class PhotoDiskCache {
+
+  private static final String DIRECTORY_NAME = "contact_photos";
+
+  private static final String TEMP_FILE_SUFFIX = ".tmp";
+
+  private static final int MAGIC = 0x43504432; // "CPD2"
+
+  private static final long URI_MAX_AGE_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+  /** Photos larger than this aren't worth caching, and larger lengths indicate a corrupt file. */
+  private static final int MAX_PHOTO_BYTES = 512 * 1024;
+
+  private final Context appContext;
+  private final long maxBytes;
+
+  /** File sizes by name, least recently used first. Null until the directory has been scanned. */
+  @Nullable private LinkedHashMap<String, Long> index;
+
+  private long totalBytes;
+  private File directory;
+
+  /** Whether {@link #contactsChanged} is kept up to date, which is needed to serve URI keys. */
+  private boolean observingContacts;
+
+  /**
+   * Whether the contacts provider may have changed since {@link #lastContactChangeMillis} was read.
+   */
+  private volatile boolean contactsChanged = true;
+
+  /** Time of the last contact update or deletion, URI keyed photos written before are outdated. */
+  private volatile long lastContactChangeMillis;
+
+  PhotoDiskCache(Context context, long maxBytes) {
+    this.appContext = context.getApplicationContext();
+    this.maxBytes = maxBytes;
+  }
+
+  /** Returns the cached bytes of the photo with {@code key}, or null if they aren't cached. */
+  @WorkerThread
+  @Nullable
+  byte[] get(Object key) {
+    String keyString = getKeyString(key);
+    String fileName = getFileName(keyString);
+    File file;
+    synchronized (this) {
+      ensureIndex();
+      // Moves the entry to the most recently used end.
+      if (index.get(fileName) == null) {
+        return null;
+      }
+      file = new File(directory, fileName);
+    }
+
+    try (DataInputStream in =
+        new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+      if (in.readInt() != MAGIC) {
+        throw new IOException("bad magic");
+      }
+      if (!keyString.equals(in.readUTF())) {
+        // Another photo whose key has the same hash, leave it alone.
+        return null;
+      }
+      long writtenMillis = in.readLong();
+      if (key instanceof Uri && isOutdated(writtenMillis)) {
+        remove(fileName);
+        return null;
+      }
+      long checksum = in.readLong();
+      int length = in.readInt();
+      if (length < 0 || length > MAX_PHOTO_BYTES) {
+        throw new IOException("bad length " + length);
+      }
+      byte[] bytes = new byte[length];
+      in.readFully(bytes);
+      if (getChecksum(bytes) != checksum) {
+        throw new IOException("checksum mismatch");
+      }
+      file.setLastModified(System.currentTimeMillis());
+      return bytes;
+    } catch (IOException e) {
+      LogUtil.w("PhotoDiskCache.get", "dropping " + fileName + ": " + e);
+      remove(fileName);
+      return null;
+    }
+  }
+
+  /** Stores {@code bytes} as the photo with {@code key}, evicting older photos if needed. */
+  @WorkerThread
+  void put(Object key, byte[] bytes) {
+    if (bytes.length == 0 || bytes.length > MAX_PHOTO_BYTES) {
+      return;
+    }
+    String keyString = getKeyString(key);
+    String fileName = getFileName(keyString);
+    File file;
+    synchronized (this) {
+      ensureIndex();
+      if (!directory.isDirectory() && !directory.mkdirs()) {
+        return;
+      }
+      file = new File(directory, fileName);
+    }
+
+    long checksum = getChecksum(bytes);
+    if (!(key instanceof Uri) && file.exists() && isStored(file, keyString, checksum)) {
+      // Unchanged, e.g. a thumbnail revalidated against the contacts provider. URI keyed photos are
+      // written again to renew their time.
+      return;
+    }
+
+    File tempFile = null;
+    try {
+      tempFile = File.createTempFile(fileName, TEMP_FILE_SUFFIX, file.getParentFile());
+      try (DataOutputStream out =
+          new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+        out.writeInt(MAGIC);
+        out.writeUTF(keyString);
+        out.writeLong(System.currentTimeMillis());
+        out.writeLong(checksum);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+      }
+      if (!tempFile.renameTo(file)) {
+        throw new IOException("rename failed");
+      }
+    } catch (IOException e) {
+      LogUtil.w("PhotoDiskCache.put", "cannot write " + fileName + ": " + e);
+      if (tempFile != null) {
+        tempFile.delete();
+      }
+      return;
+    }
+
+    synchronized (this) {
+      Long previousSize = index.put(fileName, file.length());
+      totalBytes += file.length() - (previousSize == null ? 0 : previousSize);
+      trimToSize();
+    }
+  }
+
+  private static boolean isStored(File file, String keyString, long checksum) {
+    try (DataInputStream in =
+        new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+      return in.readInt() == MAGIC
+          && keyString.equals(in.readUTF())
+          && in.skipBytes(Long.BYTES) == Long.BYTES
+          && in.readLong() == checksum;
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
+  private boolean isOutdated(long writtenMillis) {
+    if (!observingContacts || System.currentTimeMillis() - writtenMillis > URI_MAX_AGE_MILLIS) {
+      return true;
+    }
+    if (contactsChanged) {
+      // Cleared first so that a change observed while querying isn't lost.
+      contactsChanged = false;
+      lastContactChangeMillis = queryLastContactChange();
+    }
+    return writtenMillis <= lastContactChangeMillis;
+  }
+
+  /**
+   * Returns the time of the last contact update or deletion, or {@link Long#MAX_VALUE} if it can't
+   * be read.
+   */
+  private long queryLastContactChange() {
+    try {
+      return Math.max(
+          queryLatest(Contacts.CONTENT_URI, Contacts.CONTACT_LAST_UPDATED_TIMESTAMP),
+          queryLatest(DeletedContacts.CONTENT_URI, DeletedContacts.CONTACT_DELETED_TIMESTAMP));
+    } catch (SecurityException e) {
+      LogUtil.w("PhotoDiskCache.queryLastContactChange", "cannot read contacts: " + e);
+      contactsChanged = true;
+      return Long.MAX_VALUE;
+    }
+  }
+
+  private long queryLatest(Uri uri, String timestampColumn) {
+    Uri limitedUri =
+        uri.buildUpon().appendQueryParameter(ContactsContract.LIMIT_PARAM_KEY, "1").build();
+    try (Cursor cursor =
+        appContext
+            .getContentResolver()
+            .query(
+                limitedUri,
+                new String[] {timestampColumn},
+                null,
+                null,
+                timestampColumn + " DESC")) {
+      if (cursor == null) {
+        contactsChanged = true;
+        return Long.MAX_VALUE;
+      }
+      return cursor.moveToFirst() ? cursor.getLong(0) : 0;
+    }
+  }
+
+  private synchronized void remove(String fileName) {
+    Long size = index.remove(fileName);
+    if (size != null) {
+      totalBytes -= size;
+    }
+    new File(directory, fileName).delete();
+  }
+
+  private void trimToSize() {
+    Iterator<Map.Entry<String, Long>> iterator = index.entrySet().iterator();
+    while (totalBytes > maxBytes && iterator.hasNext()) {
+      Map.Entry<String, Long> entry = iterator.next();
+      new File(directory, entry.getKey()).delete();
+      totalBytes -= entry.getValue();
+      iterator.remove();
+    }
+  }
+
+  /** Scans the cache directory once, ordering the files by their last use. */
+  private void ensureIndex() {
+    if (index != null) {
+      return;
+    }
+    directory = new File(appContext.getCacheDir(), DIRECTORY_NAME);
+    index = new LinkedHashMap<>(16, 0.75f, true /* accessOrder */);
+    try {
+      appContext
+          .getContentResolver()
+          .registerContentObserver(
+              ContactsContract.AUTHORITY_URI,
+              true /* notifyForDescendants */,
+              new ContentObserver(null) {
+                @Override
+                public void onChange(boolean selfChange) {
+                  contactsChanged = true;
+                }
+              });
+      observingContacts = true;
+    } catch (SecurityException e) {
+      LogUtil.w("PhotoDiskCache.ensureIndex", "cannot observe contacts: " + e);
+    }
+    File[] files = directory.listFiles();
+    if (files == null) {
+      return;
+    }
+    long[] lastModified = new long[files.length];
+    Integer[] order = new Integer[files.length];
+    for (int i = 0; i < files.length; i++) {
+      lastModified[i] = files[i].lastModified();
+      order[i] = i;
+    }
+    Arrays.sort(order, (a, b) -> Long.compare(lastModified[a], lastModified[b]));
+    for (int i : order) {
+      File file = files[i];
+      if (file.getName().endsWith(TEMP_FILE_SUFFIX)) {
+        // Left over from a write that was interrupted.
+        file.delete();
+        continue;
+      }
+      index.put(file.getName(), file.length());
+      totalBytes += file.length();
+    }
+    trimToSize();
+  }
+
+  private static String getKeyString(Object key) {
+    return (key instanceof Uri ? "uri:" : "id:") + key;
+  }
+
+  private static String getFileName(String keyString) {
+    return keyString.startsWith("id:")
+        ? "id_" + keyString.substring("id:".length())
+        : "uri_" + Integer.toHexString(keyString.hashCode());
+  }
+
+  private static long getChecksum(byte[] bytes) {
+    CRC32 crc = new CRC32();
+    crc.update(bytes, 0, bytes.length);
+    return crc.getValue();
+  }
+}
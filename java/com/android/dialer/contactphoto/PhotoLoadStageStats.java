@@ -0,0 +1,82 @@
+/*
+ * SPDX-FileCopyrightText: The LineageOS Project
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.android.dialer.contactphoto;
+
+import android.os.SystemClock;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Queue depth and latency of one stage of {@link ContactPhotoManagerImpl}'s loading pipeline.
+ *
+ * <p>Each unit of work calls {@link #enqueue()} when it is queued, {@link #start(long)} when a
+ * worker picks it up and {@link #finish(long)} when it is done. All methods are thread safe.
+ */
+final class PhotoLoadStageStats {
+
+  private final String name;
+
+  private final AtomicInteger queueDepth = new AtomicInteger();
+  private final AtomicInteger maxQueueDepth = new AtomicInteger();
+  private final AtomicInteger started = new AtomicInteger();
+  private final AtomicInteger finished = new AtomicInteger();
+  private final AtomicLong totalWaitMillis = new AtomicLong();
+  private final AtomicLong maxWaitMillis = new AtomicLong();
+  private final AtomicLong totalRunMillis = new AtomicLong();
+  private final AtomicLong maxRunMillis = new AtomicLong();
+
+  PhotoLoadStageStats(String name) {
+    this.name = name;
+  }
+
+  /** Records that work was queued, and returns the time to pass to {@link #start(long)}. */
+  long enqueue() {
+    int depth = queueDepth.incrementAndGet();
+    maxQueueDepth.accumulateAndGet(depth, Math::max);
+    return SystemClock.elapsedRealtime();
+  }
+
+  /** Records that queued work was picked up, and returns the time to pass to {@link #finish}. */
+  long start(long enqueueTime) {
+    long now = SystemClock.elapsedRealtime();
+    queueDepth.decrementAndGet();
+    started.incrementAndGet();
+    totalWaitMillis.addAndGet(now - enqueueTime);
+    maxWaitMillis.accumulateAndGet(now - enqueueTime, Math::max);
+    return now;
+  }
+
+  /** Records that work picked up at {@code startTime} is done. */
+  void finish(long startTime) {
+    long runMillis = SystemClock.elapsedRealtime() - startTime;
+    finished.incrementAndGet();
+    totalRunMillis.addAndGet(runMillis);
+    maxRunMillis.accumulateAndGet(runMillis, Math::max);
+  }
+
+  @Override
+  public String toString() {
+    int startedCount = started.get();
+    int finishedCount = finished.get();
+    return name
+        + ": queued="
+        + queueDepth.get()
+        + " (max "
+        + maxQueueDepth.get()
+        + "), done="
+        + finishedCount
+        + ", wait avg="
+        + (startedCount == 0 ? 0 : totalWaitMillis.get() / startedCount)
+        + "ms max="
+        + maxWaitMillis.get()
+        + "ms, run avg="
+        + (finishedCount == 0 ? 0 : totalRunMillis.get() / finishedCount)
+        + "ms max="
+        + maxRunMillis.get()
+        + "ms";
+  }
+}
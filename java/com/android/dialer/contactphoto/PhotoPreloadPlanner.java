@@ -0,0 +1,156 @@
+/*
+ * SPDX-FileCopyrightText: The LineageOS Project
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.android.dialer.contactphoto;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.provider.CallLog.Calls;
+import android.provider.ContactsContract;
+import android.provider.ContactsContract.Contacts;
+import android.provider.ContactsContract.Directory;
+
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import com.android.dialer.common.LogUtil;
+import com.android.dialer.speeddial.database.SpeedDialEntry;
+import com.android.dialer.speeddial.database.SpeedDialEntryDatabaseHelper;
+import com.android.dialer.util.PermissionsUtil;
+
+import java.util.ArrayDeque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Orders the thumbnails to preload by how likely they are to be shown soon.
+ *
+ * <p>The call log is opened far more often than the contact list, so the contacts of the most
+ * recent calls come first, followed by the speed dial favorites and then the starred and frequently
+ * contacted contacts. Each photo is queued once. All methods must be called on the loader thread.
+ */
+final class PhotoPreloadPlanner {
+
+  /** Number of recent calls whose contacts' photos are preloaded. */
+  private static final int MAX_RECENT_CALLS = 100;
+
+  /** Number of starred and frequent contacts whose photos are preloaded. */
+  private static final int MAX_FREQUENT_CONTACTS = 100;
+
+  private final Context appContext;
+  private final ContentResolver resolver;
+
+  private final ArrayDeque<Long> queue = new ArrayDeque<>();
+  private final Set<Long> queuedIds = new HashSet<>();
+
+  PhotoPreloadPlanner(Context context) {
+    this.appContext = context.getApplicationContext();
+    this.resolver = appContext.getContentResolver();
+  }
+
+  /** Queues the candidates from all sources, most likely to be shown first. */
+  @WorkerThread
+  void plan() {
+    queue.clear();
+    queuedIds.clear();
+    if (PermissionsUtil.hasCallLogReadPermissions(appContext)) {
+      queryRecentCalls();
+    }
+    querySpeedDialEntries();
+    queryFrequentContacts();
+    LogUtil.i("PhotoPreloadPlanner.plan", "planned %d photos", queue.size());
+  }
+
+  /** Returns the next photo id to preload, or null if there is none left. */
+  @Nullable
+  Long poll() {
+    return queue.poll();
+  }
+
+  boolean isEmpty() {
+    return queue.isEmpty();
+  }
+
+  @WorkerThread
+  private void queryRecentCalls() {
+    Uri uri =
+        Calls.CONTENT_URI
+            .buildUpon()
+            .appendQueryParameter(Calls.LIMIT_PARAM_KEY, String.valueOf(MAX_RECENT_CALLS))
+            .build();
+    try (Cursor cursor =
+        resolver.query(
+            uri,
+            new String[] {Calls.CACHED_PHOTO_ID},
+            Calls.CACHED_PHOTO_ID + "!=0",
+            null,
+            Calls.DEFAULT_SORT_ORDER)) {
+      addPhotoIds(cursor);
+    } catch (SecurityException e) {
+      LogUtil.e("PhotoPreloadPlanner.queryRecentCalls", "cannot read call log", e);
+    }
+  }
+
+  @WorkerThread
+  private void querySpeedDialEntries() {
+    List<SpeedDialEntry> entries = new SpeedDialEntryDatabaseHelper(appContext).getAllEntries();
+    if (entries.isEmpty()) {
+      return;
+    }
+    StringBuilder selection = new StringBuilder(Contacts._ID + " IN (");
+    String[] selectionArgs = new String[entries.size()];
+    for (int i = 0; i < entries.size(); i++) {
+      selection.append(i == 0 ? "?" : ",?");
+      selectionArgs[i] = String.valueOf(entries.get(i).contactId());
+    }
+    selection.append(") AND " + Contacts.PHOTO_ID + "!=0");
+    try (Cursor cursor =
+        resolver.query(
+            Contacts.CONTENT_URI,
+            new String[] {Contacts.PHOTO_ID},
+            selection.toString(),
+            selectionArgs,
+            null)) {
+      addPhotoIds(cursor);
+    }
+  }
+
+  @WorkerThread
+  private void queryFrequentContacts() {
+    Uri uri =
+        Contacts.CONTENT_URI
+            .buildUpon()
+            .appendQueryParameter(
+                ContactsContract.DIRECTORY_PARAM_KEY, String.valueOf(Directory.DEFAULT))
+            .appendQueryParameter(
+                ContactsContract.LIMIT_PARAM_KEY, String.valueOf(MAX_FREQUENT_CONTACTS))
+            .build();
+    try (Cursor cursor =
+        resolver.query(
+            uri,
+            new String[] {Contacts.PHOTO_ID},
+            Contacts.PHOTO_ID + " NOT NULL AND " + Contacts.PHOTO_ID + "!=0",
+            null,
+            Contacts.STARRED + " DESC, " + Contacts.LAST_TIME_CONTACTED + " DESC")) {
+      addPhotoIds(cursor);
+    }
+  }
+
+  /** Queues the photo ids in the first column of {@code cursor} which aren't queued yet. */
+  private void addPhotoIds(@Nullable Cursor cursor) {
+    if (cursor == null) {
+      return;
+    }
+    while (cursor.moveToNext()) {
+      long photoId = cursor.getLong(0);
+      if (queuedIds.add(photoId)) {
+        queue.add(photoId);
+      }
+    }
+  }
+}
@@ -26,7 +26,10 @@ import android.view.View;
 import android.view.ViewGroup;
 
 import androidx.annotation.IntDef;
+import androidx.annotation.Nullable;
 import androidx.collection.ArrayMap;
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.ListUpdateCallback;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.android.dialer.R;
@@ -36,6 +39,7 @@ import com.android.dialer.contactphoto.ContactPhotoManager;
 import com.android.dialer.contactsfragment.ContactsFragment.Header;
 import com.android.dialer.contactsfragment.ContactsFragment.OnContactSelectedListener;
 import com.android.dialer.lettertile.LetterTileDrawable;
+import com.google.common.collect.ImmutableList;
 
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
@@ -63,6 +67,10 @@ final class ContactsAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder
   private int[] counts = new int[0];
   // Cursor with list of contacts
   private Cursor cursor;
+  // Whether {@code cursor} was read from a {@link ContactsSnapshot} and is owned by this adapter.
+  private boolean cursorIsSnapshot;
+  // What is bound for each row of {@code cursor}, null if no cursor is shown.
+  @Nullable private ImmutableList<ContactsCursor.Item> items;
 
   ContactsAdapter(
       Context context, @Header int header, OnContactSelectedListener onContactSelectedListener) {
@@ -71,8 +79,36 @@ final class ContactsAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder
     this.onContactSelectedListener = Assert.isNotNull(onContactSelectedListener);
   }
 
-  void updateCursor(Cursor cursor) {
+  /** Returns true if the adapter is showing the result of a load rather than a snapshot. */
+  boolean hasLoadedCursor() {
+    return cursor != null && !cursorIsSnapshot;
+  }
+
+  /** Returns what is bound for each row, or null if no cursor is shown. */
+  @Nullable
+  ImmutableList<ContactsCursor.Item> getItems() {
+    return items;
+  }
+
+  /**
+   * Updates the contacts shown by the adapter.
+   *
+   * <p>If the cursor was loaded while the current rows were shown, only the rows that differ
+   * between the two are notified so replacing a {@link ContactsSnapshot} with the live result
+   * doesn't rebind the whole list. The differences were computed along with the cursor, off the
+   * main thread.
+   *
+   * @param isSnapshot whether the cursor was read from a {@link ContactsSnapshot}, in which case
+   *     the adapter closes it once it's replaced.
+   */
+  void updateCursor(ContactsCursor cursor, boolean isSnapshot) {
+    Cursor oldCursor = this.cursor;
+    boolean oldCursorIsSnapshot = cursorIsSnapshot;
+    DiffUtil.DiffResult diffResult = oldCursor == cursor ? null : cursor.getDiffFrom(items);
+
     this.cursor = cursor;
+    cursorIsSnapshot = isSnapshot;
+    items = cursor.getItems();
     headers = cursor.getExtras().getStringArray(Contacts.EXTRA_ADDRESS_BOOK_INDEX_TITLES);
     counts = cursor.getExtras().getIntArray(Contacts.EXTRA_ADDRESS_BOOK_INDEX_COUNTS);
     if (counts != null) {
@@ -86,7 +122,16 @@ final class ContactsAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder
             "ContactsAdapter", "Count sum (%d) != cursor count (%d).", sum, cursor.getCount());
       }
     }
-    notifyDataSetChanged();
+
+    if (diffResult == null || headers == null || counts == null) {
+      notifyDataSetChanged();
+    } else {
+      diffResult.dispatchUpdatesTo(new OffsetListUpdateCallback(header == Header.NONE ? 0 : 1));
+    }
+
+    if (oldCursorIsSnapshot && oldCursor != null && oldCursor != cursor) {
+      oldCursor.close();
+    }
   }
 
   @Override
@@ -166,7 +211,11 @@ final class ContactsAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder
 
   void refreshHeaders() {
     for (ContactViewHolder holder : holderMap.keySet()) {
-      int position = holderMap.get(holder);
+      // Rows shifted by partial updates aren't rebound, so ask the holder where it is now.
+      int position = holder.getAdapterPosition();
+      if (position == RecyclerView.NO_POSITION) {
+        continue;
+      }
       boolean showHeader =
           position == 0 || !getHeaderString(position).equals(getHeaderString(position - 1));
       int visibility = showHeader ? View.VISIBLE : View.INVISIBLE;
@@ -198,9 +247,11 @@ final class ContactsAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder
   }
 
   private static Uri getContactUri(Cursor cursor) {
-    long contactId = getContactId(cursor);
-    String lookupKey = cursor.getString(ContactsCursorLoader.CONTACT_LOOKUP_KEY);
-    return Contacts.getLookupUri(contactId, lookupKey);
+    return Contacts.getLookupUri(getContactId(cursor), getLookupKey(cursor));
+  }
+
+  private static String getLookupKey(Cursor cursor) {
+    return cursor.getString(ContactsCursorLoader.CONTACT_LOOKUP_KEY);
   }
 
   private static long getContactId(Cursor cursor) {
@@ -215,11 +266,46 @@ final class ContactsAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder
       position--;
     }
 
+    return getHeaderString(headers, counts, position);
+  }
+
+  /** Returns the sublist header for the contact at {@code cursorPosition}. */
+  private static String getHeaderString(String[] headers, int[] counts, int cursorPosition) {
     int index = -1;
     int sum = 0;
-    while (sum <= position) {
+    while (sum <= cursorPosition) {
       sum += counts[++index];
     }
     return headers[index];
   }
+
+  /** Forwards list updates to the adapter, shifted past the optional header row. */
+  private final class OffsetListUpdateCallback implements ListUpdateCallback {
+
+    private final int offset;
+
+    OffsetListUpdateCallback(int offset) {
+      this.offset = offset;
+    }
+
+    @Override
+    public void onInserted(int position, int count) {
+      notifyItemRangeInserted(position + offset, count);
+    }
+
+    @Override
+    public void onRemoved(int position, int count) {
+      notifyItemRangeRemoved(position + offset, count);
+    }
+
+    @Override
+    public void onMoved(int fromPosition, int toPosition) {
+      notifyItemMoved(fromPosition + offset, toPosition + offset);
+    }
+
+    @Override
+    public void onChanged(int position, int count, @Nullable Object payload) {
+      notifyItemRangeChanged(position + offset, count, payload);
+    }
+  }
 }
@@ -0,0 +1,178 @@
+/*
+ * SPDX-FileCopyrightText: The LineageOS Project
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.android.dialer.contactsfragment;
+
+import android.database.Cursor;
+import android.database.CursorWrapper;
+import android.os.Bundle;
+import android.provider.ContactsContract.Contacts;
+
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+import androidx.recyclerview.widget.DiffUtil;
+
+import com.google.common.collect.ImmutableList;
+
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Contacts cursor along with an immutable copy of what {@link ContactsAdapter} binds for each row.
+ *
+ * <p>The copy is read off the main thread, together with the updates turning the list shown before
+ * the load into this one, so that the adapter can swap cursors without diffing them on the main
+ * thread.
+ */
+final class ContactsCursor extends CursorWrapper {
+
+  private final ImmutableList<Item> items;
+  @Nullable private final ImmutableList<Item> diffBase;
+  @Nullable private final DiffUtil.DiffResult diffResult;
+
+  /** @param diffBase the list shown when the load started, or null if there was none */
+  @WorkerThread
+  ContactsCursor(Cursor cursor, @Nullable ImmutableList<Item> diffBase) {
+    super(cursor);
+    items = readItems(cursor);
+    this.diffBase = diffBase;
+    diffResult =
+        diffBase == null
+            ? null
+            : DiffUtil.calculateDiff(new ItemDiffCallback(diffBase, items), false);
+  }
+
+  ImmutableList<Item> getItems() {
+    return items;
+  }
+
+  /** Returns true if the rows differ from the list shown when the load started. */
+  boolean hasChanges() {
+    return !items.equals(diffBase);
+  }
+
+  /**
+   * Returns the updates turning {@code shownItems} into this cursor's rows, or null if they weren't
+   * computed against that list.
+   */
+  @Nullable
+  DiffUtil.DiffResult getDiffFrom(@Nullable List<Item> shownItems) {
+    return shownItems != null && shownItems == diffBase ? diffResult : null;
+  }
+
+  private static ImmutableList<Item> readItems(Cursor cursor) {
+    Bundle extras = cursor.getExtras();
+    String[] headers = extras.getStringArray(Contacts.EXTRA_ADDRESS_BOOK_INDEX_TITLES);
+    int[] counts = extras.getIntArray(Contacts.EXTRA_ADDRESS_BOOK_INDEX_COUNTS);
+    boolean hasIndex = headers != null && counts != null && headers.length == counts.length;
+
+    ImmutableList.Builder<Item> items = ImmutableList.builderWithExpectedSize(cursor.getCount());
+    int headerIndex = -1;
+    int headerEnd = 0;
+    cursor.moveToPosition(-1);
+    while (cursor.moveToNext()) {
+      String sublistHeader = null;
+      if (hasIndex) {
+        int position = cursor.getPosition();
+        // A row starts a sublist if it's the first one counted under a new header.
+        while (position >= headerEnd && headerIndex + 1 < counts.length) {
+          headerEnd += counts[++headerIndex];
+          if (position < headerEnd) {
+            sublistHeader = headers[headerIndex];
+          }
+        }
+      }
+      items.add(
+          new Item(
+              cursor.getLong(ContactsCursorLoader.CONTACT_ID),
+              cursor.getString(ContactsCursorLoader.CONTACT_DISPLAY_NAME),
+              cursor.getLong(ContactsCursorLoader.CONTACT_PHOTO_ID),
+              cursor.getString(ContactsCursorLoader.CONTACT_PHOTO_URI),
+              cursor.getString(ContactsCursorLoader.CONTACT_LOOKUP_KEY),
+              sublistHeader));
+    }
+    cursor.moveToPosition(-1);
+    return items.build();
+  }
+
+  /** What the adapter binds for one contact, including the header if it starts a sublist. */
+  static final class Item {
+    private final long contactId;
+    @Nullable private final String displayName;
+    private final long photoId;
+    @Nullable private final String photoUri;
+    @Nullable private final String lookupKey;
+    @Nullable private final String sublistHeader;
+
+    private Item(
+        long contactId,
+        @Nullable String displayName,
+        long photoId,
+        @Nullable String photoUri,
+        @Nullable String lookupKey,
+        @Nullable String sublistHeader) {
+      this.contactId = contactId;
+      this.displayName = displayName;
+      this.photoId = photoId;
+      this.photoUri = photoUri;
+      this.lookupKey = lookupKey;
+      this.sublistHeader = sublistHeader;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof Item)) {
+        return false;
+      }
+      Item other = (Item) o;
+      return contactId == other.contactId
+          && photoId == other.photoId
+          && Objects.equals(displayName, other.displayName)
+          && Objects.equals(photoUri, other.photoUri)
+          && Objects.equals(lookupKey, other.lookupKey)
+          && Objects.equals(sublistHeader, other.sublistHeader);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(contactId, displayName, photoId, photoUri, lookupKey, sublistHeader);
+    }
+  }
+
+  /** Compares two lists by contact id, treating a row as changed if anything it binds differs. */
+  private static final class ItemDiffCallback extends DiffUtil.Callback {
+
+    private final List<Item> oldItems;
+    private final List<Item> newItems;
+
+    ItemDiffCallback(List<Item> oldItems, List<Item> newItems) {
+      this.oldItems = oldItems;
+      this.newItems = newItems;
+    }
+
+    @Override
+    public int getOldListSize() {
+      return oldItems.size();
+    }
+
+    @Override
+    public int getNewListSize() {
+      return newItems.size();
+    }
+
+    @Override
+    public boolean areItemsTheSame(int oldPosition, int newPosition) {
+      return oldItems.get(oldPosition).contactId == newItems.get(newPosition).contactId;
+    }
+
+    @Override
+    public boolean areContentsTheSame(int oldPosition, int newPosition) {
+      return oldItems.get(oldPosition).equals(newItems.get(newPosition));
+    }
+  }
+}
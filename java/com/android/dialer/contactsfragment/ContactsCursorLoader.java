@@ -18,13 +18,16 @@
 package com.android.dialer.contactsfragment;
 
 import android.content.Context;
+import android.database.Cursor;
 import android.net.Uri;
 import android.provider.ContactsContract.Contacts;
 import android.text.TextUtils;
 
+import androidx.annotation.Nullable;
 import androidx.loader.content.CursorLoader;
 
 import com.android.dialer.contacts.ContactsComponent;
+import com.google.common.collect.ImmutableList;
 
 /** Cursor Loader for {@link ContactsFragment}. */
 final class ContactsCursorLoader extends CursorLoader {
@@ -53,6 +56,10 @@ final class ContactsCursorLoader extends CursorLoader {
         Contacts.LOOKUP_KEY, // 4
       };
 
+  private final String snapshotKey;
+  private boolean filtered;
+  @Nullable private volatile ImmutableList<ContactsCursor.Item> shownItems;
+
   ContactsCursorLoader(Context context, boolean hasPhoneNumbers) {
     super(
         context,
@@ -61,9 +68,41 @@ final class ContactsCursorLoader extends CursorLoader {
         getWhere(context, hasPhoneNumbers),
         null,
         getSortKey(context) + " ASC");
+    snapshotKey = getSnapshotKey(context, hasPhoneNumbers);
+  }
+
+  /** Returns the key identifying the {@link ContactsSnapshot} written for this configuration. */
+  static String getSnapshotKey(Context context, boolean hasPhoneNumbers) {
+    return getProjection(context)[CONTACT_DISPLAY_NAME]
+        + "|"
+        + getSortKey(context)
+        + "|"
+        + hasPhoneNumbers;
+  }
+
+  /**
+   * Sets the rows currently shown, which the next loads are diffed against. The snapshot is only
+   * rewritten when a load differs from them.
+   */
+  void setShownItems(@Nullable ImmutableList<ContactsCursor.Item> shownItems) {
+    this.shownItems = shownItems;
+  }
+
+  @Override
+  public ContactsCursor loadInBackground() {
+    Cursor cursor = super.loadInBackground();
+    if (cursor == null) {
+      return null;
+    }
+    ContactsCursor contactsCursor = new ContactsCursor(cursor, shownItems);
+    if (!filtered && contactsCursor.hasChanges()) {
+      ContactsSnapshot.write(getContext(), snapshotKey, contactsCursor);
+    }
+    return contactsCursor;
   }
 
-  private static String[] getProjection(Context context) {
+  /** Returns the columns of the cursors loaded for the current display order. */
+  static String[] getProjection(Context context) {
     switch (ContactsComponent.get(context).contactDisplayPreferences().getDisplayOrder()) {
       case PRIMARY:
         return CONTACTS_PROJECTION_DISPLAY_NAME_PRIMARY;
@@ -94,6 +133,7 @@ final class ContactsCursorLoader extends CursorLoader {
 
   /** Update cursor loader to filter contacts based on the provided query. */
   public void setQuery(String query) {
+    filtered = !TextUtils.isEmpty(query);
     setUri(buildUri(query));
   }
 
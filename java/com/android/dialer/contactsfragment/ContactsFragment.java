@@ -46,6 +46,8 @@ import com.android.dialer.R;
 import com.android.dialer.common.Assert;
 import com.android.dialer.common.FragmentUtils;
 import com.android.dialer.common.LogUtil;
+import com.android.dialer.common.concurrent.DialerExecutor;
+import com.android.dialer.common.concurrent.DialerExecutorComponent;
 import com.android.dialer.util.DialerUtils;
 import com.android.dialer.util.IntentUtil;
 import com.android.dialer.util.PermissionsUtil;
@@ -196,6 +198,7 @@ public class ContactsFragment extends Fragment
     emptyContentView.setActionClickedListener(this);
 
     if (PermissionsUtil.hasContactsReadPermissions(getContext())) {
+      loadSnapshot();
       loadContacts();
     } else {
       emptyContentView.setDescription(R.string.permission_no_contacts);
@@ -222,6 +225,7 @@ public class ContactsFragment extends Fragment
   public Loader<Cursor> onCreateLoader(int id, Bundle args) {
     ContactsCursorLoader cursorLoader = new ContactsCursorLoader(getContext(), hasPhoneNumbers);
     cursorLoader.setQuery(query);
+    cursorLoader.setShownItems(adapter == null ? null : adapter.getItems());
     return cursorLoader;
   }
 
@@ -236,7 +240,8 @@ public class ContactsFragment extends Fragment
     } else {
       emptyContentView.setVisibility(View.GONE);
       recyclerView.setVisibility(View.VISIBLE);
-      adapter.updateCursor(cursor);
+      adapter.updateCursor((ContactsCursor) cursor, false);
+      ((ContactsCursorLoader) loader).setShownItems(adapter.getItems());
 
       fastScroller.setup(adapter, manager);
     }
@@ -335,6 +340,47 @@ public class ContactsFragment extends Fragment
     }
   }
 
+  /**
+   * Reads the contacts shown during the last session from disk so the list can be drawn while
+   * {@link ContactsCursorLoader} scans the address book.
+   */
+  private void loadSnapshot() {
+    if (query != null) {
+      return;
+    }
+    DialerExecutor<Context> snapshotExecutor =
+        DialerExecutorComponent.get(getContext())
+            .dialerExecutorFactory()
+            .createUiTaskBuilder(
+                getChildFragmentManager(),
+                "loadContactsSnapshot",
+                new ContactsSnapshot.ReadWorker(
+                    ContactsCursorLoader.getSnapshotKey(getContext(), hasPhoneNumbers)))
+            .onSuccess(this::onSnapshotLoaded)
+            .build();
+    snapshotExecutor.executeParallel(getContext().getApplicationContext());
+  }
+
+  private void onSnapshotLoaded(@Nullable ContactsCursor snapshot) {
+    if (snapshot == null) {
+      return;
+    }
+    // The live result is already shown, or the view is gone.
+    if (adapter == null || adapter.hasLoadedCursor() || snapshot.getCount() == 0) {
+      snapshot.close();
+      return;
+    }
+    LogUtil.i("ContactsFragment.onSnapshotLoaded", "rows: %d", snapshot.getCount());
+    emptyContentView.setVisibility(View.GONE);
+    recyclerView.setVisibility(View.VISIBLE);
+    adapter.updateCursor(snapshot, true);
+    Loader<Cursor> loader = LoaderManager.getInstance(this).getLoader(0);
+    if (loader != null) {
+      ((ContactsCursorLoader) loader).setShownItems(adapter.getItems());
+    }
+    fastScroller.setup(adapter, manager);
+  }
+
   private void loadContacts() {
     LoaderManager.getInstance(this).initLoader(0, null, this);
     recyclerView.setVisibility(View.VISIBLE);
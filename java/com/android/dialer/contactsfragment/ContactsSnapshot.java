@@ -0,0 +1,221 @@
+/*
+ * SPDX-FileCopyrightText: The LineageOS Project
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.android.dialer.contactsfragment;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.os.Bundle;
+import android.provider.ContactsContract.Contacts;
+import android.util.AtomicFile;
+
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import com.android.dialer.common.Assert;
+import com.android.dialer.common.LogUtil;
+import com.android.dialer.common.concurrent.DialerExecutor.Worker;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * On-disk copy of the rows and address book index last shown by {@link ContactsFragment}.
+ *
+ * <p>The snapshot is written by {@link ContactsCursorLoader} after every unfiltered load that
+ * changed the list, and read back on the next cold open so the list can be rendered before CP2 has
+ * finished scanning the address book. Snapshots are keyed by the loader configuration (display
+ * order, sort order and phone number filter) and ignored if the key doesn't match. The columns are
+ * stored along with the rows, and snapshots written with another projection are ignored too.
+ */
+final class ContactsSnapshot {
+
+  private static final String FILE_NAME = "contacts_snapshot";
+
+  /** Bump whenever the file format changes. */
+  private static final int VERSION = 2;
+
+  private static final byte TYPE_NULL = 0;
+  private static final byte TYPE_LONG = 1;
+  private static final byte TYPE_DOUBLE = 2;
+  private static final byte TYPE_STRING = 3;
+
+  private ContactsSnapshot() {}
+
+  /**
+   * Returns a cursor with {@link ContactsCursorLoader}'s projection and address book index
+   * extras, or null if there is no snapshot for {@code key} and {@code projection}.
+   */
+  @WorkerThread
+  @Nullable
+  static Cursor read(Context context, String key, String[] projection) {
+    Assert.isWorkerThread();
+    AtomicFile file = getFile(context);
+    try (DataInputStream in =
+        new DataInputStream(new BufferedInputStream(file.openRead()))) {
+      if (in.readInt() != VERSION || !key.equals(in.readUTF())) {
+        return null;
+      }
+      int columnCount = in.readInt();
+      if (columnCount != projection.length) {
+        return null;
+      }
+      for (String column : projection) {
+        if (!column.equals(in.readUTF())) {
+          return null;
+        }
+      }
+
+      int rowCount = in.readInt();
+      MatrixCursor cursor = new MatrixCursor(projection, rowCount);
+      for (int i = 0; i < rowCount; i++) {
+        Object[] row = new Object[columnCount];
+        for (int j = 0; j < columnCount; j++) {
+          row[j] = readValue(in);
+        }
+        cursor.addRow(row);
+      }
+
+      int indexCount = in.readInt();
+      String[] titles = new String[indexCount];
+      int[] counts = new int[indexCount];
+      for (int i = 0; i < indexCount; i++) {
+        titles[i] = in.readUTF();
+        counts[i] = in.readInt();
+      }
+      Bundle extras = new Bundle();
+      extras.putStringArray(Contacts.EXTRA_ADDRESS_BOOK_INDEX_TITLES, titles);
+      extras.putIntArray(Contacts.EXTRA_ADDRESS_BOOK_INDEX_COUNTS, counts);
+      cursor.setExtras(extras);
+      return cursor;
+    } catch (FileNotFoundException e) {
+      return null;
+    } catch (IOException e) {
+      LogUtil.e("ContactsSnapshot.read", "unable to read snapshot", e);
+      file.delete();
+      return null;
+    }
+  }
+
+  /**
+   * Writes the rows of {@code cursor} along with its address book index to disk. The cursor is
+   * left positioned before the first row.
+   */
+  @WorkerThread
+  static void write(Context context, String key, Cursor cursor) {
+    Assert.isWorkerThread();
+    Bundle extras = cursor.getExtras();
+    String[] titles = extras.getStringArray(Contacts.EXTRA_ADDRESS_BOOK_INDEX_TITLES);
+    int[] counts = extras.getIntArray(Contacts.EXTRA_ADDRESS_BOOK_INDEX_COUNTS);
+    if (titles == null || counts == null || titles.length != counts.length) {
+      return;
+    }
+
+    AtomicFile file = getFile(context);
+    FileOutputStream stream = null;
+    try {
+      stream = file.startWrite();
+      DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+      out.writeInt(VERSION);
+      out.writeUTF(key);
+      String[] columns = cursor.getColumnNames();
+      out.writeInt(columns.length);
+      for (String column : columns) {
+        out.writeUTF(column);
+      }
+
+      out.writeInt(cursor.getCount());
+      cursor.moveToPosition(-1);
+      while (cursor.moveToNext()) {
+        for (int i = 0; i < columns.length; i++) {
+          writeValue(out, cursor, i);
+        }
+      }
+      cursor.moveToPosition(-1);
+
+      out.writeInt(titles.length);
+      for (int i = 0; i < titles.length; i++) {
+        out.writeUTF(titles[i]);
+        out.writeInt(counts[i]);
+      }
+      out.flush();
+      file.finishWrite(stream);
+    } catch (IOException e) {
+      LogUtil.e("ContactsSnapshot.write", "unable to write snapshot", e);
+      if (stream != null) {
+        file.failWrite(stream);
+      }
+    }
+  }
+
+  private static AtomicFile getFile(Context context) {
+    return new AtomicFile(new File(context.getCacheDir(), FILE_NAME));
+  }
+
+  @Nullable
+  private static Object readValue(DataInputStream in) throws IOException {
+    byte type = in.readByte();
+    switch (type) {
+      case TYPE_NULL:
+        return null;
+      case TYPE_LONG:
+        return in.readLong();
+      case TYPE_DOUBLE:
+        return in.readDouble();
+      case TYPE_STRING:
+        return in.readUTF();
+      default:
+        throw new IOException("unknown type " + type);
+    }
+  }
+
+  /** Writes the value of {@code column} in the current row. Blobs aren't bound and become null. */
+  private static void writeValue(DataOutputStream out, Cursor cursor, int column)
+      throws IOException {
+    switch (cursor.getType(column)) {
+      case Cursor.FIELD_TYPE_INTEGER:
+        out.writeByte(TYPE_LONG);
+        out.writeLong(cursor.getLong(column));
+        break;
+      case Cursor.FIELD_TYPE_FLOAT:
+        out.writeByte(TYPE_DOUBLE);
+        out.writeDouble(cursor.getDouble(column));
+        break;
+      case Cursor.FIELD_TYPE_STRING:
+        out.writeByte(TYPE_STRING);
+        out.writeUTF(cursor.getString(column));
+        break;
+      case Cursor.FIELD_TYPE_NULL:
+      case Cursor.FIELD_TYPE_BLOB:
+      default:
+        out.writeByte(TYPE_NULL);
+        break;
+    }
+  }
+
+  /** Reads the snapshot for a key off the main thread. */
+  static final class ReadWorker implements Worker<Context, ContactsCursor> {
+
+    private final String key;
+
+    ReadWorker(String key) {
+      this.key = key;
+    }
+
+    @Nullable
+    @Override
+    public ContactsCursor doInBackground(Context context) {
+      Cursor cursor = read(context, key, ContactsCursorLoader.getProjection(context));
+      return cursor == null ? null : new ContactsCursor(cursor, null);
+    }
+  }
+}
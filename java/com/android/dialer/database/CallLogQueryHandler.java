@@ -55,7 +55,13 @@ public class CallLogQueryHandler extends NoNullCursorAsyncQueryHandler {
    */
   public static final int CALL_TYPE_ALL = -1;
 
-  private static final int NUM_LOGS_TO_DISPLAY = 1000;
+  /**
+   * Number of calls fetched per page. The first page is shown as soon as it is loaded, and older
+   * pages are fetched as the user scrolls towards the end of the list.
+   */
+  private static final int PAGE_SIZE = 100;
+  /** Calls are ordered by date, and by id for calls with the same date, so pages never overlap. */
+  private static final String SORT_ORDER = Calls.DATE + " DESC, " + Calls._ID + " DESC";
   /** The token for the query to fetch the old entries from the call log. */
   private static final int QUERY_CALLLOG_TOKEN = 54;
   /** The token for the query to mark all missed calls as read after seeing the call log. */
@@ -66,6 +72,12 @@ public class CallLogQueryHandler extends NoNullCursorAsyncQueryHandler {
   private static final int QUERY_VOICEMAIL_UNREAD_COUNT_TOKEN = 58;
   /** The token for the query to fetch the number of missed calls. */
   private static final int QUERY_MISSED_CALLS_UNREAD_COUNT_TOKEN = 59;
+  /** The token for the query to fetch the entries changed since a previous fetch. */
+  private static final int QUERY_CHANGED_CALLS_TOKEN = 60;
+  /** The token for the query to fetch the page of entries following those already fetched. */
+  private static final int QUERY_OLDER_CALLS_TOKEN = 61;
+  /** The token for the query to fetch again a page of entries that was dropped from memory. */
+  private static final int QUERY_CALLS_PAGE_TOKEN = 62;
 
   private final int logLimit;
   private final WeakReference<Listener> listener;
@@ -97,11 +109,111 @@ public class CallLogQueryHandler extends NoNullCursorAsyncQueryHandler {
    * <p>It will asynchronously update the content of the list view when the fetch completes.
    */
   public void fetchCalls(int callType, long newerThan) {
+    fetchCalls(callType, newerThan, 0);
+  }
+
+  /**
+   * Same as {@link #fetchCalls(int, long)}, but fetches at least {@code minCount} calls instead of a
+   * single page if paging is enabled, e.g. to keep the pages already shown when refreshing.
+   *
+   * @return the maximum number of calls requested, or 0 if nothing was fetched
+   */
+  public int fetchCalls(int callType, long newerThan, int minCount) {
     cancelFetch();
     if (PermissionsUtil.hasPhonePermissions(context)) {
-      fetchCalls(QUERY_CALLLOG_TOKEN, callType, false /* newOnly */, newerThan);
+      int limit = isPagingEnabled() ? Math.max(PAGE_SIZE, minCount) : logLimit;
+      fetchCalls(
+          QUERY_CALLLOG_TOKEN, callType, false /* newOnly */, newerThan, 0, 0, 0, limit, null);
+      return limit;
     } else {
       updateAdapterData(null);
+      return 0;
+    }
+  }
+
+  /**
+   * Fetches the next page of calls of a given type following the call with the given date and id,
+   * in the order of {@link #fetchCalls(int, long)}.
+   *
+   * <p>The result is delivered to {@link Listener#onOlderCallsFetched(Cursor)}.
+   */
+  public void fetchOlderCalls(int callType, long newerThan, long olderThanDate, long olderThanId) {
+    cancelOperation(QUERY_OLDER_CALLS_TOKEN);
+    if (isPagingEnabled() && PermissionsUtil.hasPhonePermissions(context)) {
+      fetchCalls(
+          QUERY_OLDER_CALLS_TOKEN,
+          callType,
+          false /* newOnly */,
+          newerThan,
+          0,
+          olderThanDate,
+          olderThanId,
+          PAGE_SIZE,
+          null);
+    }
+  }
+
+  /**
+   * Fetches {@code count} calls of a given type following the call with the given date and id, or
+   * the most recent ones if {@code olderThanDate} is 0, in the order of {@link #fetchCalls(int,
+   * long)}. Used to load again calls that were fetched before and dropped from memory.
+   *
+   * <p>Pages are not cancelled by one another. The result is delivered to {@link
+   * Listener#onCallsPageFetched(Object, Cursor)} along with {@code cookie}.
+   */
+  public void fetchCallsPage(
+      int callType,
+      long newerThan,
+      long olderThanDate,
+      long olderThanId,
+      int count,
+      Object cookie) {
+    if (PermissionsUtil.hasPhonePermissions(context)) {
+      fetchCalls(
+          QUERY_CALLS_PAGE_TOKEN,
+          callType,
+          false /* newOnly */,
+          newerThan,
+          0,
+          olderThanDate,
+          olderThanId,
+          count,
+          cookie);
+    }
+  }
+
+  /**
+   * Returns whether older calls can be fetched page by page, which is not the case if a fixed limit
+   * was given to the constructor.
+   */
+  public boolean isPagingEnabled() {
+    return logLimit == -1;
+  }
+
+  /** Returns the maximum number of calls returned by a single fetch. */
+  public int getPageSize() {
+    return isPagingEnabled() ? PAGE_SIZE : logLimit;
+  }
+
+  /**
+   * Fetches the calls of a given type that were added or modified after {@code modifiedSince},
+   * with the same filtering and order as {@link #fetchCalls(int, long)}.
+   *
+   * <p>The result is delivered to {@link Listener#onChangedCallsFetched(Cursor)}.
+   */
+  public void fetchChangedCalls(int callType, long newerThan, long modifiedSince) {
+    cancelOperation(QUERY_CHANGED_CALLS_TOKEN);
+    if (PermissionsUtil.hasPhonePermissions(context)) {
+      fetchCalls(
+          QUERY_CHANGED_CALLS_TOKEN,
+          callType,
+          false /* newOnly */,
+          newerThan,
+          modifiedSince,
+          0,
+          0,
+          getPageSize(),
+          null);
     }
   }
 
@@ -152,8 +264,23 @@ public class CallLogQueryHandler extends NoNullCursorAsyncQueryHandler {
     }
   }
 
-  /** Fetches the list of calls in the call log. */
-  private void fetchCalls(int token, int callType, boolean newOnly, long newerThan) {
+  /**
+   * Fetches the list of calls in the call log.
+   *
+   * @param olderThanDate if positive, only calls ordered after the call with this date and {@code
+   *     olderThanId} are fetched
+   * @param cookie passed to the listener along with the result
+   */
+  private void fetchCalls(
+      int token,
+      int callType,
+      boolean newOnly,
+      long newerThan,
+      long modifiedSince,
+      long olderThanDate,
+      long olderThanId,
+      int limit,
+      Object cookie) {
     StringBuilder where = new StringBuilder();
     List<String> selectionArgs = new ArrayList<>();
 
@@ -177,6 +304,26 @@ public class CallLogQueryHandler extends NoNullCursorAsyncQueryHandler {
       selectionArgs.add(Long.toString(newerThan));
     }
 
+    if (modifiedSince > 0) {
+      where.append(" AND (").append(Calls.LAST_MODIFIED).append(" > ?)");
+      selectionArgs.add(Long.toString(modifiedSince));
+    }
+
+    if (olderThanDate > 0) {
+      // Keyset pagination on (date, _id), matching SORT_ORDER.
+      where
+          .append(" AND (")
+          .append(Calls.DATE)
+          .append(" < ? OR (")
+          .append(Calls.DATE)
+          .append(" = ? AND ")
+          .append(Calls._ID)
+          .append(" < ?))");
+      selectionArgs.add(Long.toString(olderThanDate));
+      selectionArgs.add(Long.toString(olderThanDate));
+      selectionArgs.add(Long.toString(olderThanId));
+    }
+
     if (callType == Calls.VOICEMAIL_TYPE) {
       VoicemailComponent.get(context)
           .getVoicemailClient()
@@ -197,7 +344,6 @@ public class CallLogQueryHandler extends NoNullCursorAsyncQueryHandler {
           .append(")");
     }
 
-    final int limit = (logLimit == -1) ? NUM_LOGS_TO_DISPLAY : logLimit;
     final String selection = where.length() > 0 ? where.toString() : null;
     Uri uri =
         TelecomUtil.getCallLogUri(context)
@@ -206,17 +352,20 @@ public class CallLogQueryHandler extends NoNullCursorAsyncQueryHandler {
             .build();
     startQuery(
         token,
-        null,
+        cookie,
         uri,
         CallLogQuery.getProjection(),
         selection,
         selectionArgs.toArray(new String[0]),
-        Calls.DEFAULT_SORT_ORDER);
+        SORT_ORDER);
   }
 
   /** Cancel any pending fetch request. */
   private void cancelFetch() {
     cancelOperation(QUERY_CALLLOG_TOKEN);
+    cancelOperation(QUERY_CHANGED_CALLS_TOKEN);
+    cancelOperation(QUERY_OLDER_CALLS_TOKEN);
+    cancelOperation(QUERY_CALLS_PAGE_TOKEN);
   }
 
   /** Updates all missed calls to mark them as read. */
@@ -263,6 +412,21 @@ public class CallLogQueryHandler extends NoNullCursorAsyncQueryHandler {
         if (updateAdapterData(cursor)) {
           cursor = null;
         }
+      } else if (token == QUERY_CHANGED_CALLS_TOKEN) {
+        final Listener listener = this.listener.get();
+        if (listener != null && listener.onChangedCallsFetched(cursor)) {
+          cursor = null;
+        }
+      } else if (token == QUERY_OLDER_CALLS_TOKEN) {
+        final Listener listener = this.listener.get();
+        if (listener != null && listener.onOlderCallsFetched(cursor)) {
+          cursor = null;
+        }
+      } else if (token == QUERY_CALLS_PAGE_TOKEN) {
+        final Listener listener = this.listener.get();
+        if (listener != null && listener.onCallsPageFetched(cookie, cursor)) {
+          cursor = null;
+        }
       } else if (token == QUERY_VOICEMAIL_STATUS_TOKEN) {
         updateVoicemailStatus(cursor);
       } else if (token == QUERY_VOICEMAIL_UNREAD_COUNT_TOKEN) {
@@ -340,6 +504,30 @@ public class CallLogQueryHandler extends NoNullCursorAsyncQueryHandler {
      * ownership of cursor.
      */
     boolean onCallsFetched(Cursor combinedCursor);
+
+    /**
+     * Called when {@link CallLogQueryHandler#fetchChangedCalls(int, long, long)} completes. Returns
+     * true if takes ownership of cursor.
+     */
+    default boolean onChangedCallsFetched(Cursor cursor) {
+      return false;
+    }
+
+    /**
+     * Called when {@link CallLogQueryHandler#fetchOlderCalls(int, long, long, long)} completes.
+     * Returns true if takes ownership of cursor.
+     */
+    default boolean onOlderCallsFetched(Cursor cursor) {
+      return false;
+    }
+
+    /**
+     * Called when {@link CallLogQueryHandler#fetchCallsPage(int, long, long, long, int, Object)}
+     * completes. Returns true if takes ownership of cursor.
+     */
+    default boolean onCallsPageFetched(Object cookie, Cursor cursor) {
+      return false;
+    }
   }
 
   /**
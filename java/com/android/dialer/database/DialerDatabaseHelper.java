@@ -35,6 +35,7 @@ import android.provider.ContactsContract.Data;
 import android.provider.ContactsContract.Directory;
 import android.text.TextUtils;
 
+import androidx.annotation.Nullable;
 import androidx.annotation.WorkerThread;
 
 import com.android.dialer.common.LogUtil;
@@ -43,6 +44,7 @@ import com.android.dialer.common.concurrent.DialerExecutorComponent;
 import com.android.dialer.common.concurrent.DialerFutureSerializer;
 import com.android.dialer.common.database.Selection;
 import com.android.dialer.contacts.resources.R;
+import com.android.dialer.smartdial.util.SmartDialKey;
 import com.android.dialer.smartdial.util.SmartDialNameMatcher;
 import com.android.dialer.smartdial.util.SmartDialPrefix;
 import com.android.dialer.util.PermissionsUtil;
@@ -50,7 +52,12 @@ import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.MoreExecutors;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 
@@ -81,10 +88,24 @@ public class DialerDatabaseHelper extends SQLiteOpenHelper {
   private static final String LAST_UPDATED_MILLIS = "last_updated_millis";
 
   private static final String DATABASE_VERSION_PROPERTY = "database_version";
+  /** Row counts and duration of the last smart dial update, for debugging. */
+  private static final String LAST_UPDATE_STATS_PROPERTY = "last_update_stats";
   private static final int MAX_ENTRIES = 20;
+  /** Number of contacts written per transaction when applying incremental updates. */
+  private static final int JOURNAL_BATCH_SIZE = 200;
 
   private final Context context;
   private final DialerFutureSerializer dialerFutureSerializer = new DialerFutureSerializer();
+  private final Object smartDialIndexLock = new Object();
+
+  /** In-memory copy of the smart dial tables, replaced after every update. */
+  private volatile SmartDialIndex smartDialIndex;
+
+  /**
+   * Incremented under {@link #smartDialIndexLock} whenever an update starts or publishes its index,
+   * so that an index built from older tables never replaces a newer one.
+   */
+  private long smartDialIndexGeneration;
 
   protected DialerDatabaseHelper(Context context, String databaseName, int dbVersion) {
     super(context, databaseName, null, dbVersion);
@@ -163,6 +184,10 @@ public class DialerDatabaseHelper extends SQLiteOpenHelper {
 
     setProperty(db, DATABASE_VERSION_PROPERTY, String.valueOf(DATABASE_VERSION));
     resetSmartDialLastUpdatedTime();
+    synchronized (smartDialIndexLock) {
+      smartDialIndexGeneration++;
+      smartDialIndex = null;
+    }
   }
 
   public void dropTables(SQLiteDatabase db) {
@@ -341,18 +366,20 @@ public class DialerDatabaseHelper extends SQLiteOpenHelper {
    * @param db Database to operate on.
    * @param lastUpdatedTimeMillis the last time at which an update to the smart dial database was
    *     run.
+   * @return the number of deleted contacts.
    */
-  private void removeDeletedContacts(SQLiteDatabase db, String lastUpdatedTimeMillis) {
+  private int removeDeletedContacts(SQLiteDatabase db, String lastUpdatedTimeMillis) {
     Cursor deletedContactCursor = getDeletedContactCursor(lastUpdatedTimeMillis);
 
     if (deletedContactCursor == null) {
-      return;
+      return 0;
     }
 
+    int deletedContacts = 0;
     db.beginTransaction();
     try {
       if (!deletedContactCursor.moveToFirst()) {
-        return;
+        return 0;
       }
 
       do {
@@ -378,6 +405,7 @@ public class DialerDatabaseHelper extends SQLiteOpenHelper {
             Tables.PREFIX_TABLE,
             prefixSelection.getSelection(),
             prefixSelection.getSelectionArgs());
+        deletedContacts++;
       } while (deletedContactCursor.moveToNext());
 
       db.setTransactionSuccessful();
@@ -385,6 +413,7 @@ public class DialerDatabaseHelper extends SQLiteOpenHelper {
       deletedContactCursor.close();
       db.endTransaction();
     }
+    return deletedContacts;
   }
 
   private Cursor getDeletedContactCursor(String lastUpdateMillis) {
@@ -405,8 +434,9 @@ public class DialerDatabaseHelper extends SQLiteOpenHelper {
    *
    * @param db Database pointer to the dialer database.
    * @param last_update_time Time stamp of last successful update of the dialer database.
+   * @return the number of removed smart dial rows.
    */
-  private void removePotentiallyCorruptedContacts(SQLiteDatabase db, String last_update_time) {
+  private int removePotentiallyCorruptedContacts(SQLiteDatabase db, String last_update_time) {
     db.delete(
         Tables.PREFIX_TABLE,
         PrefixColumns.CONTACT_ID
@@ -421,34 +451,32 @@ public class DialerDatabaseHelper extends SQLiteOpenHelper {
             + last_update_time
             + ")",
         null);
-    db.delete(
+    return db.delete(
         Tables.SMARTDIAL_TABLE,
         SmartDialDbColumns.LAST_SMARTDIAL_UPDATE_TIME + " > " + last_update_time,
         null);
   }
 
   /**
-   * Removes rows in the smartdial database that matches updated contacts.
+   * Inserts updated contacts as rows to the smartdial table.
    *
-   * @param db Database pointer to the smartdial database
+   * @param db Database pointer to the smartdial database.
    * @param updatedContactCursor Cursor pointing to the list of recently updated contacts.
+   * @param currentMillis Current time to be recorded in the smartdial table as update timestamp.
    */
-  private void removeUpdatedContacts(SQLiteDatabase db, Cursor updatedContactCursor) {
+  private void insertUpdatedContactsAndNumberPrefix(
+      SQLiteDatabase db, Cursor updatedContactCursor, Long currentMillis) {
     db.beginTransaction();
     try {
+      final SQLiteStatement insert = db.compileStatement(SmartDialStatements.INSERT);
+      final SQLiteStatement numberInsert = db.compileStatement(SmartDialStatements.INSERT_PREFIX);
+
       updatedContactCursor.moveToPosition(-1);
       while (updatedContactCursor.moveToNext()) {
-        if (updatedContactCursor.isNull(UpdatedContactQuery.UPDATED_CONTACT_ID)) {
-          LogUtil.i(
-              "DialerDatabaseHelper.removeUpdatedContacts",
-              "contact_id column null. Row was deleted during iteration, skipping");
-          continue;
+        final PhoneRow row = PhoneRow.fromCursor(context, updatedContactCursor);
+        if (row != null) {
+          insertPhoneRow(insert, numberInsert, row, currentMillis);
         }
-
-        final long contactId = updatedContactCursor.getLong(UpdatedContactQuery.UPDATED_CONTACT_ID);
-
-        db.delete(Tables.SMARTDIAL_TABLE, SmartDialDbColumns.CONTACT_ID + "=" + contactId, null);
-        db.delete(Tables.PREFIX_TABLE, PrefixColumns.CONTACT_ID + "=" + contactId, null);
       }
 
       db.setTransactionSuccessful();
@@ -458,126 +486,217 @@ public class DialerDatabaseHelper extends SQLiteOpenHelper {
   }
 
   /**
-   * Inserts updated contacts as rows to the smartdial table.
+   * Inserts a phone row into the smartdial table and the prefixes of its number into the prefix
+   * table.
+   *
+   * @return the number of prefixes inserted.
+   */
+  private int insertPhoneRow(
+      SQLiteStatement insert, SQLiteStatement numberInsert, PhoneRow row, long currentMillis) {
+    insert.clearBindings();
+    insert.bindLong(1, row.dataId);
+    insert.bindString(2, row.number);
+    insert.bindLong(3, row.contactId);
+    insert.bindString(4, row.lookupKey);
+    insert.bindString(5, row.displayName);
+    insert.bindLong(6, row.photoId);
+    insert.bindLong(7, row.lastTimeUsed);
+    insert.bindLong(8, row.timesUsed);
+    insert.bindLong(9, row.starred);
+    insert.bindLong(10, row.isSuperPrimary);
+    insert.bindLong(11, row.inVisibleGroup);
+    insert.bindLong(12, row.isPrimary);
+    insert.bindLong(13, row.carrierPresence);
+    insert.bindLong(14, currentMillis);
+    insert.executeInsert();
+
+    final ArrayList<String> numberPrefixes =
+        SmartDialPrefix.parseToNumberTokens(context, row.number);
+    for (String numberPrefix : numberPrefixes) {
+      numberInsert.bindLong(1, row.contactId);
+      numberInsert.bindString(2, numberPrefix);
+      numberInsert.executeInsert();
+      numberInsert.clearBindings();
+    }
+    return numberPrefixes.size();
+  }
+
+  /**
+   * Applies the changes to recently updated contacts by diffing each of them against the rows
+   * already in the smartdial table.
+   *
+   * <p>Contacts whose name and numbers are unchanged, e.g. when only {@code times_used} or the
+   * photo changed, are updated in place without touching the prefix table. Contacts without any
+   * phone rows left are removed. Only contacts whose name or numbers changed have their rows and
+   * prefixes rewritten. Changes are written in transactions of {@link #JOURNAL_BATCH_SIZE}
+   * contacts.
    *
    * @param db Database pointer to the smartdial database.
-   * @param updatedContactCursor Cursor pointing to the list of recently updated contacts.
+   * @param updatedContactIds Contacts updated in CP2 since the last update.
+   * @param updatedPhoneCursor Cursor pointing to the phone rows of recently updated contacts.
    * @param currentMillis Current time to be recorded in the smartdial table as update timestamp.
+   * @param stats Counters for the current update run.
    */
-  private void insertUpdatedContactsAndNumberPrefix(
-      SQLiteDatabase db, Cursor updatedContactCursor, Long currentMillis) {
-    db.beginTransaction();
-    try {
-      final String sqlInsert =
-          "INSERT INTO "
-              + Tables.SMARTDIAL_TABLE
-              + " ("
-              + SmartDialDbColumns.DATA_ID
-              + ", "
-              + SmartDialDbColumns.NUMBER
-              + ", "
-              + SmartDialDbColumns.CONTACT_ID
-              + ", "
-              + SmartDialDbColumns.LOOKUP_KEY
-              + ", "
-              + SmartDialDbColumns.DISPLAY_NAME_PRIMARY
-              + ", "
-              + SmartDialDbColumns.PHOTO_ID
-              + ", "
-              + SmartDialDbColumns.LAST_TIME_USED
-              + ", "
-              + SmartDialDbColumns.TIMES_USED
-              + ", "
-              + SmartDialDbColumns.STARRED
-              + ", "
-              + SmartDialDbColumns.IS_SUPER_PRIMARY
-              + ", "
-              + SmartDialDbColumns.IN_VISIBLE_GROUP
-              + ", "
-              + SmartDialDbColumns.IS_PRIMARY
-              + ", "
-              + SmartDialDbColumns.CARRIER_PRESENCE
-              + ", "
-              + SmartDialDbColumns.LAST_SMARTDIAL_UPDATE_TIME
-              + ") "
-              + " VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
-      final SQLiteStatement insert = db.compileStatement(sqlInsert);
-
-      final String numberSqlInsert =
-          "INSERT INTO "
-              + Tables.PREFIX_TABLE
-              + " ("
-              + PrefixColumns.CONTACT_ID
-              + ", "
-              + PrefixColumns.PREFIX
-              + ") "
-              + " VALUES (?, ?)";
-      final SQLiteStatement numberInsert = db.compileStatement(numberSqlInsert);
-
-      updatedContactCursor.moveToPosition(-1);
-      while (updatedContactCursor.moveToNext()) {
-        insert.clearBindings();
+  private void applyUpdatedContacts(
+      SQLiteDatabase db,
+      Set<Long> updatedContactIds,
+      Cursor updatedPhoneCursor,
+      long currentMillis,
+      UpdateStats stats) {
+    final Map<Long, List<PhoneRow>> updatedRows = new LinkedHashMap<>();
+    for (Long contactId : updatedContactIds) {
+      updatedRows.put(contactId, new ArrayList<>());
+    }
+    updatedPhoneCursor.moveToPosition(-1);
+    while (updatedPhoneCursor.moveToNext()) {
+      final PhoneRow row = PhoneRow.fromCursor(context, updatedPhoneCursor);
+      if (row == null) {
+        continue;
+      }
+      List<PhoneRow> rows = updatedRows.get(row.contactId);
+      if (rows == null) {
+        rows = new ArrayList<>();
+        updatedRows.put(row.contactId, rows);
+      }
+      rows.add(row);
+    }
 
-        if (updatedContactCursor.isNull(PhoneQuery.PHONE_ID)) {
-          LogUtil.i(
-              "DialerDatabaseHelper.insertUpdatedContactsAndNumberPrefix",
-              "_id column null. Row was deleted during iteration, skipping");
-          continue;
-        }
+    final Map<Long, ExistingContact> existingContacts =
+        queryExistingContacts(db, updatedRows.keySet());
 
-        // Handle string columns which can possibly be null first. In the case of certain
-        // null columns (due to malformed rows possibly inserted by third-party apps
-        // or sync adapters), skip the phone number row.
-        final String number = updatedContactCursor.getString(PhoneQuery.PHONE_NUMBER);
-        if (TextUtils.isEmpty(number)) {
-          continue;
-        } else {
-          insert.bindString(2, number);
-        }
+    final SQLiteStatement insert = db.compileStatement(SmartDialStatements.INSERT);
+    final SQLiteStatement prefixInsert = db.compileStatement(SmartDialStatements.INSERT_PREFIX);
+    final SQLiteStatement updateMetadata =
+        db.compileStatement(SmartDialStatements.UPDATE_METADATA);
+    final SQLiteStatement deleteRows = db.compileStatement(SmartDialStatements.DELETE_CONTACT);
+    final SQLiteStatement deletePrefixes =
+        db.compileStatement(SmartDialStatements.DELETE_CONTACT_PREFIXES);
 
-        final String lookupKey = updatedContactCursor.getString(PhoneQuery.PHONE_LOOKUP_KEY);
-        if (TextUtils.isEmpty(lookupKey)) {
-          continue;
+    int contactsInTransaction = 0;
+    db.beginTransaction();
+    try {
+      for (Map.Entry<Long, List<PhoneRow>> entry : updatedRows.entrySet()) {
+        final long contactId = entry.getKey();
+        final List<PhoneRow> rows = entry.getValue();
+        final ExistingContact existing = existingContacts.get(contactId);
+
+        if (rows.isEmpty()) {
+          if (existing != null) {
+            deleteContact(deleteRows, deletePrefixes, contactId);
+            stats.deletedContacts++;
+          }
+        } else if (existing != null && existing.hasSameNameAndNumbers(rows)) {
+          for (PhoneRow row : rows) {
+            bindMetadata(updateMetadata, row, currentMillis);
+            updateMetadata.executeUpdateDelete();
+          }
+          stats.metadataOnlyContacts++;
+          stats.rowsWritten += rows.size();
         } else {
-          insert.bindString(4, lookupKey);
+          if (existing != null) {
+            deleteContact(deleteRows, deletePrefixes, contactId);
+          }
+          for (PhoneRow row : rows) {
+            stats.prefixesWritten += insertPhoneRow(insert, prefixInsert, row, currentMillis);
+          }
+          final ArrayList<String> namePrefixes =
+              SmartDialPrefix.generateNamePrefixes(context, rows.get(0).displayName);
+          for (String namePrefix : namePrefixes) {
+            prefixInsert.bindLong(1, contactId);
+            prefixInsert.bindString(2, namePrefix);
+            prefixInsert.executeInsert();
+            prefixInsert.clearBindings();
+          }
+          stats.rewrittenContacts++;
+          stats.rowsWritten += rows.size();
+          stats.prefixesWritten += namePrefixes.size();
         }
 
-        final String displayName = updatedContactCursor.getString(PhoneQuery.PHONE_DISPLAY_NAME);
-        if (displayName == null) {
-          insert.bindString(5, context.getResources().getString(R.string.missing_name));
-        } else {
-          insert.bindString(5, displayName);
-        }
-        insert.bindLong(1, updatedContactCursor.getLong(PhoneQuery.PHONE_ID));
-        insert.bindLong(3, updatedContactCursor.getLong(PhoneQuery.PHONE_CONTACT_ID));
-        insert.bindLong(6, updatedContactCursor.getLong(PhoneQuery.PHONE_PHOTO_ID));
-        insert.bindLong(7, updatedContactCursor.getLong(PhoneQuery.PHONE_LAST_TIME_USED));
-        insert.bindLong(8, updatedContactCursor.getInt(PhoneQuery.PHONE_TIMES_USED));
-        insert.bindLong(9, updatedContactCursor.getInt(PhoneQuery.PHONE_STARRED));
-        insert.bindLong(10, updatedContactCursor.getInt(PhoneQuery.PHONE_IS_SUPER_PRIMARY));
-        insert.bindLong(11, updatedContactCursor.getInt(PhoneQuery.PHONE_IN_VISIBLE_GROUP));
-        insert.bindLong(12, updatedContactCursor.getInt(PhoneQuery.PHONE_IS_PRIMARY));
-        insert.bindLong(13, updatedContactCursor.getInt(PhoneQuery.PHONE_CARRIER_PRESENCE));
-        insert.bindLong(14, currentMillis);
-        insert.executeInsert();
-        final String contactPhoneNumber = updatedContactCursor.getString(PhoneQuery.PHONE_NUMBER);
-        final ArrayList<String> numberPrefixes =
-            SmartDialPrefix.parseToNumberTokens(context, contactPhoneNumber);
-
-        for (String numberPrefix : numberPrefixes) {
-          numberInsert.bindLong(1, updatedContactCursor.getLong(PhoneQuery.PHONE_CONTACT_ID));
-          numberInsert.bindString(2, numberPrefix);
-          numberInsert.executeInsert();
-          numberInsert.clearBindings();
+        if (++contactsInTransaction == JOURNAL_BATCH_SIZE) {
+          db.setTransactionSuccessful();
+          db.endTransaction();
+          db.beginTransaction();
+          contactsInTransaction = 0;
         }
       }
-
       db.setTransactionSuccessful();
     } finally {
       db.endTransaction();
     }
   }
 
+  private static void deleteContact(
+      SQLiteStatement deleteRows, SQLiteStatement deletePrefixes, long contactId) {
+    deleteRows.bindLong(1, contactId);
+    deleteRows.executeUpdateDelete();
+    deleteRows.clearBindings();
+    deletePrefixes.bindLong(1, contactId);
+    deletePrefixes.executeUpdateDelete();
+    deletePrefixes.clearBindings();
+  }
+
+  private static void bindMetadata(SQLiteStatement update, PhoneRow row, long currentMillis) {
+    update.clearBindings();
+    update.bindString(1, row.lookupKey);
+    update.bindLong(2, row.photoId);
+    update.bindLong(3, row.lastTimeUsed);
+    update.bindLong(4, row.timesUsed);
+    update.bindLong(5, row.starred);
+    update.bindLong(6, row.isSuperPrimary);
+    update.bindLong(7, row.inVisibleGroup);
+    update.bindLong(8, row.isPrimary);
+    update.bindLong(9, row.carrierPresence);
+    update.bindLong(10, currentMillis);
+    update.bindLong(11, row.dataId);
+    update.bindLong(12, row.contactId);
+  }
+
+  /** Reads the name and numbers currently stored for each of the given contacts. */
+  private static Map<Long, ExistingContact> queryExistingContacts(
+      SQLiteDatabase db, Set<Long> contactIds) {
+    final Map<Long, ExistingContact> existingContacts = new HashMap<>();
+    final List<String> ids = new ArrayList<>(contactIds.size());
+    for (Long contactId : contactIds) {
+      ids.add(String.valueOf(contactId));
+    }
+    for (int start = 0; start < ids.size(); start += JOURNAL_BATCH_SIZE) {
+      final Selection selection =
+          Selection.column(SmartDialDbColumns.CONTACT_ID)
+              .in(ids.subList(start, Math.min(ids.size(), start + JOURNAL_BATCH_SIZE)));
+      final Cursor cursor =
+          db.query(
+              Tables.SMARTDIAL_TABLE,
+              new String[] {
+                SmartDialDbColumns.CONTACT_ID,
+                SmartDialDbColumns.DATA_ID,
+                SmartDialDbColumns.NUMBER,
+                SmartDialDbColumns.DISPLAY_NAME_PRIMARY
+              },
+              selection.getSelection(),
+              selection.getSelectionArgs(),
+              null,
+              null,
+              null);
+      if (cursor == null) {
+        continue;
+      }
+      try {
+        while (cursor.moveToNext()) {
+          final long contactId = cursor.getLong(0);
+          ExistingContact existing = existingContacts.get(contactId);
+          if (existing == null) {
+            existing = new ExistingContact(cursor.getString(3));
+            existingContacts.put(contactId, existing);
+          }
+          existing.numbers.add(cursor.getLong(1) + ":" + cursor.getString(2));
+        }
+      } finally {
+        cursor.close();
+      }
+    }
+    return existingContacts;
+  }
+
   /**
    * Inserts prefixes of contact names to the prefix table.
    *
@@ -643,6 +762,11 @@ public class DialerDatabaseHelper extends SQLiteOpenHelper {
 
     LogUtil.v("DialerDatabaseHelper.updateSmartDialDatabase", "starting to update database");
 
+    final long generation;
+    synchronized (smartDialIndexLock) {
+      generation = ++smartDialIndexGeneration;
+    }
+
     /** Gets the last update time on the database. */
     final SharedPreferences databaseLastUpdateSharedPref =
         context.getSharedPreferences(DATABASE_LAST_CREATED_SHARED_PREF, Context.MODE_PRIVATE);
@@ -657,20 +781,23 @@ public class DialerDatabaseHelper extends SQLiteOpenHelper {
 
     /** Sets the time after querying the database as the current update time. */
     final long currentMillis = System.currentTimeMillis();
+    final UpdateStats stats = new UpdateStats();
 
     /** Removes contacts that have been deleted. */
-    removeDeletedContacts(db, lastUpdateMillis);
-    removePotentiallyCorruptedContacts(db, lastUpdateMillis);
+    stats.deletedContacts = removeDeletedContacts(db, lastUpdateMillis);
+    stats.corruptedRows = removePotentiallyCorruptedContacts(db, lastUpdateMillis);
 
     /**
      * If the database did not exist before, jump through deletion as there is nothing to delete.
      */
-    if (!lastUpdateMillis.equals("0")) {
+    final boolean fullUpdate = lastUpdateMillis.equals("0");
+    final Set<Long> updatedContactIds = new HashSet<>();
+    if (!fullUpdate) {
       /**
-       * Removes contacts that have been updated. Updated contact information will be inserted
-       * later. Note that this has to use a separate result set from updatePhoneCursor, since it is
-       * possible for a contact to be updated (e.g. phone number deleted), but have no results show
-       * up in updatedPhoneCursor (since all of its phone numbers have been deleted).
+       * Gets the contacts that have been updated. Note that this has to use a separate result set
+       * from updatePhoneCursor, since it is possible for a contact to be updated (e.g. phone number
+       * deleted), but have no results show up in updatedPhoneCursor (since all of its phone numbers
+       * have been deleted).
        */
       final Cursor updatedContactCursor =
           context
@@ -688,7 +815,16 @@ public class DialerDatabaseHelper extends SQLiteOpenHelper {
         return;
       }
       try {
-        removeUpdatedContacts(db, updatedContactCursor);
+        while (updatedContactCursor.moveToNext()) {
+          if (updatedContactCursor.isNull(UpdatedContactQuery.UPDATED_CONTACT_ID)) {
+            LogUtil.i(
+                "DialerDatabaseHelper.updateSmartDialDatabase",
+                "contact_id column null. Row was deleted during iteration, skipping");
+            continue;
+          }
+          updatedContactIds.add(
+              updatedContactCursor.getLong(UpdatedContactQuery.UPDATED_CONTACT_ID));
+        }
       } finally {
         updatedContactCursor.close();
       }
@@ -715,36 +851,44 @@ public class DialerDatabaseHelper extends SQLiteOpenHelper {
     }
 
     try {
-      /** Inserts recently updated phone numbers to the smartdial database. */
-      insertUpdatedContactsAndNumberPrefix(db, updatedPhoneCursor, currentMillis);
+      if (fullUpdate) {
+        /** Inserts all phone numbers to the smartdial database. */
+        insertUpdatedContactsAndNumberPrefix(db, updatedPhoneCursor, currentMillis);
+        stats.rowsWritten = updatedPhoneCursor.getCount();
+      } else {
+        /** Applies the per-contact changes to the smartdial database. */
+        applyUpdatedContacts(db, updatedContactIds, updatedPhoneCursor, currentMillis, stats);
+      }
     } finally {
       updatedPhoneCursor.close();
     }
 
-    /**
-     * Gets a list of distinct contacts which have been updated, and adds the name prefixes of these
-     * contacts to the prefix table.
-     */
-    final Cursor nameCursor =
-        db.rawQuery(
-            "SELECT DISTINCT "
-                + SmartDialDbColumns.DISPLAY_NAME_PRIMARY
-                + ", "
-                + SmartDialDbColumns.CONTACT_ID
-                + " FROM "
-                + Tables.SMARTDIAL_TABLE
-                + " WHERE "
-                + SmartDialDbColumns.LAST_SMARTDIAL_UPDATE_TIME
-                + " = "
-                + currentMillis,
-            new String[] {});
-    if (nameCursor != null) {
-      try {
+    if (fullUpdate) {
+      /**
+       * Gets a list of distinct contacts which have been inserted, and adds the name prefixes of
+       * these contacts to the prefix table.
+       */
+      final Cursor nameCursor =
+          db.rawQuery(
+              "SELECT DISTINCT "
+                  + SmartDialDbColumns.DISPLAY_NAME_PRIMARY
+                  + ", "
+                  + SmartDialDbColumns.CONTACT_ID
+                  + " FROM "
+                  + Tables.SMARTDIAL_TABLE
+                  + " WHERE "
+                  + SmartDialDbColumns.LAST_SMARTDIAL_UPDATE_TIME
+                  + " = "
+                  + currentMillis,
+              new String[] {});
+      if (nameCursor != null) {
+        try {
 
-        /** Inserts prefixes of names into the prefix table. */
-        insertNamePrefixes(db, nameCursor);
-      } finally {
-        nameCursor.close();
+          /** Inserts prefixes of names into the prefix table. */
+          insertNamePrefixes(db, nameCursor);
+        } finally {
+          nameCursor.close();
+        }
       }
     }
 
@@ -798,18 +942,40 @@ public class DialerDatabaseHelper extends SQLiteOpenHelper {
             + PrefixColumns.CONTACT_ID
             + ");");
 
-    /** Updates the database index statistics. */
-    db.execSQL("ANALYZE " + Tables.SMARTDIAL_TABLE);
-    db.execSQL("ANALYZE " + Tables.PREFIX_TABLE);
-    db.execSQL("ANALYZE smartdial_contact_id_index");
-    db.execSQL("ANALYZE smartdial_last_update_index");
-    db.execSQL("ANALYZE nameprefix_index");
-    db.execSQL("ANALYZE nameprefix_contact_id_index");
+    /** Updates the database index statistics. Deltas don't change the data distribution much. */
+    if (fullUpdate) {
+      db.execSQL("ANALYZE " + Tables.SMARTDIAL_TABLE);
+      db.execSQL("ANALYZE " + Tables.PREFIX_TABLE);
+      db.execSQL("ANALYZE smartdial_contact_id_index");
+      db.execSQL("ANALYZE smartdial_last_update_index");
+      db.execSQL("ANALYZE nameprefix_index");
+      db.execSQL("ANALYZE nameprefix_contact_id_index");
+    }
 
     final SharedPreferences.Editor editor = databaseLastUpdateSharedPref.edit();
     editor.putLong(LAST_UPDATED_MILLIS, currentMillis);
     editor.apply();
 
+    stats.durationMillis = System.currentTimeMillis() - currentMillis;
+    LogUtil.i("DialerDatabaseHelper.updateSmartDialDatabase", "update finished, %s", stats);
+    setProperty(db, LAST_UPDATE_STATS_PROPERTY, stats.toString());
+
+    if (!stats.hasChanges() && smartDialIndex != null) {
+      LogUtil.i("DialerDatabaseHelper.updateSmartDialDatabase", "nothing changed");
+      return;
+    }
+
+    // Swaps in an index of the updated tables for dialpad queries, unless a later update started.
+    final SmartDialIndex index = buildSmartDialIndex(db);
+    synchronized (smartDialIndexLock) {
+      if (generation != smartDialIndexGeneration) {
+        LogUtil.i("DialerDatabaseHelper.updateSmartDialDatabase", "superseded by a later update");
+        return;
+      }
+      smartDialIndexGeneration++;
+      smartDialIndex = index;
+    }
+
     LogUtil.i("DialerDatabaseHelper.updateSmartDialDatabase", "broadcasting smart dial update");
 
     // Notify content observers that smart dial database has been updated.
@@ -822,22 +988,39 @@ public class DialerDatabaseHelper extends SQLiteOpenHelper {
    * Returns a list of candidate contacts where the query is a prefix of the dialpad index of the
    * contact's name or phone number.
    *
+   * <p>Queries are answered from an in-memory {@link SmartDialIndex}, so they neither touch SQLite
+   * nor wait for a running {@link #updateSmartDialDatabase(boolean)}.
+   *
    * @param query The prefix of a contact's dialpad index.
    * @return A list of top candidate contacts that will be suggested to user to match their input.
    */
   @WorkerThread
-  public synchronized ArrayList<ContactNumber> getLooseMatches(
-      String query, SmartDialNameMatcher nameMatcher) {
-    final SQLiteDatabase db = getReadableDatabase();
-
-    /** Uses SQL query wildcard '%' to represent prefix matching. */
-    final String looseQuery = query + "%";
-
-    final ArrayList<ContactNumber> result = new ArrayList<>();
+  public ArrayList<ContactNumber> getLooseMatches(String query, SmartDialNameMatcher nameMatcher) {
+    SmartDialIndex index = smartDialIndex;
+    if (index == null) {
+      synchronized (smartDialIndexLock) {
+        index = smartDialIndex;
+        if (index == null) {
+          long generation = smartDialIndexGeneration;
+          index = buildSmartDialIndex(getReadableDatabase());
+          // Tables read in the middle of an update still answer this query, and are replaced
+          // when that update publishes its index.
+          if (generation == smartDialIndexGeneration) {
+            smartDialIndex = index;
+          }
+        }
+      }
+    }
+    return index.getLooseMatches(query, nameMatcher, MAX_ENTRIES);
+  }
 
-    final String currentTimeStamp = Long.toString(System.currentTimeMillis());
+  /** Reads the smart dial and prefix tables into a new {@link SmartDialIndex}. */
+  @WorkerThread
+  private SmartDialIndex buildSmartDialIndex(SQLiteDatabase db) {
+    final long startMillis = System.currentTimeMillis();
+    final SmartDialIndex.Builder builder = new SmartDialIndex.Builder();
 
-    /** Queries the database to find contacts that have an index matching the query prefix. */
+    // Loads every row in the order contacts should be suggested.
     final Cursor cursor =
         db.rawQuery(
             "SELECT "
@@ -856,82 +1039,71 @@ public class DialerDatabaseHelper extends SQLiteOpenHelper {
                 + SmartDialDbColumns.CARRIER_PRESENCE
                 + " FROM "
                 + Tables.SMARTDIAL_TABLE
-                + " WHERE "
-                + SmartDialDbColumns.CONTACT_ID
-                + " IN "
-                + " (SELECT "
-                + PrefixColumns.CONTACT_ID
-                + " FROM "
-                + Tables.PREFIX_TABLE
-                + " WHERE "
-                + Tables.PREFIX_TABLE
-                + "."
-                + PrefixColumns.PREFIX
-                + " LIKE '"
-                + looseQuery
-                + "')"
                 + " ORDER BY "
                 + SmartDialSortingOrder.SORT_ORDER,
-            new String[] {currentTimeStamp});
-    if (cursor == null) {
-      return result;
-    }
-    try {
-      /** Gets the column ID from the cursor. */
-      final int columnDataId = 0;
-      final int columnDisplayNamePrimary = 1;
-      final int columnPhotoId = 2;
-      final int columnNumber = 3;
-      final int columnId = 4;
-      final int columnLookupKey = 5;
-      final int columnCarrierPresence = 6;
-
-      final Set<ContactMatch> duplicates = new HashSet<>();
-      int counter = 0;
-      /** Iterates the cursor to find top contact suggestions without duplication. */
-      while ((cursor.moveToNext()) && (counter < MAX_ENTRIES)) {
-        if (cursor.isNull(columnDataId)) {
-          LogUtil.i(
-              "DialerDatabaseHelper.getLooseMatches",
-              "_id column null. Row was deleted during iteration, skipping");
-          continue;
-        }
-        final long dataID = cursor.getLong(columnDataId);
-        final String displayName = cursor.getString(columnDisplayNamePrimary);
-        final String phoneNumber = cursor.getString(columnNumber);
-        final long id = cursor.getLong(columnId);
-        final long photoId = cursor.getLong(columnPhotoId);
-        final String lookupKey = cursor.getString(columnLookupKey);
-        final int carrierPresence = cursor.getInt(columnCarrierPresence);
-
-        /**
-         * If a contact already exists and another phone number of the contact is being processed,
-         * skip the second instance.
-         */
-        final ContactMatch contactMatch = new ContactMatch(lookupKey, id);
-        if (duplicates.contains(contactMatch)) {
-          continue;
+            new String[] {Long.toString(startMillis)});
+    if (cursor != null) {
+      try {
+        /** Gets the column ID from the cursor. */
+        final int columnDataId = 0;
+        final int columnDisplayNamePrimary = 1;
+        final int columnPhotoId = 2;
+        final int columnNumber = 3;
+        final int columnId = 4;
+        final int columnLookupKey = 5;
+        final int columnCarrierPresence = 6;
+
+        while (cursor.moveToNext()) {
+          if (cursor.isNull(columnDataId)) {
+            LogUtil.i(
+                "DialerDatabaseHelper.buildSmartDialIndex",
+                "_id column null. Row was deleted during iteration, skipping");
+            continue;
+          }
+          final String displayName = cursor.getString(columnDisplayNamePrimary);
+          final String number = cursor.getString(columnNumber);
+          builder.addRow(
+              new ContactNumber(
+                  cursor.getLong(columnId),
+                  cursor.getLong(columnDataId),
+                  displayName,
+                  number,
+                  cursor.getString(columnLookupKey),
+                  cursor.getLong(columnPhotoId),
+                  cursor.getInt(columnCarrierPresence)),
+              SmartDialKey.create(context, displayName, number));
         }
+      } finally {
+        cursor.close();
+      }
+    }
 
-        /**
-         * If the contact has either the name or number that matches the query, add to the result.
-         */
-        final boolean nameMatches = nameMatcher.matches(context, displayName);
-        final boolean numberMatches =
-            (nameMatcher.matchesNumber(context, phoneNumber, query) != null);
-        if (nameMatches || numberMatches) {
-          /** If a contact has not been added, add it to the result and the hash set. */
-          duplicates.add(contactMatch);
-          result.add(
-              new ContactNumber(
-                  id, dataID, displayName, phoneNumber, lookupKey, photoId, carrierPresence));
-          counter++;
+    final Cursor prefixCursor =
+        db.query(
+            Tables.PREFIX_TABLE,
+            new String[] {PrefixColumns.CONTACT_ID, PrefixColumns.PREFIX},
+            null,
+            null,
+            null,
+            null,
+            null);
+    if (prefixCursor != null) {
+      try {
+        while (prefixCursor.moveToNext()) {
+          builder.addPrefix(prefixCursor.getLong(0), prefixCursor.getString(1));
         }
+      } finally {
+        prefixCursor.close();
       }
-    } finally {
-      cursor.close();
     }
-    return result;
+
+    final SmartDialIndex index = builder.build();
+    LogUtil.i(
+        "DialerDatabaseHelper.buildSmartDialIndex",
+        "indexed %d rows in %d ms",
+        index.size(),
+        System.currentTimeMillis() - startMillis);
+    return index;
   }
 
   public interface Tables {
@@ -1144,6 +1316,209 @@ public class DialerDatabaseHelper extends SQLiteOpenHelper {
             + " DESC";
   }
 
+  /** Statements used to write the smart dial and prefix tables. */
+  private interface SmartDialStatements {
+
+    String INSERT =
+        "INSERT INTO "
+            + Tables.SMARTDIAL_TABLE
+            + " ("
+            + SmartDialDbColumns.DATA_ID
+            + ", "
+            + SmartDialDbColumns.NUMBER
+            + ", "
+            + SmartDialDbColumns.CONTACT_ID
+            + ", "
+            + SmartDialDbColumns.LOOKUP_KEY
+            + ", "
+            + SmartDialDbColumns.DISPLAY_NAME_PRIMARY
+            + ", "
+            + SmartDialDbColumns.PHOTO_ID
+            + ", "
+            + SmartDialDbColumns.LAST_TIME_USED
+            + ", "
+            + SmartDialDbColumns.TIMES_USED
+            + ", "
+            + SmartDialDbColumns.STARRED
+            + ", "
+            + SmartDialDbColumns.IS_SUPER_PRIMARY
+            + ", "
+            + SmartDialDbColumns.IN_VISIBLE_GROUP
+            + ", "
+            + SmartDialDbColumns.IS_PRIMARY
+            + ", "
+            + SmartDialDbColumns.CARRIER_PRESENCE
+            + ", "
+            + SmartDialDbColumns.LAST_SMARTDIAL_UPDATE_TIME
+            + ") "
+            + " VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    String INSERT_PREFIX =
+        "INSERT INTO "
+            + Tables.PREFIX_TABLE
+            + " ("
+            + PrefixColumns.CONTACT_ID
+            + ", "
+            + PrefixColumns.PREFIX
+            + ") "
+            + " VALUES (?, ?)";
+
+    String UPDATE_METADATA =
+        "UPDATE "
+            + Tables.SMARTDIAL_TABLE
+            + " SET "
+            + SmartDialDbColumns.LOOKUP_KEY
+            + " = ?, "
+            + SmartDialDbColumns.PHOTO_ID
+            + " = ?, "
+            + SmartDialDbColumns.LAST_TIME_USED
+            + " = ?, "
+            + SmartDialDbColumns.TIMES_USED
+            + " = ?, "
+            + SmartDialDbColumns.STARRED
+            + " = ?, "
+            + SmartDialDbColumns.IS_SUPER_PRIMARY
+            + " = ?, "
+            + SmartDialDbColumns.IN_VISIBLE_GROUP
+            + " = ?, "
+            + SmartDialDbColumns.IS_PRIMARY
+            + " = ?, "
+            + SmartDialDbColumns.CARRIER_PRESENCE
+            + " = ?, "
+            + SmartDialDbColumns.LAST_SMARTDIAL_UPDATE_TIME
+            + " = ?"
+            + " WHERE "
+            + SmartDialDbColumns.DATA_ID
+            + " = ? AND "
+            + SmartDialDbColumns.CONTACT_ID
+            + " = ?";
+
+    String DELETE_CONTACT =
+        "DELETE FROM " + Tables.SMARTDIAL_TABLE + " WHERE " + SmartDialDbColumns.CONTACT_ID + " = ?";
+
+    String DELETE_CONTACT_PREFIXES =
+        "DELETE FROM " + Tables.PREFIX_TABLE + " WHERE " + PrefixColumns.CONTACT_ID + " = ?";
+  }
+
+  /** A phone row read from {@link PhoneQuery}, ready to be written to the smartdial table. */
+  private static final class PhoneRow {
+
+    final long dataId;
+    final String number;
+    final long contactId;
+    final String lookupKey;
+    final String displayName;
+    final long photoId;
+    final long lastTimeUsed;
+    final int timesUsed;
+    final int starred;
+    final int isSuperPrimary;
+    final int inVisibleGroup;
+    final int isPrimary;
+    final int carrierPresence;
+
+    private PhoneRow(Context context, Cursor cursor, String number, String lookupKey) {
+      final String displayName = cursor.getString(PhoneQuery.PHONE_DISPLAY_NAME);
+      this.dataId = cursor.getLong(PhoneQuery.PHONE_ID);
+      this.number = number;
+      this.contactId = cursor.getLong(PhoneQuery.PHONE_CONTACT_ID);
+      this.lookupKey = lookupKey;
+      this.displayName =
+          displayName == null
+              ? context.getResources().getString(R.string.missing_name)
+              : displayName;
+      this.photoId = cursor.getLong(PhoneQuery.PHONE_PHOTO_ID);
+      this.lastTimeUsed = cursor.getLong(PhoneQuery.PHONE_LAST_TIME_USED);
+      this.timesUsed = cursor.getInt(PhoneQuery.PHONE_TIMES_USED);
+      this.starred = cursor.getInt(PhoneQuery.PHONE_STARRED);
+      this.isSuperPrimary = cursor.getInt(PhoneQuery.PHONE_IS_SUPER_PRIMARY);
+      this.inVisibleGroup = cursor.getInt(PhoneQuery.PHONE_IN_VISIBLE_GROUP);
+      this.isPrimary = cursor.getInt(PhoneQuery.PHONE_IS_PRIMARY);
+      this.carrierPresence = cursor.getInt(PhoneQuery.PHONE_CARRIER_PRESENCE);
+    }
+
+    /** Returns the row at the cursor's position, or null if it shouldn't be in the table. */
+    @Nullable
+    static PhoneRow fromCursor(Context context, Cursor cursor) {
+      if (cursor.isNull(PhoneQuery.PHONE_ID)) {
+        LogUtil.i(
+            "DialerDatabaseHelper.PhoneRow.fromCursor",
+            "_id column null. Row was deleted during iteration, skipping");
+        return null;
+      }
+
+      // Handle string columns which can possibly be null first. In the case of certain
+      // null columns (due to malformed rows possibly inserted by third-party apps
+      // or sync adapters), skip the phone number row.
+      final String number = cursor.getString(PhoneQuery.PHONE_NUMBER);
+      if (TextUtils.isEmpty(number)) {
+        return null;
+      }
+      final String lookupKey = cursor.getString(PhoneQuery.PHONE_LOOKUP_KEY);
+      if (TextUtils.isEmpty(lookupKey)) {
+        return null;
+      }
+      return new PhoneRow(context, cursor, number, lookupKey);
+    }
+  }
+
+  /** The name and numbers of a contact as currently stored in the smartdial table. */
+  private static final class ExistingContact {
+
+    final String displayName;
+    // Data id and number of each stored row, as "dataId:number".
+    final Set<String> numbers = new HashSet<>();
+
+    ExistingContact(String displayName) {
+      this.displayName = displayName;
+    }
+
+    /** Returns true if the prefixes generated for {@code rows} would be the stored ones. */
+    boolean hasSameNameAndNumbers(List<PhoneRow> rows) {
+      if (rows.size() != numbers.size()) {
+        return false;
+      }
+      for (PhoneRow row : rows) {
+        if (!Objects.equals(displayName, row.displayName)
+            || !numbers.contains(row.dataId + ":" + row.number)) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+
+  /** Counters describing a single run of {@link #updateSmartDialDatabase(boolean)}. */
+  private static final class UpdateStats {
+
+    int deletedContacts;
+    int corruptedRows;
+    int metadataOnlyContacts;
+    int rewrittenContacts;
+    int rowsWritten;
+    int prefixesWritten;
+    long durationMillis;
+
+    boolean hasChanges() {
+      return deletedContacts > 0 || corruptedRows > 0 || rowsWritten > 0;
+    }
+
+    @Override
+    public String toString() {
+      return String.format(
+          Locale.US,
+          "deleted: %d, corrupted rows: %d, metadata only: %d, rewritten: %d, rows: %d,"
+              + " prefixes: %d, took: %d ms",
+          deletedContacts,
+          corruptedRows,
+          metadataOnlyContacts,
+          rewrittenContacts,
+          rowsWritten,
+          prefixesWritten,
+          durationMillis);
+    }
+  }
+
   /**
    * Simple data format for a contact, containing only information needed for showing up in smart
    * dial interface.
@@ -1201,7 +1576,7 @@ public class DialerDatabaseHelper extends SQLiteOpenHelper {
   }
 
   /** Data format for finding duplicated contacts. */
-  private static class ContactMatch {
+  static class ContactMatch {
 
     private final String lookupKey;
     private final long id;
@@ -0,0 +1,182 @@
+/*
+ * SPDX-FileCopyrightText: The LineageOS Project
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.android.dialer.database;
+
+import android.util.LongSparseArray;
+
+import androidx.annotation.WorkerThread;
+
+import com.android.dialer.database.DialerDatabaseHelper.ContactMatch;
+import com.android.dialer.database.DialerDatabaseHelper.ContactNumber;
+import com.android.dialer.smartdial.util.SmartDialKey;
+import com.android.dialer.smartdial.util.SmartDialNameMatcher;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Immutable, memory resident copy of the smart dial and prefix tables.
+ *
+ * <p>Rows are stored in the smart dial sort order, and every prefix from the prefix table is kept
+ * in a sorted array pointing at the ordinal of the contact it belongs to. A dialpad query is
+ * answered by binary searching the prefixes for the query, marking the rows of every matching
+ * contact and walking them in order, without touching SQLite or taking any lock.
+ *
+ * <p>Each row also carries a {@link SmartDialKey}, so candidates are matched against precomputed
+ * dialpad encodings instead of normalizing their name and number on every keystroke.
+ */
+final class SmartDialIndex {
+
+  private final ContactNumber[] rows;
+  private final SmartDialKey[] keys;
+  // Indices into rows for each contact ordinal.
+  private final int[][] contactRows;
+  // Sorted prefixes, and the contact ordinal each prefix belongs to.
+  private final String[] prefixes;
+  private final int[] prefixContacts;
+
+  private SmartDialIndex(
+      ContactNumber[] rows,
+      SmartDialKey[] keys,
+      int[][] contactRows,
+      String[] prefixes,
+      int[] prefixContacts) {
+    this.rows = rows;
+    this.keys = keys;
+    this.contactRows = contactRows;
+    this.prefixes = prefixes;
+    this.prefixContacts = prefixContacts;
+  }
+
+  int size() {
+    return rows.length;
+  }
+
+  /**
+   * Returns up to {@code maxEntries} contacts where the query is a prefix of the dialpad index of
+   * the contact's name or phone number, with the same semantics as the prefix table query it
+   * replaces.
+   */
+  @WorkerThread
+  ArrayList<ContactNumber> getLooseMatches(
+      String query, SmartDialNameMatcher nameMatcher, int maxEntries) {
+    BitSet candidates = new BitSet(rows.length);
+    // The prefix column is declared COLLATE NOCASE.
+    String key = query.toLowerCase(Locale.ROOT);
+    for (int i = lowerBound(key); i < prefixes.length && prefixes[i].startsWith(key); i++) {
+      for (int row : contactRows[prefixContacts[i]]) {
+        candidates.set(row);
+      }
+    }
+
+    ArrayList<ContactNumber> result = new ArrayList<>();
+    Set<ContactMatch> duplicates = new HashSet<>();
+    for (int row = candidates.nextSetBit(0);
+        row >= 0 && result.size() < maxEntries;
+        row = candidates.nextSetBit(row + 1)) {
+      ContactNumber contact = rows[row];
+      // Only the first matching number of each contact is suggested.
+      ContactMatch contactMatch = new ContactMatch(contact.lookupKey, contact.id);
+      if (duplicates.contains(contactMatch)) {
+        continue;
+      }
+      if (nameMatcher.matches(keys[row]) || nameMatcher.matchesNumber(keys[row], query) != null) {
+        duplicates.add(contactMatch);
+        result.add(contact);
+      }
+    }
+    return result;
+  }
+
+  /** Returns the index of the first prefix that is not less than {@code key}. */
+  private int lowerBound(String key) {
+    int low = 0;
+    int high = prefixes.length;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (prefixes[mid].compareTo(key) < 0) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  /** Collects the smart dial rows, in sort order, and their prefixes. */
+  static final class Builder {
+
+    private final List<ContactNumber> rows = new ArrayList<>();
+    private final List<SmartDialKey> keys = new ArrayList<>();
+    private final LongSparseArray<Integer> contactOrdinals = new LongSparseArray<>();
+    private final List<List<Integer>> contactRows = new ArrayList<>();
+    private final List<String> prefixes = new ArrayList<>();
+    private final List<Integer> prefixContacts = new ArrayList<>();
+
+    /** Adds a smart dial row. Rows must be added in the order they should be suggested. */
+    Builder addRow(ContactNumber contactNumber, SmartDialKey key) {
+      int ordinal = getOrCreateOrdinal(contactNumber.id);
+      contactRows.get(ordinal).add(rows.size());
+      rows.add(contactNumber);
+      keys.add(key);
+      return this;
+    }
+
+    /** Adds a prefix of the name or number of the contact with {@code contactId}. */
+    Builder addPrefix(long contactId, String prefix) {
+      Integer ordinal = contactOrdinals.get(contactId);
+      // Prefixes of contacts without smart dial rows can never produce a result.
+      if (ordinal != null && prefix != null) {
+        prefixes.add(prefix.toLowerCase(Locale.ROOT));
+        prefixContacts.add(ordinal);
+      }
+      return this;
+    }
+
+    private int getOrCreateOrdinal(long contactId) {
+      Integer ordinal = contactOrdinals.get(contactId);
+      if (ordinal == null) {
+        ordinal = contactRows.size();
+        contactOrdinals.put(contactId, ordinal);
+        contactRows.add(new ArrayList<>());
+      }
+      return ordinal;
+    }
+
+    SmartDialIndex build() {
+      ContactNumber[] rowArray = rows.toArray(new ContactNumber[0]);
+      SmartDialKey[] keyArray = keys.toArray(new SmartDialKey[0]);
+
+      int[][] contactRowArray = new int[contactRows.size()][];
+      for (int i = 0; i < contactRowArray.length; i++) {
+        List<Integer> indices = contactRows.get(i);
+        contactRowArray[i] = new int[indices.size()];
+        for (int j = 0; j < indices.size(); j++) {
+          contactRowArray[i][j] = indices.get(j);
+        }
+      }
+
+      Integer[] order = new Integer[prefixes.size()];
+      for (int i = 0; i < order.length; i++) {
+        order[i] = i;
+      }
+      Arrays.sort(order, (a, b) -> prefixes.get(a).compareTo(prefixes.get(b)));
+      String[] sortedPrefixes = new String[order.length];
+      int[] sortedContacts = new int[order.length];
+      for (int i = 0; i < order.length; i++) {
+        sortedPrefixes[i] = prefixes.get(order[i]);
+        sortedContacts[i] = prefixContacts.get(order[i]);
+      }
+
+      return new SmartDialIndex(rowArray, keyArray, contactRowArray, sortedPrefixes, sortedContacts);
+    }
+  }
+}
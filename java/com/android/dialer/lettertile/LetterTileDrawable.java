@@ -31,6 +31,7 @@ import android.graphics.Typeface;
 import android.graphics.drawable.Drawable;
 import android.telecom.TelecomManager;
 import android.text.TextUtils;
+import android.util.LruCache;
 
 import androidx.annotation.IntDef;
 import androidx.annotation.NonNull;
@@ -89,6 +90,21 @@ public class LetterTileDrawable extends Drawable {
   /** Default icon scale for vector drawable. */
   private static final float VECTOR_ICON_SCALE = 0.7f;
 
+  /** Size of {@link #renderedTiles}, enough for a few notification and shortcut icons. */
+  private static final int RENDERED_TILES_CACHE_SIZE = 2 * 1024 * 1024;
+
+  /**
+   * Bitmaps returned by {@link #getBitmap(int, int)}, keyed by everything that affects how a tile
+   * is drawn, so the same tile isn't allocated and drawn again each time it is needed.
+   */
+  private static final LruCache<String, Bitmap> renderedTiles =
+      new LruCache<String, Bitmap>(RENDERED_TILES_CACHE_SIZE) {
+        @Override
+        protected int sizeOf(String key, Bitmap value) {
+          return value.getByteCount();
+        }
+      };
+
   /** Reusable components to avoid new allocations */
   private final Paint paint = new Paint();
 
@@ -186,14 +202,48 @@ public class LetterTileDrawable extends Drawable {
     drawLetterTile(canvas);
   }
 
+  /**
+   * Returns the tile drawn on a {@code width} x {@code height} bitmap. Identical tiles share the
+   * same bitmap, which must not be modified.
+   */
   public Bitmap getBitmap(int width, int height) {
-    Bitmap bitmap = Bitmap.createBitmap(width, height, Config.ARGB_8888);
+    // A color filter can't be part of the key, so such tiles are always drawn.
+    String key =
+        isVisible() && paint.getColorFilter() == null ? getRenderedTileKey(width, height) : null;
+    Bitmap bitmap = key == null ? null : renderedTiles.get(key);
+    if (bitmap != null) {
+      return bitmap;
+    }
+    bitmap = Bitmap.createBitmap(width, height, Config.ARGB_8888);
     this.setBounds(0, 0, width, height);
     Canvas canvas = new Canvas(bitmap);
     this.draw(canvas);
+    if (key != null) {
+      renderedTiles.put(key, bitmap);
+    }
     return bitmap;
   }
 
+  private String getRenderedTileKey(int width, int height) {
+    return letter
+        + "|"
+        + contactType
+        + "|"
+        + color
+        + "|"
+        + width
+        + "x"
+        + height
+        + "|"
+        + isCircle
+        + "|"
+        + scale
+        + "|"
+        + offset
+        + "|"
+        + paint.getAlpha();
+  }
+
   private void drawLetterTile(final Canvas canvas) {
     // Draw background color.
     paint.setColor(color);
@@ -31,6 +31,7 @@ import android.provider.ContactsContract.DisplayNameSources;
 import android.provider.ContactsContract.PhoneLookup;
 import android.telephony.PhoneNumberUtils;
 import android.text.TextUtils;
+import android.util.ArrayMap;
 
 import androidx.annotation.Nullable;
 import androidx.annotation.WorkerThread;
@@ -40,6 +41,7 @@ import com.android.contacts.common.ContactsUtils.UserType;
 import com.android.contacts.common.util.Constants;
 import com.android.dialer.common.Assert;
 import com.android.dialer.common.LogUtil;
+import com.android.dialer.common.database.Selection;
 import com.android.dialer.logging.ContactSource;
 import com.android.dialer.oem.CequintCallerIdManager;
 import com.android.dialer.oem.CequintCallerIdManager.CequintCallerIdContact;
@@ -53,7 +55,9 @@ import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 /** Utility class to look up the contact information for a given number. */
 public class ContactInfoHelper {
@@ -253,6 +257,99 @@ public class ContactInfoHelper {
     return updatedInfo;
   }
 
+  /**
+   * Same as {@link #lookupNumber(String, String)} for several numbers, but looks up the contacts of
+   * the default directory with a single query on {@link Phone#CONTENT_URI}, matching the E.164 form
+   * of each number.
+   *
+   * <p>SIP addresses, numbers with special characters or post dial digits, numbers that can't be
+   * formatted to E.164, and numbers without a contact in the default directory can't be matched
+   * that way. They are looked up one by one with {@link #lookupNumber(String, String)}, so that
+   * they still get the enterprise directory and cached number lookups.
+   *
+   * @return the contact info of each number, except those whose lookup failed
+   */
+  @WorkerThread
+  public Map<String, ContactInfo> lookupNumbers(Collection<String> numbers, String countryIso) {
+    Assert.isWorkerThread();
+    Map<String, ContactInfo> result = new ArrayMap<>();
+    queryDefaultDirectory(numbers, countryIso, result);
+    for (String number : numbers) {
+      if (!result.containsKey(number)) {
+        ContactInfo info = lookupNumber(number, countryIso);
+        if (info != null) {
+          result.put(number, info);
+        }
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Adds the contacts of the default directory matching the E.164 form of {@code numbers} to
+   * {@code result}, see {@link #lookupNumbers}.
+   */
+  private void queryDefaultDirectory(
+      Collection<String> numbers, String countryIso, Map<String, ContactInfo> result) {
+    if (!PermissionsUtil.hasContactsReadPermissions(context)) {
+      return;
+    }
+
+    String formatCountryIso = TextUtils.isEmpty(countryIso) ? currentCountryIso : countryIso;
+    Map<String, List<String>> numbersByE164 = new ArrayMap<>();
+    for (String number : numbers) {
+      if (TextUtils.isEmpty(number)
+          || PhoneNumberHelper.isUriNumber(number)
+          || PhoneNumberHelper.numberHasSpecialChars(number)
+          || !TextUtils.isEmpty(PhoneNumberUtils.extractPostDialPortion(number))) {
+        continue;
+      }
+      String e164Number = PhoneNumberUtils.formatNumberToE164(number, formatCountryIso);
+      if (e164Number != null) {
+        numbersByE164.computeIfAbsent(e164Number, key -> new ArrayList<>()).add(number);
+      }
+    }
+    if (numbersByE164.isEmpty()) {
+      return;
+    }
+
+    Selection selection = Selection.column(Phone.NORMALIZED_NUMBER).in(numbersByE164.keySet());
+    try (Cursor cursor =
+        context
+            .getContentResolver()
+            .query(
+                Phone.CONTENT_URI,
+                PhoneQuery.PHONE_BATCH_LOOKUP_PROJECTION,
+                selection.getSelection(),
+                selection.getSelectionArgs(),
+                Phone.CONTACT_ID)) {
+      if (cursor == null) {
+        LogUtil.d("ContactInfoHelper.queryDefaultDirectory", "cursor is null");
+        return;
+      }
+      while (cursor.moveToNext()) {
+        List<String> matchedNumbers =
+            numbersByE164.get(cursor.getString(PhoneQuery.NORMALIZED_NUMBER));
+        if (matchedNumbers == null) {
+          continue;
+        }
+        for (String number : matchedNumbers) {
+          // Several contacts may share a number, keep the first one like PhoneLookup does.
+          if (result.containsKey(number)) {
+            continue;
+          }
+          ContactInfo info =
+              createPhoneLookupContactInfo(cursor, cursor.getString(PhoneQuery.LOOKUP_KEY));
+          info.nameAlternative = cursor.getString(PhoneQuery.BATCH_DISPLAY_NAME_ALTERNATIVE);
+          info.carrierPresence = cursor.getInt(PhoneQuery.BATCH_CARRIER_PRESENCE);
+          info.formattedNumber = formatPhoneNumber(number, null, countryIso);
+          info.sourceType = ContactSource.Type.SOURCE_TYPE_DIRECTORY;
+          result.put(number, info);
+        }
+      }
+    }
+  }
+
   private ContactInfo createEmptyContactInfoForNumber(String number, String countryIso) {
     ContactInfo contactInfo = new ContactInfo();
     contactInfo.number = number;
@@ -268,8 +365,7 @@ public class ContactInfoHelper {
    */
   public ContactInfo lookupNumberInRemoteDirectory(String number, String countryIso) {
     if (cachedNumberLookupService != null) {
-      List<Long> remoteDirectories = getRemoteDirectories(context);
-      for (long directoryId : remoteDirectories) {
+      for (long directoryId : RemoteDirectoryRegistry.get(context).getDirectoryIds()) {
         ContactInfo contactInfo = lookupNumber(number, countryIso, directoryId);
         if (hasName(contactInfo)) {
           return contactInfo;
@@ -283,28 +379,6 @@ public class ContactInfoHelper {
     return contactInfo != null && !TextUtils.isEmpty(contactInfo.name);
   }
 
-  private List<Long> getRemoteDirectories(Context context) {
-    List<Long> remoteDirectories = new ArrayList<>();
-    Uri uri = Directory.ENTERPRISE_CONTENT_URI;
-    Cursor cursor =
-        context.getContentResolver().query(uri, new String[] {Directory._ID}, null, null, null);
-    if (cursor == null) {
-      return remoteDirectories;
-    }
-    int idIndex = cursor.getColumnIndex(Directory._ID);
-    try {
-      while (cursor.moveToNext()) {
-        long directoryId = cursor.getLong(idIndex);
-        if (Directory.isRemoteDirectoryId(directoryId)) {
-          remoteDirectories.add(directoryId);
-        }
-      }
-    } finally {
-      cursor.close();
-    }
-    return remoteDirectories;
-  }
-
   /**
    * Looks up a contact using the given URI.
    *
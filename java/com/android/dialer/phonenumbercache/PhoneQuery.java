@@ -63,6 +63,29 @@ final class PhoneQuery {
         PhoneLookup.PHOTO_URI
       };
 
+  /**
+   * Projection to look up the ContactInfo of several numbers at once on {@link Phone#CONTENT_URI}.
+   * The leading columns match {@link #PHONE_LOOKUP_PROJECTION}, followed by those of {@link
+   * #ADDITIONAL_CONTACT_INFO_PROJECTION}.
+   */
+  static final String[] PHONE_BATCH_LOOKUP_PROJECTION =
+      new String[] {
+        Phone.CONTACT_ID,
+        Phone.DISPLAY_NAME,
+        Phone.TYPE,
+        Phone.LABEL,
+        Phone.NUMBER,
+        Phone.NORMALIZED_NUMBER,
+        Phone.PHOTO_ID,
+        Phone.LOOKUP_KEY,
+        Phone.PHOTO_URI,
+        Phone.DISPLAY_NAME_ALTERNATIVE,
+        Phone.CARRIER_PRESENCE
+      };
+
+  static final int BATCH_DISPLAY_NAME_ALTERNATIVE = 9;
+  static final int BATCH_CARRIER_PRESENCE = 10;
+
   static String[] getPhoneLookupProjection() {
       return PHONE_LOOKUP_PROJECTION;
   }
@@ -0,0 +1,111 @@
+/*
+ * SPDX-FileCopyrightText: The LineageOS Project
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.android.dialer.phonenumbercache;
+
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.provider.ContactsContract.Directory;
+
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import com.android.dialer.common.LogUtil;
+import com.google.common.collect.ImmutableList;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Process wide cache of the ids of the remote contact directories, including the enterprise ones.
+ *
+ * <p>The directories rarely change, so they are queried once and then served from memory until a
+ * content observer on {@link Directory} reports a change.
+ */
+public final class RemoteDirectoryRegistry {
+
+  private static RemoteDirectoryRegistry instance;
+
+  private final Context appContext;
+
+  @Nullable private volatile ImmutableList<Long> directoryIds;
+
+  /** Incremented on every change, so a query racing with a change isn't cached. */
+  private final AtomicInteger generation = new AtomicInteger();
+
+  private RemoteDirectoryRegistry(Context appContext) {
+    this.appContext = appContext;
+    ContentObserver observer =
+        new ContentObserver(null) {
+          @Override
+          public void onChange(boolean selfChange) {
+            generation.incrementAndGet();
+            directoryIds = null;
+          }
+        };
+    appContext
+        .getContentResolver()
+        .registerContentObserver(Directory.CONTENT_URI, true /* notifyForDescendants */, observer);
+    appContext
+        .getContentResolver()
+        .registerContentObserver(
+            Directory.ENTERPRISE_CONTENT_URI, true /* notifyForDescendants */, observer);
+  }
+
+  public static synchronized RemoteDirectoryRegistry get(Context context) {
+    if (instance == null) {
+      instance = new RemoteDirectoryRegistry(context.getApplicationContext());
+    }
+    return instance;
+  }
+
+  /** Returns the ids of the remote directories, querying them if they aren't cached. */
+  @WorkerThread
+  public ImmutableList<Long> getDirectoryIds() {
+    ImmutableList<Long> ids = directoryIds;
+    if (ids != null) {
+      return ids;
+    }
+    int queryGeneration = generation.get();
+    ids = queryDirectoryIds();
+    if (ids == null) {
+      return ImmutableList.of();
+    }
+    if (queryGeneration == generation.get()) {
+      directoryIds = ids;
+    }
+    return ids;
+  }
+
+  /** Returns the remote directory ids, or null if they can't be read right now. */
+  @Nullable
+  private ImmutableList<Long> queryDirectoryIds() {
+    ImmutableList.Builder<Long> ids = ImmutableList.builder();
+    try (Cursor cursor =
+        appContext
+            .getContentResolver()
+            .query(
+                Directory.ENTERPRISE_CONTENT_URI,
+                new String[] {Directory._ID},
+                null,
+                null,
+                null)) {
+      if (cursor == null) {
+        return null;
+      }
+      int idIndex = cursor.getColumnIndex(Directory._ID);
+      while (cursor.moveToNext()) {
+        long directoryId = cursor.getLong(idIndex);
+        if (Directory.isRemoteDirectoryId(directoryId)) {
+          ids.add(directoryId);
+        }
+      }
+    } catch (SecurityException e) {
+      LogUtil.e("RemoteDirectoryRegistry.queryDirectoryIds", "cannot read directories", e);
+      return null;
+    }
+    return ids.build();
+  }
+}
@@ -0,0 +1,97 @@
+/*
+ * SPDX-FileCopyrightText: The LineageOS Project
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.android.dialer.phonenumberutil;
+
+import android.telephony.PhoneNumberUtils;
+import android.text.TextUtils;
+import android.util.LruCache;
+
+import androidx.annotation.Nullable;
+
+import java.util.Locale;
+import java.util.Objects;
+
+/**
+ * Canonical keys for deciding whether two call log numbers belong to the same caller.
+ *
+ * <p>Comparing raw numbers with {@link PhoneNumberUtils#compare(String, String)} parses both sides
+ * on every call. Instead, each distinct number is reduced once to a key, and two numbers are the
+ * same caller iff their keys are equal:
+ *
+ * <ul>
+ *   <li>SIP addresses keep their user part and lower case their host part, matching {@link
+ *       PhoneNumberHelper#compareSipAddresses(String, String)}.
+ *   <li>Numbers with special characters, such as "#123", keep their raw digits, matching {@link
+ *       PhoneNumberHelper#sameRawNumbers(String, String)}.
+ *   <li>Other numbers are formatted to E.164 if they are valid for the given country, and
+ *       otherwise reduced to their dialable digits. Post-dial digits are kept in both cases.
+ * </ul>
+ *
+ * <p>Keys are memoized in a process wide LRU cache keyed by the raw number.
+ */
+public final class PhoneNumberComparisonKeys {
+
+  private static final int CACHE_SIZE = 512;
+
+  private static final LruCache<String, Entry> cache = new LruCache<>(CACHE_SIZE);
+
+  private PhoneNumberComparisonKeys() {}
+
+  /**
+   * Returns the comparison key of {@code number}, or null if it is empty. Empty numbers, e.g. of
+   * private or unknown callers, never match any other number.
+   *
+   * @param countryIso used to format {@code number} to E.164 if it doesn't have a country code
+   */
+  @Nullable
+  public static String get(@Nullable String number, @Nullable String countryIso) {
+    if (TextUtils.isEmpty(number)) {
+      return null;
+    }
+    Entry entry = cache.get(number);
+    if (entry == null || !Objects.equals(entry.countryIso, countryIso)) {
+      entry = new Entry(countryIso, createKey(number, countryIso));
+      cache.put(number, entry);
+    }
+    return entry.key;
+  }
+
+  /** Returns true if both numbers have the same, non-null comparison key. */
+  public static boolean equal(@Nullable String key1, @Nullable String key2) {
+    return key1 != null && key1.equals(key2);
+  }
+
+  private static String createKey(String number, @Nullable String countryIso) {
+    if (PhoneNumberHelper.isUriNumber(number)) {
+      int index = number.indexOf('@');
+      return index == -1
+          ? number
+          : number.substring(0, index) + number.substring(index).toLowerCase(Locale.ROOT);
+    }
+    if (PhoneNumberHelper.numberHasSpecialChars(number)) {
+      return PhoneNumberUtils.stripSeparators(
+          PhoneNumberUtils.convertKeypadLettersToDigits(number));
+    }
+    String networkPortion = PhoneNumberUtils.extractNetworkPortion(number);
+    String postDialPortion = PhoneNumberUtils.extractPostDialPortion(number);
+    String e164Number =
+        TextUtils.isEmpty(countryIso)
+            ? null
+            : PhoneNumberUtils.formatNumberToE164(networkPortion, countryIso);
+    return (e164Number == null ? networkPortion : e164Number) + postDialPortion;
+  }
+
+  private static final class Entry {
+
+    @Nullable final String countryIso;
+    final String key;
+
+    Entry(@Nullable String countryIso, String key) {
+      this.countryIso = countryIso;
+      this.key = key;
+    }
+  }
+}
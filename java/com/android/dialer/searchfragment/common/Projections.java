@@ -33,7 +33,6 @@ public class Projections {
   public static final int CARRIER_PRESENCE = 8;
   public static final int CONTACT_ID = 9;
 
-  @SuppressWarnings("unused")
   public static final int SORT_KEY = 10;
 
   public static final int SORT_ALTERNATIVE = 11;
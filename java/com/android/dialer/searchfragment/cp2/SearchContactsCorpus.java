@@ -0,0 +1,359 @@
+/*
+ * SPDX-FileCopyrightText: The LineageOS Project
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.android.dialer.searchfragment.cp2;
+
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.provider.ContactsContract;
+import android.provider.ContactsContract.CommonDataKinds.Phone;
+import android.provider.ContactsContract.DeletedContacts;
+import android.telephony.PhoneNumberUtils;
+import android.text.TextUtils;
+import android.util.ArraySet;
+
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import com.android.dialer.common.Assert;
+import com.android.dialer.common.LogUtil;
+import com.android.dialer.searchfragment.common.Projections;
+import com.android.dialer.searchfragment.common.QueryFilteringUtil;
+
+import java.text.Collator;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Memory resident copy of the searchable CP2 phone rows used by keyboard search.
+ *
+ * <p>The corpus is read from {@link Phone#CONTENT_URI} the first time it is queried and kept warm
+ * for the lifetime of the process. A {@link ContentObserver} on CP2 marks it stale, after which
+ * the next query only re-reads the contacts updated or deleted since the previous load. Every
+ * query is then answered by scanning the in-memory rows, matching the query against name prefixes,
+ * initials and phone number digits.
+ *
+ * <p>Address books larger than {@link #MAX_ROWS} are not held in memory; {@link #query} returns
+ * null for them and callers should fall back to a provider query. Such address books are only
+ * counted again after a CP2 change, and re-read once they fit.
+ */
+final class SearchContactsCorpus {
+
+  /** Upper bound on the number of phone rows kept in memory. */
+  private static final int MAX_ROWS = 10_000;
+
+  private static SearchContactsCorpus instance;
+
+  private final Context appContext;
+  private final ContentObserver contactsObserver =
+      new ContentObserver(null) {
+        @Override
+        public void onChange(boolean selfChange) {
+          stale = true;
+        }
+      };
+
+  private final List<Row> rows = new ArrayList<>();
+  private final Collator collator = Collator.getInstance();
+
+  private String[] projection;
+  private String selection;
+  private String sortKey;
+  private long lastUpdatedMillis;
+  private boolean observerRegistered;
+  /** True while the address book is too large to be held in memory. */
+  private boolean overflowed;
+  private volatile boolean stale = true;
+
+  static synchronized SearchContactsCorpus get(Context context) {
+    if (instance == null) {
+      instance = new SearchContactsCorpus(context.getApplicationContext());
+    }
+    return instance;
+  }
+
+  private SearchContactsCorpus(Context appContext) {
+    this.appContext = appContext;
+  }
+
+  /**
+   * Returns a cursor with {@code projection} containing every phone row that matches {@code
+   * query}, in {@code sortKey} order, or null if the corpus could not be held in memory.
+   */
+  @WorkerThread
+  @Nullable
+  synchronized Cursor query(
+      String[] projection, String selection, String sortKey, @Nullable String query) {
+    Assert.isWorkerThread();
+    if (!observerRegistered) {
+      appContext
+          .getContentResolver()
+          .registerContentObserver(ContactsContract.AUTHORITY_URI, true, contactsObserver);
+      observerRegistered = true;
+    }
+
+    if (!Arrays.equals(projection, this.projection)
+        || !TextUtils.equals(selection, this.selection)
+        || !TextUtils.equals(sortKey, this.sortKey)) {
+      this.projection = projection;
+      this.selection = selection;
+      this.sortKey = sortKey;
+      rows.clear();
+      lastUpdatedMillis = 0;
+      overflowed = false;
+      stale = true;
+    }
+
+    if (overflowed) {
+      // Skip the corpus without re-reading CP2 until a change brings the address book under the
+      // cap.
+      if (!stale) {
+        return null;
+      }
+      stale = false;
+      int rowCount = countRows();
+      if (rowCount < 0) {
+        stale = true;
+        return null;
+      }
+      if (rowCount > MAX_ROWS) {
+        return null;
+      }
+      overflowed = false;
+      stale = true;
+    }
+
+    if (stale && !refresh()) {
+      return null;
+    }
+    if (overflowed) {
+      return null;
+    }
+    return filter(TextUtils.isEmpty(query) ? "" : query.toLowerCase(Locale.getDefault()));
+  }
+
+  /**
+   * Brings the corpus up to date with CP2, re-reading only contacts changed since the last load.
+   *
+   * @return false if CP2 could not be queried.
+   */
+  private boolean refresh() {
+    // Clear the flag before querying so changes that land during the load trigger another pass.
+    stale = false;
+    long refreshStartMillis = System.currentTimeMillis();
+    boolean incremental = lastUpdatedMillis > 0;
+
+    Set<Long> changedContactIds = new ArraySet<>();
+    if (incremental && !queryDeletedContacts(changedContactIds)) {
+      stale = true;
+      return false;
+    }
+
+    String where = selection;
+    String[] args = null;
+    if (incremental) {
+      where += " AND " + Phone.CONTACT_LAST_UPDATED_TIMESTAMP + " > ?";
+      args = new String[] {Long.toString(lastUpdatedMillis)};
+    }
+
+    List<Row> updatedRows = new ArrayList<>();
+    try (Cursor cursor =
+        appContext
+            .getContentResolver()
+            .query(Phone.CONTENT_URI, projection, where, args, null)) {
+      if (cursor == null) {
+        stale = true;
+        return false;
+      }
+      while (cursor.moveToNext()) {
+        if (!incremental && updatedRows.size() == MAX_ROWS) {
+          // Too large to be served from memory, no need to read the rest.
+          markOverflowed();
+          return true;
+        }
+        Row row = Row.fromCursor(cursor, projection.length, getSortKeyColumn());
+        changedContactIds.add(row.contactId);
+        updatedRows.add(row);
+      }
+    }
+
+    if (!changedContactIds.isEmpty()) {
+      Iterator<Row> iterator = rows.iterator();
+      while (iterator.hasNext()) {
+        if (changedContactIds.contains(iterator.next().contactId)) {
+          iterator.remove();
+        }
+      }
+    }
+    rows.addAll(updatedRows);
+    rows.sort((r1, r2) -> collator.compare(r1.sortKey, r2.sortKey));
+
+    if (rows.size() > MAX_ROWS) {
+      markOverflowed();
+      return true;
+    }
+    lastUpdatedMillis = refreshStartMillis;
+    LogUtil.i(
+        "SearchContactsCorpus.refresh",
+        "incremental: %b, changed contacts: %d, rows: %d",
+        incremental,
+        changedContactIds.size(),
+        rows.size());
+    return true;
+  }
+
+  /**
+   * Drops the rows of an address book we won't serve from memory. Queries return null until a CP2
+   * change brings it back under {@link #MAX_ROWS}, see {@link #query}.
+   */
+  private void markOverflowed() {
+    LogUtil.i("SearchContactsCorpus.markOverflowed", "more than %d rows", MAX_ROWS);
+    overflowed = true;
+    rows.clear();
+    lastUpdatedMillis = 0;
+  }
+
+  /** Returns the number of phone rows matching the selection, or -1 if CP2 could not be queried. */
+  private int countRows() {
+    try (Cursor cursor =
+        appContext
+            .getContentResolver()
+            .query(Phone.CONTENT_URI, new String[] {Phone._ID}, selection, null, null)) {
+      return cursor == null ? -1 : cursor.getCount();
+    }
+  }
+
+  private boolean queryDeletedContacts(Set<Long> deletedContactIds) {
+    try (Cursor cursor =
+        appContext
+            .getContentResolver()
+            .query(
+                DeletedContacts.CONTENT_URI,
+                new String[] {DeletedContacts.CONTACT_ID},
+                DeletedContacts.CONTACT_DELETED_TIMESTAMP + " > ?",
+                new String[] {Long.toString(lastUpdatedMillis)},
+                null)) {
+      if (cursor == null) {
+        return false;
+      }
+      while (cursor.moveToNext()) {
+        deletedContactIds.add(cursor.getLong(0));
+      }
+      return true;
+    }
+  }
+
+  private int getSortKeyColumn() {
+    return Phone.SORT_KEY_ALTERNATIVE.equals(sortKey)
+        ? Projections.SORT_ALTERNATIVE
+        : Projections.SORT_KEY;
+  }
+
+  /**
+   * Returns the rows where the query is a prefix of the name or of one of its words, a prefix of
+   * the name's initials, or (for number-like queries) contained in the phone number's digits.
+   */
+  private Cursor filter(String query) {
+    MatrixCursor cursor = new MatrixCursor(projection);
+    boolean numberQuery = PhoneNumberUtils.isGlobalPhoneNumber(query);
+    String queryDigits = numberQuery ? QueryFilteringUtil.digitsOnly(query) : "";
+    for (Row row : rows) {
+      if (query.isEmpty()
+          || row.nameMatches(query)
+          || row.initials.startsWith(query)
+          || (!queryDigits.isEmpty() && row.numberDigits.contains(queryDigits))) {
+        cursor.addRow(row.values);
+      }
+    }
+    return cursor;
+  }
+
+  /** A single phone row along with the precomputed keys used to match it. */
+  private static final class Row {
+    private final Object[] values;
+    private final long contactId;
+    private final String sortKey;
+    private final String name;
+    private final String initials;
+    private final String numberDigits;
+
+    private Row(
+        Object[] values,
+        long contactId,
+        String sortKey,
+        String name,
+        String initials,
+        String numberDigits) {
+      this.values = values;
+      this.contactId = contactId;
+      this.sortKey = sortKey;
+      this.name = name;
+      this.initials = initials;
+      this.numberDigits = numberDigits;
+    }
+
+    static Row fromCursor(Cursor cursor, int columnCount, int sortKeyColumn) {
+      Object[] values = new Object[columnCount];
+      for (int i = 0; i < columnCount; i++) {
+        switch (cursor.getType(i)) {
+          case Cursor.FIELD_TYPE_INTEGER:
+            values[i] = cursor.getLong(i);
+            break;
+          case Cursor.FIELD_TYPE_FLOAT:
+            values[i] = cursor.getDouble(i);
+            break;
+          case Cursor.FIELD_TYPE_STRING:
+            values[i] = cursor.getString(i);
+            break;
+          case Cursor.FIELD_TYPE_BLOB:
+            values[i] = cursor.getBlob(i);
+            break;
+          case Cursor.FIELD_TYPE_NULL:
+          default:
+            // No-op
+            break;
+        }
+      }
+
+      String name =
+          TextUtils.isEmpty(cursor.getString(Projections.DISPLAY_NAME))
+              ? ""
+              : cursor.getString(Projections.DISPLAY_NAME).toLowerCase(Locale.getDefault());
+      StringBuilder initials = new StringBuilder();
+      for (String part : name.split("\\s")) {
+        if (!part.isEmpty()) {
+          initials.append(part.charAt(0));
+        }
+      }
+      String number = cursor.getString(Projections.PHONE_NUMBER);
+      String sortKey = cursor.getString(sortKeyColumn);
+      return new Row(
+          values,
+          cursor.getLong(Projections.CONTACT_ID),
+          sortKey == null ? name : sortKey,
+          name,
+          initials.toString(),
+          number == null ? "" : QueryFilteringUtil.digitsOnly(number));
+    }
+
+    /** Returns true if the name, or any of its white space separated words, starts with query. */
+    boolean nameMatches(String query) {
+      int index = name.indexOf(query);
+      while (index != -1) {
+        if (index == 0 || Character.isWhitespace(name.charAt(index - 1))) {
+          return true;
+        }
+        index = name.indexOf(query, index + 1);
+      }
+      return false;
+    }
+  }
+}
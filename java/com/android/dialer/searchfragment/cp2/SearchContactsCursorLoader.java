@@ -96,7 +96,15 @@ public final class SearchContactsCursorLoader extends CursorLoader {
   }
 
   private Cursor regularSearchLoadInBackground() {
-    return RegularSearchCursor.newInstance(getContext(), super.loadInBackground());
+    // Keystrokes after the first are answered from memory; only fall back to a CP2 filter query if
+    // the address book is too large to keep resident.
+    Cursor cursor =
+        SearchContactsCorpus.get(getContext())
+            .query(getProjection(), getSelection(), getSortKey(getContext()), query);
+    if (cursor == null) {
+      cursor = super.loadInBackground();
+    }
+    return RegularSearchCursor.newInstance(getContext(), cursor);
   }
 
   private Cursor dialpadSearchLoadInBackground() {
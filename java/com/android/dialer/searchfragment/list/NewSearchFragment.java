@@ -380,8 +380,11 @@ public final class NewSearchFragment extends Fragment
   private void loadCp2ContactsCursor() {
     // Cancel existing load if one exists.
     ThreadUtil.getUiThreadHandler().removeCallbacks(loaderCp2ContactsRunnable);
+    // Regular search is served from an in-memory contacts corpus, so there is no need to wait for
+    // the user to stop typing.
     ThreadUtil.getUiThreadHandler()
-        .postDelayed(loaderCp2ContactsRunnable, NETWORK_SEARCH_DELAY_MILLIS);
+        .postDelayed(
+            loaderCp2ContactsRunnable, isRegularSearch() ? 0 : NETWORK_SEARCH_DELAY_MILLIS);
   }
 
   /**
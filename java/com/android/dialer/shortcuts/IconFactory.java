@@ -33,7 +33,6 @@ import androidx.annotation.WorkerThread;
 import com.android.dialer.R;
 import com.android.dialer.common.Assert;
 import com.android.dialer.lettertile.LetterTileDrawable;
-import com.android.dialer.util.DrawableConverter;
 
 import java.io.InputStream;
 
@@ -107,8 +106,7 @@ class IconFactory {
           context
               .getResources()
               .getDimensionPixelSize(R.dimen.launcher_shortcut_adaptive_icon_size);
-      return Icon.createWithAdaptiveBitmap(
-          DrawableConverter.drawableToBitmap(letterTileDrawable, iconSize, iconSize));
+      return Icon.createWithAdaptiveBitmap(letterTileDrawable.getBitmap(iconSize, iconSize));
     }
     Bitmap bitmap = BitmapFactory.decodeStream(inputStream);
     return Icon.createWithAdaptiveBitmap(bitmap);
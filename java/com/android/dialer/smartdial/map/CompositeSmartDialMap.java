@@ -17,12 +17,15 @@
 
 package com.android.dialer.smartdial.map;
 
+import android.content.ComponentCallbacks;
 import android.content.Context;
+import android.content.res.Configuration;
 
 import androidx.collection.SimpleArrayMap;
 
 import com.android.dialer.i18n.LocaleUtils;
 
+import java.util.Locale;
 import java.util.Optional;
 
 /**
@@ -34,6 +37,11 @@ import java.util.Optional;
  *
  * <p>Note that the second implementation can be absent if it is not defined for the system's 1st
  * language preference.
+ *
+ * <p>The combined results for the common character ranges are compiled into dense lookup tables
+ * once per language preference, so the hot smart dial matching paths index an array instead of
+ * consulting both maps for every character. The table is dropped on configuration changes, which
+ * include changes of the language preference, and built again on next use.
  */
 public class CompositeSmartDialMap {
 
@@ -49,6 +57,21 @@ public class CompositeSmartDialMap {
     EXTRA_MAPS.put("ukr", UkrainianSmartDialMap.getInstance());
   }
 
+  // Dense lookup tables cover every character below this bound, which includes the Latin-1,
+  // Latin Extended and Cyrillic blocks used by the maps above. Characters at or above it are
+  // resolved through the maps directly.
+  private static final int TABLE_SIZE = 0x0500;
+
+  private static final byte FLAG_ALPHABETIC = 1;
+  private static final byte FLAG_NUMERIC = 1 << 1;
+
+  private static volatile LookupTable lookupTable;
+
+  /** Incremented when {@link #lookupTable} is dropped, so that a table being built is discarded. */
+  private static volatile int lookupTableGeneration;
+
+  private static boolean isObservingConfiguration;
+
   private CompositeSmartDialMap() {}
 
   /**
@@ -58,12 +81,10 @@ public class CompositeSmartDialMap {
    * SmartDialMap#normalizeCharacter(char)} for details.
    */
   public static boolean isValidDialpadCharacter(Context context, char ch) {
-    if (DEFAULT_MAP.isValidDialpadCharacter(ch)) {
-      return true;
+    if (ch < TABLE_SIZE) {
+      return getLookupTable(context).flags[ch] != 0;
     }
-
-    Optional<SmartDialMap> extraMap = getExtraMap(context);
-    return extraMap.isPresent() && extraMap.get().isValidDialpadCharacter(ch);
+    return isValidDialpadAlphabeticChar(context, ch) || isValidDialpadNumericChar(context, ch);
   }
 
   /**
@@ -73,11 +94,14 @@ public class CompositeSmartDialMap {
    * SmartDialMap#normalizeCharacter(char)} for details.
    */
   public static boolean isValidDialpadAlphabeticChar(Context context, char ch) {
+    if (ch < TABLE_SIZE) {
+      return (getLookupTable(context).flags[ch] & FLAG_ALPHABETIC) != 0;
+    }
     if (DEFAULT_MAP.isValidDialpadAlphabeticChar(ch)) {
       return true;
     }
 
-    Optional<SmartDialMap> extraMap = getExtraMap(context);
+    Optional<SmartDialMap> extraMap = getLookupTable(context).extraMap;
     return extraMap.isPresent() && extraMap.get().isValidDialpadAlphabeticChar(ch);
   }
 
@@ -85,12 +109,8 @@ public class CompositeSmartDialMap {
    * Returns true if the provided character is a digit, and can be mapped to a key on the dialpad.
    */
   public static boolean isValidDialpadNumericChar(Context context, char ch) {
-    if (DEFAULT_MAP.isValidDialpadNumericChar(ch)) {
-      return true;
-    }
-
-    Optional<SmartDialMap> extraMap = getExtraMap(context);
-    return extraMap.isPresent() && extraMap.get().isValidDialpadNumericChar(ch);
+    // Every map treats exactly '0' to '9' as digits, all of which are covered by the table.
+    return ch < TABLE_SIZE && (getLookupTable(context).flags[ch] & FLAG_NUMERIC) != 0;
   }
 
   /**
@@ -102,17 +122,10 @@ public class CompositeSmartDialMap {
    * <p>If the provided character can't be mapped to a key on the dialpad, return -1.
    */
   public static byte getDialpadIndex(Context context, char ch) {
-    Optional<Byte> dialpadIndex = DEFAULT_MAP.getDialpadIndex(ch);
-    if (dialpadIndex.isPresent()) {
-      return dialpadIndex.get();
-    }
-
-    Optional<SmartDialMap> extraMap = getExtraMap(context);
-    if (extraMap.isPresent()) {
-      dialpadIndex = extraMap.get().getDialpadIndex(ch);
+    if (ch < TABLE_SIZE) {
+      return getLookupTable(context).dialpadIndices[ch];
     }
-
-    return dialpadIndex.isPresent() ? dialpadIndex.get() : -1;
+    return computeDialpadIndex(getLookupTable(context).extraMap, ch);
   }
 
   /**
@@ -124,12 +137,47 @@ public class CompositeSmartDialMap {
    * <p>If the provided character can't be mapped to a key on the dialpad, return the character.
    */
   public static char getDialpadNumericCharacter(Context context, char ch) {
+    if (ch < TABLE_SIZE) {
+      LookupTable table = getLookupTable(context);
+      return (table.flags[ch] & FLAG_ALPHABETIC) != 0
+          ? (char) ('0' + table.dialpadIndices[ch])
+          : ch;
+    }
+    return computeDialpadNumericCharacter(getLookupTable(context).extraMap, ch);
+  }
+
+  /**
+   * Converts uppercase characters to lower case ones, and on a best effort basis, strips accents
+   * from accented characters.
+   *
+   * <p>If the provided character can't be mapped to a key on the dialpad, return the character.
+   */
+  public static char normalizeCharacter(Context context, char ch) {
+    if (ch < TABLE_SIZE) {
+      return getLookupTable(context).normalizedChars[ch];
+    }
+    return computeNormalizedCharacter(getLookupTable(context).extraMap, ch);
+  }
+
+  private static byte computeDialpadIndex(Optional<SmartDialMap> extraMap, char ch) {
+    Optional<Byte> dialpadIndex = DEFAULT_MAP.getDialpadIndex(ch);
+    if (dialpadIndex.isPresent()) {
+      return dialpadIndex.get();
+    }
+
+    if (extraMap.isPresent()) {
+      dialpadIndex = extraMap.get().getDialpadIndex(ch);
+    }
+
+    return dialpadIndex.isPresent() ? dialpadIndex.get() : -1;
+  }
+
+  private static char computeDialpadNumericCharacter(Optional<SmartDialMap> extraMap, char ch) {
     Optional<Character> dialpadNumericChar = DEFAULT_MAP.getDialpadNumericCharacter(ch);
     if (dialpadNumericChar.isPresent()) {
       return dialpadNumericChar.get();
     }
 
-    Optional<SmartDialMap> extraMap = getExtraMap(context);
     if (extraMap.isPresent()) {
       dialpadNumericChar = extraMap.get().getDialpadNumericCharacter(ch);
     }
@@ -137,19 +185,12 @@ public class CompositeSmartDialMap {
     return dialpadNumericChar.isPresent() ? dialpadNumericChar.get() : ch;
   }
 
-  /**
-   * Converts uppercase characters to lower case ones, and on a best effort basis, strips accents
-   * from accented characters.
-   *
-   * <p>If the provided character can't be mapped to a key on the dialpad, return the character.
-   */
-  public static char normalizeCharacter(Context context, char ch) {
+  private static char computeNormalizedCharacter(Optional<SmartDialMap> extraMap, char ch) {
     Optional<Character> normalizedChar = DEFAULT_MAP.normalizeCharacter(ch);
     if (normalizedChar.isPresent()) {
       return normalizedChar.get();
     }
 
-    Optional<SmartDialMap> extraMap = getExtraMap(context);
     if (extraMap.isPresent()) {
       normalizedChar = extraMap.get().normalizeCharacter(ch);
     }
@@ -157,10 +198,77 @@ public class CompositeSmartDialMap {
     return normalizedChar.isPresent() ? normalizedChar.get() : ch;
   }
 
-  private static Optional<SmartDialMap> getExtraMap(Context context) {
-    String languageCode = LocaleUtils.getLocale(context).getISO3Language();
+  /** Returns the lookup table for the system's 1st language preference. */
+  private static LookupTable getLookupTable(Context context) {
+    LookupTable table = lookupTable;
+    return table != null ? table : buildLookupTable(context);
+  }
+
+  private static synchronized LookupTable buildLookupTable(Context context) {
+    if (!isObservingConfiguration) {
+      context.getApplicationContext().registerComponentCallbacks(new ConfigurationObserver());
+      isObservingConfiguration = true;
+    }
+    LookupTable table = lookupTable;
+    if (table != null) {
+      return table;
+    }
+    int generation = lookupTableGeneration;
+    table = new LookupTable(getExtraMap(LocaleUtils.getLocale(context)));
+    // The locale may have been read just before a configuration change, use it this time only.
+    if (generation == lookupTableGeneration) {
+      lookupTable = table;
+    }
+    return table;
+  }
+
+  private static Optional<SmartDialMap> getExtraMap(Locale locale) {
+    String languageCode = locale.getISO3Language();
     return EXTRA_MAPS.containsKey(languageCode)
         ? Optional.of(EXTRA_MAPS.get(languageCode))
         : Optional.empty();
   }
+
+  /**
+   * Immutable, precomputed results of the default map combined with the extra map of a locale, for
+   * every character below {@link #TABLE_SIZE}.
+   */
+  private static final class LookupTable {
+
+    private final Optional<SmartDialMap> extraMap;
+    private final byte[] flags = new byte[TABLE_SIZE];
+    private final byte[] dialpadIndices = new byte[TABLE_SIZE];
+    private final char[] normalizedChars = new char[TABLE_SIZE];
+
+    LookupTable(Optional<SmartDialMap> extraMap) {
+      this.extraMap = extraMap;
+      for (char ch = 0; ch < TABLE_SIZE; ch++) {
+        byte flag = 0;
+        if (DEFAULT_MAP.isValidDialpadAlphabeticChar(ch)
+            || (extraMap.isPresent() && extraMap.get().isValidDialpadAlphabeticChar(ch))) {
+          flag |= FLAG_ALPHABETIC;
+        }
+        if (DEFAULT_MAP.isValidDialpadNumericChar(ch)
+            || (extraMap.isPresent() && extraMap.get().isValidDialpadNumericChar(ch))) {
+          flag |= FLAG_NUMERIC;
+        }
+        flags[ch] = flag;
+        dialpadIndices[ch] = computeDialpadIndex(extraMap, ch);
+        normalizedChars[ch] = computeNormalizedCharacter(extraMap, ch);
+      }
+    }
+  }
+
+  /** Drops the lookup table when the configuration, and possibly the locale, changes. */
+  private static final class ConfigurationObserver implements ComponentCallbacks {
+
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {
+      lookupTableGeneration++;
+      lookupTable = null;
+    }
+
+    @Override
+    public void onLowMemory() {}
+  }
 }
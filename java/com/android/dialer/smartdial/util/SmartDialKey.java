@@ -0,0 +1,85 @@
+/*
+ * SPDX-FileCopyrightText: The LineageOS Project
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.android.dialer.smartdial.util;
+
+import android.content.Context;
+import android.text.TextUtils;
+
+import androidx.annotation.Nullable;
+
+import com.android.dialer.smartdial.map.CompositeSmartDialMap;
+import com.android.dialer.smartdial.util.SmartDialPrefix.PhoneNumberTokens;
+
+/**
+ * Precomputed dialpad encoding of a contact's display name and phone number.
+ *
+ * <p>Every character of the original string is encoded as exactly one byte: the numeric dialpad
+ * key it maps to (e.g. '5' for 'j' or 'Ĵ'), or {@link #SEPARATOR} if it has no dialpad equivalent.
+ * Offsets into the encoding are therefore offsets into the original string, and the {@link
+ * SmartDialMatchPosition}s computed by {@link SmartDialNameMatcher#matches(SmartDialKey)} can be
+ * used for highlighting as is.
+ *
+ * <p>Building a key performs all the Unicode normalization and dialpad map lookups for a row once,
+ * so matching it against a query is a plain array scan.
+ */
+public final class SmartDialKey {
+
+  /** Encoding of a character that can't be mapped to a key on the dialpad. */
+  static final byte SEPARATOR = 0;
+
+  private static final byte[] EMPTY = new byte[0];
+
+  final byte[] name;
+  final byte[] number;
+
+  /** See {@link PhoneNumberTokens#countryCodeOffset}. */
+  final int countryCodeOffset;
+
+  /** See {@link PhoneNumberTokens#nanpCodeOffset}. */
+  final int nanpCodeOffset;
+
+  private SmartDialKey(byte[] name, byte[] number, int countryCodeOffset, int nanpCodeOffset) {
+    this.name = name;
+    this.number = number;
+    this.countryCodeOffset = countryCodeOffset;
+    this.nanpCodeOffset = nanpCodeOffset;
+  }
+
+  public static SmartDialKey create(
+      Context context, @Nullable String displayName, @Nullable String phoneNumber) {
+    byte[] name = encodeName(context, displayName);
+    if (TextUtils.isEmpty(phoneNumber)) {
+      return new SmartDialKey(name, EMPTY, 0, 0);
+    }
+    byte[] number = new byte[phoneNumber.length()];
+    for (int i = 0; i < number.length; i++) {
+      char ch = phoneNumber.charAt(i);
+      number[i] =
+          CompositeSmartDialMap.isValidDialpadNumericChar(context, ch) ? (byte) ch : SEPARATOR;
+    }
+    PhoneNumberTokens tokens = SmartDialPrefix.parsePhoneNumber(context, phoneNumber);
+    return new SmartDialKey(name, number, tokens.countryCodeOffset, tokens.nanpCodeOffset);
+  }
+
+  private static byte[] encodeName(Context context, @Nullable String displayName) {
+    if (TextUtils.isEmpty(displayName)) {
+      return EMPTY;
+    }
+    byte[] name = new byte[displayName.length()];
+    for (int i = 0; i < name.length; i++) {
+      // Strip diacritics from accented characters if any
+      char ch = CompositeSmartDialMap.normalizeCharacter(context, displayName.charAt(i));
+      if (!CompositeSmartDialMap.isValidDialpadCharacter(context, ch)) {
+        name[i] = SEPARATOR;
+      } else if (CompositeSmartDialMap.isValidDialpadAlphabeticChar(context, ch)) {
+        name[i] = (byte) CompositeSmartDialMap.getDialpadNumericCharacter(context, ch);
+      } else {
+        name[i] = (byte) ch;
+      }
+    }
+    return name;
+  }
+}
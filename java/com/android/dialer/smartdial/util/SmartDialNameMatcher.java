@@ -203,6 +203,53 @@ public class SmartDialNameMatcher {
     return new SmartDialMatchPosition(0 + offset, numberAt);
   }
 
+  /**
+   * Same as {@link #matchesNumber(Context, String, String)}, but matches against the precomputed
+   * encoding of the number in {@code key}.
+   */
+  @Nullable
+  public SmartDialMatchPosition matchesNumber(SmartDialKey key, String query) {
+    if (key.number.length == 0) {
+      return shouldMatchEmptyQuery ? new SmartDialMatchPosition(0, 0) : null;
+    }
+
+    // Try matching the number as is
+    SmartDialMatchPosition matchPos = matchesNumberWithOffset(key.number, query, /* offset = */ 0);
+    if (matchPos == null && key.countryCodeOffset != 0) {
+      matchPos = matchesNumberWithOffset(key.number, query, key.countryCodeOffset);
+    }
+    if (matchPos == null && key.nanpCodeOffset != 0) {
+      matchPos = matchesNumberWithOffset(key.number, query, key.nanpCodeOffset);
+    }
+    return matchPos;
+  }
+
+  /**
+   * Same as {@link #matchesNumberWithOffset(Context, String, String, int)}, where {@code number} is
+   * the encoding from {@link SmartDialKey}.
+   */
+  private SmartDialMatchPosition matchesNumberWithOffset(byte[] number, String query, int offset) {
+    if (number.length == 0 || TextUtils.isEmpty(query)) {
+      return shouldMatchEmptyQuery ? new SmartDialMatchPosition(offset, offset) : null;
+    }
+    int queryAt = 0;
+    int numberAt = offset;
+    for (int i = offset; i < number.length && queryAt < query.length(); i++) {
+      byte ch = number[i];
+      if (ch != SmartDialKey.SEPARATOR) {
+        if (ch != query.charAt(queryAt)) {
+          return null;
+        }
+        queryAt++;
+      } else if (queryAt == 0 && offset != 0) {
+        // See matchesNumberWithOffset(Context, String, String, int)
+        offset++;
+      }
+      numberAt++;
+    }
+    return new SmartDialMatchPosition(offset, numberAt);
+  }
+
   /**
    * This function iterates through each token in the display name, trying to match the query to the
    * numeric equivalent of the token.
@@ -385,6 +432,85 @@ public class SmartDialNameMatcher {
     return false;
   }
 
+  /**
+   * Same as {@link #matchesCombination(Context, String, String, ArrayList)}, where {@code name} is
+   * the encoding from {@link SmartDialKey}. Matching starts at {@code from}, and the positions added
+   * to {@code matchList} are offsets into the whole name.
+   */
+  private boolean matchesCombination(
+      byte[] name, int from, String query, ArrayList<SmartDialMatchPosition> matchList) {
+    final int nameLength = name.length;
+    final int queryLength = query.length();
+
+    if (nameLength - from < queryLength) {
+      return false;
+    }
+
+    if (queryLength == 0) {
+      return false;
+    }
+
+    int nameStart = from;
+    int queryStart = 0;
+    int tokenStart = from;
+    int seperatorCount = 0;
+
+    ArrayList<SmartDialMatchPosition> partial = new ArrayList<>();
+    while (nameStart < nameLength && queryStart < queryLength) {
+      byte ch = name[nameStart];
+      if (ch != SmartDialKey.SEPARATOR) {
+        if (ch != query.charAt(queryStart)) {
+          // See matchesCombination(Context, String, String, ArrayList) for the three cases
+          // handled here.
+          if (queryStart == 0 || name[nameStart - 1] != SmartDialKey.SEPARATOR) {
+            while (nameStart < nameLength && name[nameStart] != SmartDialKey.SEPARATOR) {
+              nameStart++;
+            }
+            nameStart++;
+          }
+
+          queryStart = 0;
+          seperatorCount = 0;
+          tokenStart = nameStart;
+        } else {
+          if (queryStart == queryLength - 1) {
+            matchList.add(
+                new SmartDialMatchPosition(tokenStart, queryLength + tokenStart + seperatorCount));
+            return true;
+          } else if (ALLOW_INITIAL_MATCH && queryStart < INITIAL_LENGTH_LIMIT) {
+            int j;
+            for (j = nameStart; j < nameLength; j++) {
+              if (name[j] == SmartDialKey.SEPARATOR) {
+                break;
+              }
+            }
+            if (j < nameLength - 1) {
+              final ArrayList<SmartDialMatchPosition> partialTemp = new ArrayList<>();
+              if (matchesCombination(name, j + 1, query.substring(queryStart + 1), partialTemp)) {
+                partialTemp.add(0, new SmartDialMatchPosition(nameStart, nameStart + 1));
+                partial = partialTemp;
+              }
+            }
+          }
+          nameStart++;
+          queryStart++;
+        }
+      } else {
+        nameStart++;
+        if (queryStart == 0) {
+          tokenStart = nameStart;
+        } else {
+          seperatorCount++;
+        }
+      }
+    }
+    if (!partial.isEmpty()) {
+      matchList.addAll(partial);
+      return true;
+    }
+    return false;
+  }
+
   /**
    * This function iterates through each token in the display name, trying to match the query to the
    * numeric equivalent of the token.
@@ -414,6 +540,15 @@ public class SmartDialNameMatcher {
     return matchesCombination(context, displayName, query, matchPositions);
   }
 
+  /**
+   * Same as {@link #matches(Context, String)}, but matches against the precomputed encoding of the
+   * display name in {@code key}.
+   */
+  public boolean matches(SmartDialKey key) {
+    matchPositions.clear();
+    return matchesCombination(key.name, /* from = */ 0, query, matchPositions);
+  }
+
   public ArrayList<SmartDialMatchPosition> getMatchPositions() {
     // Return a clone of mMatchPositions so that the caller can use it without
     // worrying about it changing
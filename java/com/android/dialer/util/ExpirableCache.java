@@ -19,7 +19,11 @@ package com.android.dialer.util;
 
 import android.util.LruCache;
 
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiPredicate;
 
 import javax.annotation.concurrent.Immutable;
 import javax.annotation.concurrent.ThreadSafe;
@@ -192,10 +196,40 @@ public class ExpirableCache<K, V> {
    * @param key the key to look up
    * @param value the value to associate with the key
    */
-  public void put(K key, V value) {
+  public synchronized void put(K key, V value) {
     cache.put(key, newCachedValue(value));
   }
 
+  /**
+   * Puts an item in the cache that is already expired, e.g. a value restored from persistent
+   * storage that should be shown but revalidated.
+   *
+   * @param key the key to look up
+   * @param value the value to associate with the key
+   */
+  public synchronized void putExpired(K key, V value) {
+    cache.put(key, new ExpiredCachedValue<>(value));
+  }
+
+  /**
+   * Atomically puts an already expired item in the cache, like {@link #putExpired(Object, Object)},
+   * unless the key is associated with a value other than {@code placeholder}. This keeps an older
+   * value from replacing one that was put in the meantime.
+   *
+   * @param key the key to look up
+   * @param value the value to associate with the key
+   * @param placeholder a value standing for a missing one, e.g. the result of a failed lookup
+   * @return whether the value was put
+   */
+  public synchronized boolean putExpiredIfAbsent(K key, V value, V placeholder) {
+    CachedValue<V> cachedValue = cache.get(key);
+    if (cachedValue != null && !Objects.equals(cachedValue.getValue(), placeholder)) {
+      return false;
+    }
+    cache.put(key, new ExpiredCachedValue<>(value));
+    return true;
+  }
+
   /**
    * Mark all items currently in the cache as expired.
    *
@@ -207,6 +241,45 @@ public class ExpirableCache<K, V> {
     generation.incrementAndGet();
   }
 
+  /**
+   * Marks the items for which {@code predicate} returns true as expired, in place.
+   *
+   * <p>Other items are not affected, no item is evicted and the LRU order is left unchanged. The
+   * predicate is only called for items that aren't expired yet.
+   *
+   * @param predicate called with the key and value of each item
+   * @return the number of items that were expired
+   */
+  public int expireIf(BiPredicate<K, V> predicate) {
+    int expiredCount = 0;
+    for (Map.Entry<K, CachedValue<V>> entry : cache.snapshot().entrySet()) {
+      CachedValue<V> cachedValue = entry.getValue();
+      if (cachedValue instanceof GenerationalCachedValue
+          && !cachedValue.isExpired()
+          && predicate.test(entry.getKey(), cachedValue.getValue())) {
+        ((GenerationalCachedValue<V>) cachedValue).expire();
+        expiredCount++;
+      }
+    }
+    return expiredCount;
+  }
+
+  /** Returns the number of items in the cache, whether they are expired or not. */
+  public int size() {
+    return cache.size();
+  }
+
+  /**
+   * Returns a copy of the keys and values currently in the cache, whether they are expired or not.
+   */
+  public Map<K, V> snapshot() {
+    Map<K, V> snapshot = new HashMap<>();
+    for (Map.Entry<K, CachedValue<V>> entry : cache.snapshot().entrySet()) {
+      snapshot.put(entry.getKey(), entry.getValue().getValue());
+    }
+    return snapshot;
+  }
+
   /**
    * Creates a new {@link CachedValue} instance to be stored in this cache.
    *
@@ -237,8 +310,10 @@ public class ExpirableCache<K, V> {
     boolean isExpired();
   }
 
-  /** Cached values storing the generation at which they were added. */
-  @Immutable
+  /**
+   * Cached values storing the generation at which they were added. They can also be expired
+   * individually through {@link #expireIf(BiPredicate)}.
+   */
   private static class GenerationalCachedValue<V> implements ExpirableCache.CachedValue<V> {
 
     /** The value stored in the cache. */
@@ -247,6 +322,8 @@ public class ExpirableCache<K, V> {
     private final int generation;
     /** The atomic integer storing the current generation of the cache it belongs to. */
     private final AtomicInteger cacheGeneration;
+    /** Whether the value was expired on its own, regardless of the generation. */
+    private volatile boolean expired;
 
     /**
      * @param cacheGeneration the atomic integer storing the generation of the cache in which this
@@ -266,7 +343,32 @@ public class ExpirableCache<K, V> {
 
     @Override
     public boolean isExpired() {
-      return generation != cacheGeneration.get();
+      return expired || generation != cacheGeneration.get();
+    }
+
+    void expire() {
+      expired = true;
+    }
+  }
+
+  /** Cached values that are expired from the start, see {@link #putExpired(Object, Object)}. */
+  @Immutable
+  private static class ExpiredCachedValue<V> implements ExpirableCache.CachedValue<V> {
+
+    private final V value;
+
+    ExpiredCachedValue(V value) {
+      this.value = value;
+    }
+
+    @Override
+    public V getValue() {
+      return value;
+    }
+
+    @Override
+    public boolean isExpired() {
+      return true;
     }
   }
 }
@@ -28,25 +28,30 @@ import android.os.Handler;
 import android.os.Looper;
 import android.os.Message;
 import android.os.Trace;
-import android.provider.ContactsContract;
-import android.provider.ContactsContract.Directory;
 import android.text.TextUtils;
 
 import androidx.annotation.MainThread;
+import androidx.annotation.Nullable;
 import androidx.annotation.RequiresPermission;
 import androidx.annotation.WorkerThread;
 
 import com.android.dialer.R;
+import com.android.dialer.common.concurrent.ThreadUtil;
 import com.android.dialer.phonenumbercache.CachedNumberLookupService;
 import com.android.dialer.phonenumbercache.CachedNumberLookupService.CachedContactInfo;
 import com.android.dialer.phonenumbercache.ContactInfoHelper;
 import com.android.dialer.phonenumbercache.PhoneNumberCache;
+import com.android.dialer.phonenumbercache.RemoteDirectoryRegistry;
 import com.android.dialer.phonenumberutil.PhoneNumberHelper;
+import com.google.common.collect.ImmutableList;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Helper class to make it easier to run asynchronous caller-id lookup queries.
@@ -80,7 +85,21 @@ public class CallerInfoAsyncQuery {
   // configured on a per-product basis.)
   private static final boolean ENABLE_UNKNOWN_NUMBER_GEO_DESCRIPTION = true;
   /* Directory lookup related code - START */
-  private static final String[] DIRECTORY_PROJECTION = new String[] {Directory._ID};
+
+  /**
+   * How long to wait for the remote directories before reporting the default directory's result.
+   * A contact found by a directory afterwards is still cached for later calls.
+   */
+  private static final long DIRECTORY_QUERY_DEADLINE_MILLIS = 2000;
+
+  /** Maximum number of directories queried at the same time. */
+  private static final int DIRECTORY_QUERY_THREADS = 3;
+
+  /**
+   * Runs the directory queries at default priority, so that they don't wait behind the background
+   * work of the shared executors while a call is ringing. Idle threads are released.
+   */
+  private static final ExecutorService directoryQueryExecutor = newDirectoryQueryExecutor();
 
   /** Private constructor for factory methods. */
   private CallerInfoAsyncQuery() {}
@@ -101,13 +120,14 @@ public class CallerInfoAsyncQuery {
           @Override
           public void onQueryComplete(int token, Object cookie, CallerInfo ci) {
             Log.d(LOG_TAG, "contactsProviderQueryCompleteListener onQueryComplete");
-            // If there are no other directory queries, make sure that the listener is
-            // notified of this result.  see a bug
-            if ((ci != null && ci.contactExists)
-                || !startOtherDirectoriesQuery(token, context, info, listener, cookie)) {
-              if (listener != null && ci != null) {
+            if (ci != null && ci.contactExists) {
+              if (listener != null) {
                 listener.onQueryComplete(token, cookie, ci);
               }
+            } else {
+              // The remote directories may still know the caller. This notifies the listener of
+              // their result, or of this one if they don't.
+              startOtherDirectoriesQuery(token, context, info, listener, cookie, ci);
             }
           }
 
@@ -158,6 +178,21 @@ public class CallerInfoAsyncQuery {
     CallerInfoAsyncQueryHandler handler = new CallerInfoAsyncQueryHandler(context, contactRef);
 
     //create cookieWrapper, start query
+    CookieWrapper cw = newCookieWrapper(context, info, listener, cookie);
+
+    String[] proejection = CallerInfo.getDefaultPhoneLookupProjection();
+    handler.startQuery(
+        token,
+        cw, // cookie
+        contactRef, // uri
+        proejection, // projection
+        null, // selection
+        null, // selectionArgs
+        null); // orderBy
+  }
+
+  private static CookieWrapper newCookieWrapper(
+      Context context, CallerInfo info, OnQueryCompleteListener listener, Object cookie) {
     CookieWrapper cw = new CookieWrapper();
     cw.listener = listener;
     cw.cookie = cookie;
@@ -172,80 +207,154 @@ public class CallerInfoAsyncQuery {
     } else {
       cw.event = EVENT_NEW_QUERY;
     }
-
-    String[] proejection = CallerInfo.getDefaultPhoneLookupProjection();
-    handler.startQuery(
-        token,
-        cw, // cookie
-        contactRef, // uri
-        proejection, // projection
-        null, // selection
-        null, // selectionArgs
-        null); // orderBy
+    return cw;
   }
 
-  // Return value indicates if listener was notified.
-  private static boolean startOtherDirectoriesQuery(
+  /**
+   * Looks the number up in all remote directories concurrently. The listener is notified of the
+   * first contact found, or of {@code defaultDirectoryInfo} once all directories answered without
+   * one or {@link #DIRECTORY_QUERY_DEADLINE_MILLIS} passed, whichever comes first.
+   */
+  @MainThread
+  private static void startOtherDirectoriesQuery(
       int token,
       Context context,
       CallerInfo info,
       OnQueryCompleteListener listener,
-      Object cookie) {
-    Trace.beginSection("CallerInfoAsyncQuery.startOtherDirectoriesQuery");
-    long[] directoryIds = getDirectoryIds(context);
-    int size = directoryIds.length;
-    if (size == 0) {
-      Trace.endSection();
-      return false;
-    }
-
-    DirectoryQueryCompleteListenerFactory listenerFactory =
-        new DirectoryQueryCompleteListenerFactory(context, size, listener);
+      Object cookie,
+      @Nullable CallerInfo defaultDirectoryInfo) {
+    directoryQueryExecutor.execute(
+        () -> {
+          Trace.beginSection("CallerInfoAsyncQuery.startOtherDirectoriesQuery");
+          ImmutableList<Long> directoryIds = RemoteDirectoryRegistry.get(context).getDirectoryIds();
+          DirectoryQueryCompleteListenerFactory listenerFactory =
+              new DirectoryQueryCompleteListenerFactory(
+                  context, directoryIds.size(), listener, defaultDirectoryInfo);
+          if (directoryIds.isEmpty()) {
+            ThreadUtil.postOnUiThread(() -> listenerFactory.onDeadline(token, cookie));
+            Trace.endSection();
+            return;
+          }
+          ThreadUtil.postDelayedOnUiThread(
+              () -> listenerFactory.onDeadline(token, cookie), DIRECTORY_QUERY_DEADLINE_MILLIS);
 
-    // The current implementation of multiple async query runs in single handler thread
-    // in AsyncQueryHandler.
-    // intermediateListener.onQueryComplete is also called from the same caller thread.
-    // TODO(a bug): use thread pool instead of single thread.
-    for (int i = 0; i < size; i++) {
-      long directoryId = directoryIds[i];
-      Uri uri = ContactInfoHelper.getContactInfoLookupUri(info.phoneNumber, directoryId);
-      if (DBG) {
-        Log.d(LOG_TAG, "directoryId: " + directoryId + " uri: " + uri);
-      }
-      OnQueryCompleteListener intermediateListener = listenerFactory.newListener(directoryId);
-      startQueryInternal(token, context, info, intermediateListener, cookie, uri);
-    }
-    Trace.endSection();
-    return true;
+          for (long directoryId : directoryIds) {
+            Uri uri = ContactInfoHelper.getContactInfoLookupUri(info.phoneNumber, directoryId);
+            if (DBG) {
+              Log.d(LOG_TAG, "directoryId: " + directoryId + " uri: " + uri);
+            }
+            OnQueryCompleteListener intermediateListener =
+                listenerFactory.newListener(directoryId);
+            CookieWrapper cw = newCookieWrapper(context, info, intermediateListener, cookie);
+            directoryQueryExecutor.execute(
+                () -> {
+                  CallerInfo ci = queryDirectory(context, uri, cw);
+                  intermediateListener.onDataLoaded(token, cookie, ci);
+                  ThreadUtil.postOnUiThread(
+                      () -> intermediateListener.onQueryComplete(token, cookie, ci));
+                });
+          }
+          Trace.endSection();
+        });
   }
 
-  private static long[] getDirectoryIds(Context context) {
-    ArrayList<Long> results = new ArrayList<>();
-
-    Uri uri = Uri.withAppendedPath(ContactsContract.AUTHORITY_URI, "directories_enterprise");
-
-    ContentResolver cr = context.getContentResolver();
-    Cursor cursor = cr.query(uri, DIRECTORY_PROJECTION, null, null, null);
-    addDirectoryIdsFromCursor(cursor, results);
+  private static ExecutorService newDirectoryQueryExecutor() {
+    ThreadPoolExecutor executor =
+        new ThreadPoolExecutor(
+            DIRECTORY_QUERY_THREADS,
+            DIRECTORY_QUERY_THREADS,
+            30,
+            TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(),
+            runnable -> {
+              Thread thread = new Thread(runnable, "CallerInfoAsyncQuery-Directory");
+              // Java thread priority 5 corresponds to Process.THREAD_PRIORITY_DEFAULT (0)
+              thread.setPriority(5);
+              return thread;
+            });
+    executor.allowCoreThreadTimeOut(true);
+    return executor;
+  }
 
-    long[] result = new long[results.size()];
-    for (int i = 0; i < results.size(); i++) {
-      result[i] = results.get(i);
+  /** Runs the query of a single directory, like {@link CallerInfoAsyncQueryHandler} does. */
+  @WorkerThread
+  private static CallerInfo queryDirectory(Context context, Uri uri, CookieWrapper cw) {
+    Cursor cursor;
+    try {
+      cursor =
+          context
+              .getContentResolver()
+              .query(uri, CallerInfo.getDefaultPhoneLookupProjection(), null, null, null);
+    } catch (Exception e) {
+      Log.e(LOG_TAG, "Exception thrown during directory query", e);
+      cursor = null;
+    }
+    try {
+      return buildCallerInfo(context, uri, cw, cursor);
+    } finally {
+      // The cursor may have been closed in CallerInfo.getCallerInfo()
+      if (cursor != null && !cursor.isClosed()) {
+        cursor.close();
+      }
     }
-    return result;
   }
 
-  private static void addDirectoryIdsFromCursor(Cursor cursor, ArrayList<Long> results) {
-    if (cursor != null) {
-      int idIndex = cursor.getColumnIndex(Directory._ID);
-      while (cursor.moveToNext()) {
-        long id = cursor.getLong(idIndex);
-        if (Directory.isRemoteDirectoryId(id)) {
-          results.add(id);
+  /** Creates the {@link CallerInfo} for the result of the lookup query of {@code cw}. */
+  @WorkerThread
+  private static CallerInfo buildCallerInfo(
+      Context context, Uri queryUri, CookieWrapper cw, Cursor cursor) {
+    CallerInfo callerInfo;
+    // adjust the callerInfo data as needed, and only if it was set from the
+    // initial query request.
+    // Change the callerInfo number ONLY if it is an emergency number or the
+    // voicemail number, and adjust other data (including photoResource)
+    // accordingly.
+    if (cw.event == EVENT_EMERGENCY_NUMBER) {
+      // Note we're setting the phone number here (refer to javadoc
+      // comments at the top of CallerInfo class).
+      callerInfo = new CallerInfo().markAsEmergency(context);
+    } else if (cw.event == EVENT_VOICEMAIL_NUMBER) {
+      callerInfo = new CallerInfo().markAsVoiceMail(context);
+    } else {
+      callerInfo = CallerInfo.getCallerInfo(context, queryUri, cursor);
+      Log.d(LOG_TAG, "==> Got mCallerInfo: " + callerInfo);
+
+      CallerInfo newCallerInfo =
+          CallerInfo.doSecondaryLookupIfNecessary(context, cw.number, callerInfo);
+      if (newCallerInfo != callerInfo) {
+        callerInfo = newCallerInfo;
+        Log.d(LOG_TAG, "#####async contact look up with numeric username" + callerInfo);
+      }
+      callerInfo.countryIso = cw.countryIso;
+
+      // Final step: look up the geocoded description.
+      if (ENABLE_UNKNOWN_NUMBER_GEO_DESCRIPTION) {
+        // Note we do this only if we *don't* have a valid name (i.e. if
+        // no contacts matched the phone number of the incoming call),
+        // since that's the only case where the incoming-call UI cares
+        // about this field.
+        //
+        // (TODO: But if we ever want the UI to show the geoDescription
+        // even when we *do* match a contact, we'll need to either call
+        // updateGeoDescription() unconditionally here, or possibly add a
+        // new parameter to CallerInfoAsyncQuery.startQuery() to force
+        // the geoDescription field to be populated.)
+
+        if (TextUtils.isEmpty(callerInfo.name)) {
+          // Actually when no contacts match the incoming phone number,
+          // the CallerInfo object is totally blank here (i.e. no name
+          // *or* phoneNumber).  So we need to pass in cw.number as
+          // a fallback number.
+          callerInfo.updateGeoDescription(context, cw.number);
         }
       }
-      cursor.close();
+
+      // Use the number entered by the user for display.
+      if (!TextUtils.isEmpty(cw.number)) {
+        callerInfo.phoneNumber = cw.number;
+      }
     }
+    return callerInfo;
   }
 
   private static String sanitizeUriToString(Uri uri) {
@@ -281,41 +390,102 @@ public class CallerInfoAsyncQuery {
     }
   }
 
+  /**
+   * Collects the results of the remote directory queries of one lookup. Only the first contact
+   * found is passed on, and the listener is notified once and only once. Everything but {@link
+   * OnQueryCompleteListener#onDataLoaded} runs on the main thread.
+   */
   private static final class DirectoryQueryCompleteListenerFactory {
 
     private final OnQueryCompleteListener listener;
     private final Context context;
-    // Make sure listener to be called once and only once
+    @Nullable private final CallerInfo defaultDirectoryInfo;
     private int count;
     private boolean isListenerCalled;
+    /** Whether a contact was found, whose data is then loaded on a worker thread. */
+    private boolean isFirstHitClaimed;
+    /** The first contact found, set once its data has been loaded. */
+    @Nullable private CallerInfo firstHit;
+
+    private long firstHitDirectoryId;
 
     DirectoryQueryCompleteListenerFactory(
-        Context context, int size, OnQueryCompleteListener listener) {
+        Context context,
+        int size,
+        OnQueryCompleteListener listener,
+        @Nullable CallerInfo defaultDirectoryInfo) {
       count = size;
       this.listener = listener;
       isListenerCalled = false;
       this.context = context;
+      this.defaultDirectoryInfo = defaultDirectoryInfo;
+    }
+
+    @WorkerThread
+    private void onDirectoryDataLoaded(int token, Object cookie, CallerInfo ci, long directoryId) {
+      synchronized (this) {
+        if (!ci.contactExists || isFirstHitClaimed || isListenerCalled) {
+          // Only the result that will be reported is passed on, so that a directory without the
+          // contact can't overwrite one that has it.
+          return;
+        }
+        isFirstHitClaimed = true;
+      }
+      if (listener != null) {
+        listener.onDataLoaded(token, cookie, ci);
+      }
+      synchronized (this) {
+        // Published only now, since the listener modifies ci while loading its data. If the
+        // deadline passed meanwhile, the query completed without it.
+        if (!isListenerCalled) {
+          firstHit = ci;
+          firstHitDirectoryId = directoryId;
+        }
+      }
     }
 
+    @MainThread
     private void onDirectoryQueryComplete(
         int token, Object cookie, CallerInfo ci, long directoryId) {
-      boolean shouldCallListener = false;
-      synchronized (this) {
-        count = count - 1;
-        if (!isListenerCalled && (ci.contactExists || count == 0)) {
-          isListenerCalled = true;
-          shouldCallListener = true;
+      count = count - 1;
+      if (isListenerCalled) {
+        if (ci.contactExists) {
+          // Too late for this call, but the next one can be answered from the cache.
+          addCallerInfoIntoCache(ci, directoryId);
         }
+        return;
+      }
+      if (ci == firstHit || count == 0) {
+        notifyListener(token, cookie);
       }
+    }
 
-      // Don't call callback in synchronized block because mListener.onQueryComplete may
-      // take long time to complete
-      if (shouldCallListener && listener != null) {
-        addCallerInfoIntoCache(ci, directoryId);
-        listener.onQueryComplete(token, cookie, ci);
+    @MainThread
+    void onDeadline(int token, Object cookie) {
+      if (!isListenerCalled) {
+        Log.d(LOG_TAG, "DirectoryQueryCompleteListenerFactory.onDeadline, pending: " + count);
+        notifyListener(token, cookie);
       }
     }
 
+    @MainThread
+    private void notifyListener(int token, Object cookie) {
+      CallerInfo result;
+      long directoryId;
+      synchronized (this) {
+        isListenerCalled = true;
+        result = firstHit != null ? firstHit : defaultDirectoryInfo;
+        directoryId = firstHitDirectoryId;
+      }
+      if (result == null || listener == null) {
+        return;
+      }
+      if (result == firstHit) {
+        addCallerInfoIntoCache(result, directoryId);
+      }
+      listener.onQueryComplete(token, cookie, result);
+    }
+
     private void addCallerInfoIntoCache(CallerInfo ci, long directoryId) {
       CachedNumberLookupService cachedNumberLookupService =
           PhoneNumberCache.get(context).getCachedNumberLookupService();
@@ -356,7 +526,7 @@ public class CallerInfoAsyncQuery {
       @Override
       public void onDataLoaded(int token, Object cookie, CallerInfo ci) {
         Log.d(LOG_TAG, "DirectoryQueryCompleteListener.onDataLoaded");
-        listener.onDataLoaded(token, cookie, ci);
+        onDirectoryDataLoaded(token, cookie, ci, directoryId);
       }
 
       @Override
@@ -474,56 +644,7 @@ public class CallerInfoAsyncQuery {
                 "Bad context or query uri, or CallerInfoAsyncQuery already released.");
           }
 
-          // adjust the callerInfo data as needed, and only if it was set from the
-          // initial query request.
-          // Change the callerInfo number ONLY if it is an emergency number or the
-          // voicemail number, and adjust other data (including photoResource)
-          // accordingly.
-          if (cw.event == EVENT_EMERGENCY_NUMBER) {
-            // Note we're setting the phone number here (refer to javadoc
-            // comments at the top of CallerInfo class).
-            callerInfo = new CallerInfo().markAsEmergency(queryContext);
-          } else if (cw.event == EVENT_VOICEMAIL_NUMBER) {
-            callerInfo = new CallerInfo().markAsVoiceMail(queryContext);
-          } else {
-            callerInfo = CallerInfo.getCallerInfo(queryContext, queryUri, cursor);
-            Log.d(this, "==> Got mCallerInfo: " + callerInfo);
-
-            CallerInfo newCallerInfo =
-                CallerInfo.doSecondaryLookupIfNecessary(queryContext, cw.number, callerInfo);
-            if (newCallerInfo != callerInfo) {
-              callerInfo = newCallerInfo;
-              Log.d(this, "#####async contact look up with numeric username" + callerInfo);
-            }
-            callerInfo.countryIso = cw.countryIso;
-
-            // Final step: look up the geocoded description.
-            if (ENABLE_UNKNOWN_NUMBER_GEO_DESCRIPTION) {
-              // Note we do this only if we *don't* have a valid name (i.e. if
-              // no contacts matched the phone number of the incoming call),
-              // since that's the only case where the incoming-call UI cares
-              // about this field.
-              //
-              // (TODO: But if we ever want the UI to show the geoDescription
-              // even when we *do* match a contact, we'll need to either call
-              // updateGeoDescription() unconditionally here, or possibly add a
-              // new parameter to CallerInfoAsyncQuery.startQuery() to force
-              // the geoDescription field to be populated.)
-
-              if (TextUtils.isEmpty(callerInfo.name)) {
-                // Actually when no contacts match the incoming phone number,
-                // the CallerInfo object is totally blank here (i.e. no name
-                // *or* phoneNumber).  So we need to pass in cw.number as
-                // a fallback number.
-                callerInfo.updateGeoDescription(queryContext, cw.number);
-              }
-            }
-
-            // Use the number entered by the user for display.
-            if (!TextUtils.isEmpty(cw.number)) {
-              callerInfo.phoneNumber = cw.number;
-            }
-          }
+          callerInfo = buildCallerInfo(queryContext, queryUri, cw, cursor);
 
           Log.d(this, "constructing CallerInfo object for token: " + token);
 
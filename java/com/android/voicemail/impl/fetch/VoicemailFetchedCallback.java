@@ -31,6 +31,7 @@ import com.android.dialer.common.Assert;
 import com.android.voicemail.impl.R;
 import com.android.voicemail.impl.VvmLog;
 import com.android.voicemail.impl.imap.VoicemailPayload;
+import com.android.voicemail.impl.mail.MessagingException;
 
 import org.apache.commons.io.IOUtils;
 
@@ -84,13 +85,14 @@ public class VoicemailFetchedCallback {
 
     try {
       outputStream = contentResolver.openOutputStream(uri);
-      byte[] inputBytes = voicemailPayload.getBytes();
-      if (inputBytes != null) {
-        outputStream.write(inputBytes);
-      }
+      long byteCount = voicemailPayload.writeTo(outputStream);
+      VvmLog.d(TAG, String.format("Wrote %s bytes of data", byteCount));
     } catch (IOException e) {
       VvmLog.w(TAG, String.format("File not found for %s", uri));
       return;
+    } catch (MessagingException e) {
+      VvmLog.w(TAG, String.format("Unable to read voicemail content for %s", uri));
+      return;
     } finally {
       IOUtils.closeQuietly(outputStream);
     }
@@ -21,7 +21,7 @@ import android.net.ConnectivityManager;
 import android.net.Network;
 import android.net.NetworkCapabilities;
 import android.telecom.PhoneAccountHandle;
-import android.util.Base64;
+import android.util.ArrayMap;
 
 import androidx.annotation.Nullable;
 
@@ -45,6 +45,7 @@ import com.android.voicemail.impl.mail.Message;
 import com.android.voicemail.impl.mail.MessagingException;
 import com.android.voicemail.impl.mail.Multipart;
 import com.android.voicemail.impl.mail.TempDirectory;
+import com.android.voicemail.impl.mail.internet.BinaryTempFileBody;
 import com.android.voicemail.impl.mail.internet.MimeMessage;
 import com.android.voicemail.impl.mail.store.ImapConnection;
 import com.android.voicemail.impl.mail.store.ImapFolder;
@@ -57,20 +58,24 @@ import com.android.voicemail.impl.sync.OmtpVvmSyncService.TranscriptionFetchedCa
 
 import org.apache.commons.io.IOUtils;
 
-import java.io.BufferedOutputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 
 /** A helper interface to abstract commands sent across IMAP interface for a given account. */
 public class ImapHelper implements Closeable {
 
   private static final String TAG = "ImapHelper";
 
+  /** Number of voicemails whose payloads are fetched with a single FETCH command. */
+  private static final int PAYLOAD_FETCH_BATCH_SIZE = 10;
+
   private ImapFolder folder;
   private final ImapStore imapStore;
 
@@ -225,11 +230,17 @@ public class ImapHelper implements Closeable {
       // This method retrieves lightweight messages containing only the uid of the message.
       messages = folder.getMessages(null);
 
+      // Get the voicemail details (message structure) of all messages in one FETCH, and then
+      // their transcriptions.
+      Map<String, MessageStructureWrapper> messageStructures = fetchMessageStructures(messages);
+      Map<String, String> transcriptions = fetchTranscriptions(messageStructures.values());
       for (Message message : messages) {
-        // Get the voicemail details (message structure).
-        MessageStructureWrapper messageStructureWrapper = fetchMessageStructure(message);
+        MessageStructureWrapper messageStructureWrapper =
+            messageStructures.get(message.getUid());
         if (messageStructureWrapper != null) {
-          result.add(getVoicemailFromMessageStructure(messageStructureWrapper));
+          result.add(
+              getVoicemailFromMessageStructure(
+                  messageStructureWrapper, transcriptions.get(message.getUid())));
         }
       }
       return result;
@@ -241,22 +252,12 @@ public class ImapHelper implements Closeable {
     }
   }
 
-  /**
-   * Extract voicemail details from the message structure. Also fetch transcription if a
-   * transcription exists.
-   */
+  /** Extract voicemail details from the message structure and its fetched transcription. */
   private Voicemail getVoicemailFromMessageStructure(
-      MessageStructureWrapper messageStructureWrapper) throws MessagingException {
+      MessageStructureWrapper messageStructureWrapper, @Nullable String transcription)
+      throws MessagingException {
     Message messageDetails = messageStructureWrapper.messageStructure;
 
-    TranscriptionFetchedListener listener = new TranscriptionFetchedListener();
-    if (messageStructureWrapper.transcriptionBodyPart != null) {
-      FetchProfile fetchProfile = new FetchProfile();
-      fetchProfile.add(messageStructureWrapper.transcriptionBodyPart);
-
-      folder.fetch(new Message[] {messageDetails}, fetchProfile, listener);
-    }
-
     // Found an audio attachment, this is a valid voicemail.
     long time = messageDetails.getSentDate().getTime();
     String number = getNumber(messageDetails.getFrom());
@@ -268,7 +269,7 @@ public class ImapHelper implements Closeable {
             .setSourcePackage(context.getPackageName())
             .setSourceData(messageDetails.getUid())
             .setIsRead(isRead)
-            .setTranscription(listener.getVoicemailTranscription());
+            .setTranscription(transcription);
     if (duration != null) {
       builder.setDuration(duration);
     }
@@ -305,7 +306,18 @@ public class ImapHelper implements Closeable {
    * @throws MessagingException if fetching the structure of the message fails
    */
   private MessageStructureWrapper fetchMessageStructure(Message message) throws MessagingException {
-    LogUtils.d(TAG, "Fetching message structure for " + message.getUid());
+    return fetchMessageStructures(new Message[] {message}).get(message.getUid());
+  }
+
+  /**
+   * Fetches the structure of the given messages with a single FETCH command, and returns the
+   * wrappers of the messages which are voicemails, keyed by UID.
+   *
+   * @throws MessagingException if fetching the structure of the messages fails
+   */
+  private Map<String, MessageStructureWrapper> fetchMessageStructures(Message[] messages)
+      throws MessagingException {
+    LogUtils.d(TAG, "Fetching message structure for " + messages.length + " messages");
 
     MessageStructureFetchedListener listener = new MessageStructureFetchedListener();
 
@@ -314,13 +326,61 @@ public class ImapHelper implements Closeable {
         Arrays.asList(
             FetchProfile.Item.FLAGS, FetchProfile.Item.ENVELOPE, FetchProfile.Item.STRUCTURE));
 
-    // The IMAP folder fetch method will call "messageRetrieved" on the listener when the
+    // The IMAP folder fetch method will call "messageRetrieved" on the listener when each
     // message is successfully retrieved.
-    folder.fetch(new Message[] {message}, fetchProfile, listener);
-    return listener.getMessageStructure();
+    folder.fetch(messages, fetchProfile, listener);
+    return listener.getMessageStructures();
+  }
+
+  /**
+   * Fetches the transcriptions of the given voicemails, and returns them keyed by UID.
+   *
+   * <p>A FETCH command can only request one body part, and every message it returns is decoded with
+   * that part's Content-Transfer-Encoding. Voicemails are therefore grouped by the part id and
+   * encoding of their transcription, which are usually the same for all of them, and each group is
+   * fetched with a single command.
+   */
+  private Map<String, String> fetchTranscriptions(
+      Collection<MessageStructureWrapper> messageStructureWrappers) throws MessagingException {
+    Map<String, List<MessageStructureWrapper>> wrappersByPart = new ArrayMap<>();
+    for (MessageStructureWrapper wrapper : messageStructureWrappers) {
+      if (wrapper.transcriptionBodyPart == null) {
+        continue;
+      }
+      String[] partIds =
+          wrapper.transcriptionBodyPart.getHeader(MimeHeader.HEADER_ANDROID_ATTACHMENT_STORE_DATA);
+      if (partIds == null) {
+        continue;
+      }
+      String[] encodings =
+          wrapper.transcriptionBodyPart.getHeader(MimeHeader.HEADER_CONTENT_TRANSFER_ENCODING);
+      // An absent encoding is decoded as 7bit, see ImapFolder.
+      String encoding =
+          encodings != null && encodings.length > 0 ? encodings[0].toLowerCase(Locale.US) : "7bit";
+      String key = partIds[0] + " " + encoding;
+      List<MessageStructureWrapper> wrappers = wrappersByPart.get(key);
+      if (wrappers == null) {
+        wrappers = new ArrayList<>();
+        wrappersByPart.put(key, wrappers);
+      }
+      wrappers.add(wrapper);
+    }
+
+    TranscriptionFetchedListener listener = new TranscriptionFetchedListener();
+    for (List<MessageStructureWrapper> wrappers : wrappersByPart.values()) {
+      Message[] messages = new Message[wrappers.size()];
+      for (int i = 0; i < messages.length; i++) {
+        messages[i] = wrappers.get(i).messageStructure;
+      }
+      FetchProfile fetchProfile = new FetchProfile();
+      fetchProfile.add(wrappers.get(0).transcriptionBodyPart);
+      folder.fetch(messages, fetchProfile, listener);
+    }
+    return listener.getVoicemailTranscriptions();
   }
 
   public boolean fetchVoicemailPayload(VoicemailFetchedCallback callback, final String uid) {
+    MessageBodyFetchedListener listener = new MessageBodyFetchedListener();
     try {
       folder = openImapFolder(ImapFolder.MODE_READ_WRITE);
       if (folder == null) {
@@ -331,31 +391,88 @@ public class ImapHelper implements Closeable {
       if (message == null) {
         return false;
       }
-      VoicemailPayload voicemailPayload = fetchVoicemailPayload(message);
-      callback.setVoicemailContent(voicemailPayload);
+      if (!fetchVoicemailPayloads(new Message[] {message}, listener)
+          || !listener.getVoicemailPayloads().containsKey(message.getUid())) {
+        return false;
+      }
+      callback.setVoicemailContent(listener.getVoicemailPayloads().get(message.getUid()));
       return true;
     } catch (MessagingException ignored) {
     } finally {
+      listener.deleteTempBodies();
       closeImapFolder();
     }
     return false;
   }
 
   /**
-   * Fetches the body of the given message and returns the parsed voicemail payload.
+   * Fetches the payloads of several voicemails over one open folder, with a FETCH command per batch
+   * of {@link #PAYLOAD_FETCH_BATCH_SIZE} messages, and hands each of them to its callback.
+   * Callbacks of voicemails without a payload are given null, like {@link
+   * #fetchVoicemailPayload(VoicemailFetchedCallback, String)} does. Voicemails missing from the
+   * responses, e.g. because a FETCH failed, are skipped, so that they are fetched again later.
    *
-   * @throws MessagingException if fetching the body of the message fails
+   * @param callbacks the callback of each voicemail, keyed by UID
+   * @return false if the folder could not be opened or a FETCH failed
    */
-  private VoicemailPayload fetchVoicemailPayload(Message message) throws MessagingException {
-    LogUtils.d(TAG, "Fetching message body for " + message.getUid());
-
+  public boolean fetchVoicemailPayloads(Map<String, VoicemailFetchedCallback> callbacks) {
+    if (callbacks.isEmpty()) {
+      return true;
+    }
     MessageBodyFetchedListener listener = new MessageBodyFetchedListener();
+    try {
+      folder = openImapFolder(ImapFolder.MODE_READ_WRITE);
+      if (folder == null) {
+        // This means we were unable to successfully open the folder.
+        return false;
+      }
+      // The UIDs come from a previous listing, so the messages don't need to be searched for.
+      Message[] messages = folder.getMessagesInternal(callbacks.keySet().toArray(new String[0]));
+      boolean succeeded = true;
+      for (int start = 0; start < messages.length; start += PAYLOAD_FETCH_BATCH_SIZE) {
+        succeeded &=
+            fetchVoicemailPayloads(
+                Arrays.copyOfRange(
+                    messages,
+                    start,
+                    Math.min(start + PAYLOAD_FETCH_BATCH_SIZE, messages.length)),
+                listener);
+      }
+      Map<String, VoicemailPayload> voicemailPayloads = listener.getVoicemailPayloads();
+      for (Map.Entry<String, VoicemailFetchedCallback> entry : callbacks.entrySet()) {
+        if (voicemailPayloads.containsKey(entry.getKey())) {
+          entry.getValue().setVoicemailContent(voicemailPayloads.get(entry.getKey()));
+        } else {
+          VvmLog.w(TAG, "Payload not fetched for " + entry.getKey() + ", skipping");
+        }
+      }
+      return succeeded;
+    } finally {
+      listener.deleteTempBodies();
+      closeImapFolder();
+    }
+  }
+
+  /**
+   * Fetches the bodies of the given messages with a single FETCH command, and collects the parsed
+   * voicemail payloads in {@code listener}, keyed by UID. The payloads received before the FETCH
+   * fails are kept.
+   *
+   * @return false if fetching the bodies of the messages failed
+   */
+  private boolean fetchVoicemailPayloads(Message[] messages, MessageBodyFetchedListener listener) {
+    LogUtils.d(TAG, "Fetching message body for " + messages.length + " messages");
 
     FetchProfile fetchProfile = new FetchProfile();
     fetchProfile.add(FetchProfile.Item.BODY);
 
-    folder.fetch(new Message[] {message}, fetchProfile, listener);
-    return listener.getVoicemailPayload();
+    try {
+      folder.fetch(messages, fetchProfile, listener);
+      return true;
+    } catch (MessagingException e) {
+      LogUtils.e(TAG, e, "Messaging Exception");
+      return false;
+    }
   }
 
   public boolean fetchTranscription(TranscriptionFetchedCallback callback, String uid) {
@@ -381,7 +498,8 @@ public class ImapHelper implements Closeable {
           // This method is called synchronously so the transcription will be populated
           // in the listener once the next method is called.
           folder.fetch(new Message[] {message}, fetchProfile, listener);
-          callback.setVoicemailTranscription(listener.getVoicemailTranscription());
+          callback.setVoicemailTranscription(
+              listener.getVoicemailTranscriptions().get(message.getUid()));
         }
       }
       return true;
@@ -534,12 +652,13 @@ public class ImapHelper implements Closeable {
   private final class MessageStructureFetchedListener
       implements ImapFolder.MessageRetrievalListener {
 
-    private MessageStructureWrapper messageStructure;
+    private final Map<String, MessageStructureWrapper> messageStructures = new ArrayMap<>();
 
     public MessageStructureFetchedListener() {}
 
-    public MessageStructureWrapper getMessageStructure() {
-      return messageStructure;
+    /** Returns the structures of the retrieved messages which are voicemails, keyed by UID. */
+    public Map<String, MessageStructureWrapper> getMessageStructures() {
+      return messageStructures;
     }
 
     @Override
@@ -547,14 +666,16 @@ public class ImapHelper implements Closeable {
       LogUtils.d(TAG, "Fetched message structure for " + message.getUid());
       LogUtils.d(TAG, "Message retrieved: " + message);
       try {
-        messageStructure = getMessageOrNull(message);
+        MessageStructureWrapper messageStructure = getMessageOrNull(message);
         if (messageStructure == null) {
           LogUtils.d(TAG, "This voicemail does not have an attachment...");
           return;
         }
+        messageStructures.put(message.getUid(), messageStructure);
       } catch (MessagingException e) {
+        // Only this message is skipped, the others of the same FETCH are still being read from
+        // the open folder.
         LogUtils.e(TAG, e, "Messaging Exception");
-        closeImapFolder();
       }
     }
 
@@ -600,19 +721,46 @@ public class ImapHelper implements Closeable {
   /** Listener for the message body being fetched. */
   private final class MessageBodyFetchedListener implements ImapFolder.MessageRetrievalListener {
 
-    private VoicemailPayload voicemailPayload;
+    private final Map<String, VoicemailPayload> voicemailPayloads = new ArrayMap<>();
+    private final List<Message> messages = new ArrayList<>();
+
+    /**
+     * Returns the fetched voicemail payloads, keyed by UID. Messages without an audio attachment
+     * map to null, and messages that couldn't be parsed are missing.
+     */
+    public Map<String, VoicemailPayload> getVoicemailPayloads() {
+      return voicemailPayloads;
+    }
+
+    /** Deletes the temp files backing the bodies fetched, unless they were read already. */
+    public void deleteTempBodies() {
+      for (Message message : messages) {
+        try {
+          deleteTempBody(message.getBody());
+        } catch (MessagingException e) {
+          LogUtils.e(TAG, "Messaging Exception:", e);
+        }
+      }
+    }
 
-    /** Returns the fetch voicemail payload. */
-    public VoicemailPayload getVoicemailPayload() {
-      return voicemailPayload;
+    private void deleteTempBody(Body body) throws MessagingException {
+      if (body instanceof BinaryTempFileBody) {
+        ((BinaryTempFileBody) body).delete();
+      } else if (body instanceof Multipart) {
+        Multipart multipart = (Multipart) body;
+        for (int i = 0; i < multipart.getCount(); ++i) {
+          deleteTempBody(multipart.getBodyPart(i).getBody());
+        }
+      }
     }
 
     @Override
     public void messageRetrieved(Message message) {
       LogUtils.d(TAG, "Fetched message body for " + message.getUid());
       LogUtils.d(TAG, "Message retrieved: " + message);
+      messages.add(message);
       try {
-        voicemailPayload = getVoicemailPayloadFromMessage(message);
+        voicemailPayloads.put(message.getUid(), getVoicemailPayloadFromMessage(message));
       } catch (MessagingException e) {
         LogUtils.e(TAG, "Messaging Exception:", e);
       } catch (IOException e) {
@@ -629,9 +777,7 @@ public class ImapHelper implements Closeable {
         String bodyPartMimeType = bodyPart.getMimeType().toLowerCase();
         mimeTypes.add(bodyPartMimeType);
         if (bodyPartMimeType.startsWith("audio/")) {
-          byte[] bytes = getDataFromBody(bodyPart.getBody());
-          LogUtils.d(TAG, String.format("Fetched %s bytes of data", bytes.length));
-          return new VoicemailPayload(bodyPartMimeType, bytes);
+          return new VoicemailPayload(bodyPartMimeType, bodyPart.getBody());
         }
       }
       LogUtils.e(TAG, "No audio attachment found on this voicemail, mimeTypes:" + mimeTypes);
@@ -642,18 +788,19 @@ public class ImapHelper implements Closeable {
   /** Listener for the transcription being fetched. */
   private final class TranscriptionFetchedListener implements ImapFolder.MessageRetrievalListener {
 
-    private String voicemailTranscription;
+    private final Map<String, String> voicemailTranscriptions = new ArrayMap<>();
 
-    /** Returns the fetched voicemail transcription. */
-    public String getVoicemailTranscription() {
-      return voicemailTranscription;
+    /** Returns the fetched voicemail transcriptions, keyed by UID. */
+    public Map<String, String> getVoicemailTranscriptions() {
+      return voicemailTranscriptions;
     }
 
     @Override
     public void messageRetrieved(Message message) {
       LogUtils.d(TAG, "Fetched transcription for " + message.getUid());
       try {
-        voicemailTranscription = new String(getDataFromBody(message.getBody()));
+        voicemailTranscriptions.put(
+            message.getUid(), new String(getDataFromBody(message.getBody())));
       } catch (MessagingException e) {
         LogUtils.e(TAG, "Messaging Exception:", e);
       } catch (IOException e) {
@@ -692,14 +839,9 @@ public class ImapHelper implements Closeable {
   }
 
   private byte[] getDataFromBody(Body body) throws IOException, MessagingException {
-    ByteArrayOutputStream out = new ByteArrayOutputStream();
-    BufferedOutputStream bufferedOut = new BufferedOutputStream(out);
-    try {
-      body.writeTo(bufferedOut);
-      return Base64.decode(out.toByteArray(), Base64.DEFAULT);
-    } finally {
-      IOUtils.closeQuietly(bufferedOut);
-      IOUtils.closeQuietly(out);
+    // The body is already decoded, reading it avoids encoding it to Base64 and back.
+    try (InputStream in = body.getInputStream()) {
+      return IOUtils.toByteArray(in);
     }
   }
 }
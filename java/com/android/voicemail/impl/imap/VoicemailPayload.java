@@ -16,18 +16,38 @@
 
 package com.android.voicemail.impl.imap;
 
-/** The payload for a voicemail, usually audio data. */
+import com.android.voicemail.impl.mail.Body;
+import com.android.voicemail.impl.mail.MessagingException;
+
+import org.apache.commons.io.IOUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * The payload for a voicemail, usually audio data.
+ *
+ * <p>The data stays in the body of the fetched message, which is backed by a temp file, until it is
+ * copied out with {@link #writeTo(OutputStream)}. This keeps the audio out of the heap.
+ */
 public class VoicemailPayload {
   private final String mimeType;
-  private final byte[] bytes;
+  private final Body body;
 
-  public VoicemailPayload(String mimeType, byte[] bytes) {
+  public VoicemailPayload(String mimeType, Body body) {
     this.mimeType = mimeType;
-    this.bytes = bytes;
+    this.body = body;
   }
 
-  public byte[] getBytes() {
-    return bytes;
+  /**
+   * Copies the decoded data to {@code out} through a small buffer and returns the number of bytes
+   * copied. The data can only be copied once.
+   */
+  public long writeTo(OutputStream out) throws IOException, MessagingException {
+    try (InputStream in = body.getInputStream()) {
+      return IOUtils.copyLarge(in, out);
+    }
   }
 
   public String getMimeType() {
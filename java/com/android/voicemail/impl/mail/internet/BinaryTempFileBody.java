@@ -57,6 +57,13 @@ public class BinaryTempFileBody implements Body {
     return Files.newOutputStream(file.toPath());
   }
 
+  /** Deletes the temp file without reading it. The Body should be considered disposed of. */
+  public void delete() {
+    if (file != null) {
+      file.delete();
+    }
+  }
+
   @Override
   public InputStream getInputStream() throws MessagingException {
     try {
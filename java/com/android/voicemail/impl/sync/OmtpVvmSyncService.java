@@ -262,14 +262,17 @@ public class OmtpVvmSyncService {
 
     // The leftover messages are messages that exist on the server but not locally.
     boolean prefetchEnabled = shouldPerformPrefetch(account, imapHelper);
+    Map<String, VoicemailFetchedCallback> fetchedCallbacks = new ArrayMap<>();
     for (Voicemail remoteVoicemail : remoteMap.values()) {
       Uri uri = VoicemailDatabaseUtil.insert(context, remoteVoicemail);
       if (prefetchEnabled) {
-        VoicemailFetchedCallback fetchedCallback =
-            new VoicemailFetchedCallback(context, uri, account);
-        imapHelper.fetchVoicemailPayload(fetchedCallback, remoteVoicemail.getSourceData());
+        fetchedCallbacks.put(
+            remoteVoicemail.getSourceData(), new VoicemailFetchedCallback(context, uri, account));
       }
     }
+    // Fetch all new payloads together rather than reopening the folder for each of them. Payloads
+    // that can't be fetched now are left to be fetched when the voicemail is played.
+    imapHelper.fetchVoicemailPayloads(fetchedCallbacks);
 
     return succeeded;
   }